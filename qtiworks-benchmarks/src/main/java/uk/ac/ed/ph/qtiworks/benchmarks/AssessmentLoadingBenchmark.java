@@ -0,0 +1,118 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.benchmarks;
+
+import uk.ac.ed.ph.jqtiplus.SimpleJqtiFacade;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.resolution.AssessmentObjectResolver;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestPlanner;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the work done when an assessment is first loaded for delivery: reading and
+ * resolving it (via {@link QtiObjectReader} and {@link AssessmentObjectResolver}),
+ * building the {@link ItemProcessingMap} or {@link TestProcessingMap}, and generating
+ * a {@link TestPlan}.
+ *
+ * @author David McKain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AssessmentLoadingBenchmark {
+
+    private URI itemUri;
+    private URI testUri;
+    private ResolvedAssessmentItem resolvedAssessmentItem;
+    private ResolvedAssessmentTest resolvedAssessmentTest;
+    private TestProcessingMap testProcessingMap;
+
+    @Setup
+    public void setup() {
+        itemUri = BenchmarkFixtures.getItemSampleUri();
+        testUri = BenchmarkFixtures.getTestSampleUri();
+        resolvedAssessmentItem = BenchmarkFixtures.resolveAssessmentItem(itemUri);
+        resolvedAssessmentTest = BenchmarkFixtures.resolveAssessmentTest(testUri);
+        testProcessingMap = new TestProcessingInitializer(resolvedAssessmentTest, true).initialize();
+    }
+
+    @Benchmark
+    public ResolvedAssessmentItem resolveAssessmentItem() {
+        return BenchmarkFixtures.resolveAssessmentItem(itemUri);
+    }
+
+    @Benchmark
+    public ResolvedAssessmentTest resolveAssessmentTest() {
+        return BenchmarkFixtures.resolveAssessmentTest(testUri);
+    }
+
+    @Benchmark
+    public ItemProcessingMap initializeItemProcessingMap() {
+        return new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+    }
+
+    @Benchmark
+    public TestProcessingMap initializeTestProcessingMap() {
+        return new TestProcessingInitializer(resolvedAssessmentTest, true).initialize();
+    }
+
+    @Benchmark
+    public TestPlan generateTestPlan() {
+        final TestPlanner testPlanner = new SimpleJqtiFacade().createTestPlanner(testProcessingMap);
+        return testPlanner.generateTestPlan();
+    }
+}
@@ -0,0 +1,131 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.benchmarks;
+
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the candidate-facing operations performed on each delivery request:
+ * response processing within an {@link ItemSessionController}, and navigation
+ * through a test using a {@link TestSessionController}.
+ * <p>
+ * This is run with and without compiled processing so that the two can be compared.
+ *
+ * @author David McKain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AssessmentRunningBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean compileProcessing;
+
+    private TestProcessingMap testProcessingMap;
+    private ItemSessionController itemSessionController;
+    private Map<Identifier, ResponseData> responseMap;
+    private Date timestamp;
+
+    @Setup
+    public void setup() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = BenchmarkFixtures.resolveAssessmentItem(BenchmarkFixtures.getItemSampleUri());
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true, compileProcessing).initialize();
+        final ResolvedAssessmentTest resolvedAssessmentTest = BenchmarkFixtures.resolveAssessmentTest(BenchmarkFixtures.getTestSampleUri());
+        testProcessingMap = new TestProcessingInitializer(resolvedAssessmentTest, true, compileProcessing).initialize();
+
+        /* (The sample item allows unlimited attempts, so we can keep processing responses to it) */
+        itemSessionController = BenchmarkFixtures.createEnteredItemSessionController(itemProcessingMap);
+        responseMap = BenchmarkFixtures.createResponseMap("ChoiceA");
+        timestamp = new Date();
+        itemSessionController.bindResponses(timestamp, responseMap);
+        itemSessionController.commitResponses(timestamp);
+    }
+
+    @Benchmark
+    public ItemSessionState performResponseProcessing() {
+        itemSessionController.performResponseProcessing(timestamp);
+        return itemSessionController.getItemSessionState();
+    }
+
+    @Benchmark
+    public ItemSessionState bindCommitAndProcessResponses() {
+        itemSessionController.bindResponses(timestamp, responseMap);
+        itemSessionController.commitResponses(timestamp);
+        itemSessionController.performResponseProcessing(timestamp);
+        return itemSessionController.getItemSessionState();
+    }
+
+    /**
+     * Runs through the whole of the sample test, from planning through to exiting
+     */
+    @Benchmark
+    public TestSessionState navigateTest() {
+        final TestSessionController testSessionController = BenchmarkFixtures.createTestSessionController(testProcessingMap);
+        BenchmarkFixtures.answerTestItems(testSessionController, timestamp);
+        testSessionController.endCurrentTestPart(timestamp);
+        testSessionController.enterNextAvailableTestPart(timestamp);
+        testSessionController.exitTest(timestamp);
+        return testSessionController.getTestSessionState();
+    }
+}
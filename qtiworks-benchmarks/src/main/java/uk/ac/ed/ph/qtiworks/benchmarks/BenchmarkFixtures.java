@@ -0,0 +1,200 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.benchmarks;
+
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+
+import uk.ac.ed.ph.jqtiplus.SimpleJqtiFacade;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.resolution.AssessmentObjectResolver;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.TestPlanner;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.net.URI;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates realistic JQTI+ objects and state from the QTI samples for use in the benchmarks.
+ *
+ * @author David McKain
+ */
+public final class BenchmarkFixtures {
+
+    /** Sample item used for item-based benchmarks */
+    public static final String ITEM_SAMPLE_HREF = "ims/choice.xml";
+
+    /** Sample test used for test-based benchmarks */
+    public static final String TEST_SAMPLE_HREF = "testimplementation/dave/test-nonlinear-individual.xml";
+
+    private static final Identifier RESPONSE = Identifier.assumedLegal("RESPONSE");
+
+    private BenchmarkFixtures() {
+        /* No instances */
+    }
+
+    public static URI getItemSampleUri() {
+        return QtiSampleAssessment.toClassPathUri(ITEM_SAMPLE_HREF);
+    }
+
+    public static URI getTestSampleUri() {
+        return QtiSampleAssessment.toClassPathUri(TEST_SAMPLE_HREF);
+    }
+
+    public static URI getSampleUri(final String href) {
+        return QtiSampleAssessment.toClassPathUri(href);
+    }
+
+    /**
+     * Reads and resolves the assessmentItem at the given URI, using the {@link QtiObjectReader}
+     * and {@link AssessmentObjectResolver} behind {@link SimpleJqtiFacade}.
+     */
+    public static ResolvedAssessmentItem resolveAssessmentItem(final URI itemUri) {
+        return new SimpleJqtiFacade().loadAndResolveAssessmentItem(new ClassPathResourceLocator(), itemUri);
+    }
+
+    /**
+     * Reads and resolves the assessmentTest at the given URI, along with the items it refers to.
+     */
+    public static ResolvedAssessmentTest resolveAssessmentTest(final URI testUri) {
+        return new SimpleJqtiFacade().loadAndResolveAssessmentTest(new ClassPathResourceLocator(), testUri);
+    }
+
+    public static ItemProcessingMap createItemProcessingMap(final URI itemUri) {
+        return new ItemProcessingInitializer(resolveAssessmentItem(itemUri), true).initialize();
+    }
+
+    public static TestProcessingMap createTestProcessingMap(final URI testUri) {
+        return new TestProcessingInitializer(resolveAssessmentTest(testUri), true).initialize();
+    }
+
+    /**
+     * Runs the sample item through a typical candidate attempt, returning the resulting
+     * {@link ItemSessionState}.
+     */
+    public static ItemSessionState createAnsweredItemSessionState() {
+        final ItemSessionController itemSessionController = createEnteredItemSessionController(createItemProcessingMap(getItemSampleUri()));
+        final Date timestamp = new Date();
+        itemSessionController.bindResponses(timestamp, createResponseMap("ChoiceA"));
+        itemSessionController.commitResponses(timestamp);
+        itemSessionController.performResponseProcessing(timestamp);
+        return itemSessionController.getItemSessionState();
+    }
+
+    /**
+     * Creates an {@link ItemSessionController} for a fresh {@link ItemSessionState}, then
+     * initializes and enters the item.
+     */
+    public static ItemSessionController createEnteredItemSessionController(final ItemProcessingMap itemProcessingMap) {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new SimpleJqtiFacade().createItemSessionController(new ItemSessionControllerSettings(),
+                itemProcessingMap, itemSessionState);
+
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+        return itemSessionController;
+    }
+
+    /**
+     * Runs the sample test, visiting and responding to each item, returning the resulting
+     * {@link TestSessionState}.
+     */
+    public static TestSessionState createAnsweredTestSessionState() {
+        final TestProcessingMap testProcessingMap = createTestProcessingMap(getTestSampleUri());
+        final TestSessionController testSessionController = createTestSessionController(testProcessingMap);
+        answerTestItems(testSessionController, new Date());
+        return testSessionController.getTestSessionState();
+    }
+
+    /**
+     * Creates a {@link TestSessionController} for a fresh {@link TestSessionState}, using a
+     * newly-generated {@link TestPlan}.
+     */
+    public static TestSessionController createTestSessionController(final TestProcessingMap testProcessingMap) {
+        final SimpleJqtiFacade simpleJqtiFacade = new SimpleJqtiFacade();
+        final TestPlanner testPlanner = simpleJqtiFacade.createTestPlanner(testProcessingMap);
+        final TestPlan testPlan = testPlanner.generateTestPlan();
+        final TestSessionState testSessionState = new TestSessionState(testPlan);
+        return simpleJqtiFacade.createTestSessionController(new TestSessionControllerSettings(),
+                testProcessingMap, testSessionState);
+    }
+
+    /**
+     * Enters the test controlled by the given {@link TestSessionController}, then selects
+     * and responds to each of the items in its first (nonlinear) testPart.
+     */
+    public static void answerTestItems(final TestSessionController testSessionController, final Date timestamp) {
+        final TestPlan testPlan = testSessionController.getTestSessionState().getTestPlan();
+        testSessionController.initialize(timestamp);
+        testSessionController.enterTest(timestamp);
+        testSessionController.enterNextAvailableTestPart(timestamp);
+        for (final TestPlanNode itemRefNode : testPlan.searchNodes(TestNodeType.ASSESSMENT_ITEM_REF)) {
+            if (testSessionController.maySelectItemNonlinear(itemRefNode.getKey())) {
+                testSessionController.selectItemNonlinear(timestamp, itemRefNode.getKey());
+                testSessionController.handleResponsesToCurrentItem(timestamp, createResponseMap("2"));
+            }
+        }
+    }
+
+    /**
+     * Creates a response map binding the given string to the <code>RESPONSE</code> variable,
+     * which is what the samples used here call their (sole) response variable.
+     */
+    public static Map<Identifier, ResponseData> createResponseMap(final String response) {
+        final Map<Identifier, ResponseData> responseMap = new HashMap<Identifier, ResponseData>();
+        responseMap.put(RESPONSE, new StringResponseData(response));
+        return responseMap;
+    }
+}
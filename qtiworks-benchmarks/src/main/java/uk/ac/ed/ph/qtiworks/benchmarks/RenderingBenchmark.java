@@ -0,0 +1,185 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.benchmarks;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
+import uk.ac.ed.ph.qtiworks.rendering.AbstractRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentRenderer;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingSourceCache;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingStateCache;
+import uk.ac.ed.ph.qtiworks.rendering.SerializationMethod;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingOptions;
+import uk.ac.ed.ph.qtiworks.rendering.TestRenderingRequest;
+
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Measures the cost of rendering an item and a test using {@link AssessmentRenderer},
+ * with the output being discarded.
+ * <p>
+ * This is run with and without the {@link RenderingSourceCache} and {@link RenderingStateCache},
+ * which QTIWorks uses by default, and with and without the adaptive pipeline that leaves out the
+ * MathML C-to-P stage when it's not needed. (The sample item and test contain no MathML, and
+ * the adaptive pipeline only kicks in when caching.)
+ *
+ * @author David McKain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RenderingBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean caching;
+
+    @Param({ "true", "false" })
+    public boolean adaptivePipeline;
+
+    private AssessmentRenderer assessmentRenderer;
+    private ItemRenderingRequest itemRenderingRequest;
+    private TestRenderingRequest testRenderingRequest;
+
+    @Setup
+    public void setup() {
+        final int cacheSize = caching ? 64 : 0;
+        final LocalValidatorFactoryBean validator = new LocalValidatorFactoryBean();
+        validator.afterPropertiesSet();
+        final QtiWorksProperties qtiWorksProperties = new QtiWorksProperties();
+        qtiWorksProperties.setQtiWorksVersion("BENCHMARK");
+
+        assessmentRenderer = new AssessmentRenderer();
+        assessmentRenderer.setQtiWorksProperties(qtiWorksProperties);
+        assessmentRenderer.setJsr303Validator(validator);
+        assessmentRenderer.setXsltStylesheetCache(new SimpleXsltStylesheetCache());
+        assessmentRenderer.setRenderingSourceCache(new RenderingSourceCache(cacheSize));
+        assessmentRenderer.setRenderingStateCache(new RenderingStateCache(cacheSize));
+        assessmentRenderer.setWebappContextPath("/qtiworks");
+        assessmentRenderer.setAdaptivePipeline(adaptivePipeline);
+        assessmentRenderer.init();
+
+        /* Set up item, as it would be after being entered */
+        final ItemSessionController itemSessionController = BenchmarkFixtures.createEnteredItemSessionController(BenchmarkFixtures.createItemProcessingMap(BenchmarkFixtures.getItemSampleUri()));
+        final ItemRenderingOptions itemRenderingOptions = new ItemRenderingOptions();
+        setBaseRenderingOptions(itemRenderingOptions);
+        itemRenderingOptions.setEndUrl("/close");
+        itemRenderingOptions.setSoftResetUrl("/reset-soft");
+        itemRenderingOptions.setHardResetUrl("/reset-hard");
+        itemRenderingOptions.setSolutionUrl("/solution");
+        itemRenderingOptions.setExitUrl("/terminate");
+
+        itemRenderingRequest = new ItemRenderingRequest();
+        itemRenderingRequest.setAssessmentResourceLocator(new ClassPathResourceLocator());
+        itemRenderingRequest.setAssessmentResourceUri(BenchmarkFixtures.getItemSampleUri());
+        itemRenderingRequest.setAssessmentSourceKey("item");
+        itemRenderingRequest.setSessionStateKey("item-entered");
+        itemRenderingRequest.setRenderingOptions(itemRenderingOptions);
+        itemRenderingRequest.setItemSessionState(itemSessionController.getItemSessionState());
+        itemRenderingRequest.setEndAllowed(true);
+        itemRenderingRequest.setSolutionAllowed(true);
+        itemRenderingRequest.setSoftResetAllowed(true);
+        itemRenderingRequest.setHardResetAllowed(true);
+
+        /* Set up test, with all items answered and the last one selected */
+        final TestSessionController testSessionController = BenchmarkFixtures.createTestSessionController(BenchmarkFixtures.createTestProcessingMap(BenchmarkFixtures.getTestSampleUri()));
+        BenchmarkFixtures.answerTestItems(testSessionController, new Date());
+        final TestRenderingOptions testRenderingOptions = new TestRenderingOptions();
+        setBaseRenderingOptions(testRenderingOptions);
+        testRenderingOptions.setTestPartNavigationUrl("/test-part-navigation");
+        testRenderingOptions.setSelectTestItemUrl("/select-item");
+        testRenderingOptions.setAdvanceTestItemUrl("/finish-item");
+        testRenderingOptions.setEndTestPartUrl("/end-test-part");
+        testRenderingOptions.setReviewTestPartUrl("/review-test-part");
+        testRenderingOptions.setReviewTestItemUrl("/review-item");
+        testRenderingOptions.setShowTestItemSolutionUrl("/item-solution");
+        testRenderingOptions.setAdvanceTestPartUrl("/advance-test-part");
+        testRenderingOptions.setExitTestUrl("/exit-test");
+
+        testRenderingRequest = new TestRenderingRequest();
+        testRenderingRequest.setAssessmentResourceLocator(new ClassPathResourceLocator());
+        testRenderingRequest.setAssessmentResourceUri(BenchmarkFixtures.getTestSampleUri());
+        testRenderingRequest.setAssessmentSourceKey("test");
+        testRenderingRequest.setSessionStateKey("test-answered");
+        testRenderingRequest.setRenderingOptions(testRenderingOptions);
+        testRenderingRequest.setTestSessionController(testSessionController);
+    }
+
+    private static void setBaseRenderingOptions(final AbstractRenderingOptions renderingOptions) {
+        renderingOptions.setSerializationMethod(SerializationMethod.HTML5_MATHJAX);
+        renderingOptions.setServeFileUrl("/file");
+        renderingOptions.setResponseUrl("/response");
+        renderingOptions.setAuthorViewUrl("/author-view");
+        renderingOptions.setSourceUrl("/source");
+        renderingOptions.setStateUrl("/state");
+        renderingOptions.setResultUrl("/result");
+        renderingOptions.setValidationUrl("/validation");
+    }
+
+    @Benchmark
+    public void renderItem() {
+        assessmentRenderer.renderItem(itemRenderingRequest, null, new StreamResult(ByteStreams.nullOutputStream()));
+    }
+
+    @Benchmark
+    public void renderTest() {
+        assessmentRenderer.renderTest(testRenderingRequest, null, new StreamResult(ByteStreams.nullOutputStream()));
+    }
+}
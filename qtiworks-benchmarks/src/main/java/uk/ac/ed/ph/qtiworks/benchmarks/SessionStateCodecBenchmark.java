@@ -0,0 +1,127 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.benchmarks;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.SessionStateCodec;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.XmlSessionStateCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of encoding and decoding {@link ItemSessionState} and
+ * {@link TestSessionState} snapshots using each available {@link SessionStateCodec}.
+ * <p>
+ * The size of each encoded snapshot is logged during setup, giving the bytes per
+ * snapshot figure for each format.
+ *
+ * @author David McKain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SessionStateCodecBenchmark {
+
+    @Param({ "xml", "binary" })
+    public String format;
+
+    private SessionStateCodec codec;
+    private ItemSessionState itemSessionState;
+    private TestSessionState testSessionState;
+    private byte[] encodedItemSessionState;
+    private byte[] encodedTestSessionState;
+
+    @Setup
+    public void setup() throws IOException {
+        if ("xml".equals(format)) {
+            codec = new XmlSessionStateCodec(false);
+        }
+        else if ("binary".equals(format)) {
+            codec = new BinarySessionStateCodec();
+        }
+        else {
+            throw new IllegalArgumentException("Unexpected format " + format);
+        }
+        itemSessionState = BenchmarkFixtures.createAnsweredItemSessionState();
+        testSessionState = BenchmarkFixtures.createAnsweredTestSessionState();
+        encodedItemSessionState = encodeItemSessionState();
+        encodedTestSessionState = encodeTestSessionState();
+        System.out.println("Bytes per snapshot using " + format + ": item=" + encodedItemSessionState.length
+                + ", test=" + encodedTestSessionState.length);
+    }
+
+    @Benchmark
+    public byte[] encodeItemSessionState() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encodeItemSessionState(itemSessionState, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public ItemSessionState decodeItemSessionState() throws IOException {
+        return codec.decodeItemSessionState(new ByteArrayInputStream(encodedItemSessionState));
+    }
+
+    @Benchmark
+    public byte[] encodeTestSessionState() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encodeTestSessionState(testSessionState, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public TestSessionState decodeTestSessionState() throws IOException {
+        return codec.decodeTestSessionState(new ByteArrayInputStream(encodedTestSessionState));
+    }
+}
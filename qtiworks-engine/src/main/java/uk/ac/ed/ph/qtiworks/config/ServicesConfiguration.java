@@ -35,6 +35,8 @@ package uk.ac.ed.ph.qtiworks.config;
 
 import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.mathassess.MathAssessExtensionPackage;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingSourceCache;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingStateCache;
 import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
@@ -112,6 +114,16 @@ public class ServicesConfiguration {
         final Properties jpaProperties = new Properties();
         jpaProperties.put("hibernate.dialect", qtiWorksDeploymentSettings.getHibernateDialect());
         jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.TRUE);
+
+        /* Send inserts & updates to the DB in JDBC batches. (Grouping these by entity
+         * means that each candidate action results in a small number of batches.) */
+        final int jdbcBatchSize = qtiWorksDeploymentSettings.getJdbcBatchSize();
+        if (jdbcBatchSize > 0) {
+            jpaProperties.put("hibernate.jdbc.batch_size", Integer.toString(jdbcBatchSize));
+            jpaProperties.put("hibernate.jdbc.batch_versioned_data", Boolean.TRUE);
+            jpaProperties.put("hibernate.order_inserts", Boolean.TRUE);
+            jpaProperties.put("hibernate.order_updates", Boolean.TRUE);
+        }
         jpaProperties.putAll(extraJpaProperties);
         return jpaProperties;
     }
@@ -156,6 +168,16 @@ public class ServicesConfiguration {
         return new SimpleXsltStylesheetCache();
     }
 
+    @Bean
+    public RenderingSourceCache renderingSourceCache() {
+        return new RenderingSourceCache(qtiWorksDeploymentSettings.getRenderingSourceCacheSize());
+    }
+
+    @Bean
+    public RenderingStateCache renderingStateCache() {
+        return new RenderingStateCache(qtiWorksDeploymentSettings.getRenderingStateCacheSize());
+    }
+
     @Bean(initMethod="init", destroyMethod="destroy")
     public JqtiExtensionManager jqtiExtensionManager() {
         final List<JqtiExtensionPackage<?>> extensionPackages = new ArrayList<JqtiExtensionPackage<?>>();
@@ -67,6 +67,21 @@ public final class QtiWorksDeploymentSettings implements Serializable {
     private @Value("${qtiworks.web.authn.fake.login:}") String fakeLoginName; /* (Optional - default null) */
     private @Value("${qtiworks.features.publicdemos:false}") boolean publicDemosEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.features.rest:false}") boolean restEnabled; /* (Optional - default false) */
+    private @Value("${qtiworks.state.format:xml}") String stateFormat; /* (Optional - default xml) */
+    private @Value("${qtiworks.state.checkpointInterval:1}") int stateCheckpointInterval; /* (Optional - default 1) */
+    private @Value("${qtiworks.state.cacheSize:1000}") int stateCacheSize; /* (Optional - default 1000) */
+    private @Value("${qtiworks.assessments.cacheMaxNodes:200000}") long assessmentCacheMaxNodes; /* (Optional - default 200000) */
+    private @Value("${qtiworks.assessments.prewarm:false}") boolean assessmentCachePrewarm; /* (Optional - default false) */
+    private @Value("${qtiworks.assessments.sharedCacheSize:500}") int assessmentSharedCacheSize; /* (Optional - default 500) */
+    private @Value("${qtiworks.assets.publicUrls:false}") boolean publicAssetUrls; /* (Optional - default false) */
+    private @Value("${qtiworks.rendering.sourceCacheSize:500}") int renderingSourceCacheSize; /* (Optional - default 500) */
+    private @Value("${qtiworks.rendering.stateCacheSize:200}") int renderingStateCacheSize; /* (Optional - default 200) */
+    private @Value("${qtiworks.processing.compile:true}") boolean compileProcessing; /* (Optional - default true) */
+    private @Value("${qtiworks.jdbc.batchSize:50}") int jdbcBatchSize; /* (Optional - default 50) */
+    private @Value("${qtiworks.export.threads:0}") int exportThreads; /* (Optional - default 0, meaning number of CPUs) */
+    private @Value("${qtiworks.export.dbThreads:2}") int exportDbThreads; /* (Optional - default 2) */
+    private @Value("${qtiworks.lti.outcomeThreads:8}") int ltiOutcomeThreads; /* (Optional - default 8) */
+    private @Value("${qtiworks.lti.outcomeConsumerConcurrency:2}") int ltiOutcomeConsumerConcurrency; /* (Optional - default 2) */
 
 
     public String getJdbcDriverClassName() {
@@ -121,6 +136,66 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return restEnabled;
     }
 
+    public String getStateFormat() {
+        return stateFormat;
+    }
+
+    public int getStateCheckpointInterval() {
+        return stateCheckpointInterval;
+    }
+
+    public int getStateCacheSize() {
+        return stateCacheSize;
+    }
+
+    public long getAssessmentCacheMaxNodes() {
+        return assessmentCacheMaxNodes;
+    }
+
+    public boolean isAssessmentCachePrewarm() {
+        return assessmentCachePrewarm;
+    }
+
+    public int getAssessmentSharedCacheSize() {
+        return assessmentSharedCacheSize;
+    }
+
+    public boolean isPublicAssetUrls() {
+        return publicAssetUrls;
+    }
+
+    public int getRenderingSourceCacheSize() {
+        return renderingSourceCacheSize;
+    }
+
+    public int getRenderingStateCacheSize() {
+        return renderingStateCacheSize;
+    }
+
+    public boolean isCompileProcessing() {
+        return compileProcessing;
+    }
+
+    public int getJdbcBatchSize() {
+        return jdbcBatchSize;
+    }
+
+    public int getExportThreads() {
+        return exportThreads;
+    }
+
+    public int getExportDbThreads() {
+        return exportDbThreads;
+    }
+
+    public int getLtiOutcomeThreads() {
+        return ltiOutcomeThreads;
+    }
+
+    public int getLtiOutcomeConsumerConcurrency() {
+        return ltiOutcomeConsumerConcurrency;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
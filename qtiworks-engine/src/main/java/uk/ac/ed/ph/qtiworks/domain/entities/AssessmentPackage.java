@@ -40,6 +40,7 @@ import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
 import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.Basic;
@@ -55,6 +56,7 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.MapKeyColumn;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.SequenceGenerator;
@@ -62,6 +64,7 @@ import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.MapKeyType;
 import org.hibernate.annotations.Type;
 
 /**
@@ -95,7 +98,13 @@ import org.hibernate.annotations.Type;
     @NamedQuery(name="AssessmentPackage.getAll",
             query="SELECT ap"
                 + "  FROM AssessmentPackage ap"
-                + "  LEFT JOIN FETCH ap.assessment a")
+                + "  LEFT JOIN FETCH ap.assessment a"),
+    @NamedQuery(name="AssessmentPackage.getSelectedForOpenDeliveries",
+            query="SELECT DISTINCT ap"
+                + "  FROM Delivery d"
+                + "  JOIN d.assessment a"
+                + "  JOIN a.selectedAssessmentPackage ap"
+                + "  WHERE d.open = TRUE")
 })
 public class AssessmentPackage implements BaseEntity, TimestampedOnCreation {
 
@@ -219,6 +228,18 @@ public class AssessmentPackage implements BaseEntity, TimestampedOnCreation {
     @Column(name="href")
     private Set<String> safeFileHrefs;
 
+    /**
+     * SHA-1 hashes (in hex) of the content of each safe file, keyed on href. These are computed
+     * on import and used to create content-addressed URLs for these files. This will be empty
+     * for packages imported before this was added.
+     */
+    @ElementCollection(fetch=FetchType.LAZY)
+    @CollectionTable(name="assessment_package_file_hashes", joinColumns=@JoinColumn(name="apid"))
+    @MapKeyColumn(name="href")
+    @MapKeyType(@Type(type="org.hibernate.type.TextType"))
+    @Column(name="content_hash", length=40)
+    private Map<String, String> fileContentHashes;
+
     //------------------------------------------------------------
 
     @Override
@@ -385,6 +406,15 @@ public class AssessmentPackage implements BaseEntity, TimestampedOnCreation {
         this.safeFileHrefs = fileHrefs;
     }
 
+
+    public Map<String, String> getFileContentHashes() {
+        return fileContentHashes;
+    }
+
+    public void setFileContentHashes(final Map<String, String> fileContentHashes) {
+        this.fileContentHashes = fileContentHashes;
+    }
+
     //------------------------------------------------------------
 
     @Override
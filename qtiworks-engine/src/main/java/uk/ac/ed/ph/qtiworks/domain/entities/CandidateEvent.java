@@ -74,7 +74,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_events")
-@SequenceGenerator(name="candidateEventSequence", sequenceName="candidate_event_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="candidateEventSequence", sequenceName="candidate_event_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="CandidateEvent.getForSession",
             query="SELECT xe"
@@ -85,6 +85,18 @@ import org.hibernate.annotations.Type;
             query="SELECT xe"
                 + "  FROM CandidateEvent xe"
                 + "  WHERE xe.candidateSession = :candidateSession"
+                + "  ORDER BY xe.id DESC"),
+    @NamedQuery(name="CandidateEvent.getForSessionReversedUpTo",
+            query="SELECT xe"
+                + "  FROM CandidateEvent xe"
+                + "  WHERE xe.candidateSession = :candidateSession"
+                + "    AND xe.id <= :lastEventId"
+                + "  ORDER BY xe.id DESC"),
+    @NamedQuery(name="CandidateEvent.getForSessionReversedBefore",
+            query="SELECT xe"
+                + "  FROM CandidateEvent xe"
+                + "  WHERE xe.candidateSession = :candidateSession"
+                + "    AND xe.id < :eventId"
                 + "  ORDER BY xe.id DESC")
 })
 public class CandidateEvent implements BaseEntity {
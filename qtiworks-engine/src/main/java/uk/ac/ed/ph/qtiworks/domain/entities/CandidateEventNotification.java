@@ -65,7 +65,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_event_notifications")
-@SequenceGenerator(name="candidateEventNotificationSequence", sequenceName="candidate_event_notification_sequence", initialValue=1, allocationSize=10)
+@SequenceGenerator(name="candidateEventNotificationSequence", sequenceName="candidate_event_notification_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="CandidateEventNotification.getForEvent",
             query="SELECT n"
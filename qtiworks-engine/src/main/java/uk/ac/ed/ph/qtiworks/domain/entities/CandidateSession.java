@@ -74,7 +74,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_sessions")
-@SequenceGenerator(name="candidateSessionSequence", sequenceName="candidate_session_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="candidateSessionSequence", sequenceName="candidate_session_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="CandidateSession.getForCandidate",
             query="SELECT x"
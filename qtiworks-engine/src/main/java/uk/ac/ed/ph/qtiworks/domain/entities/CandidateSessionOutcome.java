@@ -65,7 +65,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_session_outcomes")
-@SequenceGenerator(name="candidateSessionOutcomeSequence", sequenceName="candidate_session_outcome_sequence", initialValue=1, allocationSize=10)
+@SequenceGenerator(name="candidateSessionOutcomeSequence", sequenceName="candidate_session_outcome_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="CandidateSessionOutcome.getForSession",
             query="SELECT xo"
@@ -77,6 +77,21 @@ import org.hibernate.annotations.Type;
                 + "  FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession.delivery = :delivery"
                 + "  ORDER BY xo.candidateSession.xid, xo.id"),
+    @NamedQuery(name="CandidateSessionOutcome.getOutcomeTypesForDelivery",
+            query="SELECT xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.candidateSession.delivery = :delivery"
+                + "  GROUP BY xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  ORDER BY MIN(xo.candidateSession.xid), MIN(xo.id)"),
+    @NamedQuery(name="CandidateSessionOutcome.getSummaryDataForDelivery",
+            query="SELECT x.xid, x.creationTime, u.firstName, u.lastName, u.emailAddress,"
+                + "    x.finishTime, x.terminationTime, x.exploded, x.lisOutcomeReportingStatus, x.lisScore,"
+                + "    xo.outcomeIdentifier, xo.baseType, xo.cardinality, xo.stringValue"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  JOIN xo.candidateSession x"
+                + "  JOIN x.candidate u"
+                + "  WHERE x.delivery = :delivery"
+                + "  ORDER BY x.xid, xo.id"),
     @NamedQuery(name="CandidateSessionOutcome.deleteForSession",
             query="DELETE FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession = :candidateSession")
@@ -118,7 +133,7 @@ public class CandidateSessionOutcome implements BaseEntity {
     @Lob
     @Type(type="org.hibernate.type.TextType")
     @Basic(optional=false)
-    @Column(name="string_value", updatable=false)
+    @Column(name="string_value")
     private String stringValue;
 
     //------------------------------------------------------------
@@ -66,7 +66,7 @@ import javax.persistence.UniqueConstraint;
 @Table(name="lti_nonces",
     uniqueConstraints=@UniqueConstraint(columnNames={"consumer_key", "nonce"})
 )
-@SequenceGenerator(name="ltiNonceSequence", sequenceName="lti_nonce_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="ltiNonceSequence", sequenceName="lti_nonce_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="LtiNonce.findByNonceAndConsumerKey",
             query="SELECT ln"
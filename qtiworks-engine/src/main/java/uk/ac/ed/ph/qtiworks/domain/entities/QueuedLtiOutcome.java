@@ -70,7 +70,7 @@ import javax.persistence.TemporalType;
  */
 @Entity
 @Table(name="queued_lti_outcomes")
-@SequenceGenerator(name="queuedLtiOutcomeSequence", sequenceName="queued_lti_outcome_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="queuedLtiOutcomeSequence", sequenceName="queued_lti_outcome_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     /* Retrieves all queued outcomes, in insertion order */
     @NamedQuery(name="QueuedLtiOutcome.getAllQueuedOutcomes",
@@ -78,6 +78,33 @@ import javax.persistence.TemporalType;
                 + "  FROM QueuedLtiOutcome q"
                 + "  ORDER BY q.id"),
 
+    /* Retrieves the next page of queued outcomes after the given ID, in insertion order */
+    @NamedQuery(name="QueuedLtiOutcome.getQueuedOutcomesPage",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  JOIN FETCH q.candidateSession"
+                + "  WHERE q.id > :afterId"
+                + "  ORDER BY q.id"),
+
+    /* Retrieves the next page of queued outcomes after the given ID that are due to be sent, in insertion order */
+    @NamedQuery(name="QueuedLtiOutcome.getDueQueuedOutcomesPage",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  JOIN FETCH q.candidateSession"
+                + "  WHERE q.id > :afterId"
+                + "    AND (q.retryTime IS NULL OR q.retryTime < :now)"
+                + "  ORDER BY q.id"),
+
+    /* Retrieves queued outcomes that have been superseded by a later outcome for the same CandidateSession */
+    @NamedQuery(name="QueuedLtiOutcome.getSupersededQueuedOutcomes",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE EXISTS ("
+                + "    SELECT q2 FROM QueuedLtiOutcome q2"
+                + "    WHERE q2.candidateSession = q.candidateSession"
+                + "      AND q2.id > q.id"
+                + "  )"
+                + "  ORDER BY q.id"),
 })
 public class QueuedLtiOutcome implements BaseEntity, TimestampedOnCreation {
 
@@ -61,6 +61,14 @@ public abstract class AbstractRenderingOptions implements Serializable {
     @NotNull
     private String serveFileUrl;
 
+    /**
+     * (Optional) Base URL for serving files within the assessment via public, content-addressed
+     * URLs, where these are enabled.
+     *
+     * @see AbstractRenderingRequest#getAssetUrlsLoader()
+     */
+    private String publicAssetUrl;
+
     @NotNull
     private String authorViewUrl;
 
@@ -123,6 +131,15 @@ public abstract class AbstractRenderingOptions implements Serializable {
     }
 
 
+    public String getPublicAssetUrl() {
+        return publicAssetUrl;
+    }
+
+    public void setPublicAssetUrl(final String publicAssetUrl) {
+        this.publicAssetUrl = publicAssetUrl;
+    }
+
+
     public String getAuthorViewUrl() {
         return authorViewUrl;
     }
@@ -37,6 +37,8 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -61,6 +63,31 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     @NotNull
     private URI assessmentResourceUri;
 
+    /**
+     * Optional key identifying the group of assessment files being rendered. If set, the
+     * {@link AssessmentRenderer} will cache these files in its {@link RenderingSourceCache}
+     * (if it has one), so the files must not change while this key is in use.
+     */
+    private String assessmentSourceKey;
+
+    /**
+     * Optional key identifying the exact session state being rendered. If set, the
+     * {@link AssessmentRenderer} will cache the XML it builds for this state in its
+     * {@link RenderingStateCache} (if it has one), so the state must not change while this
+     * key is in use.
+     */
+    private String sessionStateKey;
+
+    /**
+     * Optional loader for URLs (within the webapp) to use when linking to particular files within
+     * the assessment, keyed on the system IDs of these files. Links to any other files will use the
+     * {@link AbstractRenderingOptions#getServeFileUrl()}.
+     * <p>
+     * The results are cached in the {@link RenderingSourceCache} under the assessmentSourceKey,
+     * so this is only called occasionally and must always produce the same URLs for a given key.
+     */
+    private Callable<Map<String, String>> assetUrlsLoader;
+
     private boolean authorMode;
 
     /* Validation information copied from AssessmentPackage */
@@ -99,6 +126,33 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     }
 
 
+    public String getAssessmentSourceKey() {
+        return assessmentSourceKey;
+    }
+
+    public void setAssessmentSourceKey(final String assessmentSourceKey) {
+        this.assessmentSourceKey = assessmentSourceKey;
+    }
+
+
+    public String getSessionStateKey() {
+        return sessionStateKey;
+    }
+
+    public void setSessionStateKey(final String sessionStateKey) {
+        this.sessionStateKey = sessionStateKey;
+    }
+
+
+    public Callable<Map<String, String>> getAssetUrlsLoader() {
+        return assetUrlsLoader;
+    }
+
+    public void setAssetUrlsLoader(final Callable<Map<String, String>> assetUrlsLoader) {
+        this.assetUrlsLoader = assetUrlsLoader;
+    }
+
+
     public boolean isValidated() {
         return validated;
     }
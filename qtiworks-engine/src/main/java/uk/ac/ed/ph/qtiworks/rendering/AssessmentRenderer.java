@@ -60,26 +60,34 @@ import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.Map.Entry;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.om.NodeInfo;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Validator;
-import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
@@ -130,6 +138,27 @@ public class AssessmentRenderer {
     @Resource
     private String webappContextPath;
 
+    /** Optional cache of parsed assessment XML, which may be null */
+    @Resource
+    private RenderingSourceCache renderingSourceCache;
+
+    /** Optional cache of the session state XML passed to the XSLT, which may be null */
+    @Resource
+    private RenderingStateCache renderingStateCache;
+
+    /**
+     * Whether to leave out pipeline stages that the {@link RenderingSourceFeatures} of the
+     * XML being rendered say aren't needed. (This only happens when a {@link RenderingSourceCache}
+     * is being used.)
+     */
+    private boolean adaptivePipeline = true;
+
+    /** Non-caching {@link RenderingStateCache} used if we haven't been given one */
+    private final RenderingStateCache uncachedStateBuilder = new RenderingStateCache(0);
+
+    /** Non-caching {@link RenderingSourceCache} used to build asset URLs if we haven't been given one */
+    private final RenderingSourceCache uncachedSourceBuilder = new RenderingSourceCache(0);
+
     /** Manager for the XSLT stylesheets, created during init. */
     private XsltStylesheetManager stylesheetManager;
 
@@ -170,11 +199,58 @@ public class AssessmentRenderer {
         this.webappContextPath = webappContextPath;
     }
 
+
+    public RenderingSourceCache getRenderingSourceCache() {
+        return renderingSourceCache;
+    }
+
+    public void setRenderingSourceCache(final RenderingSourceCache renderingSourceCache) {
+        this.renderingSourceCache = renderingSourceCache;
+    }
+
+
+    public RenderingStateCache getRenderingStateCache() {
+        return renderingStateCache;
+    }
+
+    public void setRenderingStateCache(final RenderingStateCache renderingStateCache) {
+        this.renderingStateCache = renderingStateCache;
+    }
+
+
+    public boolean isAdaptivePipeline() {
+        return adaptivePipeline;
+    }
+
+    public void setAdaptivePipeline(final boolean adaptivePipeline) {
+        this.adaptivePipeline = adaptivePipeline;
+    }
+
     //----------------------------------------------------
 
+    /**
+     * Creates the {@link XsltStylesheetManager} and compiles all of the rendering stylesheets
+     * up front, so that the first candidates don't have to wait for this to happen. (This
+     * only really helps if an {@link XsltStylesheetCache} has been set.)
+     */
     @PostConstruct
     public void init() {
         this.stylesheetManager = new XsltStylesheetManager(new ClassPathResourceLocator(), xsltStylesheetCache);
+        if (xsltStylesheetCache!=null) {
+            stylesheetManager.precompileStylesheets(serializeXsltUri, ctopXsltUri,
+                    itemStandaloneXsltUri, testItemXsltUri, testEntryXsltUri,
+                    testPartNavigationXsltUri, testPartFeedbackXsltUri, testFeedbackXsltUri,
+                    itemAuthorViewXsltUri, testAuthorViewXsltUri,
+                    terminatedXsltUri, explodedXsltUri);
+        }
+    }
+
+    /**
+     * Returns the {@link XsltStylesheetManager} used here, which is useful for reporting
+     * purposes. This will be null until {@link #init()} has been called.
+     */
+    public XsltStylesheetManager getStylesheetManager() {
+        return stylesheetManager;
     }
 
     //----------------------------------------------------
@@ -207,9 +283,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document) */
+        /* Pass ItemSessionState (as XML, built once we know the XSLT) */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        xsltParameters.put("itemSessionState", new SessionStateParameter(request.getSessionStateKey(), itemSessionState));
 
         /* Set control parameters */
         xsltParameters.put("prompt", request.getPrompt());
@@ -261,7 +337,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionState", new SessionStateParameter(request.getSessionStateKey(), testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         /* Pass rendering options */
@@ -427,10 +503,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document and XML text) */
+        /* Pass ItemSessionState (as XML, built once we know the XSLT) */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        final Document itemSessionStateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        xsltParameters.put("itemSessionState", itemSessionStateDocument.getDocumentElement());
+        xsltParameters.put("itemSessionState", new SessionStateParameter(request.getSessionStateKey(), itemSessionState));
 
         /* Perform transform */
         doTransform(request, null, itemAuthorViewXsltUri, xsltParameters, result);
@@ -464,7 +539,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionState", new SessionStateParameter(request.getSessionStateKey(), testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         doTransform(request, null, testAuthorViewXsltUri, xsltParameters, result);
@@ -522,7 +597,9 @@ public class AssessmentRenderer {
         }
 
         /* Add item-specific parameters */
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        final String sessionStateKey = request.getSessionStateKey();
+        final String itemSessionStateKey = sessionStateKey!=null ? sessionStateKey + "/" + itemKey : null;
+        xsltParameters.put("itemSessionState", new SessionStateParameter(itemSessionStateKey, itemSessionState));
         xsltParameters.put("itemKey", itemKey.toString());
 
         /* Pass ItemSessionControl parameters */
@@ -551,6 +628,13 @@ public class AssessmentRenderer {
             xsltParameters.put("notifications", new XsltParamBuilder().notificationsToElements(notifications));
         }
 
+        /* Pass any custom URLs for assessment files */
+        final Callable<Map<String, String>> assetUrlsLoader = request.getAssetUrlsLoader();
+        if (assetUrlsLoader!=null) {
+            xsltParameters.put("assetUrls", new AssetUrlsParameter(request.getAssessmentSourceKey(),
+                    request.getAssessmentResourceUri(), assetUrlsLoader));
+        }
+
         /* Pass common control parameters */
         xsltParameters.put("validated", Boolean.valueOf(request.isValidated()));
         xsltParameters.put("launchable", Boolean.valueOf(request.isLaunchable()));
@@ -617,23 +701,46 @@ public class AssessmentRenderer {
          *
          * Input --> Rendering XSLT --> MathML C-to-P --> Serialization XSLT --> Result
          *
+         * The MathML C-to-P stage is left out if we know that the input contains no content MathML.
+         *
          * NB: I'm not bothering to set up LexicalHandlers, so comments and things like that won't
          * be passed through the pipeline. If that becomes important, change the code below to
          * support that.
          */
          /* First obtain the required compiled stylesheets. */
         final TransformerHandler rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(rendererStylesheetUri, renderingRequest.getAssessmentResourceLocator());
-        final TransformerHandler mathmlTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null);
         final TransformerHandler serializerTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(serializeXsltUri, null);
 
-        /* Pass necessary parameters to renderer */
+        /* Decide whether we can use a cached tree of the input XML, and what stages the pipeline needs */
         final Transformer rendererTransformer = rendererTransformerHandler.getTransformer();
+        final String assessmentSourceKey = renderingRequest.getAssessmentSourceKey();
+        final boolean usingSourceCache = inputUri!=null && assessmentSourceKey!=null
+                && renderingSourceCache!=null && renderingSourceCache.isEnabled()
+                && rendererTransformer instanceof Controller;
+        final RenderingSourceFeatures sourceFeatures = usingSourceCache && adaptivePipeline
+                ? getSourceFeatures(renderingRequest, inputUri, ((Controller) rendererTransformer).getConfiguration())
+                : RenderingSourceFeatures.ALL;
+        final TransformerHandler mathmlTransformerHandler = sourceFeatures.isMathmlConversionRequired()
+                ? stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null)
+                : null;
+
+        /* Pass necessary parameters to renderer */
         if (inputUri!=null) {
             rendererTransformer.setParameter("systemId", inputUri);
         }
         if (xsltParameters!=null) {
             for (final Entry<String, Object> paramEntry : xsltParameters.entrySet()) {
-                rendererTransformer.setParameter(paramEntry.getKey(), paramEntry.getValue());
+                Object paramValue = paramEntry.getValue();
+                if (paramValue instanceof SessionStateParameter) {
+                    paramValue = createSessionStateXml((SessionStateParameter) paramValue, rendererTransformer);
+                }
+                else if (paramValue instanceof AssetUrlsParameter) {
+                    paramValue = createAssetUrlsXml((AssetUrlsParameter) paramValue, rendererTransformer);
+                    if (paramValue==null) {
+                        continue;
+                    }
+                }
+                rendererTransformer.setParameter(paramEntry.getKey(), paramValue);
             }
         }
 
@@ -676,20 +783,6 @@ public class AssessmentRenderer {
             }
         }
 
-        /* Set up the XML source */
-        final InputSource assessmentSaxSource;
-        if (inputUri!=null) {
-            final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
-            final InputStream assessmentStream = assessmentResourceLocator.findResource(inputUri);
-            assessmentSaxSource = new InputSource(assessmentStream);
-            assessmentSaxSource.setSystemId(inputUri.toString());
-        }
-        else {
-            /* (null inputUri, so we'll pass an empty well-formed XML document) */
-            assessmentSaxSource = new InputSource(new StringReader("<null/>"));
-        }
-
-
         /* Now join the pipeline together (it's clearest to work backwards here)
          *
          * NB: I'm not bothering to set up LexicalHandlers, so comments and things like that won't
@@ -697,20 +790,187 @@ public class AssessmentRenderer {
          * support that.
          */
         serializerTransformerHandler.setResult(result);
-        final SAXResult mathmlResult = new SAXResult(serializerTransformerHandler);
-        mathmlTransformerHandler.setResult(mathmlResult);
-        final SAXResult rendererResult = new SAXResult(mathmlTransformerHandler);
-        rendererTransformerHandler.setResult(rendererResult);
-        final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
-        xmlReader.setContentHandler(rendererTransformerHandler);
-
-        /* Finally we run the pipeline */
+        final SAXResult rendererResult;
+        if (mathmlTransformerHandler!=null) {
+            final SAXResult mathmlResult = new SAXResult(serializerTransformerHandler);
+            mathmlTransformerHandler.setResult(mathmlResult);
+            rendererResult = new SAXResult(mathmlTransformerHandler);
+        }
+        else {
+            rendererResult = new SAXResult(serializerTransformerHandler);
+        }
+
+        /* Finally we run the pipeline. If we can, we'll run this on a cached tree of the
+         * input XML, otherwise we parse the XML and send it through the pipeline via SAX.
+         */
         try {
-            xmlReader.parse(assessmentSaxSource);
+            if (usingSourceCache) {
+                final Configuration configuration = ((Controller) rendererTransformer).getConfiguration();
+                final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
+                final NodeInfo assessmentSourceTree = renderingSourceCache.getSourceTree(assessmentSourceKey,
+                        inputUri, assessmentResourceLocator, configuration);
+
+                /* Have document() calls on the main assessment (test) XML also use the cache */
+                final URI assessmentResourceUri = renderingRequest.getAssessmentResourceUri();
+                final URIResolver runtimeUriResolver = rendererTransformer.getURIResolver();
+                rendererTransformer.setURIResolver(new URIResolver() {
+                    @Override
+                    public Source resolve(final String href, final String base) throws TransformerException {
+                        if (resolvesTo(href, base, assessmentResourceUri)) {
+                            return renderingSourceCache.getSourceTree(assessmentSourceKey, assessmentResourceUri,
+                                    assessmentResourceLocator, configuration);
+                        }
+                        return runtimeUriResolver!=null ? runtimeUriResolver.resolve(href, base) : null;
+                    }
+                });
+                rendererTransformer.transform(assessmentSourceTree, rendererResult);
+            }
+            else {
+                /* Set up the XML source */
+                final InputSource assessmentSaxSource;
+                if (inputUri!=null) {
+                    final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
+                    final InputStream assessmentStream = assessmentResourceLocator.findResource(inputUri);
+                    assessmentSaxSource = new InputSource(assessmentStream);
+                    assessmentSaxSource.setSystemId(inputUri.toString());
+                }
+                else {
+                    /* (null inputUri, so we'll pass an empty well-formed XML document) */
+                    assessmentSaxSource = new InputSource(new StringReader("<null/>"));
+                }
+                rendererTransformerHandler.setResult(rendererResult);
+                final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
+                xmlReader.setContentHandler(rendererTransformerHandler);
+                xmlReader.parse(assessmentSaxSource);
+            }
         }
         catch (final Exception e) {
             logger.error("Rendering XSLT pipeline failed for request {}", renderingRequest, e);
             throw new QtiWorksRenderingException("Unexpected Exception running rendering XML pipeline", e);
         }
     }
+
+    /**
+     * Returns the combined {@link RenderingSourceFeatures} of the XML at the given inputUri and the
+     * main assessment XML (which test rendering also reads in), as recorded by the
+     * {@link RenderingSourceCache}.
+     */
+    private RenderingSourceFeatures getSourceFeatures(final AbstractRenderingRequest<?> renderingRequest,
+            final URI inputUri, final Configuration configuration) {
+        final String assessmentSourceKey = renderingRequest.getAssessmentSourceKey();
+        final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
+        final URI assessmentResourceUri = renderingRequest.getAssessmentResourceUri();
+        RenderingSourceFeatures result = renderingSourceCache.getSourceFeatures(assessmentSourceKey, inputUri,
+                assessmentResourceLocator, configuration);
+        if (result!=null && !inputUri.equals(assessmentResourceUri)) {
+            final RenderingSourceFeatures assessmentFeatures = renderingSourceCache.getSourceFeatures(assessmentSourceKey,
+                    assessmentResourceUri, assessmentResourceLocator, configuration);
+            result = assessmentFeatures!=null ? result.union(assessmentFeatures) : null;
+        }
+        return result!=null ? result : RenderingSourceFeatures.ALL;
+    }
+
+    /**
+     * Creates the XML for the state in the given {@link SessionStateParameter}, to be passed to
+     * the given XSLT {@link Transformer}. For Saxon, we build the state XML directly as a Saxon
+     * tree (possibly cached). Otherwise we fall back to passing a DOM.
+     */
+    private Object createSessionStateXml(final SessionStateParameter sessionStateParameter,
+            final Transformer rendererTransformer) {
+        final ItemSessionState itemSessionState = sessionStateParameter.itemSessionState;
+        final TestSessionState testSessionState = sessionStateParameter.testSessionState;
+        if (rendererTransformer instanceof Controller) {
+            final Configuration configuration = ((Controller) rendererTransformer).getConfiguration();
+            final RenderingStateCache stateCache = renderingStateCache!=null ? renderingStateCache : uncachedStateBuilder;
+            if (itemSessionState!=null) {
+                return stateCache.getItemSessionStateElement(sessionStateParameter.stateKey, itemSessionState, configuration);
+            }
+            return stateCache.getTestSessionStateElement(sessionStateParameter.stateKey, testSessionState, configuration);
+        }
+        if (itemSessionState!=null) {
+            return ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement();
+        }
+        return TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement();
+    }
+
+    /**
+     * Creates the (cached) document for the URLs in the given {@link AssetUrlsParameter}, to be
+     * passed to the given renderer {@link Transformer}. Returns null if the renderer is not
+     * Saxon-based, in which case links will use the serveFileUrl instead.
+     */
+    private Object createAssetUrlsXml(final AssetUrlsParameter assetUrlsParameter,
+            final Transformer rendererTransformer) {
+        if (!(rendererTransformer instanceof Controller)) {
+            return null;
+        }
+        final Configuration configuration = ((Controller) rendererTransformer).getConfiguration();
+        final RenderingSourceCache sourceCache = renderingSourceCache!=null ? renderingSourceCache : uncachedSourceBuilder;
+        return sourceCache.getAssetUrlsDocument(assetUrlsParameter.sourceKey, assetUrlsParameter.systemId,
+                assetUrlsParameter.assetUrlsLoader, configuration);
+    }
+
+    /**
+     * Tests whether the given href, resolved against the given base URI, gives the
+     * required target URI.
+     */
+    private static boolean resolvesTo(final String href, final String base, final URI targetUri) {
+        if (base==null || href.isEmpty()) {
+            return false;
+        }
+        try {
+            return new URI(base).resolve(href).equals(targetUri);
+        }
+        catch (final URISyntaxException e) {
+            return false;
+        }
+        catch (final IllegalArgumentException e) {
+            /* (Thrown if href is not a valid URI) */
+            return false;
+        }
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Placeholder for the XML version of an {@link ItemSessionState} or {@link TestSessionState}
+     * in the XSLT parameters. This gets converted into XML in {@link #doTransform(AbstractRenderingRequest, URI, URI, Map, Result)},
+     * as Saxon requires trees to be built using the same {@link Configuration} as the XSLT.
+     */
+    private static final class SessionStateParameter {
+
+        private final String stateKey;
+        private final ItemSessionState itemSessionState;
+        private final TestSessionState testSessionState;
+
+        public SessionStateParameter(final String stateKey, final ItemSessionState itemSessionState) {
+            this.stateKey = stateKey;
+            this.itemSessionState = itemSessionState;
+            this.testSessionState = null;
+        }
+
+        public SessionStateParameter(final String stateKey, final TestSessionState testSessionState) {
+            this.stateKey = stateKey;
+            this.itemSessionState = null;
+            this.testSessionState = testSessionState;
+        }
+    }
+
+    /**
+     * Placeholder for the document listing custom URLs for assessment files in the XSLT
+     * parameters. As with {@link SessionStateParameter}, this gets converted into XML in
+     * {@link #doTransform(AbstractRenderingRequest, URI, URI, Map, Result)}.
+     */
+    private static final class AssetUrlsParameter {
+
+        private final String sourceKey;
+        private final URI systemId;
+        private final Callable<Map<String, String>> assetUrlsLoader;
+
+        public AssetUrlsParameter(final String sourceKey, final URI systemId,
+                final Callable<Map<String, String>> assetUrlsLoader) {
+            this.sourceKey = sourceKey;
+            this.systemId = systemId;
+            this.assetUrlsLoader = assetUrlsLoader;
+        }
+    }
 }
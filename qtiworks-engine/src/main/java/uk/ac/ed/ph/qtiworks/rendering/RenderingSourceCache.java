@@ -0,0 +1,387 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.transform.sax.SAXSource;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ReceivingContentHandler;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.tinytree.TinyBuilder;
+import net.sf.saxon.trans.XPathException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the assessment XML files fed into the rendering XSLT as pre-built Saxon trees,
+ * which saves having to parse them again on each rendering request.
+ * <p>
+ * Trees are keyed on a "source key" identifying the group of files they came from
+ * (QTIWorks uses the ID of the AssessmentPackage here), plus the system ID of each file.
+ * Saxon requires trees to be built using the same {@link Configuration} as the XSLT
+ * being run, so this is also part of the key. (Each compiled stylesheet has its own
+ * {@link Configuration}, so this only costs a few extra trees for the test XML.)
+ * <p>
+ * The {@link RenderingSourceFeatures} of each file are cached here too, keyed on the source key
+ * and system ID only.
+ * <p>
+ * Finally, this also caches the documents listing the custom URLs for files within each
+ * assessment, passed to the XSLT as the <code>assetUrls</code> parameter. These are keyed
+ * in the same way as the trees, using the system ID of the assessment.
+ * <p>
+ * The files under each source key must not change. Call {@link #purge(String)} when a source
+ * key is no longer needed.
+ * <p>
+ * An instance of this class is safe to use concurrently by multiple threads.
+ *
+ * @see AssessmentRenderer
+ *
+ * @author David McKain
+ */
+public final class RenderingSourceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderingSourceCache.class);
+
+    private final int maxSize;
+    private final Cache<SourceTreeKey, NodeInfo> cache;
+    private final Cache<SourceTreeKey, RenderingSourceFeatures> featuresCache;
+    private final Cache<SourceTreeKey, NodeInfo> assetUrlsCache;
+
+    /**
+     * Creates a new cache holding up to the given number of trees.
+     *
+     * @param maxSize maximum number of trees to cache. Use a value of 0 or less
+     *   to disable caching.
+     */
+    public RenderingSourceCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .recordStats()
+                .build();
+        this.featuresCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .build();
+        this.assetUrlsCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns a (possibly cached) tree for the XML file at the given system ID, built using the
+     * given Saxon {@link Configuration}. The {@link ResourceLocator} is used to read in the file
+     * if it's not already cached.
+     *
+     * @throws QtiWorksRenderingException if the XML could not be located or parsed
+     */
+    public NodeInfo getSourceTree(final String sourceKey, final URI systemId, final ResourceLocator resourceLocator,
+            final Configuration configuration) {
+        Assert.notNull(sourceKey, "sourceKey");
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(resourceLocator, "resourceLocator");
+        Assert.notNull(configuration, "configuration");
+        if (!isEnabled()) {
+            return buildSourceTree(systemId, resourceLocator, configuration);
+        }
+        try {
+            return cache.get(new SourceTreeKey(sourceKey, systemId, configuration), new Callable<NodeInfo>() {
+                @Override
+                public NodeInfo call() {
+                    logger.debug("Cache MISS for rendering source {} in {}", systemId, sourceKey);
+                    return buildSourceTree(systemId, resourceLocator, configuration);
+                }
+            });
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception building rendering source " + systemId, e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            /* (Guava wraps up unchecked Exceptions thrown by the loader) */
+            if (e.getCause() instanceof QtiWorksRenderingException) {
+                throw (QtiWorksRenderingException) e.getCause();
+            }
+            throw new QtiWorksRenderingException("Unexpected Exception building rendering source " + systemId, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the (possibly cached) {@link RenderingSourceFeatures} of the XML file at the given
+     * system ID, scanning the corresponding source tree if required.
+     * <p>
+     * This returns null if caching is disabled, as it's not worth building a tree
+     * just to find these out.
+     *
+     * @throws QtiWorksRenderingException if the XML could not be located or parsed
+     */
+    public RenderingSourceFeatures getSourceFeatures(final String sourceKey, final URI systemId,
+            final ResourceLocator resourceLocator, final Configuration configuration) {
+        Assert.notNull(sourceKey, "sourceKey");
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(resourceLocator, "resourceLocator");
+        Assert.notNull(configuration, "configuration");
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            return featuresCache.get(new SourceTreeKey(sourceKey, systemId, null), new Callable<RenderingSourceFeatures>() {
+                @Override
+                public RenderingSourceFeatures call() {
+                    final RenderingSourceFeatures features = RenderingSourceFeatures.scan(getSourceTree(sourceKey, systemId,
+                            resourceLocator, configuration));
+                    logger.debug("Rendering source {} in {} has features {}", new Object[] { systemId, sourceKey, features });
+                    return features;
+                }
+            });
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception scanning rendering source " + systemId, e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            if (e.getCause() instanceof QtiWorksRenderingException) {
+                throw (QtiWorksRenderingException) e.getCause();
+            }
+            throw new QtiWorksRenderingException("Unexpected Exception scanning rendering source " + systemId, e.getCause());
+        }
+    }
+
+    private NodeInfo buildSourceTree(final URI systemId, final ResourceLocator resourceLocator,
+            final Configuration configuration) {
+        final InputStream inputStream = resourceLocator.findResource(systemId);
+        if (inputStream==null) {
+            throw new QtiWorksRenderingException("Could not locate rendering source at " + systemId);
+        }
+        try {
+            final InputSource inputSource = new InputSource(inputStream);
+            inputSource.setSystemId(systemId.toString());
+            return configuration.buildDocument(new SAXSource(XmlUtilities.createNsAwareSaxReader(false), inputSource));
+        }
+        catch (final XPathException e) {
+            throw new QtiWorksRenderingException("Could not parse rendering source at " + systemId, e);
+        }
+        finally {
+            try {
+                inputStream.close();
+            }
+            catch (final IOException e) {
+                logger.warn("Could not close stream for rendering source at {}", systemId, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a (possibly cached) document listing the custom URLs to use for files within the
+     * assessment at the given system ID, built using the given Saxon {@link Configuration}.
+     * The given loader is called to obtain these URLs (keyed on the system ID of each file)
+     * if they're not already cached.
+     * <p>
+     * The resulting document contains a <code>qw:assetUrls</code> element holding one
+     * <code>qw:assetUrl</code> element for each file, with <code>systemId</code> and
+     * <code>url</code> attributes.
+     * <p>
+     * The document is built afresh each time if the sourceKey is null.
+     *
+     * @throws QtiWorksRenderingException if the loader fails
+     */
+    public NodeInfo getAssetUrlsDocument(final String sourceKey, final URI systemId,
+            final Callable<Map<String, String>> assetUrlsLoader, final Configuration configuration) {
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(assetUrlsLoader, "assetUrlsLoader");
+        Assert.notNull(configuration, "configuration");
+        if (sourceKey==null || !isEnabled()) {
+            return buildAssetUrlsDocument(systemId, assetUrlsLoader, configuration);
+        }
+        try {
+            return assetUrlsCache.get(new SourceTreeKey(sourceKey, systemId, configuration), new Callable<NodeInfo>() {
+                @Override
+                public NodeInfo call() {
+                    logger.debug("Cache MISS for asset URLs for {} in {}", systemId, sourceKey);
+                    return buildAssetUrlsDocument(systemId, assetUrlsLoader, configuration);
+                }
+            });
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception building asset URLs for " + systemId, e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            if (e.getCause() instanceof QtiWorksRenderingException) {
+                throw (QtiWorksRenderingException) e.getCause();
+            }
+            throw new QtiWorksRenderingException("Unexpected Exception building asset URLs for " + systemId, e.getCause());
+        }
+    }
+
+    private static NodeInfo buildAssetUrlsDocument(final URI systemId, final Callable<Map<String, String>> assetUrlsLoader,
+            final Configuration configuration) {
+        final Map<String, String> assetUrls;
+        try {
+            assetUrls = assetUrlsLoader.call();
+        }
+        catch (final Exception e) {
+            throw new QtiWorksRenderingException("Could not load asset URLs for " + systemId, e);
+        }
+        final PipelineConfiguration pipelineConfiguration = configuration.makePipelineConfiguration();
+        final TinyBuilder treeBuilder = new TinyBuilder();
+        treeBuilder.setPipelineConfiguration(pipelineConfiguration);
+        final ReceivingContentHandler contentHandler = new ReceivingContentHandler();
+        contentHandler.setPipelineConfiguration(pipelineConfiguration);
+        contentHandler.setReceiver(treeBuilder);
+        try {
+            final AttributesImpl attributes = new AttributesImpl();
+            contentHandler.startDocument();
+            contentHandler.startPrefixMapping("qw", XsltParamBuilder.QTIWORKS_NAMESPACE);
+            contentHandler.startElement(XsltParamBuilder.QTIWORKS_NAMESPACE, "assetUrls", "qw:assetUrls", attributes);
+            for (final Entry<String, String> entry : assetUrls.entrySet()) {
+                attributes.clear();
+                attributes.addAttribute("", "systemId", "systemId", "CDATA", entry.getKey());
+                attributes.addAttribute("", "url", "url", "CDATA", entry.getValue());
+                contentHandler.startElement(XsltParamBuilder.QTIWORKS_NAMESPACE, "assetUrl", "qw:assetUrl", attributes);
+                contentHandler.endElement(XsltParamBuilder.QTIWORKS_NAMESPACE, "assetUrl", "qw:assetUrl");
+            }
+            contentHandler.endElement(XsltParamBuilder.QTIWORKS_NAMESPACE, "assetUrls", "qw:assetUrls");
+            contentHandler.endPrefixMapping("qw");
+            contentHandler.endDocument();
+        }
+        catch (final SAXException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception building asset URLs for " + systemId, e);
+        }
+        return treeBuilder.getCurrentRoot();
+    }
+
+    /**
+     * Removes all trees (and other data) cached under the given source key.
+     */
+    public void purge(final String sourceKey) {
+        Assert.notNull(sourceKey, "sourceKey");
+        purge(cache, sourceKey);
+        purge(featuresCache, sourceKey);
+        purge(assetUrlsCache, sourceKey);
+    }
+
+    private static void purge(final Cache<SourceTreeKey, ?> targetCache, final String sourceKey) {
+        final Iterator<SourceTreeKey> keyIterator = targetCache.asMap().keySet().iterator();
+        while (keyIterator.hasNext()) {
+            if (keyIterator.next().sourceKey.equals(sourceKey)) {
+                keyIterator.remove();
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Cache key. NB: {@link Configuration} doesn't override {@link Object#equals(Object)},
+     * so is compared by identity here. It is null for data that doesn't depend on it.
+     */
+    private static final class SourceTreeKey {
+
+        private final String sourceKey;
+        private final URI systemId;
+        private final Configuration configuration;
+
+        public SourceTreeKey(final String sourceKey, final URI systemId, final Configuration configuration) {
+            this.sourceKey = sourceKey;
+            this.systemId = systemId;
+            this.configuration = configuration;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof SourceTreeKey)) {
+                return false;
+            }
+            final SourceTreeKey other = (SourceTreeKey) obj;
+            return sourceKey.equals(other.sourceKey)
+                    && systemId.equals(other.systemId)
+                    && configuration==other.configuration;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sourceKey.hashCode() * 31 + systemId.hashCode()) * 31
+                    + System.identityHashCode(configuration);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Reporting
+
+    public int getCacheMaxSize() {
+        return maxSize;
+    }
+
+    public long getCacheUsage() {
+        return cache.size();
+    }
+
+    public long getCacheHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getCacheMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
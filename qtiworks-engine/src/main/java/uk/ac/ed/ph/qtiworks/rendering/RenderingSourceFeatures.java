@@ -0,0 +1,180 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.AxisIterator;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+
+/**
+ * Records the features of an assessment XML file that determine which stages of the
+ * rendering pipeline are needed when it is rendered.
+ * <p>
+ * These are worked out once per file by {@link RenderingSourceCache} and used by
+ * {@link AssessmentRenderer} to leave out stages that would have no effect. For example,
+ * the MathML C-to-P stage only rewrites content MathML, so can be left out for the (very
+ * common) items that contain none.
+ * <p>
+ * Instances of this class are immutable.
+ *
+ * @see RenderingSourceCache#getSourceFeatures(String, java.net.URI, uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator, net.sf.saxon.Configuration)
+ *
+ * @author David McKain
+ */
+public final class RenderingSourceFeatures {
+
+    /** Features of a file needing every stage of the pipeline */
+    public static final RenderingSourceFeatures ALL = new RenderingSourceFeatures(true, true);
+
+    /** Features of a file that needs no optional stages in the pipeline */
+    public static final RenderingSourceFeatures NONE = new RenderingSourceFeatures(false, false);
+
+    /** Namespaces whose elements are rendered directly by our XSLT */
+    private static final Set<String> knownNamespaceUris = new HashSet<String>(Arrays.asList(
+            QtiConstants.QTI_20_NAMESPACE_URI,
+            QtiConstants.QTI_21_NAMESPACE_URI,
+            QtiConstants.MATHML_NAMESPACE_URI
+    ));
+
+    /**
+     * Local names of the MathML elements that the C-to-P stage leaves as they are,
+     * i.e. presentation MathML and the elements that hold it together.
+     * <p>
+     * NB: This deliberately excludes <code>semantics</code> (and the annotations within it),
+     * as the C-to-P stage replaces these with their first child or their presentation MathML
+     * annotation.
+     */
+    private static final Set<String> presentationMathmlLocalNames = new HashSet<String>(Arrays.asList(
+            "math",
+            "mi", "mn", "mo", "mtext", "mspace", "ms", "mglyph",
+            "mrow", "mfrac", "msqrt", "mroot", "mstyle", "merror", "mpadded", "mphantom",
+            "mfenced", "menclose", "msub", "msup", "msubsup", "munder", "mover", "munderover",
+            "mmultiscripts", "mprescripts", "none",
+            "mtable", "mlabeledtr", "mtr", "mtd", "maligngroup", "malignmark",
+            "mstack", "mlongdiv", "msgroup", "msrow", "mscarries", "mscarry", "msline",
+            "maction"
+    ));
+
+    private final boolean containsContentMathml;
+    private final boolean containsForeignElements;
+
+    private RenderingSourceFeatures(final boolean containsContentMathml, final boolean containsForeignElements) {
+        this.containsContentMathml = containsContentMathml;
+        this.containsForeignElements = containsForeignElements;
+    }
+
+    /**
+     * Works out the features of the given (Saxon) source tree.
+     */
+    public static RenderingSourceFeatures scan(final NodeInfo sourceTree) {
+        Assert.notNull(sourceTree, "sourceTree");
+        boolean containsContentMathml = false;
+        boolean containsForeignElements = false;
+        final AxisIterator elementIterator = sourceTree.iterateAxis(Axis.DESCENDANT, NodeKindTest.ELEMENT);
+        NodeInfo element;
+        while ((element = (NodeInfo) elementIterator.next())!=null) {
+            final String namespaceUri = element.getURI();
+            if (QtiConstants.MATHML_NAMESPACE_URI.equals(namespaceUri)) {
+                if (!presentationMathmlLocalNames.contains(element.getLocalPart())) {
+                    containsContentMathml = true;
+                }
+            }
+            else if (!knownNamespaceUris.contains(namespaceUri)) {
+                containsForeignElements = true;
+            }
+            if (containsContentMathml && containsForeignElements) {
+                break;
+            }
+        }
+        return valueOf(containsContentMathml, containsForeignElements);
+    }
+
+    private static RenderingSourceFeatures valueOf(final boolean containsContentMathml, final boolean containsForeignElements) {
+        if (containsContentMathml && containsForeignElements) {
+            return ALL;
+        }
+        else if (!containsContentMathml && !containsForeignElements) {
+            return NONE;
+        }
+        return new RenderingSourceFeatures(containsContentMathml, containsForeignElements);
+    }
+
+    /**
+     * Returns whether the file contains any content MathML, which needs to go through
+     * the MathML C-to-P stage.
+     */
+    public boolean isContainsContentMathml() {
+        return containsContentMathml;
+    }
+
+    /**
+     * Returns whether the file contains elements outside the QTI and MathML namespaces,
+     * such as MathAssess extensions. We can't tell what these will render as, so we
+     * treat them as needing every stage.
+     */
+    public boolean isContainsForeignElements() {
+        return containsForeignElements;
+    }
+
+    /**
+     * Returns whether the MathML C-to-P stage is needed for this file.
+     */
+    public boolean isMathmlConversionRequired() {
+        return containsContentMathml || containsForeignElements;
+    }
+
+    /**
+     * Combines these features with those of another file rendered alongside this one
+     * (e.g. the test XML when rendering an item within a test).
+     */
+    public RenderingSourceFeatures union(final RenderingSourceFeatures other) {
+        Assert.notNull(other, "other");
+        return valueOf(containsContentMathml || other.containsContentMathml,
+                containsForeignElements || other.containsForeignElements);
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,253 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.ReceivingContentHandler;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.tinytree.TinyBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Builds the XML versions of {@link ItemSessionState} and {@link TestSessionState} passed to
+ * the rendering XSLT as parameters, optionally caching the results.
+ * <p>
+ * The state XML is built directly as a Saxon tree from the SAX events generated by the
+ * JQTI+ state marshallers, which avoids building a DOM and then having Saxon wrap it.
+ * <p>
+ * Trees are keyed on a "state key" identifying the exact state being rendered (QTIWorks
+ * uses the ID of the CandidateEvent here), plus the Saxon {@link Configuration} they were built
+ * with, which must match that of the XSLT being run.
+ * <p>
+ * The state under each state key must not change. (Unused trees simply get evicted once the
+ * cache fills up.)
+ * <p>
+ * An instance of this class is safe to use concurrently by multiple threads.
+ *
+ * @see AssessmentRenderer
+ *
+ * @author David McKain
+ */
+public final class RenderingStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderingStateCache.class);
+
+    private final int maxSize;
+    private final Cache<StateTreeKey, NodeInfo> cache;
+
+    /**
+     * Creates a new cache holding up to the given number of trees.
+     *
+     * @param maxSize maximum number of trees to cache. Use a value of 0 or less
+     *   to disable caching.
+     */
+    public RenderingStateCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns a (possibly cached) <code>itemSessionState</code> element for the given
+     * {@link ItemSessionState}, built using the given Saxon {@link Configuration}.
+     *
+     * @param stateKey key identifying this state, which may be null to prevent caching.
+     */
+    public NodeInfo getItemSessionStateElement(final String stateKey, final ItemSessionState itemSessionState,
+            final Configuration configuration) {
+        Assert.notNull(itemSessionState, "itemSessionState");
+        return getStateElement(stateKey, "itemSessionState", configuration, new StateMarshaller() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                ItemSessionStateXmlMarshaller.marshal(itemSessionState, contentHandler);
+            }
+        });
+    }
+
+    /**
+     * Returns a (possibly cached) <code>testSessionState</code> element for the given
+     * {@link TestSessionState}, built using the given Saxon {@link Configuration}.
+     *
+     * @param stateKey key identifying this state, which may be null to prevent caching.
+     */
+    public NodeInfo getTestSessionStateElement(final String stateKey, final TestSessionState testSessionState,
+            final Configuration configuration) {
+        Assert.notNull(testSessionState, "testSessionState");
+        return getStateElement(stateKey, "testSessionState", configuration, new StateMarshaller() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                TestSessionStateXmlMarshaller.marshal(testSessionState, contentHandler);
+            }
+        });
+    }
+
+    private NodeInfo getStateElement(final String stateKey, final String elementName,
+            final Configuration configuration, final StateMarshaller stateMarshaller) {
+        Assert.notNull(configuration, "configuration");
+        if (stateKey==null || !isEnabled()) {
+            return buildStateElement(elementName, configuration, stateMarshaller);
+        }
+        try {
+            return cache.get(new StateTreeKey(stateKey, elementName, configuration), new Callable<NodeInfo>() {
+                @Override
+                public NodeInfo call() {
+                    logger.debug("Cache MISS for rendering {} with key {}", elementName, stateKey);
+                    return buildStateElement(elementName, configuration, stateMarshaller);
+                }
+            });
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception building rendering " + elementName, e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            /* (Guava wraps up unchecked Exceptions thrown by the loader) */
+            if (e.getCause() instanceof QtiWorksRenderingException) {
+                throw (QtiWorksRenderingException) e.getCause();
+            }
+            throw new QtiWorksRenderingException("Unexpected Exception building rendering " + elementName, e.getCause());
+        }
+    }
+
+    private static NodeInfo buildStateElement(final String elementName, final Configuration configuration,
+            final StateMarshaller stateMarshaller) {
+        final PipelineConfiguration pipelineConfiguration = configuration.makePipelineConfiguration();
+        final TinyBuilder treeBuilder = new TinyBuilder();
+        treeBuilder.setPipelineConfiguration(pipelineConfiguration);
+        final ReceivingContentHandler contentHandler = new ReceivingContentHandler();
+        contentHandler.setPipelineConfiguration(pipelineConfiguration);
+        contentHandler.setReceiver(treeBuilder);
+        try {
+            stateMarshaller.marshal(contentHandler);
+        }
+        catch (final SAXException e) {
+            throw new QtiWorksRenderingException("Unexpected Exception building rendering " + elementName, e);
+        }
+        final NodeInfo documentNode = treeBuilder.getCurrentRoot();
+        return (NodeInfo) documentNode.iterateAxis(Axis.CHILD, NodeKindTest.ELEMENT).next();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Trivial callback for sending a state Object's XML to a SAX {@link ContentHandler}
+     */
+    private interface StateMarshaller {
+        void marshal(ContentHandler contentHandler) throws SAXException;
+    }
+
+    /**
+     * Cache key. NB: {@link Configuration} doesn't override {@link Object#equals(Object)},
+     * so is compared by identity here.
+     */
+    private static final class StateTreeKey {
+
+        private final String stateKey;
+        private final String elementName;
+        private final Configuration configuration;
+
+        public StateTreeKey(final String stateKey, final String elementName, final Configuration configuration) {
+            this.stateKey = stateKey;
+            this.elementName = elementName;
+            this.configuration = configuration;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof StateTreeKey)) {
+                return false;
+            }
+            final StateTreeKey other = (StateTreeKey) obj;
+            return stateKey.equals(other.stateKey)
+                    && elementName.equals(other.elementName)
+                    && configuration==other.configuration;
+        }
+
+        @Override
+        public int hashCode() {
+            return (stateKey.hashCode() * 31 + elementName.hashCode()) * 31
+                    + System.identityHashCode(configuration);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Reporting
+
+    public int getCacheMaxSize() {
+        return maxSize;
+    }
+
+    public long getCacheUsage() {
+        return cache.size();
+    }
+
+    public long getCacheHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getCacheMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -134,6 +134,9 @@ public class AssessmentManagementService {
     @Resource
     private DeliverySettingsDao deliverySettingsDao;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
@@ -900,6 +903,7 @@ public class AssessmentManagementService {
         for (final CandidateSession candidateSession : nonTerminatedCandidateSessions) {
             candidateSession.setTerminationTime(currentTimestamp);
             candidateSessionDao.update(candidateSession);
+            candidateSessionStateCache.purge(candidateSession);
             if (deleteOutcomes) {
                 candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
             }
@@ -33,34 +33,75 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
-import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingSourceCache;
+import uk.ac.ed.ph.qtiworks.services.dao.AssessmentPackageDao;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.provision.SharedRootNodeCache;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 
 /**
  * Middle layer service responsible for instantiating and caching {@link ItemProcessingMap}
  * and {@link TestProcessingMap} Objects.
  * <p>
  * This is NO authorisation at this level.
- *
- * FIXME: For the time being, we'll use an {@link LruHashMap}, though this is probably not the best choice.
+ * <p>
+ * The underlying cache is safe for concurrent use. Each {@link AssessmentPackage} is loaded
+ * at most once at a time, and only requests for that package wait while this happens.
+ * The cache is bounded by the approximate size of the cached objects, measured as the
+ * number of {@link QtiNode}s they contain. (See
+ * {@link QtiWorksDeploymentSettings#getAssessmentCacheMaxNodes()}.) The cache uses a single
+ * segment, so that this whole budget is available to each package rather than being split
+ * between segments.
+ * <p>
+ * Response and outcome processing is compiled when objects are loaded, unless disabled via
+ * {@link QtiWorksDeploymentSettings#isCompileProcessing()}.
+ * <p>
+ * Unchanged QTI files used by more than one {@link AssessmentPackage} are read in once and
+ * shared via the {@link SharedRootNodeCache} provided by {@link AssessmentPackageFileService}
+ * (if enabled). Each cached package holds a lease on the shared files it uses, which is
+ * released when the package leaves this cache.
  *
  * @author David McKain
  */
@@ -69,18 +110,51 @@ public class AssessmentObjectManagementService {
 
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectManagementService.class);
 
-    private int cacheMissCount;
-    private int cacheHitCount;
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
-    private final LruHashMap<Long, Object> cache;
+    @Resource
+    private AssessmentPackageDao assessmentPackageDao;
 
-    public AssessmentObjectManagementService() {
-        this.cache = new LruHashMap<Long, Object>();
-        this.cacheMissCount = 0;
-        this.cacheHitCount = 0;
+    @Resource
+    private RenderingSourceCache renderingSourceCache;
+
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
+    private Cache<Long, CachedAssessmentObject> cache;
+
+    private long cacheMaxNodes;
+
+    private boolean compileProcessing;
+
+    @PostConstruct
+    public void init() {
+        this.cacheMaxNodes = qtiWorksDeploymentSettings.getAssessmentCacheMaxNodes();
+        this.compileProcessing = qtiWorksDeploymentSettings.isCompileProcessing();
+        final CacheBuilder<Long, CachedAssessmentObject> cacheBuilder = CacheBuilder.newBuilder().recordStats()
+                .removalListener(new RemovalListener<Long, CachedAssessmentObject>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<Long, CachedAssessmentObject> notification) {
+                        final CachedAssessmentObject cachedAssessmentObject = notification.getValue();
+                        if (cachedAssessmentObject!=null) {
+                            cachedAssessmentObject.releaseSharedFiles();
+                        }
+                    }
+                });
+        if (cacheMaxNodes > 0) {
+            cacheBuilder.concurrencyLevel(1).maximumWeight(cacheMaxNodes).weigher(new Weigher<Long, CachedAssessmentObject>() {
+                @Override
+                public int weigh(final Long apid, final CachedAssessmentObject cachedAssessmentObject) {
+                    return cachedAssessmentObject.nodeCount;
+                }
+            });
+        }
+        this.cache = cacheBuilder.build();
+        logger.info("Assessment object cache will hold up to {} QTI Nodes", Long.valueOf(cacheMaxNodes));
     }
 
     /**
@@ -90,27 +164,25 @@ public class AssessmentObjectManagementService {
     public ItemProcessingMap getItemProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        ItemProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (ItemProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
+        return (ItemProcessingMap) getCachedAssessmentObject(apid, new Callable<CachedAssessmentObject>() {
+            @Override
+            public CachedAssessmentObject call() {
                 logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
+                ItemProcessingMap result = null;
+                final SharedRootNodeCache.Lease sharedRootNodeCacheLease = assessmentPackageFileService.createSharedRootNodeCacheLease();
                 try {
-                    final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize();
+                    final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage,
+                            sharedRootNodeCacheLease);
+                    result = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid(),
+                            compileProcessing).initialize();
                 }
                 catch (final RuntimeException e) {
                     logger.info("Failed to create ItemProcessingMap for package #{}", apid);
                 }
-                cache.put(apid, result);
+                return new CachedAssessmentObject(result, result!=null ? countNodes(result.getResolvedAssessmentItem()) : 1,
+                        sharedRootNodeCacheLease);
             }
-        }
-        return result;
+        });
     }
 
     /**
@@ -120,36 +192,150 @@ public class AssessmentObjectManagementService {
     public TestProcessingMap getTestProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        TestProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (TestProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
+        return (TestProcessingMap) getCachedAssessmentObject(apid, new Callable<CachedAssessmentObject>() {
+            @Override
+            public CachedAssessmentObject call() {
                 logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
+                TestProcessingMap result = null;
+                final SharedRootNodeCache.Lease sharedRootNodeCacheLease = assessmentPackageFileService.createSharedRootNodeCacheLease();
                 try {
-                    final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize();
+                    final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage,
+                            sharedRootNodeCacheLease);
+                    result = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid(),
+                            compileProcessing).initialize();
                 }
                 catch (final RuntimeException e) {
                     logger.info("Failed to create TestProcessingMap for package #{}", apid);
                 }
-                cache.put(apid, result);
+                return new CachedAssessmentObject(result, result!=null ? countNodes(result.getResolvedAssessmentTest()) : 1,
+                        sharedRootNodeCacheLease);
             }
+        });
+    }
+
+    private Object getCachedAssessmentObject(final Long apid, final Callable<CachedAssessmentObject> loader) {
+        try {
+            return cache.get(apid, loader).assessmentObject;
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception loading package #" + apid, e.getCause());
         }
-        return result;
     }
 
     public void purge(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                cache.remove(apid);
-                logger.debug("Actively purged package #{}", assessmentPackage);
+        cache.invalidate(apid);
+        renderingSourceCache.purge(assessmentPackageFileService.createRenderingSourceKey(assessmentPackage));
+        logger.debug("Actively purged package #{}", assessmentPackage);
+    }
+
+    /**
+     * Loads the {@link AssessmentPackage}s currently used by all open {@link Delivery Deliveries}
+     * into the cache, so that the first candidates to use them don't have to wait for this
+     * to happen.
+     * <p>
+     * This is called on its own background thread, so runs within its own read-only transaction.
+     *
+     * @return number of {@link AssessmentPackage}s loaded
+     */
+    public int prewarmCache() {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(jpaTransactionManager);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(final TransactionStatus status) {
+                return Integer.valueOf(doPrewarmCache());
+            }
+        }).intValue();
+    }
+
+    private int doPrewarmCache() {
+        final long startTime = System.currentTimeMillis();
+        final List<AssessmentPackage> assessmentPackages = assessmentPackageDao.getSelectedForOpenDeliveries();
+        int loadCount = 0;
+        for (final AssessmentPackage assessmentPackage : assessmentPackages) {
+            switch (assessmentPackage.getAssessmentType()) {
+                case ASSESSMENT_ITEM:
+                    getItemProcessingMap(assessmentPackage);
+                    break;
+
+                case ASSESSMENT_TEST:
+                    getTestProcessingMap(assessmentPackage);
+                    break;
+
+                default:
+                    throw new QtiWorksRuntimeException("Unexpected switch case " + assessmentPackage.getAssessmentType());
+            }
+            loadCount++;
+        }
+        logger.info("Pre-warmed assessment object cache with {} package(s) in {}ms",
+                Integer.valueOf(loadCount), Long.valueOf(System.currentTimeMillis() - startTime));
+        return loadCount;
+    }
+
+    //--------------------------------------------------------------------------
+    // Size estimation
+
+    /**
+     * Estimates the retained size of a resolved item, as the number of {@link QtiNode}s
+     * in it and any resolved response processing template.
+     */
+    private static int countNodes(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        return 1 + countNodes(resolvedAssessmentItem.getItemLookup())
+                + countNodes(resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup());
+    }
+
+    /**
+     * Estimates the retained size of a resolved test, as the number of {@link QtiNode}s
+     * in it and all of the distinct items it refers to.
+     */
+    private static int countNodes(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        int result = 1 + countNodes(resolvedAssessmentTest.getTestLookup());
+        for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+            result += countNodes(resolvedAssessmentItem);
+        }
+        return result;
+    }
+
+    private static int countNodes(final RootNodeLookup<? extends RootNode> rootNodeLookup) {
+        if (rootNodeLookup==null || !rootNodeLookup.wasSuccessful()) {
+            return 0;
+        }
+        final int[] counter = new int[1];
+        QueryUtils.walkTree(new TreeWalkNodeHandler() {
+            @Override
+            public boolean handleNode(final QtiNode node) {
+                counter[0]++;
+                return true;
+            }
+        }, Collections.singletonList(rootNodeLookup.extractAssumingSuccessful()));
+        return counter[0];
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Wraps up a cached {@link ItemProcessingMap} or {@link TestProcessingMap}. The wrapped
+     * Object will be null if the underlying {@link AssessmentPackage} could not be loaded.
+     * The lease on any shared QTI files used is released once removed from the cache.
+     */
+    private static final class CachedAssessmentObject {
+
+        private final Object assessmentObject;
+        private final int nodeCount;
+        private final SharedRootNodeCache.Lease sharedRootNodeCacheLease;
+
+        public CachedAssessmentObject(final Object assessmentObject, final int nodeCount,
+                final SharedRootNodeCache.Lease sharedRootNodeCacheLease) {
+            this.assessmentObject = assessmentObject;
+            this.nodeCount = nodeCount;
+            this.sharedRootNodeCacheLease = sharedRootNodeCacheLease;
+        }
+
+        public void releaseSharedFiles() {
+            if (sharedRootNodeCacheLease!=null) {
+                sharedRootNodeCacheLease.release();
             }
         }
     }
@@ -157,28 +343,65 @@ public class AssessmentObjectManagementService {
     //--------------------------------------------------------------------------
     // Reporting
 
-    public int getCacheUsage() {
+    public long getCacheUsage() {
         return cache.size();
     }
 
-    public int getCacheMaxSize() {
-        return cache.getMaxSize();
+    public long getCacheMaxNodes() {
+        return cacheMaxNodes;
+    }
+
+    public long getCacheUsedNodes() {
+        long result = 0;
+        for (final CachedAssessmentObject cachedAssessmentObject : cache.asMap().values()) {
+            result += cachedAssessmentObject.nodeCount;
+        }
+        return result;
+    }
+
+    public long getCacheMissCount() {
+        return cache.stats().missCount();
     }
 
-    public int getCacheMissCount() {
-        return cacheMissCount;
+    public long getCacheHitCount() {
+        return cache.stats().hitCount();
     }
 
-    public int getCacheHitCount() {
-        return cacheHitCount;
+    public long getCachePurgeCount() {
+        return cache.stats().evictionCount();
     }
 
-    public int getCachePurgeCount() {
-        return cache.getPurgeCount();
+    public long getCacheLoadCount() {
+        return cache.stats().loadCount();
+    }
+
+    /** Returns the total time spent loading packages into the cache, in milliseconds */
+    public long getCacheTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(cache.stats().totalLoadTime());
+    }
+
+    /** Returns the number of QTI files currently held for sharing between packages */
+    public long getSharedCacheUsage() {
+        final SharedRootNodeCache sharedRootNodeCache = assessmentPackageFileService.getSharedRootNodeCache();
+        return sharedRootNodeCache!=null ? sharedRootNodeCache.getEntryCount() : 0L;
+    }
+
+    public long getSharedCacheHitCount() {
+        final SharedRootNodeCache sharedRootNodeCache = assessmentPackageFileService.getSharedRootNodeCache();
+        return sharedRootNodeCache!=null ? sharedRootNodeCache.getHitCount() : 0L;
+    }
+
+    public long getSharedCacheMissCount() {
+        final SharedRootNodeCache sharedRootNodeCache = assessmentPackageFileService.getSharedRootNodeCache();
+        return sharedRootNodeCache!=null ? sharedRootNodeCache.getMissCount() : 0L;
     }
 
     public Map<Long, Object> getCacheView() {
-        return Collections.unmodifiableMap(cache);
+        final Map<Long, Object> result = new LinkedHashMap<Long, Object>();
+        for (final Entry<Long, CachedAssessmentObject> entry : cache.asMap().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().assessmentObject);
+        }
+        return Collections.unmodifiableMap(result);
     }
 
     @Override
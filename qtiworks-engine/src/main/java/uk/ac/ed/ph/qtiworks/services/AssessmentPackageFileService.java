@@ -35,11 +35,14 @@ package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
 import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackageImportType;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingSourceCache;
 import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageAsset;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageDataImportException;
 import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
 
@@ -48,6 +51,7 @@ import uk.ac.ed.ph.jqtiplus.node.AssessmentObject;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.provision.SharedRootNodeCache;
 import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
 import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
 import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
@@ -63,13 +67,22 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.FileSandboxResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.NetworkHttpResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.activation.FileTypeMap;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
@@ -79,6 +92,11 @@ import org.springframework.util.Assert;
 import org.springframework.web.multipart.MultipartFile;
 import org.w3c.dom.Document;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
 /**
  * Provides read-only access (and related services) to {@link AssessmentPackage} files.
  * <p>
@@ -100,6 +118,12 @@ public class AssessmentPackageFileService {
     /** Default title for assessment if it can't be extracted from the XML */
     private static final String DEFAULT_IMPORT_TITLE = "Assessment";
 
+    /** Hash function used for {@link AssessmentPackage#getFileContentHashes()} */
+    private static final HashFunction FILE_CONTENT_HASH_FUNCTION = Hashing.sha1();
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AssessmentPackageFileImporter assessmentPackageFileImporter;
 
@@ -124,6 +148,23 @@ public class AssessmentPackageFileService {
      */
     private final ResourceLocator sampleResolvingResourceLocator;
 
+    /**
+     * {@link SharedRootNodeCache} used to share unchanged QTI files between the
+     * {@link AssessmentPackage}s that use them. This will be null if disabled via
+     * {@link QtiWorksDeploymentSettings#getAssessmentSharedCacheSize()}.
+     */
+    private SharedRootNodeCache sharedRootNodeCache;
+
+    /**
+     * In-memory copies of the files within the bundled samples that have been served so far,
+     * keyed on href. The samples are small and never change while we're running, so these are
+     * read in from the ClassPath once and then kept for good.
+     */
+    private final ConcurrentMap<String, AssessmentPackageAsset> sampleAssetMap;
+
+    /** Used as the last modification time of the bundled sample files */
+    private final Date sampleAssetLoadTime;
+
     public AssessmentPackageFileService() {
         this.classPathResourceLocator = new ClassPathResourceLocator();
         this.sampleResolvingResourceLocator = new ChainedResourceLocator(
@@ -131,6 +172,36 @@ public class AssessmentPackageFileService {
                 QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR /* (to resolve internal HTTP resources, e.g. RP templates) */
                 /* (No resolution of external resources, since the samples are all self-contained) */
         );
+        this.sampleAssetMap = new ConcurrentHashMap<String, AssessmentPackageAsset>();
+        this.sampleAssetLoadTime = new Date();
+    }
+
+    @PostConstruct
+    public void init() {
+        final int sharedCacheSize = qtiWorksDeploymentSettings.getAssessmentSharedCacheSize();
+        if (sharedCacheSize > 0) {
+            this.sharedRootNodeCache = new SharedRootNodeCache(sharedCacheSize);
+            logger.info("QTI files will be shared between assessment packages, keeping up to {} unused files", Integer.valueOf(sharedCacheSize));
+        }
+    }
+
+    /**
+     * Returns the {@link SharedRootNodeCache} used to share QTI files between
+     * {@link AssessmentPackage}s, or null if this has been disabled.
+     */
+    public SharedRootNodeCache getSharedRootNodeCache() {
+        return sharedRootNodeCache;
+    }
+
+    /**
+     * Creates a new {@link SharedRootNodeCache.Lease} for loading an {@link AssessmentPackage}
+     * via {@link #loadAndResolveAssessmentObject(AssessmentPackage, SharedRootNodeCache.Lease)}.
+     * The caller must release this once finished with the resulting objects.
+     * <p>
+     * Returns null if sharing has been disabled.
+     */
+    public SharedRootNodeCache.Lease createSharedRootNodeCacheLease() {
+        return sharedRootNodeCache!=null ? sharedRootNodeCache.createLease() : null;
     }
 
     //-------------------------------------------------
@@ -174,6 +245,9 @@ public class AssessmentPackageFileService {
             final String resultingTitle = !StringUtilities.isNullOrEmpty(guessedTitle) ? guessedTitle : DEFAULT_IMPORT_TITLE;
             assessmentPackage.setTitle(ServiceUtilities.trimSentence(resultingTitle, DomainConstants.ASSESSMENT_TITLE_MAX_LENGTH));
 
+            /* Record hashes of the package's files, for creating content-addressed URLs */
+            assessmentPackage.setFileContentHashes(computeFileContentHashes(assessmentPackage));
+
             /* Validate (if asked) and record summary result */
             if (validate) {
                 final AssessmentObjectValidationResult<?> validationResult = loadAndValidateAssessment(assessmentPackage);
@@ -202,7 +276,7 @@ public class AssessmentPackageFileService {
      * This performs a low level XML parse to save time; proper read/validation using JQTI+
      * is expected to happen later on.
      *
-     * @param assessmentPackage
+     * @param assessmentPackage package to extract the title from, which must not be null.
      * @return extracted title, or an empty String if nothing could be extracted.
      */
     public String extractAssessmentTitle(final AssessmentPackage assessmentPackage) {
@@ -285,7 +359,7 @@ public class AssessmentPackageFileService {
      * <p>
      * For the bundled samples, this will be a ClassPath URI
      *
-     * @param assessmentPackage
+     * @param assessmentPackage package containing the assessment object, which must not be null.
      */
     public URI createAssessmentObjectUri(final AssessmentPackage assessmentPackage) {
         return createAssessmentFileUri(assessmentPackage, assessmentPackage.getAssessmentHref());
@@ -303,7 +377,8 @@ public class AssessmentPackageFileService {
      *
      * (NOTE: This does not check the existence of the resulting resource)
      *
-     * @param assessmentPackage
+     * @param assessmentPackage package containing the file, which must not be null.
+     * @param fileHref href of the file, relative to the package
      */
     public URI createAssessmentFileUri(final AssessmentPackage assessmentPackage, final String fileHref) {
         URI result;
@@ -317,6 +392,14 @@ public class AssessmentPackageFileService {
         return result;
     }
 
+    /**
+     * Generates the key used to cache the files within the given {@link AssessmentPackage}
+     * in the {@link RenderingSourceCache}.
+     */
+    public String createRenderingSourceKey(final AssessmentPackage assessmentPackage) {
+        return assessmentPackage.getId().toString();
+    }
+
     //-------------------------------------------------
 
     /**
@@ -324,12 +407,29 @@ public class AssessmentPackageFileService {
      *
      * @param assessmentPackage package to validate, which must not be null.
      */
-    @SuppressWarnings("unchecked")
     public <E extends ResolvedAssessmentObject<?>>
     E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage) {
+        return loadAndResolveAssessmentObject(assessmentPackage, null);
+    }
+
+    /**
+     * Invokes the JQTI+ load & resolution process on the given {@link AssessmentPackage},
+     * sharing unchanged QTI files with other {@link AssessmentPackage}s via the given
+     * {@link SharedRootNodeCache.Lease}.
+     *
+     * @param assessmentPackage package to validate, which must not be null.
+     * @param sharedRootNodeCacheLease lease to use, which may be null to disable sharing.
+     *
+     * @see #createSharedRootNodeCacheLease()
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends ResolvedAssessmentObject<?>>
+    E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage,
+            final SharedRootNodeCache.Lease sharedRootNodeCacheLease) {
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator,
+                sharedRootNodeCacheLease);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -355,17 +455,27 @@ public class AssessmentPackageFileService {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final SharedRootNodeCache.Lease sharedRootNodeCacheLease = createSharedRootNodeCacheLease();
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator,
+                sharedRootNodeCacheLease);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
-        if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
-            result = (E) assessmentObjectXmlLoader.loadResolveAndValidateItem(assessmentObjectSystemId);
-        }
-        else if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_TEST) {
-            result = (E) assessmentObjectXmlLoader.loadResolveAndValidateTest(assessmentObjectSystemId);
+        try {
+            if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
+                result = (E) assessmentObjectXmlLoader.loadResolveAndValidateItem(assessmentObjectSystemId);
+            }
+            else if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_TEST) {
+                result = (E) assessmentObjectXmlLoader.loadResolveAndValidateTest(assessmentObjectSystemId);
+            }
+            else {
+                throw new QtiWorksLogicException("Unexpected logic branch " + assessmentObjectType);
+            }
         }
-        else {
-            throw new QtiWorksLogicException("Unexpected logic branch " + assessmentObjectType);
+        finally {
+            /* (The validation result is only used transiently, so we can release shared files now) */
+            if (sharedRootNodeCacheLease!=null) {
+                sharedRootNodeCacheLease.release();
+            }
         }
 
         /* Record summary result back into AssessmentPackage */
@@ -382,7 +492,8 @@ public class AssessmentPackageFileService {
     /**
      * Streams the source of the given {@link AssessmentPackage} to the required {@link OutputStreamer}
      *
-     * @param assessmentPackage
+     * @param assessmentPackage package to stream, which must not be null.
+     * @param outputStreamer target for the assessment source
      */
     public void streamAssessmentPackageSource(final AssessmentPackage assessmentPackage,
             final OutputStreamer outputStreamer)
@@ -397,7 +508,9 @@ public class AssessmentPackageFileService {
      * (NB: this service does not whether this file is white-listed. The caller should ensure this
      * in advance.)
      *
-     * @param assessmentPackage
+     * @param assessmentPackage package containing the file, which must not be null.
+     * @param fileHref href of the file to stream, relative to the package
+     * @param outputStreamer target for the file
      */
     public void streamAssessmentPackageFile(final AssessmentPackage assessmentPackage,
             final String fileHref, final OutputStreamer outputStreamer)
@@ -406,47 +519,155 @@ public class AssessmentPackageFileService {
         streamAssessmentPackageFile(assessmentPackage, fileHref, contentType, outputStreamer);
     }
 
+    /**
+     * Computes hashes of the content of each safe (non-QTI) file in the given {@link AssessmentPackage},
+     * keyed on href, for recording in {@link AssessmentPackage#setFileContentHashes(Map)}.
+     *
+     * @param assessmentPackage package to compute hashes for, which must not be null.
+     */
+    public Map<String, String> computeFileContentHashes(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        final Map<String, String> result = new HashMap<String, String>();
+        if (assessmentPackage.getSafeFileHrefs()!=null) {
+            for (final String fileHref : assessmentPackage.getSafeFileHrefs()) {
+                result.put(fileHref, computeFileContentHash(assessmentPackage, fileHref));
+            }
+        }
+        return result;
+    }
+
+    private String computeFileContentHash(final AssessmentPackage assessmentPackage, final String fileHref) {
+        final InputStream fileStream = openAssessmentPackageFile(assessmentPackage, fileHref);
+        try {
+            final HashingInputStream hashingStream = new HashingInputStream(FILE_CONTENT_HASH_FUNCTION, fileStream);
+            ByteStreams.exhaust(hashingStream);
+            return hashingStream.hash().toString();
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRuntimeException("Could not read AssessmentPackage file with href " + fileHref
+                    + " in package " + assessmentPackage, e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(fileStream);
+        }
+    }
+
+    private InputStream openAssessmentPackageFile(final AssessmentPackage assessmentPackage, final String fileHref) {
+        final InputStream result = createPackageFileResourceLocator(assessmentPackage)
+                .findResource(createAssessmentFileUri(assessmentPackage, fileHref));
+        if (result==null) {
+            throw new QtiWorksRuntimeException("AssessmentPackage file with href " + fileHref
+                    + " in package " + assessmentPackage + " yielded null lookup");
+        }
+        return result;
+    }
+
+    /**
+     * Creates public, content-addressed URLs for each safe file in the given {@link AssessmentPackage}
+     * whose content hash is known, keyed on the system ID of each file (as used during
+     * rendering). Each URL has the form <code>publicAssetUrl/apid/hash?href=href</code>.
+     * <p>
+     * For an {@link AssessmentPackage} uploaded by a user, the content hashes are those recorded
+     * when it was uploaded. For the bundled samples, they are computed as each file is read into
+     * memory.
+     *
+     * @param assessmentPackage package to create URLs for, which must not be null.
+     * @param publicAssetUrl base URL for public assets, within the webapp
+     *
+     * @see #lookupPublicAsset(AssessmentPackage, String, String)
+     */
+    public Map<String, String> createPublicAssetUrls(final AssessmentPackage assessmentPackage,
+            final String publicAssetUrl) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        Assert.notNull(publicAssetUrl, "publicAssetUrl");
+        final Map<String, String> result = new HashMap<String, String>();
+        final Map<String, String> fileContentHashes = getFileContentHashes(assessmentPackage);
+        if (fileContentHashes!=null) {
+            final String packageAssetUrl = publicAssetUrl + "/" + assessmentPackage.getId() + "/";
+            for (final Entry<String, String> entry : fileContentHashes.entrySet()) {
+                final String fileHref = entry.getKey();
+                final String fileSystemId = createAssessmentFileUri(assessmentPackage, fileHref).toString();
+                result.put(fileSystemId, packageAssetUrl + entry.getValue() + "?href=" + encodeQueryParameter(fileHref));
+            }
+        }
+        return result;
+    }
+
+    private Map<String, String> getFileContentHashes(final AssessmentPackage assessmentPackage) {
+        if (assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE) {
+            final Map<String, String> result = new HashMap<String, String>();
+            for (final String fileHref : assessmentPackage.getSafeFileHrefs()) {
+                result.put(fileHref, getSampleAsset(fileHref).getContentHash());
+            }
+            return result;
+        }
+        return assessmentPackage.getFileContentHashes();
+    }
+
+    private static String encodeQueryParameter(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (final UnsupportedEncodingException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    /**
+     * Looks up the safe file with the given href in the given {@link AssessmentPackage}, for serving
+     * via one of the URLs created by {@link #createPublicAssetUrls(AssessmentPackage, String)}.
+     * Returns null if there is no such file with the given content hash.
+     *
+     * @param assessmentPackage package to look in, which must not be null.
+     * @param contentHash content hash taken from the requested URL, which must not be null.
+     * @param fileHref href of the file within the package, which must not be null.
+     */
+    public AssessmentPackageAsset lookupPublicAsset(final AssessmentPackage assessmentPackage,
+            final String contentHash, final String fileHref) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        Assert.notNull(contentHash, "contentHash");
+        Assert.notNull(fileHref, "fileHref");
+        if (assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE) {
+            /* (Only serve files that are white-listed for this sample) */
+            if (!assessmentPackage.getSafeFileHrefs().contains(fileHref)) {
+                return null;
+            }
+            final AssessmentPackageAsset sampleAsset = getSampleAsset(fileHref);
+            return contentHash.equals(sampleAsset.getContentHash()) ? sampleAsset : null;
+        }
+        final Map<String, String> fileContentHashes = assessmentPackage.getFileContentHashes();
+        if (fileContentHashes==null || !contentHash.equals(fileContentHashes.get(fileHref))) {
+            return null;
+        }
+        final File sandboxFile = createSandboxResourceLocator(assessmentPackage)
+                .findSandboxFile(QtiContentPackageExtractor.PACKAGE_URI_SCHEME.decodedPathToUri(fileHref));
+        if (sandboxFile==null) {
+            return null;
+        }
+        return new AssessmentPackageAsset(fileHref, contentHash, getResourceContentType(fileHref),
+                assessmentPackage.getCreationTime(), sandboxFile);
+    }
+
+    private FileSandboxResourceLocator createSandboxResourceLocator(final AssessmentPackage assessmentPackage) {
+        final File sandboxDirectory = new File(assessmentPackage.getSandboxPath());
+        return new FileSandboxResourceLocator(QtiContentPackageExtractor.PACKAGE_URI_SCHEME, sandboxDirectory);
+    }
+
     private void streamAssessmentPackageFile(final AssessmentPackage assessmentPackage, final String fileHref,
             final String contentType, final OutputStreamer outputStreamer)
             throws IOException {
         /* Compute a suitable entity tag */
         final Date lastModifiedTime = assessmentPackage.getCreationTime(); /* (Safe since packages never change - they get replaced) */
         if (assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE) {
-            /* Bundled sample lives in the ClassPath.
-             * We'll copy it to a temp File for serving
-             */
-            final File tempFile = filespaceManager.createTempFile();
-            try {
-                final URI fileClassPathSystemId = QtiSampleAssessment.toClassPathUri(fileHref);
-                final InputStream sampleFileStream = classPathResourceLocator.findResource(fileClassPathSystemId);
-                if (sampleFileStream==null) {
-                    throw new QtiWorksRuntimeException("Sample AssessmentPackage file with href " + fileHref
-                            + " yielded null lookup. The sample bootstrap process may need to be redone.");
-                }
-                try {
-                    ServiceUtilities.copyInputStreamToFile(sampleFileStream, tempFile);
-                }
-                catch (final IOException e) {
-                    throw new QtiWorksRuntimeException("Sample AssessmentPackage file with href " + fileHref
-                            + " yielded null lookup. The sample bootstrap process may need to be redone.");
-                }
-                finally {
-                    ServiceUtilities.ensureClose(sampleFileStream);
-                }
-                ServiceUtilities.streamFile(tempFile, contentType, lastModifiedTime, outputStreamer);
-            }
-            finally {
-                if (!tempFile.delete()) {
-                    logger.warn("Could not delete temp file {}", tempFile);
-                }
-            }
+            /* Bundled sample lives in the ClassPath, which we serve from memory */
+            final AssessmentPackageAsset sampleAsset = getSampleAsset(fileHref);
+            outputStreamer.stream(contentType, sampleAsset.getContentLength(), lastModifiedTime,
+                    new ByteArrayInputStream(sampleAsset.getData()));
         }
         else {
             /* Uploaded file, which exists in the sandbox */
-            final File sandboxDirectory = new File(assessmentPackage.getSandboxPath());
-            final CustomUriScheme packageUriScheme = QtiContentPackageExtractor.PACKAGE_URI_SCHEME;
-            final FileSandboxResourceLocator fileSandboxResourceLocator = new FileSandboxResourceLocator(packageUriScheme, sandboxDirectory);
-            final File sandboxFile = fileSandboxResourceLocator.findSandboxFile(packageUriScheme.decodedPathToUri(fileHref));
+            final File sandboxFile = createSandboxResourceLocator(assessmentPackage)
+                    .findSandboxFile(QtiContentPackageExtractor.PACKAGE_URI_SCHEME.decodedPathToUri(fileHref));
             if (sandboxFile==null) {
                 /* (This should not happen due to the way we record what's in each package) */
                 throw new QtiWorksRuntimeException("Uploaded AssessmentPackage file with href " + fileHref
@@ -456,6 +677,40 @@ public class AssessmentPackageFileService {
         }
     }
 
+    /**
+     * Returns an in-memory copy of the bundled sample file having the given href, reading it in
+     * from the ClassPath if this is the first time it has been asked for.
+     */
+    private AssessmentPackageAsset getSampleAsset(final String fileHref) {
+        final AssessmentPackageAsset result = sampleAssetMap.get(fileHref);
+        if (result!=null) {
+            return result;
+        }
+        final URI fileClassPathSystemId = QtiSampleAssessment.toClassPathUri(fileHref);
+        final InputStream sampleFileStream = classPathResourceLocator.findResource(fileClassPathSystemId);
+        if (sampleFileStream==null) {
+            throw new QtiWorksRuntimeException("Sample AssessmentPackage file with href " + fileHref
+                    + " yielded null lookup. The sample bootstrap process may need to be redone.");
+        }
+        final byte[] data;
+        try {
+            data = ByteStreams.toByteArray(sampleFileStream);
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRuntimeException("Could not read sample AssessmentPackage file with href " + fileHref, e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(sampleFileStream);
+        }
+        final String contentHash = FILE_CONTENT_HASH_FUNCTION.hashBytes(data).toString();
+        final AssessmentPackageAsset loadedAsset = new AssessmentPackageAsset(fileHref, contentHash,
+                getResourceContentType(fileHref), sampleAssetLoadTime, data);
+
+        /* (Another thread may have beaten us to this, in which case we use its copy) */
+        final AssessmentPackageAsset existingAsset = sampleAssetMap.putIfAbsent(fileHref, loadedAsset);
+        return existingAsset!=null ? existingAsset : loadedAsset;
+    }
+
     private String getResourceContentType(final String href) {
         final String result;
         synchronized (fileTypeMap) {
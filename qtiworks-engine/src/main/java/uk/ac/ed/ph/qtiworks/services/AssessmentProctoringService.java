@@ -71,6 +71,9 @@ public class AssessmentProctoringService {
     @Resource
     private DataDeletionService dataDeletionService;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
@@ -109,12 +112,16 @@ public class AssessmentProctoringService {
     }
 
     private void terminateCandidateSession(final CandidateSession candidateSession) {
-        /* NB: We're relying on the fact that result XMLs are stored after each candidate
-         * action, so we don't have to record a final final result here.
+        /* NB: We don't record a final result here. The stored result XML may be out of date
+         * (as it is not rewritten after actions that don't end the session), but
+         * CandidateDataService#ensureAssessmentResultFile() will regenerate it from the most
+         * recent CandidateEvent when it is next needed. As terminated sessions can't change,
+         * this only ever happens once.
          */
         if (!candidateSession.isTerminated()) {
             candidateSession.setTerminationTime(requestTimestampContext.getCurrentRequestTimestamp());
             candidateSessionDao.update(candidateSession);
+            candidateSessionStateCache.purge(candidateSession);
         }
     }
 
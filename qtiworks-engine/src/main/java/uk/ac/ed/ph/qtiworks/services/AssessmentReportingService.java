@@ -33,11 +33,13 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
 import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.LisOutcomeReportingStatus;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
@@ -54,30 +56,25 @@ import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
 import uk.ac.ed.ph.jqtiplus.value.BaseType;
 import uk.ac.ed.ph.jqtiplus.value.Cardinality;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Resource;
 
+import org.hibernate.ScrollableResults;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.csvreader.CsvWriter;
 import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 
 /**
  * Middle tier service for reporting on assessment deliveries and candidate sessions.
@@ -90,6 +87,9 @@ import com.google.common.io.Files;
 @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
 public class AssessmentReportingService {
 
+    /** Number of rows to fetch at a time when scrolling through candidate outcomes */
+    private static final int SUMMARY_DATA_FETCH_SIZE = 500;
+
     @Resource
     private AuditLogger auditLogger;
 
@@ -108,6 +108,9 @@ public class AssessmentReportingService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    @Resource
+    private AssessmentResultExportService assessmentResultExportService;
+
     //-------------------------------------------------
 
     public CandidateSession lookupCandidateSession(final long xid)
@@ -251,90 +254,146 @@ public class AssessmentReportingService {
     public DeliveryCandidateSummaryReport buildDeliveryCandidateSummaryReport(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
 
-        /* Look up all outcomes for all sessions associated with this delivery */
-        final List<CandidateSessionOutcome> candidateSessionOutcomes = candidateSessionOutcomeDao.getForDelivery(delivery);
+        /* Build up summary data for each session */
+        final CandidateSessionSummaryMetadata summaryMetadata = buildCandidateSessionSummaryMetadata(delivery);
+        final List<CandidateSessionSummaryData> rows = new ArrayList<CandidateSessionSummaryData>();
+        try {
+            generateCandidateSessionSummaryData(delivery, summaryMetadata, new CandidateSessionSummaryDataHandler() {
+                @Override
+                public void handleSummaryData(final CandidateSessionSummaryData row) {
+                    rows.add(row);
+                }
+            });
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+
+        auditLogger.recordEvent("Generated candidate summary report for Delivery #" + delivery.getId());
+        return new DeliveryCandidateSummaryReport(summaryMetadata, rows);
+    }
+
+    /**
+     * Callback used by {@link AssessmentReportingService#generateCandidateSessionSummaryData(Delivery, CandidateSessionSummaryMetadata, CandidateSessionSummaryDataHandler)}
+     * to receive the summary data for each session as it is generated.
+     */
+    private interface CandidateSessionSummaryDataHandler {
+
+        void handleSummaryData(CandidateSessionSummaryData row) throws IOException;
 
-        /* Group results by each individual CandidateSession, also building up lists (ordered sets) of unique outcome identifiers */
-        final TreeMap<Long, CandidateSession> candidateSessionByIdMap = new TreeMap<Long, CandidateSession>();
-        final Map<Long, Map<String, String>> numericOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
-        final Map<Long, Map<String, String>> otherOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+    }
+
+    /**
+     * Builds up the {@link CandidateSessionSummaryMetadata} for the given {@link Delivery}, using
+     * a single query to find out which outcome variables have been recorded.
+     */
+    private CandidateSessionSummaryMetadata buildCandidateSessionSummaryMetadata(final Delivery delivery) {
         final LinkedHashSet<String> numericOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
         final LinkedHashSet<String> otherOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
-        for (final CandidateSessionOutcome candidateSessionOutcome : candidateSessionOutcomes) {
-            /* Do grouping first */
-            final Map<String, String> numericOutcomesForSession, otherOutcomesForSession;
-            final CandidateSession candidateSession = candidateSessionOutcome.getCandidateSession();
-            final Long xid = candidateSession.getId();
-            if (!candidateSessionByIdMap.containsKey(xid)) {
-                /* First outcome for this session, so set up appropriate map values */
-                candidateSessionByIdMap.put(xid, candidateSession);
-                numericOutcomesForSession = new HashMap<String, String>();
-                otherOutcomesForSession = new HashMap<String, String>();
-                numericOutcomesBySessionIdMap.put(xid, numericOutcomesForSession);
-                otherOutcomesBySessionIdMap.put(xid, otherOutcomesForSession);
-            }
-            else {
-                numericOutcomesForSession = numericOutcomesBySessionIdMap.get(xid);
-                otherOutcomesForSession = otherOutcomesBySessionIdMap.get(xid);
-            }
-
-            /* Record outcomes */
-            final String outcomeIdentifier = candidateSessionOutcome.getOutcomeIdentifier();
-            final String outcomeValue = candidateSessionOutcome.getStringValue();
-            final BaseType baseType = candidateSessionOutcome.getBaseType();
-            if (baseType!=null && baseType.isNumeric() && candidateSessionOutcome.getCardinality()==Cardinality.SINGLE) {
+        for (final Object[] outcomeType : candidateSessionOutcomeDao.getOutcomeTypesForDelivery(delivery)) {
+            final String outcomeIdentifier = (String) outcomeType[0];
+            if (isNumericOutcome((BaseType) outcomeType[1], (Cardinality) outcomeType[2])) {
                 numericOutcomeIdentifiers.add(outcomeIdentifier);
-                numericOutcomesForSession.put(outcomeIdentifier, outcomeValue);
             }
             else {
                 otherOutcomeIdentifiers.add(outcomeIdentifier);
-                otherOutcomesForSession.put(outcomeIdentifier, outcomeValue);
             }
         }
-
-        /* Record metadata */
         final String ltiResultOutcomeIdentifier = delivery.getAssessment().getLtiResultOutcomeIdentifier();
-        final CandidateSessionSummaryMetadata summaryMetadata = new CandidateSessionSummaryMetadata(ltiResultOutcomeIdentifier, numericOutcomeIdentifiers, otherOutcomeIdentifiers);
+        return new CandidateSessionSummaryMetadata(ltiResultOutcomeIdentifier, numericOutcomeIdentifiers, otherOutcomeIdentifiers);
+    }
 
-        /* Now build report for each session */
-        final List<CandidateSessionSummaryData> rows = new ArrayList<CandidateSessionSummaryData>();
-        for (final Entry<Long, CandidateSession> entry : candidateSessionByIdMap.entrySet()) {
-            final long xid = entry.getKey();
-            final CandidateSession candidateSession = entry.getValue();
-            final List<String> numericOutcomeValues = new ArrayList<String>();
-            final List<String> otherOutcomeValues = new ArrayList<String>();
-
-            final Map<String, String> numericOutcomesForSession = numericOutcomesBySessionIdMap.get(xid);
-            for (final String outcomeIdentifier : numericOutcomeIdentifiers) {
-                numericOutcomeValues.add(safelyExtractOutcomeValue(numericOutcomesForSession, outcomeIdentifier));
-            }
-            final Map<String, String> otherOutcomesForSession = otherOutcomesBySessionIdMap.get(xid);
-            for (final String outcomeIdentifier : otherOutcomeIdentifiers) {
-                otherOutcomeValues.add(safelyExtractOutcomeValue(otherOutcomesForSession, outcomeIdentifier));
+    private static boolean isNumericOutcome(final BaseType baseType, final Cardinality cardinality) {
+        return baseType!=null && baseType.isNumeric() && cardinality==Cardinality.SINGLE;
+    }
+
+    /**
+     * Generates {@link CandidateSessionSummaryData} for each {@link CandidateSession} in the given
+     * {@link Delivery} having recorded outcomes, passing each to the given handler as soon as all
+     * of the outcomes for that session have been read.
+     * <p>
+     * The outcomes are scrolled through in session order, so only the data for the current session
+     * is held in memory at any time.
+     */
+    private void generateCandidateSessionSummaryData(final Delivery delivery,
+            final CandidateSessionSummaryMetadata summaryMetadata,
+            final CandidateSessionSummaryDataHandler handler)
+            throws IOException {
+        final ScrollableResults results = candidateSessionOutcomeDao.scrollSummaryDataForDelivery(delivery, SUMMARY_DATA_FETCH_SIZE);
+        try {
+            Object[] sessionData = null;
+            Long currentXid = null;
+            final Map<String, String> numericOutcomesForSession = new HashMap<String, String>();
+            final Map<String, String> otherOutcomesForSession = new HashMap<String, String>();
+            while (results.next()) {
+                final Object[] data = results.get();
+                final Long xid = (Long) data[0];
+                if (!xid.equals(currentXid)) {
+                    /* Starting new session, so finish off the previous one */
+                    if (sessionData!=null) {
+                        handler.handleSummaryData(buildCandidateSessionSummaryData(summaryMetadata, sessionData,
+                                numericOutcomesForSession, otherOutcomesForSession));
+                    }
+                    currentXid = xid;
+                    sessionData = data;
+                    numericOutcomesForSession.clear();
+                    otherOutcomesForSession.clear();
+                }
+
+                /* Record outcome */
+                final String outcomeIdentifier = (String) data[10];
+                final String outcomeValue = (String) data[13];
+                if (isNumericOutcome((BaseType) data[11], (Cardinality) data[12])) {
+                    numericOutcomesForSession.put(outcomeIdentifier, outcomeValue);
+                }
+                else {
+                    otherOutcomesForSession.put(outcomeIdentifier, outcomeValue);
+                }
             }
-            String ltiResultOutcomeValue = null;
-            if (ltiResultOutcomeIdentifier!=null && numericOutcomesForSession!=null) {
-                ltiResultOutcomeValue = safelyExtractOutcomeValue(numericOutcomesForSession, ltiResultOutcomeIdentifier);
+            if (sessionData!=null) {
+                handler.handleSummaryData(buildCandidateSessionSummaryData(summaryMetadata, sessionData,
+                        numericOutcomesForSession, otherOutcomesForSession));
             }
-            final User candidate = candidateSession.getCandidate();
-            final CandidateSessionSummaryData row = new CandidateSessionSummaryData(candidateSession.getId().longValue(),
-                    candidateSession.getCreationTime(),
-                    candidate.getFirstName(),
-                    candidate.getLastName(),
-                    candidate.getEmailAddress(),
-                    candidateSession.isFinished(),
-                    candidateSession.isTerminated(),
-                    candidateSession.isExploded(),
-                    candidateSession.getLisOutcomeReportingStatus(),
-                    ltiResultOutcomeValue,
-                    candidateSession.getLisScore(),
-                    numericOutcomeValues,
-                    otherOutcomeValues);
-            rows.add(row);
         }
+        finally {
+            results.close();
+        }
+    }
 
-        auditLogger.recordEvent("Generated candidate summary report for Delivery #" + delivery.getId());
-        return new DeliveryCandidateSummaryReport(summaryMetadata, rows);
+    /**
+     * Creates the {@link CandidateSessionSummaryData} for a single session, using the session
+     * columns from a row returned by {@link CandidateSessionOutcomeDao#scrollSummaryDataForDelivery(Delivery, int)}
+     * and the outcomes that have been read in for it.
+     */
+    private CandidateSessionSummaryData buildCandidateSessionSummaryData(final CandidateSessionSummaryMetadata summaryMetadata,
+            final Object[] sessionData,
+            final Map<String, String> numericOutcomesForSession, final Map<String, String> otherOutcomesForSession) {
+        final List<String> numericOutcomeValues = new ArrayList<String>();
+        final List<String> otherOutcomeValues = new ArrayList<String>();
+        for (final String outcomeIdentifier : summaryMetadata.getNumericOutcomeIdentifiers()) {
+            numericOutcomeValues.add(safelyExtractOutcomeValue(numericOutcomesForSession, outcomeIdentifier));
+        }
+        for (final String outcomeIdentifier : summaryMetadata.getOtherOutcomeIdentifiers()) {
+            otherOutcomeValues.add(safelyExtractOutcomeValue(otherOutcomesForSession, outcomeIdentifier));
+        }
+        String ltiResultOutcomeValue = null;
+        final String ltiResultOutcomeIdentifier = summaryMetadata.getLisResultOutcomeIdentifier();
+        if (ltiResultOutcomeIdentifier!=null) {
+            ltiResultOutcomeValue = safelyExtractOutcomeValue(numericOutcomesForSession, ltiResultOutcomeIdentifier);
+        }
+        return new CandidateSessionSummaryData(((Long) sessionData[0]).longValue(),
+                (Date) sessionData[1],
+                (String) sessionData[2],
+                (String) sessionData[3],
+                (String) sessionData[4],
+                sessionData[5]!=null,
+                sessionData[6]!=null,
+                ((Boolean) sessionData[7]).booleanValue(),
+                (LisOutcomeReportingStatus) sessionData[8],
+                ltiResultOutcomeValue,
+                (Double) sessionData[9],
+                numericOutcomeValues,
+                otherOutcomeValues);
     }
 
     /**
@@ -360,12 +419,12 @@ public class AssessmentReportingService {
     public void streamDeliveryCandidateSummaryReportCsv(final long did, final OutputStream outputStream)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         Assert.notNull(outputStream, "outputStream");
-        final DeliveryCandidateSummaryReport report = buildDeliveryCandidateSummaryReport(did);
+        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
+        final CandidateSessionSummaryMetadata metadata = buildCandidateSessionSummaryMetadata(delivery);
         final CsvWriter csvWriter = new CsvWriter(outputStream, ',', Charsets.UTF_8);
         try {
             /* Write header */
             final StringBuilder headerBuilder = new StringBuilder("Session ID,Email Address,First Name,Last Name,Launch Time,Session Status");
-            final CandidateSessionSummaryMetadata metadata = report.getCandidateSessionSummaryMetadata();
             final String lisResultOutcomeIdentifier = metadata.getLisResultOutcomeIdentifier();
             if (lisResultOutcomeIdentifier!=null) {
                 /* LTI results set up, so add in details about that */
@@ -383,27 +442,31 @@ public class AssessmentReportingService {
             }
             csvWriter.writeComment(headerBuilder.toString());
 
-            /* Write each row */
-            for (final CandidateSessionSummaryData row : report.getRows()) {
-                csvWriter.write(Long.toString(row.getSessionId()));
-                csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
-                csvWriter.write(row.getFirstName());
-                csvWriter.write(row.getLastName());
-                csvWriter.write(row.getLaunchTime().toString());
-                csvWriter.write(row.getSessionStatusMessage());
-                if (lisResultOutcomeIdentifier!=null) {
-                    csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+            /* Write each row as soon as it has been generated */
+            generateCandidateSessionSummaryData(delivery, metadata, new CandidateSessionSummaryDataHandler() {
+                @Override
+                public void handleSummaryData(final CandidateSessionSummaryData row) throws IOException {
+                    csvWriter.write(Long.toString(row.getSessionId()));
+                    csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
+                    csvWriter.write(row.getFirstName());
+                    csvWriter.write(row.getLastName());
+                    csvWriter.write(row.getLaunchTime().toString());
+                    csvWriter.write(row.getSessionStatusMessage());
+                    if (lisResultOutcomeIdentifier!=null) {
+                        csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
+                        csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
+                        csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+                    }
+                    writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
+                    writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
+                    csvWriter.endRecord();
                 }
-                writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
-                writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
-                csvWriter.endRecord();
-            }
+            });
         }
         finally {
             csvWriter.flush();
         }
+        auditLogger.recordEvent("Streamed candidate summary CSV for Delivery #" + delivery.getId());
     }
 
     private void writeOutcomes(final CsvWriter csvWriter, final List<String> outcomeNames, final List<String> outcomeValues)
@@ -433,73 +496,12 @@ public class AssessmentReportingService {
      *
      * @param did ID (did) of the required {@link Delivery}
      * @param outputStream {@link OutputStream} to send the results to, which must not be null
+     *
+     * @see AssessmentResultExportService
      */
     public void streamAssessmentReports(final long did, final OutputStream outputStream)
             throws DomainEntityNotFoundException, PrivilegeException, IOException {
-        Assert.notNull(outputStream, "outputStream");
-
-        /* Look up sessions */
-        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
-        final List<CandidateSession> candidateSessions = candidateSessionDao.getForDelivery(delivery);
-
-        /* Create ZIP builder */
-        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        boolean hasIncludedSomething = false;
-        for (final CandidateSession candidateSession : candidateSessions) {
-            if (!candidateSession.isExploded() && (candidateSession.isFinished() || candidateSession.isTerminated())) {
-                addAssessmentReport(zipOutputStream, candidateSession);
-                hasIncludedSomething = true;
-            }
-        }
-        safelyFinishZipStream(zipOutputStream, hasIncludedSomething);
-        auditLogger.recordEvent("Generated assessmentResult ZIP file for delviery #" + did);
-    }
-
-    private void addAssessmentReport(final ZipOutputStream zipOutputStream, final CandidateSession candidateSession)
-            throws IOException {
-        final File assessmentResultFile = candidateDataService.ensureAssessmentResultFile(candidateSession);
-
-        /* Work out what to call the ZIP entry */
-        final String zipEntryName = makeReportFileName(candidateSession);
-
-        /* Add result to ZIP */
-        zipOutputStream.putNextEntry(new ZipEntry(zipEntryName));
-        Files.copy(assessmentResultFile, zipOutputStream);
-        zipOutputStream.closeEntry();
-    }
-
-    /**
-     * Generates a suitably readable and unique name for the assessmentResult XML file for the
-     * given {@link CandidateSession}
-     */
-    private String makeReportFileName(final CandidateSession candidateSession) {
-        final User candidate = candidateSession.getCandidate();
-        final StringBuilder entryNameBuilder = new StringBuilder("assessmentResult-")
-            .append(candidateSession.getId())
-            .append('-');
-        if (candidate.getEmailAddress()!=null) {
-            entryNameBuilder.append(candidate.getEmailAddress());
-        }
-        else {
-            entryNameBuilder.append(candidate.getFirstName())
-                .append('-')
-                .append(candidate.getLastName());
-        }
-        entryNameBuilder.append(".xml");
-        return entryNameBuilder.toString();
-    }
-
-    private void safelyFinishZipStream(final ZipOutputStream zipOutputStream, final boolean hasIncludedSomething)
-            throws IOException {
-        if (!hasIncludedSomething) {
-            zipOutputStream.putNextEntry(new ZipEntry("NoResults.txt"));
-            final OutputStreamWriter commentWriter = new OutputStreamWriter(zipOutputStream, "UTF-8");
-            commentWriter.write("There are no results for this delivery yet");
-            commentWriter.flush();
-            zipOutputStream.closeEntry();
-        }
-        zipOutputStream.finish();
-        zipOutputStream.flush();
+        assessmentResultExportService.streamAssessmentResults(did, outputStream, true);
     }
 
 }
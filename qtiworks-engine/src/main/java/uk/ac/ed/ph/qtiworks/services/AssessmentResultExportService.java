@@ -0,0 +1,499 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentResultExportStatus;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentResultExportStatus.State;
+import uk.ac.ed.ph.qtiworks.services.domain.PrivilegeException;
+import uk.ac.ed.ph.qtiworks.utils.ZipArchiveWriter;
+import uk.ac.ed.ph.qtiworks.utils.ZipArchiveWriter.PreparedEntry;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Exports the <code>assessmentResult</code>s for all closed or terminated candidate sessions
+ * for a {@link Delivery} as a ZIP file.
+ * <p>
+ * The result files are read and compressed in parallel on a bounded pool of threads shared by
+ * all exports, with the resulting entries written out in session order. (Any result files that are
+ * out of date get regenerated by these threads too, though only a small number of them may access
+ * the database at any one time so that exports don't use up the connection pool.) Exports may
+ * either be streamed directly, or run as a background job that writes the ZIP file to the
+ * filespace for downloading once complete.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see AssessmentReportingService
+ * @see ZipArchiveWriter
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(readOnly=false, propagation=Propagation.REQUIRED)
+public class AssessmentResultExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssessmentResultExportService.class);
+
+    /** Number of entries to have queued up for each worker thread during an export */
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+
+    @Resource
+    private AuditLogger auditLogger;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private AssessmentManagementService assessmentManagementService;
+
+    @Resource
+    private CandidateDataService candidateDataService;
+
+    @Resource
+    private CandidateSessionDao candidateSessionDao;
+
+    @Resource
+    private FilespaceManager filespaceManager;
+
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
+    /** Used to access the DB from the threads preparing entries */
+    private TransactionTemplate transactionTemplate;
+
+    /** Pool of threads used to read and compress entries */
+    private ExecutorService entryExecutor;
+
+    /** Limits the number of export threads accessing the DB at the same time */
+    private Semaphore dbAccessPermits;
+
+    /** Runs background export jobs, one at a time */
+    private ExecutorService jobExecutor;
+
+    /** Maximum number of prepared entries held in memory by a single export */
+    private int maxPendingEntries;
+
+    /** Background jobs, keyed on job ID */
+    private final ConcurrentHashMap<String, ExportJob> exportJobMap = new ConcurrentHashMap<String, ExportJob>();
+
+    @PostConstruct
+    public void init() {
+        final int requestedThreads = qtiWorksDeploymentSettings.getExportThreads();
+        final int threadCount = requestedThreads > 0 ? requestedThreads : Runtime.getRuntime().availableProcessors();
+        final int dbThreadCount = Math.max(1, Math.min(threadCount, qtiWorksDeploymentSettings.getExportDbThreads()));
+        logger.info("Using {} thread(s) for assessmentResult exports, {} of which may access the DB at once",
+                Integer.valueOf(threadCount), Integer.valueOf(dbThreadCount));
+        this.dbAccessPermits = new Semaphore(dbThreadCount, true);
+        this.maxPendingEntries = threadCount * PENDING_ENTRIES_PER_THREAD;
+        this.transactionTemplate = new TransactionTemplate(jpaTransactionManager);
+        this.entryExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("qtiworks-export-%d")
+                .setDaemon(true)
+                .build());
+        this.jobExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("qtiworks-export-job-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        jobExecutor.shutdownNow();
+        entryExecutor.shutdownNow();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Generates a ZIP file containing the <code>assessmentReport</code>s for all closed or terminated
+     * candidate sessions for the {@link Delivery} having the given ID (did), streaming the result to
+     * the given stream.
+     * <p>
+     * The stream will be flushed at the end of this; the caller is responsible for closing it.
+     *
+     * @param did ID (did) of the required {@link Delivery}
+     * @param outputStream {@link OutputStream} to send the results to, which must not be null
+     * @param compress true to compress entries, false to simply store them
+     */
+    public void streamAssessmentResults(final long did, final OutputStream outputStream, final boolean compress)
+            throws DomainEntityNotFoundException, PrivilegeException, IOException {
+        Assert.notNull(outputStream, "outputStream");
+        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
+        final List<ExportEntry> exportEntries = gatherExportEntries(delivery);
+        writeArchive(exportEntries, outputStream, compress, new AtomicInteger());
+        auditLogger.recordEvent("Generated assessmentResult ZIP file for delivery #" + did);
+    }
+
+    /**
+     * Starts a background job that writes a ZIP file containing the <code>assessmentReport</code>s
+     * for all closed or terminated candidate sessions for the {@link Delivery} having the given ID (did)
+     * into the filespace. Use {@link #getExportStatus(long, String)} to follow its progress, and
+     * {@link #streamExportArchive(long, String, OutputStream)} to download the result once complete.
+     *
+     * @param did ID (did) of the required {@link Delivery}
+     * @param compress true to compress entries, false to simply store them
+     */
+    public AssessmentResultExportStatus startExportJob(final long did, final boolean compress)
+            throws DomainEntityNotFoundException, PrivilegeException {
+        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
+        final List<ExportEntry> exportEntries = gatherExportEntries(delivery);
+        final ExportJob exportJob = new ExportJob(UUID.randomUUID().toString(), did, compress,
+                exportEntries, filespaceManager.createTempFile());
+        exportJobMap.put(exportJob.jobId, exportJob);
+        jobExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runExportJob(exportJob);
+            }
+        });
+        auditLogger.recordEvent("Started background assessmentResult ZIP export " + exportJob.jobId + " for delivery #" + did);
+        return exportJob.getStatus();
+    }
+
+    /**
+     * Returns the current status of the given export job for the {@link Delivery} having the given
+     * ID (did), or null if no such job exists.
+     */
+    public AssessmentResultExportStatus getExportStatus(final long did, final String jobId)
+            throws DomainEntityNotFoundException, PrivilegeException {
+        final ExportJob exportJob = lookupExportJob(did, jobId);
+        return exportJob!=null ? exportJob.getStatus() : null;
+    }
+
+    /**
+     * Streams the ZIP file generated by the given completed export job for the {@link Delivery}
+     * having the given ID (did) to the given stream.
+     * <p>
+     * The stream will be flushed at the end of this; the caller is responsible for closing it.
+     *
+     * @return true if the ZIP file was sent, false if the job does not exist or is not yet complete
+     */
+    public boolean streamExportArchive(final long did, final String jobId, final OutputStream outputStream)
+            throws DomainEntityNotFoundException, PrivilegeException, IOException {
+        Assert.notNull(outputStream, "outputStream");
+        final ExportJob exportJob = lookupExportJob(did, jobId);
+        if (exportJob==null || exportJob.state!=State.COMPLETE) {
+            return false;
+        }
+        Files.copy(exportJob.archiveFile, outputStream);
+        outputStream.flush();
+        auditLogger.recordEvent("Downloaded assessmentResult ZIP export " + jobId + " for delivery #" + did);
+        return true;
+    }
+
+    /**
+     * Discards all completed or failed export jobs that finished before the given time, deleting
+     * their ZIP files.
+     */
+    public int purgeExportJobs(final Date finishTimeThreshold) {
+        int purgedCount = 0;
+        for (final Iterator<ExportJob> iter = exportJobMap.values().iterator(); iter.hasNext(); ) {
+            final ExportJob exportJob = iter.next();
+            final Date finishTime = exportJob.finishTime;
+            if (finishTime!=null && finishTime.before(finishTimeThreshold)) {
+                iter.remove();
+                if (exportJob.archiveFile.exists() && !exportJob.archiveFile.delete()) {
+                    logger.warn("Could not delete export file {}", exportJob.archiveFile);
+                }
+                purgedCount++;
+            }
+        }
+        return purgedCount;
+    }
+
+    //-------------------------------------------------
+
+    private ExportJob lookupExportJob(final long did, final String jobId)
+            throws DomainEntityNotFoundException, PrivilegeException {
+        /* (This checks that the caller can access the Delivery) */
+        assessmentManagementService.lookupDelivery(did);
+        final ExportJob exportJob = exportJobMap.get(jobId);
+        return exportJob!=null && exportJob.did==did ? exportJob : null;
+    }
+
+    private void runExportJob(final ExportJob exportJob) {
+        exportJob.state = State.RUNNING;
+        try {
+            final OutputStream archiveStream = new BufferedOutputStream(new FileOutputStream(exportJob.archiveFile));
+            try {
+                writeArchive(exportJob.exportEntries, archiveStream, exportJob.compress, exportJob.completedEntryCount);
+                archiveStream.close();
+            }
+            finally {
+                ServiceUtilities.ensureClose(archiveStream);
+            }
+            exportJob.state = State.COMPLETE;
+        }
+        catch (final Exception e) {
+            logger.warn("Background assessmentResult export {} failed", exportJob.jobId, e);
+            exportJob.failureMessage = e.getMessage();
+            exportJob.state = State.FAILED;
+        }
+        finally {
+            exportJob.finishTime = new Date();
+        }
+    }
+
+    /**
+     * Works out which {@link CandidateSession}s need to be exported for the given {@link Delivery}.
+     * <p>
+     * (This is done on the calling thread, so only records the session IDs. The result files
+     * themselves are located, and regenerated if required, when each entry is prepared.)
+     */
+    private List<ExportEntry> gatherExportEntries(final Delivery delivery) {
+        final List<ExportEntry> result = new ArrayList<ExportEntry>();
+        for (final CandidateSession candidateSession : candidateSessionDao.getForDelivery(delivery)) {
+            if (!candidateSession.isExploded() && (candidateSession.isFinished() || candidateSession.isTerminated())) {
+                result.add(new ExportEntry(candidateSession.getId().longValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads in (and compresses if requested) the result file for the given entry, regenerating
+     * it first if it is out of date. This is called on one of the export threads, so does its
+     * own transaction management. Only the DB access is limited by {@link #dbAccessPermits};
+     * reading and compressing the file is not.
+     */
+    private PreparedEntry prepareEntry(final ExportEntry exportEntry, final boolean compress)
+            throws IOException {
+        try {
+            dbAccessPermits.acquire();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QtiWorksRuntimeException("Interrupted while waiting to access the DB during export", e);
+        }
+        final ResultFile resultFile;
+        try {
+            resultFile = transactionTemplate.execute(new TransactionCallback<ResultFile>() {
+                @Override
+                public ResultFile doInTransaction(final TransactionStatus status) {
+                    final CandidateSession candidateSession = candidateSessionDao.findById(exportEntry.xid);
+                    if (candidateSession==null) {
+                        throw new QtiWorksRuntimeException("CandidateSession #" + exportEntry.xid + " was deleted during export");
+                    }
+                    return new ResultFile(makeReportFileName(candidateSession),
+                            candidateDataService.ensureAssessmentResultFile(candidateSession));
+                }
+            });
+        }
+        finally {
+            dbAccessPermits.release();
+        }
+        return ZipArchiveWriter.prepareEntry(resultFile.entryName, resultFile.file, compress);
+    }
+
+    /**
+     * Writes out a ZIP file containing the given entries. The entries are read and compressed
+     * in parallel, but written out in order. Only a bounded number of prepared entries is held
+     * in memory at any time.
+     */
+    private void writeArchive(final List<ExportEntry> exportEntries, final OutputStream outputStream,
+            final boolean compress, final AtomicInteger completedEntryCount)
+            throws IOException {
+        final ZipArchiveWriter zipArchiveWriter = new ZipArchiveWriter(outputStream);
+        final LinkedList<Future<PreparedEntry>> pendingEntries = new LinkedList<Future<PreparedEntry>>();
+        final Iterator<ExportEntry> entryIterator = exportEntries.iterator();
+        try {
+            while (entryIterator.hasNext() || !pendingEntries.isEmpty()) {
+                while (entryIterator.hasNext() && pendingEntries.size() < maxPendingEntries) {
+                    final ExportEntry exportEntry = entryIterator.next();
+                    pendingEntries.add(entryExecutor.submit(new Callable<PreparedEntry>() {
+                        @Override
+                        public PreparedEntry call() throws IOException {
+                            return prepareEntry(exportEntry, compress);
+                        }
+                    }));
+                }
+                zipArchiveWriter.writeEntry(awaitPreparedEntry(pendingEntries.removeFirst()));
+                completedEntryCount.incrementAndGet();
+            }
+        }
+        finally {
+            for (final Future<PreparedEntry> pendingEntry : pendingEntries) {
+                pendingEntry.cancel(true);
+            }
+        }
+        if (exportEntries.isEmpty()) {
+            zipArchiveWriter.writeEntry(ZipArchiveWriter.prepareEntry("NoResults.txt",
+                    "There are no results for this delivery yet".getBytes(Charsets.UTF_8), compress,
+                    System.currentTimeMillis()));
+        }
+        zipArchiveWriter.finish();
+    }
+
+    private PreparedEntry awaitPreparedEntry(final Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QtiWorksRuntimeException("Interrupted while waiting for ZIP entry to be prepared", e);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw QtiWorksRuntimeException.unexpectedException(cause);
+        }
+    }
+
+    /**
+     * Generates a suitably readable and unique name for the assessmentResult XML file for the
+     * given {@link CandidateSession}
+     */
+    private String makeReportFileName(final CandidateSession candidateSession) {
+        final User candidate = candidateSession.getCandidate();
+        final StringBuilder entryNameBuilder = new StringBuilder("assessmentResult-")
+            .append(candidateSession.getId())
+            .append('-');
+        if (candidate.getEmailAddress()!=null) {
+            entryNameBuilder.append(candidate.getEmailAddress());
+        }
+        else {
+            entryNameBuilder.append(candidate.getFirstName())
+                .append('-')
+                .append(candidate.getLastName());
+        }
+        entryNameBuilder.append(".xml");
+        return entryNameBuilder.toString();
+    }
+
+    //-------------------------------------------------
+
+    /** A single {@link CandidateSession} whose result file is to be added to an export */
+    private static final class ExportEntry {
+
+        final long xid;
+
+        ExportEntry(final long xid) {
+            this.xid = xid;
+        }
+    }
+
+    /** Result file located for an {@link ExportEntry}, along with the name to give it */
+    private static final class ResultFile {
+
+        final String entryName;
+        final File file;
+
+        ResultFile(final String entryName, final File file) {
+            this.entryName = entryName;
+            this.file = file;
+        }
+    }
+
+    /** Internal state of a background export job */
+    private static final class ExportJob {
+
+        final String jobId;
+        final long did;
+        final boolean compress;
+        final List<ExportEntry> exportEntries;
+        final File archiveFile;
+        final Date creationTime;
+        final AtomicInteger completedEntryCount;
+        volatile State state;
+        volatile String failureMessage;
+        volatile Date finishTime;
+
+        ExportJob(final String jobId, final long did, final boolean compress,
+                final List<ExportEntry> exportEntries, final File archiveFile) {
+            this.jobId = jobId;
+            this.did = did;
+            this.compress = compress;
+            this.exportEntries = exportEntries;
+            this.archiveFile = archiveFile;
+            this.creationTime = new Date();
+            this.completedEntryCount = new AtomicInteger();
+            this.state = State.QUEUED;
+        }
+
+        AssessmentResultExportStatus getStatus() {
+            return new AssessmentResultExportStatus(jobId, did, compress, creationTime, state,
+                    exportEntries.size(), completedEntryCount.get(), failureMessage);
+        }
+    }
+}
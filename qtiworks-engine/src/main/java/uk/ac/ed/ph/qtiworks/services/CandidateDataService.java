@@ -52,11 +52,12 @@ import uk.ac.ed.ph.qtiworks.mathassess.GlueValueBinder;
 import uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
-import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiPlus;
+import uk.ac.ed.ph.jqtiplus.exception.JqtiRuntimeException;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.attribute.Attribute;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
@@ -80,33 +81,38 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.SessionStateCodec;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.XmlSessionStateCodec;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.w3c.dom.Document;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
@@ -121,6 +127,15 @@ import com.google.common.io.Files;
 @Transactional(propagation=Propagation.SUPPORTS)
 public class CandidateDataService {
 
+    /** Codec used to write and read XML state files */
+    private static final SessionStateCodec xmlStateCodec = new XmlSessionStateCodec();
+
+    /** Codec used to write and read binary state files, and test state deltas */
+    private static final BinarySessionStateCodec binaryStateCodec = new BinarySessionStateCodec();
+
+    /** File extension used for test state deltas */
+    private static final String TEST_STATE_DELTA_FILE_EXTENSION = "delta";
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -136,12 +151,18 @@ public class CandidateDataService {
     @Resource
     private AssessmentObjectManagementService assessmentObjectManagementService;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
     @Resource
     private CandidateEventDao candidateEventDao;
 
+    @Resource
+    private CandidateSessionDao candidateSessionDao;
+
     @Resource
     private CandidateEventNotificationDao candidateEventNotificationDao;
 
@@ -151,10 +172,61 @@ public class CandidateDataService {
     @Resource
     private JqtiExtensionManager jqtiExtensionManager;
 
+    /** Codec used when storing new state, chosen according to the deployment settings */
+    private SessionStateCodec stateCodec;
+
+    /**
+     * Number of consecutive test events sharing each full snapshot of test state. Events
+     * in between store deltas. A value of 1 means that a full snapshot is stored for
+     * each event.
+     */
+    private int stateCheckpointInterval;
+
+    @PostConstruct
+    public void init() {
+        final String stateFormat = qtiWorksDeploymentSettings.getStateFormat();
+        if ("xml".equals(stateFormat)) {
+            this.stateCodec = xmlStateCodec;
+        }
+        else if ("binary".equals(stateFormat)) {
+            this.stateCodec = binaryStateCodec;
+        }
+        else {
+            throw new QtiWorksRuntimeException("Unsupported qtiworks.state.format value '" + stateFormat + "'");
+        }
+        this.stateCheckpointInterval = qtiWorksDeploymentSettings.getStateCheckpointInterval();
+        if (stateCheckpointInterval < 1) {
+            throw new QtiWorksRuntimeException("qtiworks.state.checkpointInterval must be at least 1");
+        }
+    }
+
     //----------------------------------------------------
     // Notification recording
 
     public CandidateEventNotification recordNotification(final CandidateEvent candidateEvent, final Notification notification) {
+        final CandidateEventNotification record = createNotificationRecord(candidateEvent, notification);
+        candidateEventNotificationDao.persist(record);
+        return record;
+    }
+
+    /**
+     * Records all of the {@link Notification}s in the given {@link NotificationRecorder}
+     * (if not null) against the given {@link CandidateEvent}. These are persisted together so
+     * that they end up being inserted in a single JDBC batch.
+     */
+    private void recordNotifications(final CandidateEvent candidateEvent, final NotificationRecorder notificationRecorder) {
+        if (notificationRecorder==null) {
+            return;
+        }
+        final List<Notification> notifications = notificationRecorder.getNotifications();
+        final List<CandidateEventNotification> records = new ArrayList<CandidateEventNotification>(notifications.size());
+        for (final Notification notification : notifications) {
+            records.add(createNotificationRecord(candidateEvent, notification));
+        }
+        candidateEventNotificationDao.persistAll(records);
+    }
+
+    private CandidateEventNotification createNotificationRecord(final CandidateEvent candidateEvent, final Notification notification) {
         final CandidateEventNotification record = new CandidateEventNotification();
         record.setCandidateEvent(candidateEvent);
 
@@ -179,7 +251,6 @@ public class CandidateDataService {
         }
 
         candidateEvent.getNotifications().add(record);
-        candidateEventNotificationDao.persist(record);
         return record;
     }
 
@@ -187,6 +258,10 @@ public class CandidateDataService {
     // Item or Test methods
 
     public AssessmentResult computeAssessmentResult(final CandidateEvent candidateEvent) {
+        return computeAssessmentResult(candidateEvent, requestTimestampContext.getCurrentRequestTimestamp());
+    }
+
+    private AssessmentResult computeAssessmentResult(final CandidateEvent candidateEvent, final Date timestamp) {
         if (candidateEvent==null) {
             /* Session not entered, so return empty result */
             return new AssessmentResult();
@@ -195,11 +270,11 @@ public class CandidateDataService {
         switch (assessmentType) {
             case ASSESSMENT_ITEM:
                 final ItemSessionController itemSessionController = createItemSessionController(candidateEvent, null);
-                return computeItemAssessmentResult(candidateEvent.getCandidateSession(), itemSessionController);
+                return computeItemAssessmentResult(candidateEvent.getCandidateSession(), itemSessionController, timestamp);
 
             case ASSESSMENT_TEST:
                 final TestSessionController testSessionController = createTestSessionController(candidateEvent, null);
-                return computeTestAssessmentResult(candidateEvent.getCandidateSession(), testSessionController);
+                return computeTestAssessmentResult(candidateEvent.getCandidateSession(), testSessionController, timestamp);
 
             default:
                 throw new QtiWorksLogicException("Unexpected switch case " + assessmentType);
@@ -226,13 +301,41 @@ public class CandidateDataService {
     // Item methods
 
     public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
-        final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        final File sessionStateFile = getSessionStateFile(candidateEvent, stateCodec);
+        OutputStream resultStream = null;
+        try {
+            resultStream = new BufferedOutputStream(new FileOutputStream(sessionStateFile));
+            stateCodec.encodeItemSessionState(itemSessionState, resultStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(resultStream);
+        }
+        candidateSessionStateCache.putItemSessionState(candidateEvent, itemSessionState);
     }
 
     public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        final ItemSessionState cachedState = candidateSessionStateCache.getItemSessionState(candidateEvent);
+        if (cachedState!=null) {
+            return cachedState;
+        }
+        final File sessionStateFile = ensureSessionStateFile(candidateEvent);
+        InputStream stateStream = null;
+        try {
+            stateStream = new BufferedInputStream(new FileInputStream(sessionStateFile));
+            return getSessionStateCodec(sessionStateFile).decodeItemSessionState(stateStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        catch (final JqtiRuntimeException e) {
+            throw new QtiWorksLogicException("Could not decode stored state. This is an internal error as we currently don't expose this data to clients", e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(stateStream);
+        }
     }
 
     public CandidateEvent recordCandidateItemEvent(final CandidateSession candidateSession,
@@ -256,11 +359,7 @@ public class CandidateDataService {
         storeItemSessionState(event, itemSessionState);
 
         /* Now store processing notifications */
-        if (notificationRecorder!=null) {
-            for (final Notification notification : notificationRecorder.getNotifications()) {
-                recordNotification(event, notification);
-            }
-        }
+        recordNotifications(event, notificationRecorder);
 
         return event;
     }
@@ -368,9 +467,14 @@ public class CandidateDataService {
     }
 
     public AssessmentResult computeItemAssessmentResult(final CandidateSession candidateSession, final ItemSessionController itemSessionController) {
+        return computeItemAssessmentResult(candidateSession, itemSessionController, requestTimestampContext.getCurrentRequestTimestamp());
+    }
+
+    private AssessmentResult computeItemAssessmentResult(final CandidateSession candidateSession, final ItemSessionController itemSessionController,
+            final Date timestamp) {
         final URI sessionIdentifierSourceId = URI.create(qtiWorksDeploymentSettings.getBaseUrl());
         final String sessionIdentifier = "itemsession/" + candidateSession.getId();
-        return itemSessionController.computeAssessmentResult(requestTimestampContext.getCurrentRequestTimestamp(), sessionIdentifier, sessionIdentifierSourceId);
+        return itemSessionController.computeAssessmentResult(timestamp, sessionIdentifier, sessionIdentifierSourceId);
     }
 
     public void recordItemAssessmentResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
@@ -381,6 +485,14 @@ public class CandidateDataService {
         recordOutcomeVariables(candidateSession, assessmentResult.getItemResults().get(0));
     }
 
+    public void recordItemOutcomeVariables(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
+        /* Any existing result XML file is now out of date */
+        invalidateAssessmentResultFile(candidateSession);
+
+        /* Record item outcome variables to DB */
+        recordOutcomeVariables(candidateSession, assessmentResult.getItemResults().get(0));
+    }
+
     public void ensureItemDelivery(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
         if (delivery.getAssessment().getAssessmentType()!=AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -391,14 +503,179 @@ public class CandidateDataService {
     //----------------------------------------------------
     // Test methods
 
+    /**
+     * Stores the given {@link TestSessionState} for the given (newly persisted) {@link CandidateEvent}.
+     * <p>
+     * If the state checkpoint interval is greater than 1, this stores a delta against the
+     * state of the previous event in the session where possible, only storing a full
+     * snapshot every {@link #stateCheckpointInterval} events, or whenever the previous state
+     * can't be found.
+     * <p>
+     * The caller must hold the lock on the {@link CandidateSession} taken out by
+     * {@link CandidateSessionDao#lockForUpdate(CandidateSession)} before persisting the
+     * {@link CandidateEvent}, so that the previous event can't change under us.
+     */
     public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
-        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        boolean storedDelta = false;
+        if (stateCheckpointInterval > 1) {
+            /* Find the state chain for the event before this one, if short enough to add a delta to */
+            final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+            final CandidateEvent previousEvent = candidateEventDao.getNewestEventInSessionBefore(candidateSession, candidateEvent);
+            final List<CandidateEvent> previousStateChain = previousEvent!=null
+                    ? getTestStateChain(candidateSession, previousEvent.getId().longValue(), stateCheckpointInterval - 1, false)
+                    : null;
+            if (previousStateChain!=null) {
+                /* Get previous state, preferably from the cache */
+                TestSessionState previousState = candidateSessionStateCache.getTestSessionState(previousStateChain.get(previousStateChain.size() - 1));
+                if (previousState==null) {
+                    previousState = rebuildTestSessionState(previousStateChain);
+                }
+                if (previousState.getTestPlan().equals(testSessionState.getTestPlan())) {
+                    storeTestSessionStateDelta(candidateEvent, previousState, testSessionState);
+                    storedDelta = true;
+                }
+            }
+        }
+        if (!storedDelta) {
+            storeTestSessionStateSnapshot(candidateEvent, testSessionState);
+        }
+        candidateSessionStateCache.putTestSessionState(candidateEvent, testSessionState);
+    }
+
+    private void storeTestSessionStateSnapshot(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        final File sessionStateFile = getSessionStateFile(candidateEvent, stateCodec);
+        OutputStream resultStream = null;
+        try {
+            resultStream = new BufferedOutputStream(new FileOutputStream(sessionStateFile));
+            stateCodec.encodeTestSessionState(testSessionState, resultStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(resultStream);
+        }
+    }
+
+    private void storeTestSessionStateDelta(final CandidateEvent candidateEvent, final TestSessionState previousState,
+            final TestSessionState testSessionState) {
+        final File deltaFile = getTestStateDeltaFile(candidateEvent);
+        OutputStream resultStream = null;
+        try {
+            resultStream = new BufferedOutputStream(new FileOutputStream(deltaFile));
+            binaryStateCodec.encodeTestSessionStateDelta(previousState, testSessionState, resultStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(resultStream);
+        }
     }
 
     public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        /* Use cached state if available */
+        final TestSessionState cachedState = candidateSessionStateCache.getTestSessionState(candidateEvent);
+        if (cachedState!=null) {
+            return cachedState;
+        }
+
+        /* Otherwise try snapshot next, as this is the common case */
+        final File sessionStateFile = findSessionStateFile(candidateEvent);
+        if (sessionStateFile!=null) {
+            return loadTestSessionStateSnapshot(sessionStateFile);
+        }
+
+        /* Otherwise rebuild from the nearest snapshot and subsequent deltas. The chain will normally
+         * be no longer than the checkpoint interval, but may be longer if this has been reduced
+         * since the state was stored.
+         */
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final long eventId = candidateEvent.getId().longValue();
+        List<CandidateEvent> stateChain = getTestStateChain(candidateSession, eventId, stateCheckpointInterval, true);
+        if (stateChain==null) {
+            stateChain = getTestStateChain(candidateSession, eventId, Integer.MAX_VALUE, true);
+        }
+        if (stateChain==null) {
+            throw new QtiWorksLogicException("Expectation failed: No state stored for " + candidateEvent);
+        }
+        return rebuildTestSessionState(stateChain);
+    }
+
+    /**
+     * Returns the {@link CandidateEvent}s in the given {@link CandidateSession} needed to
+     * rebuild the test state at the event having the given ID (or the newest one before it), namely
+     * the nearest event having a full state snapshot followed by the subsequent events
+     * having deltas. Only the newest maxLength events are considered.
+     *
+     * @param strict if true, then an event having no stored state is treated as an error.
+     *   If false, this simply returns null in this case.
+     *
+     * @return chain of events, oldest first, or null if no snapshot was found within the
+     *   newest maxLength events
+     */
+    private List<CandidateEvent> getTestStateChain(final CandidateSession candidateSession, final long lastEventId,
+            final int maxLength, final boolean strict) {
+        if (maxLength < 1) {
+            return null;
+        }
+        final LinkedList<CandidateEvent> result = new LinkedList<CandidateEvent>();
+        for (final CandidateEvent candidateEvent : candidateEventDao.getForSessionReversed(candidateSession, lastEventId, maxLength)) {
+            result.addFirst(candidateEvent);
+            if (findSessionStateFile(candidateEvent)!=null) {
+                return result;
+            }
+            if (!getTestStateDeltaFile(candidateEvent).exists()) {
+                if (!strict) {
+                    return null;
+                }
+                throw new QtiWorksLogicException("Expectation failed: No state stored for " + candidateEvent);
+            }
+        }
+        if (!result.isEmpty() && maxLength==Integer.MAX_VALUE) {
+            throw new QtiWorksLogicException("Expectation failed: No state snapshot found before " + result.getLast());
+        }
+        return null;
+    }
+
+    private TestSessionState rebuildTestSessionState(final List<CandidateEvent> stateChain) {
+        final Iterator<CandidateEvent> eventIterator = stateChain.iterator();
+        TestSessionState result = loadTestSessionStateSnapshot(findSessionStateFile(eventIterator.next()));
+        while (eventIterator.hasNext()) {
+            final File deltaFile = getTestStateDeltaFile(eventIterator.next());
+            InputStream deltaStream = null;
+            try {
+                deltaStream = new BufferedInputStream(new FileInputStream(deltaFile));
+                result = binaryStateCodec.decodeTestSessionStateDelta(result, deltaStream);
+            }
+            catch (final IOException e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
+            catch (final JqtiRuntimeException e) {
+                throw new QtiWorksLogicException("Could not decode stored state delta. This is an internal error as we currently don't expose this data to clients", e);
+            }
+            finally {
+                ServiceUtilities.ensureClose(deltaStream);
+            }
+        }
+        return result;
+    }
+
+    private TestSessionState loadTestSessionStateSnapshot(final File sessionStateFile) {
+        InputStream stateStream = null;
+        try {
+            stateStream = new BufferedInputStream(new FileInputStream(sessionStateFile));
+            return getSessionStateCodec(sessionStateFile).decodeTestSessionState(stateStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        catch (final JqtiRuntimeException e) {
+            throw new QtiWorksLogicException("Could not decode stored state. This is an internal error as we currently don't expose this data to clients", e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(stateStream);
+        }
     }
 
     /**
@@ -525,6 +802,9 @@ public class CandidateDataService {
         }
         event.setTimestamp(requestTimestampContext.getCurrentRequestTimestamp());
 
+        /* Lock the session so that concurrent requests record their events and state one at a time */
+        candidateSessionDao.lockForUpdate(candidateSession);
+
         /* Store event */
         candidateEventDao.persist(event);
 
@@ -532,19 +812,32 @@ public class CandidateDataService {
         storeTestSessionState(event, testSessionState);
 
         /* Now store processing notifications */
-        if (notificationRecorder!=null) {
-            for (final Notification notification : notificationRecorder.getNotifications()) {
-                recordNotification(event, notification);
-            }
-        }
+        recordNotifications(event, notificationRecorder);
 
         return event;
     }
 
     public AssessmentResult computeTestAssessmentResult(final CandidateSession candidateSession, final TestSessionController testSessionController) {
+        return computeTestAssessmentResult(candidateSession, testSessionController, requestTimestampContext.getCurrentRequestTimestamp());
+    }
+
+    private AssessmentResult computeTestAssessmentResult(final CandidateSession candidateSession, final TestSessionController testSessionController,
+            final Date timestamp) {
         final URI sessionIdentifierSourceId = URI.create(qtiWorksDeploymentSettings.getBaseUrl());
         final String sessionIdentifier = "testsession/" + candidateSession.getId();
-        return testSessionController.computeAssessmentResult(requestTimestampContext.getCurrentRequestTimestamp(), sessionIdentifier, sessionIdentifierSourceId);
+        return testSessionController.computeAssessmentResult(timestamp, sessionIdentifier, sessionIdentifierSourceId);
+    }
+
+    /**
+     * Computes the current {@link AssessmentResult} and records its outcome variables in the DB,
+     * but doesn't write out the full assessmentResult XML file. (This gets regenerated from the
+     * most recent {@link CandidateEvent} when next required.) Use this for navigation and other
+     * actions that don't end a testPart or the test itself.
+     */
+    public AssessmentResult computeAndRecordTestOutcomeVariables(final CandidateSession candidateSession, final TestSessionController testSessionController) {
+        final AssessmentResult assessmentResult = computeTestAssessmentResult(candidateSession, testSessionController);
+        recordTestOutcomeVariables(candidateSession, assessmentResult);
+        return assessmentResult;
     }
 
     public AssessmentResult computeAndRecordTestAssessmentResult(final CandidateSession candidateSession, final TestSessionController testSessionController) {
@@ -561,6 +854,14 @@ public class CandidateDataService {
         recordOutcomeVariables(candidateSession, assessmentResult.getTestResult());
     }
 
+    public void recordTestOutcomeVariables(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
+        /* Any existing result XML file is now out of date */
+        invalidateAssessmentResultFile(candidateSession);
+
+        /* Record test outcome variables to DB */
+        recordOutcomeVariables(candidateSession, assessmentResult.getTestResult());
+    }
+
     private void ensureTestDelivery(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
         if (delivery.getAssessment().getAssessmentType()!=AssessmentObjectType.ASSESSMENT_TEST) {
@@ -571,78 +872,159 @@ public class CandidateDataService {
     //----------------------------------------------------
     // State file management
 
-    private void storeStateDocument(final CandidateEvent candidateEvent, final Document stateXml) {
-        final File sessionFile = getSessionStateFile(candidateEvent);
-        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
-        xsltSerializationOptions.setIndenting(true);
-        xsltSerializationOptions.setIncludingXMLDeclaration(false);
-        final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
-        FileOutputStream resultStream = null;
-        try {
-            resultStream = new FileOutputStream(sessionFile);
-            serializer.transform(new DOMSource(stateXml), new StreamResult(resultStream));
+    /**
+     * Returns the stored state for the given {@link CandidateEvent} as XML, converting from
+     * the binary encoding if required. This is used to show state to authors and
+     * is not performance critical.
+     */
+    public byte[] loadSessionStateXml(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = findSessionStateFile(candidateEvent);
+        if (sessionStateFile!=null && getSessionStateCodec(sessionStateFile)==xmlStateCodec) {
+            try {
+                return Files.toByteArray(sessionStateFile);
+            }
+            catch (final IOException e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
         }
-        catch (final TransformerException e) {
-            throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
+        final ByteArrayOutputStream xmlStream = new ByteArrayOutputStream();
+        try {
+            final AssessmentObjectType assessmentType = candidateEvent.getCandidateSession().getDelivery().getAssessment().getAssessmentType();
+            if (assessmentType==AssessmentObjectType.ASSESSMENT_ITEM) {
+                xmlStateCodec.encodeItemSessionState(loadItemSessionState(candidateEvent), xmlStream);
+            }
+            else {
+                xmlStateCodec.encodeTestSessionState(loadTestSessionState(candidateEvent), xmlStream);
+            }
         }
-        catch (final FileNotFoundException e) {
+        catch (final IOException e) {
             throw QtiWorksRuntimeException.unexpectedException(e);
         }
-        finally {
-            ServiceUtilities.ensureClose(resultStream);
+        return xmlStream.toByteArray();
+    }
+
+    public File ensureSessionStateFile(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = findSessionStateFile(candidateEvent);
+        if (sessionStateFile==null) {
+            throw new QtiWorksLogicException("Expectation failed: State file for " + candidateEvent + " does not exist");
         }
+        return sessionStateFile;
     }
 
-    private Document loadStateDocument(final CandidateEvent candidateEvent) {
-        final File sessionFile = ensureSessionStateFile(candidateEvent);
-        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
-        try {
-            return documentBuilder.parse(sessionFile);
+    /**
+     * Locates the full state snapshot file for the given {@link CandidateEvent}, returning null
+     * if there is no such file. (This will be the case for test events storing deltas.)
+     * We look for a file in the currently configured format first, falling back to the other
+     * format so that sessions begun before the format was changed can still be resumed.
+     */
+    private File findSessionStateFile(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = getSessionStateFile(candidateEvent, stateCodec);
+        if (sessionStateFile.exists()) {
+            return sessionStateFile;
         }
-        catch (final Exception e) {
-            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        final SessionStateCodec fallbackCodec = stateCodec==xmlStateCodec ? binaryStateCodec : xmlStateCodec;
+        final File fallbackStateFile = getSessionStateFile(candidateEvent, fallbackCodec);
+        if (fallbackStateFile.exists()) {
+            return fallbackStateFile;
         }
+        return null;
     }
 
-    public File ensureSessionStateFile(final CandidateEvent candidateEvent) {
-        final File sessionStateFile = getSessionStateFile(candidateEvent);
-        if (!sessionStateFile.exists()) {
-            throw new QtiWorksLogicException("Expectation failed: State file " + sessionStateFile + " does not exist");
-        }
-        return sessionStateFile;
+    private SessionStateCodec getSessionStateCodec(final File sessionStateFile) {
+        return sessionStateFile.getName().endsWith("." + binaryStateCodec.getFileExtension()) ? binaryStateCodec : xmlStateCodec;
     }
 
-    private File getSessionStateFile(final CandidateEvent candidateEvent) {
+    private File getSessionStateFile(final CandidateEvent candidateEvent, final SessionStateCodec codec) {
         final CandidateSession candidateSession = candidateEvent.getCandidateSession();
         final AssessmentObjectType assessmentType = candidateSession.getDelivery().getAssessment().getAssessmentType();
         final String stateFileBaseName = assessmentType==AssessmentObjectType.ASSESSMENT_ITEM ? "itemSessionState" : "testSessionState";
         final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
-        final String stateFileName = stateFileBaseName + candidateEvent.getId() + ".xml";
+        final String stateFileName = stateFileBaseName + candidateEvent.getId() + "." + codec.getFileExtension();
         return new File(sessionFolder, stateFileName);
     }
 
+    private File getTestStateDeltaFile(final CandidateEvent candidateEvent) {
+        final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateEvent.getCandidateSession());
+        return new File(sessionFolder, "testSessionState" + candidateEvent.getId() + "." + TEST_STATE_DELTA_FILE_EXTENSION);
+    }
+
     //----------------------------------------------------
     // Result file management
 
+    /**
+     * Writes out the assessmentResult XML file for the given {@link CandidateSession}.
+     * <p>
+     * The XML is written to a temporary file in the same folder, which is then renamed into
+     * place. This means that concurrent readers (e.g. exports) will only ever see a complete
+     * file, and that {@link #ensureAssessmentResultFile(CandidateSession)} won't mistake a
+     * partially written file for an up to date one.
+     */
     private void storeAssessmentResultFile(final CandidateSession candidateSession, final QtiNode resultNode) {
         final File resultFile = getAssessmentResultFile(candidateSession);
+        File tempFile = null;
         FileOutputStream resultStream = null;
         try {
-            resultStream = new FileOutputStream(resultFile);
+            tempFile = File.createTempFile(resultFile.getName(), ".tmp", resultFile.getParentFile());
+            resultStream = new FileOutputStream(tempFile);
             qtiSerializer.serializeJqtiObject(resultNode, resultStream);
+            resultStream.close();
+            resultStream = null;
+            moveIntoPlace(tempFile, resultFile);
+            tempFile = null;
         }
         catch (final Exception e) {
             throw QtiWorksRuntimeException.unexpectedException(e);
         }
         finally {
             ServiceUtilities.ensureClose(resultStream);
+            if (tempFile!=null) {
+                tempFile.delete();
+            }
         }
     }
 
+    /**
+     * Renames the given temporary file to the given target file, replacing any existing file.
+     * <p>
+     * (Renaming within the same folder is atomic on POSIX filesystems. Some platforms won't rename
+     * over an existing file, in which case we remove the target first and try again.)
+     */
+    private static void moveIntoPlace(final File tempFile, final File targetFile) throws IOException {
+        if (tempFile.renameTo(targetFile)) {
+            return;
+        }
+        if (targetFile.exists() && targetFile.delete() && tempFile.renameTo(targetFile)) {
+            return;
+        }
+        throw new IOException("Could not rename " + tempFile + " to " + targetFile);
+    }
+
+    /**
+     * Deletes the stored assessmentResult XML file for the given {@link CandidateSession}, if
+     * it exists. This is done whenever an action changes the result without writing out a new
+     * file, so that an up to date file gets regenerated by {@link #ensureAssessmentResultFile(CandidateSession)}
+     * when next required.
+     */
+    private void invalidateAssessmentResultFile(final CandidateSession candidateSession) {
+        final File resultFile = getAssessmentResultFile(candidateSession);
+        if (resultFile.exists() && !resultFile.delete()) {
+            throw new QtiWorksRuntimeException("Could not delete out of date assessmentResult file " + resultFile);
+        }
+    }
+
+    /**
+     * Returns the stored assessmentResult XML file for the given {@link CandidateSession},
+     * regenerating it from the most recent {@link CandidateEvent} if it is not currently up
+     * to date.
+     */
     public File ensureAssessmentResultFile(final CandidateSession candidateSession) {
         final File resultFile = getAssessmentResultFile(candidateSession);
         if (!resultFile.exists()) {
-            throw new QtiWorksLogicException("Expectation failed: assessmentResult file " + resultFile + " does not exist");
+            final CandidateEvent mostRecentEvent = getMostRecentEvent(candidateSession);
+            if (mostRecentEvent==null) {
+                throw new QtiWorksLogicException("Expectation failed: assessmentResult file " + resultFile + " does not exist");
+            }
+            storeAssessmentResultFile(candidateSession, computeAssessmentResult(mostRecentEvent, mostRecentEvent.getTimestamp()));
         }
         return resultFile;
     }
@@ -653,13 +1035,14 @@ public class CandidateDataService {
     }
 
     public String readAssessmentResultFile(final CandidateSession candidateSession) {
-        final File resultFile = getAssessmentResultFile(candidateSession);
-        if (!resultFile.exists()) {
+        if (getMostRecentEvent(candidateSession)==null) {
+            /* Session not entered, so there's no result */
             return null;
         }
+        final File resultFile = ensureAssessmentResultFile(candidateSession);
         try {
             /* NB: We're using the fact that we're writing out as UTF-8 when storing these files */
-            return Files.toString(getAssessmentResultFile(candidateSession), Charsets.UTF_8);
+            return Files.toString(resultFile, Charsets.UTF_8);
         }
         catch (final IOException e) {
             throw QtiWorksRuntimeException.unexpectedException(e);
@@ -677,20 +1060,53 @@ public class CandidateDataService {
         return candidateEventDao.getNewestEventInSession(candidateSession);
     }
 
+    /**
+     * Updates the {@link CandidateSessionOutcome}s recorded for the given {@link CandidateSession}
+     * to match the outcome variables in the given result. Only outcomes that have actually changed
+     * since they were last recorded are written to the DB.
+     */
     private void recordOutcomeVariables(final CandidateSession candidateSession, final AbstractResult resultNode) {
-        candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+        /* Look up existing outcomes, keyed on identifier */
+        final Map<String, CandidateSessionOutcome> existingOutcomeMap = new HashMap<String, CandidateSessionOutcome>();
+        for (final CandidateSessionOutcome existingOutcome : candidateSessionOutcomeDao.getForSession(candidateSession)) {
+            existingOutcomeMap.put(existingOutcome.getOutcomeIdentifier(), existingOutcome);
+        }
+
+        /* Work out what's changed */
+        final List<CandidateSessionOutcome> newOutcomes = new ArrayList<CandidateSessionOutcome>();
         for (final ItemVariable itemVariable : resultNode.getItemVariables()) {
             if (itemVariable instanceof OutcomeVariable
                     || QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(itemVariable.getIdentifier())) {
+                final String outcomeIdentifier = itemVariable.getIdentifier().toString();
+                final String stringValue = stringifyQtiValue(itemVariable.getComputedValue());
+                final CandidateSessionOutcome existingOutcome = existingOutcomeMap.remove(outcomeIdentifier);
+                if (existingOutcome!=null) {
+                    if (existingOutcome.getBaseType()==itemVariable.getBaseType()
+                            && existingOutcome.getCardinality()==itemVariable.getCardinality()) {
+                        if (!stringValue.equals(existingOutcome.getStringValue())) {
+                            existingOutcome.setStringValue(stringValue);
+                            candidateSessionOutcomeDao.update(existingOutcome);
+                        }
+                        continue;
+                    }
+                    /* (Variable has changed type, so replace it) */
+                    candidateSessionOutcomeDao.remove(existingOutcome);
+                }
                 final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
                 outcome.setCandidateSession(candidateSession);
-                outcome.setOutcomeIdentifier(itemVariable.getIdentifier().toString());
+                outcome.setOutcomeIdentifier(outcomeIdentifier);
                 outcome.setBaseType(itemVariable.getBaseType());
                 outcome.setCardinality(itemVariable.getCardinality());
-                outcome.setStringValue(stringifyQtiValue(itemVariable.getComputedValue()));
-                candidateSessionOutcomeDao.persist(outcome);
+                outcome.setStringValue(stringValue);
+                newOutcomes.add(outcome);
             }
         }
+
+        /* Remove any outcomes that are no longer present, then add new ones */
+        for (final CandidateSessionOutcome staleOutcome : existingOutcomeMap.values()) {
+            candidateSessionOutcomeDao.remove(staleOutcome);
+        }
+        candidateSessionOutcomeDao.persistAll(newOutcomes);
     }
 
     private String stringifyQtiValue(final Value value) {
@@ -0,0 +1,270 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bounded in-memory cache of the newest {@link ItemSessionState} or {@link TestSessionState}
+ * for recently active {@link CandidateSession}s. This lets us avoid reading and parsing
+ * the stored state file (and any chain of test state deltas) on each candidate request.
+ * <p>
+ * The cache is kept up to date by {@link CandidateDataService} each time state is stored
+ * ("write through"), so the state files remain the durable record of each session.
+ * Each entry is keyed on the session ID and records the ID of the {@link CandidateEvent}
+ * it corresponds to, so we only hit when the newest state is wanted.
+ * <p>
+ * States are held in the compact binary encoding used by {@link BinarySessionStateCodec},
+ * NOT as decoded objects, so each cache hit still decodes the state. This means that callers
+ * always get a fresh copy which they may freely modify, which is how the JQTI+ controllers
+ * work. (The JQTI+ state classes have no means of copying themselves, so caching decoded
+ * objects would not save this step anyway.)
+ * <p>
+ * Entries for terminated sessions are not cached.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @author David McKain
+ */
+@Service
+public class CandidateSessionStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionStateCache.class);
+
+    private static final BinarySessionStateCodec stateCodec = new BinarySessionStateCodec();
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    private LruHashMap<Long, CachedState> cache;
+    private boolean enabled;
+    private int cacheMissCount;
+    private int cacheHitCount;
+
+    @PostConstruct
+    public void init() {
+        final int cacheSize = qtiWorksDeploymentSettings.getStateCacheSize();
+        this.enabled = cacheSize > 0;
+        this.cache = new LruHashMap<Long, CachedState>();
+        this.cache.setMaxSize(cacheSize);
+        this.cacheMissCount = 0;
+        this.cacheHitCount = 0;
+        logger.info("Candidate session state cache size is {}", Integer.valueOf(cacheSize));
+    }
+
+    public void putItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        Assert.notNull(itemSessionState, "itemSessionState");
+        if (!shouldCache(candidateEvent)) {
+            return;
+        }
+        final ByteArrayOutputStream stateStream = new ByteArrayOutputStream();
+        try {
+            stateCodec.encodeItemSessionState(itemSessionState, stateStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        put(candidateEvent, stateStream.toByteArray());
+    }
+
+    public void putTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        Assert.notNull(testSessionState, "testSessionState");
+        if (!shouldCache(candidateEvent)) {
+            return;
+        }
+        final ByteArrayOutputStream stateStream = new ByteArrayOutputStream();
+        try {
+            stateCodec.encodeTestSessionState(testSessionState, stateStream);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        put(candidateEvent, stateStream.toByteArray());
+    }
+
+    /**
+     * Returns a fresh copy of the cached {@link ItemSessionState} for the given {@link CandidateEvent},
+     * decoded from its cached binary form, or null if it is not cached.
+     */
+    public ItemSessionState getItemSessionState(final CandidateEvent candidateEvent) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        final byte[] encodedState = get(candidateEvent);
+        if (encodedState==null) {
+            return null;
+        }
+        try {
+            return stateCodec.decodeItemSessionState(new ByteArrayInputStream(encodedState));
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    /**
+     * Returns a fresh copy of the cached {@link TestSessionState} for the given {@link CandidateEvent},
+     * decoded from its cached binary form, or null if it is not cached.
+     */
+    public TestSessionState getTestSessionState(final CandidateEvent candidateEvent) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        final byte[] encodedState = get(candidateEvent);
+        if (encodedState==null) {
+            return null;
+        }
+        try {
+            return stateCodec.decodeTestSessionState(new ByteArrayInputStream(encodedState));
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    /**
+     * Removes any cached state for the given {@link CandidateSession}. This should be called
+     * when the session is terminated or deleted.
+     */
+    public void purge(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final Long xid = candidateSession.getId();
+        synchronized (cache) {
+            if (cache.remove(xid)!=null) {
+                logger.debug("Actively purged state for session #{}", xid);
+            }
+        }
+    }
+
+    private boolean shouldCache(final CandidateEvent candidateEvent) {
+        if (!enabled) {
+            return false;
+        }
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        if (candidateSession.isTerminated()) {
+            purge(candidateSession);
+            return false;
+        }
+        return true;
+    }
+
+    private void put(final CandidateEvent candidateEvent, final byte[] encodedState) {
+        final Long xid = candidateEvent.getCandidateSession().getId();
+        final CachedState cachedState = new CachedState(candidateEvent.getId().longValue(), encodedState);
+        synchronized (cache) {
+            /* (Remove first so that this session becomes the most recently used) */
+            cache.remove(xid);
+            cache.put(xid, cachedState);
+        }
+    }
+
+    private byte[] get(final CandidateEvent candidateEvent) {
+        if (!enabled) {
+            return null;
+        }
+        final Long xid = candidateEvent.getCandidateSession().getId();
+        final long eventId = candidateEvent.getId().longValue();
+        synchronized (cache) {
+            final CachedState cachedState = cache.get(xid);
+            if (cachedState!=null && cachedState.eventId==eventId) {
+                logger.debug("Cache HIT for session #{} event #{}", xid, eventId);
+                cacheHitCount++;
+                return cachedState.encodedState;
+            }
+            logger.debug("Cache MISS for session #{} event #{}", xid, eventId);
+            cacheMissCount++;
+            return null;
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Reporting
+
+    public int getCacheUsage() {
+        return cache.size();
+    }
+
+    public int getCacheMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    public int getCacheMissCount() {
+        return cacheMissCount;
+    }
+
+    public int getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    public int getCachePurgeCount() {
+        return cache.getPurgeCount();
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final class CachedState {
+
+        private final long eventId;
+        private final byte[] encodedState;
+
+        public CachedState(final long eventId, final byte[] encodedState) {
+            this.eventId = eventId;
+            this.encodedState = encodedState;
+        }
+    }
+}
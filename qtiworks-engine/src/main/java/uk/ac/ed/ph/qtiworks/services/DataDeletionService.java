@@ -98,6 +98,9 @@ public class DataDeletionService {
     @Resource
     private AssessmentObjectManagementService assessmentObjectManagementService;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
@@ -143,6 +146,9 @@ public class DataDeletionService {
             logger.error("Failed to delete stored session data for CandiateSession {}", candidateSession.getId());
         }
 
+        /* Forget any cached state */
+        candidateSessionStateCache.purge(candidateSession);
+
         /* Delete entities, taking advantage of cascading */
         candidateSessionDao.remove(candidateSession); /* (This will cascade) */
     }
@@ -161,6 +167,7 @@ public class DataDeletionService {
         /* Delete each session entity, taking advantage of cascading */
         final List<CandidateSession> candidateSessions = candidateSessionDao.getForDelivery(delivery);
         for (final CandidateSession candidateSession : candidateSessions) {
+            candidateSessionStateCache.purge(candidateSession);
             candidateSessionDao.remove(candidateSession);
         }
         return candidateSessions.size();
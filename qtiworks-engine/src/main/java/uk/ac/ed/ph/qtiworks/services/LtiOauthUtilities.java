@@ -164,15 +164,31 @@ public final class LtiOauthUtilities {
      * @throws QtiWorksLogicException
      */
     public static boolean sendLisResultMessage(final OAuthMessage lisResultMessage) {
+        return sendLisResultMessage(lisResultMessage, new OAuthClient(new HttpClient4()));
+    }
+
+    /**
+     * Attempts to send the given LIS result message
+     * (constructed by {@link #createLisResultMessage(String, String, String, String, double)}
+     * to the corresponding LIS outcome service, using the given {@link OAuthClient}.
+     * <p>
+     * Use this when sending lots of messages so that HTTP connections can be shared between
+     * them.
+     *
+     * @param lisResultMessage LIS result message to be send to the outcome service
+     * @param oauthClient client to use to send the message
+     *
+     * @throws QtiWorksLogicException
+     */
+    public static boolean sendLisResultMessage(final OAuthMessage lisResultMessage, final OAuthClient oauthClient) {
         Assert.notNull(lisResultMessage, "lisResultMessage");
+        Assert.notNull(oauthClient, "oauthClient");
 
         /* Send message to TC result service endpoint */
         final OAuthResponseMessage oauthResponseMessage;
         try {
             logger.debug("Attempting to send OAuth message {}", lisResultMessage);
-            final HttpClient4 httpClient4 = new HttpClient4();
-            final OAuthClient client = new OAuthClient(httpClient4);
-            oauthResponseMessage = client.access(lisResultMessage, ParameterStyle.AUTHORIZATION_HEADER);
+            oauthResponseMessage = oauthClient.access(lisResultMessage, ParameterStyle.AUTHORIZATION_HEADER);
         }
         catch (final IOException e) {
             logger.warn("Failed to send OAuthMessage {}", lisResultMessage, e);
@@ -246,6 +262,29 @@ public final class LtiOauthUtilities {
         return sendLisResultMessage(lisResultMessage);
     }
 
+    /**
+     * Combined {@link #createLisResultMessage(String, String, String, String, double)}
+     * and {@link #sendLisResultMessage(OAuthMessage, OAuthClient)} to create and
+     * send an LIS result message to an outcome service using the given {@link OAuthClient}.
+     *
+     * @param lisOutcomeServiceUrl URL of the outcome service to send to
+     * @param lisResultSourcedid <code>lis_result_sourcedid</code> to send
+     * @param consumerKey consumer key for signing OAuth request
+     * @param consumerSecret secret corresponding to the consumer key
+     * @param normalizedScore score to be returned, in the range 0.0 to 1.0
+     * @param oauthClient client to use to send the message
+     * @return true on success, false otherwise.
+     *
+     * @throws IllegalArgumentException
+     * @throws QtiWorksLogicException
+     */
+    public static boolean sendLisResult(final String lisOutcomeServiceUrl, final String lisResultSourcedid,
+            final String consumerKey, final String consumerSecret,
+            final double normalizedScore, final OAuthClient oauthClient) {
+        final OAuthMessage lisResultMessage = createLisResultMessage(lisOutcomeServiceUrl, lisResultSourcedid, consumerKey, consumerSecret, normalizedScore);
+        return sendLisResultMessage(lisResultMessage, oauthClient);
+    }
+
     /**
      * Builds the appropriate POX message for sending the result back to the TC.
      */
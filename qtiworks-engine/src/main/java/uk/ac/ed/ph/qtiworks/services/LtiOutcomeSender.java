@@ -0,0 +1,432 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import net.oauth.client.OAuthClient;
+import net.oauth.client.httpclient4.HttpClient4;
+import net.oauth.client.httpclient4.HttpClientPool;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sends batches of LIS results back to LTI Tool Consumers in parallel.
+ * <p>
+ * Results are grouped by Tool Consumer (as identified by OAuth consumer key), with at most
+ * a fixed number of results being sent to any one Tool Consumer at the same time. This means
+ * that a slow Tool Consumer only holds up its own results. (This limit is applied per consumer
+ * key rather than per host, as many Tool Consumers may share the same host.) All sends share
+ * a single pool of HTTP connections.
+ * <p>
+ * A Tool Consumer that fails a number of sends in a row is backed off for a while, during
+ * which time any results for it are deferred.
+ * <p>
+ * This has no dependencies on the rest of the QTIWorks Engine, so may be used in a
+ * standalone fashion, e.g. against a local stub outcome service.
+ * <p>
+ * Usage note: {@link #sendLisResults(List)} MUST be called serially.
+ *
+ * @see LtiOutcomeService
+ * @see LtiOauthUtilities
+ *
+ * @author David McKain
+ */
+public final class LtiOutcomeSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(LtiOutcomeSender.class);
+
+    /** Number of consecutive failures for a Tool Consumer before we back off from it */
+    private static final int BACKOFF_FAILURE_THRESHOLD = 3;
+
+    /** Initial back off time (in ms), which doubles each time the Tool Consumer fails again */
+    private static final long INITIAL_BACKOFF = 30 * 1000L;
+
+    /** Maximum back off time (in ms) */
+    private static final long MAX_BACKOFF = 15 * 60 * 1000L;
+
+    /** Timeout (in ms) for connecting to an outcome service */
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+
+    /** Timeout (in ms) for reading a response from an outcome service */
+    private static final int SOCKET_TIMEOUT = 30 * 1000;
+
+    /** Result of attempting to send an {@link LisResult} */
+    public static enum SendStatus {
+
+        /** Result was successfully sent */
+        SUCCESS,
+
+        /** Result could not be sent */
+        FAILURE,
+
+        /** Result was not sent as we are backing off from its Tool Consumer */
+        DEFERRED,
+        ;
+    }
+
+    /**
+     * Encapsulates an LIS result to be sent.
+     */
+    public static final class LisResult {
+
+        private final Long id;
+        private final String lisOutcomeServiceUrl;
+        private final String lisResultSourcedid;
+        private final String consumerKey;
+        private final String consumerSecret;
+        private final double normalizedScore;
+
+        /**
+         * @param id caller-defined ID for this result, used to report its {@link SendStatus}
+         * @param lisOutcomeServiceUrl URL of the outcome service to send to
+         * @param lisResultSourcedid <code>lis_result_sourcedid</code> to send
+         * @param consumerKey consumer key for signing OAuth request
+         * @param consumerSecret secret corresponding to the consumer key
+         * @param normalizedScore score to be returned, in the range 0.0 to 1.0
+         */
+        public LisResult(final Long id, final String lisOutcomeServiceUrl, final String lisResultSourcedid,
+                final String consumerKey, final String consumerSecret, final double normalizedScore) {
+            Assert.notNull(id, "id");
+            Assert.notNull(consumerKey, "consumerKey");
+            this.id = id;
+            this.lisOutcomeServiceUrl = lisOutcomeServiceUrl;
+            this.lisResultSourcedid = lisResultSourcedid;
+            this.consumerKey = consumerKey;
+            this.consumerSecret = consumerSecret;
+            this.normalizedScore = normalizedScore;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getLisOutcomeServiceUrl() {
+            return lisOutcomeServiceUrl;
+        }
+
+        public String getLisResultSourcedid() {
+            return lisResultSourcedid;
+        }
+
+        public String getConsumerKey() {
+            return consumerKey;
+        }
+
+        public String getConsumerSecret() {
+            return consumerSecret;
+        }
+
+        public double getNormalizedScore() {
+            return normalizedScore;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(id=" + id
+                    + ",lisOutcomeServiceUrl=" + lisOutcomeServiceUrl
+                    + ",lisResultSourcedid=" + lisResultSourcedid
+                    + ",consumerKey=" + consumerKey
+                    + ",normalizedScore=" + normalizedScore
+                    + ")";
+        }
+    }
+
+    /**
+     * Tracks recent failures for a particular Tool Consumer, and limits the number of results
+     * being sent to it at the same time.
+     */
+    private static final class ConsumerState {
+
+        private final Semaphore sendPermits;
+        private int consecutiveFailureCount;
+        private long backoffTime;
+        private long backoffUntil;
+
+        public ConsumerState(final int maxConcurrency) {
+            this.sendPermits = new Semaphore(maxConcurrency);
+        }
+
+        public synchronized boolean isBackingOff(final long now) {
+            return now < backoffUntil;
+        }
+
+        public synchronized void recordSuccess() {
+            consecutiveFailureCount = 0;
+            backoffTime = 0L;
+            backoffUntil = 0L;
+        }
+
+        /**
+         * Records a failure, returning true if we have now started backing off.
+         */
+        public synchronized boolean recordFailure(final long now) {
+            consecutiveFailureCount++;
+            if (consecutiveFailureCount < BACKOFF_FAILURE_THRESHOLD || now < backoffUntil) {
+                return false;
+            }
+            backoffTime = backoffTime==0L ? INITIAL_BACKOFF : Math.min(2 * backoffTime, MAX_BACKOFF);
+            backoffUntil = now + backoffTime;
+            return true;
+        }
+
+        public synchronized long getBackoffTime() {
+            return backoffTime;
+        }
+    }
+
+    //-------------------------------------------------
+
+    private final int maxConcurrencyPerConsumer;
+    private final CloseableHttpClient httpClient;
+    private final OAuthClient oauthClient;
+    private final ExecutorService sendExecutor;
+
+    /** Failure tracking for each Tool Consumer, keyed on consumer key */
+    private final ConcurrentHashMap<String, ConsumerState> consumerStateMap;
+
+    /**
+     * Creates a new sender.
+     *
+     * @param threadCount maximum number of results to send at the same time
+     * @param maxConcurrencyPerConsumer maximum number of results to send to any one Tool Consumer
+     *   at the same time
+     */
+    public LtiOutcomeSender(final int threadCount, final int maxConcurrencyPerConsumer) {
+        if (threadCount<1) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        if (maxConcurrencyPerConsumer<1) {
+            throw new IllegalArgumentException("maxConcurrencyPerConsumer must be positive");
+        }
+        this.maxConcurrencyPerConsumer = maxConcurrencyPerConsumer;
+        this.consumerStateMap = new ConcurrentHashMap<String, ConsumerState>();
+
+        /* Set up shared pool of HTTP connections. (Concurrency for each TC is limited by its
+         * ConsumerState, so we don't limit connections per host here.) */
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(threadCount);
+        connectionManager.setDefaultMaxPerRoute(threadCount);
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setConnectionRequestTimeout(SOCKET_TIMEOUT)
+                .setSocketTimeout(SOCKET_TIMEOUT)
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        this.oauthClient = new OAuthClient(new HttpClient4(new HttpClientPool() {
+            @Override
+            public HttpClient getHttpClient(final URL server) {
+                return httpClient;
+            }
+        }));
+
+        this.sendExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("qtiworks-lti-outcome-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Shuts down this sender, releasing its threads and HTTP connections.
+     */
+    public void shutdown() {
+        sendExecutor.shutdownNow();
+        try {
+            httpClient.close();
+        }
+        catch (final IOException e) {
+            logger.warn("Failed to close HTTP client", e);
+        }
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Attempts to send the given {@link LisResult}s to the relevant outcome services, returning
+     * a {@link SendStatus} for each, keyed on {@link LisResult#getId()} and in the same order
+     * as the given results.
+     * <p>
+     * This blocks until all results have been sent, failed or deferred.
+     */
+    public Map<Long, SendStatus> sendLisResults(final List<LisResult> lisResults) {
+        Assert.notNull(lisResults, "lisResults");
+
+        /* Group results by Tool Consumer, deferring ones for TCs that we're backing off from */
+        final long now = System.currentTimeMillis();
+        final Map<Long, SendStatus> sendStatusMap = new ConcurrentHashMap<Long, SendStatus>();
+        final Map<String, Queue<LisResult>> pendingResultsByConsumer = new LinkedHashMap<String, Queue<LisResult>>();
+        for (final LisResult lisResult : lisResults) {
+            final String consumerKey = lisResult.getConsumerKey();
+            if (getConsumerState(consumerKey).isBackingOff(now)) {
+                sendStatusMap.put(lisResult.getId(), SendStatus.DEFERRED);
+                continue;
+            }
+            Queue<LisResult> pendingResults = pendingResultsByConsumer.get(consumerKey);
+            if (pendingResults==null) {
+                pendingResults = new ConcurrentLinkedQueue<LisResult>();
+                pendingResultsByConsumer.put(consumerKey, pendingResults);
+            }
+            pendingResults.add(lisResult);
+        }
+
+        /* Work through the results for each TC using a limited number of parallel "lanes" */
+        final List<Future<?>> laneFutures = new ArrayList<Future<?>>();
+        for (final Map.Entry<String, Queue<LisResult>> entry : pendingResultsByConsumer.entrySet()) {
+            final ConsumerState consumerState = getConsumerState(entry.getKey());
+            final Queue<LisResult> pendingResults = entry.getValue();
+            final int laneCount = Math.min(maxConcurrencyPerConsumer, pendingResults.size());
+            for (int i=0; i<laneCount; i++) {
+                laneFutures.add(sendExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        runLane(consumerState, pendingResults, sendStatusMap);
+                    }
+                }));
+            }
+        }
+        try {
+            for (final Future<?> laneFuture : laneFutures) {
+                laneFuture.get();
+            }
+        }
+        catch (final InterruptedException e) {
+            logger.warn("Interrupted while waiting for LIS results to be sent");
+            Thread.currentThread().interrupt();
+        }
+        catch (final ExecutionException e) {
+            throw QtiWorksLogicException.unexpectedException(e.getCause());
+        }
+
+        /* Collate results in original order. (Anything missing is treated as deferred.) */
+        final Map<Long, SendStatus> result = new LinkedHashMap<Long, SendStatus>();
+        for (final LisResult lisResult : lisResults) {
+            final SendStatus sendStatus = sendStatusMap.get(lisResult.getId());
+            result.put(lisResult.getId(), sendStatus!=null ? sendStatus : SendStatus.DEFERRED);
+        }
+        return result;
+    }
+
+    private void runLane(final ConsumerState consumerState, final Queue<LisResult> pendingResults,
+            final Map<Long, SendStatus> sendStatusMap) {
+        LisResult lisResult;
+        while ((lisResult = pendingResults.poll())!=null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            if (consumerState.isBackingOff(now)) {
+                sendStatusMap.put(lisResult.getId(), SendStatus.DEFERRED);
+                continue;
+            }
+            try {
+                consumerState.sendPermits.acquire();
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            final boolean successful;
+            try {
+                successful = trySendLisResult(lisResult);
+            }
+            finally {
+                consumerState.sendPermits.release();
+            }
+            if (successful) {
+                consumerState.recordSuccess();
+                sendStatusMap.put(lisResult.getId(), SendStatus.SUCCESS);
+            }
+            else {
+                if (consumerState.recordFailure(System.currentTimeMillis())) {
+                    logger.warn("Backing off from Tool Consumer with key {} for {}ms after repeated failures",
+                            lisResult.getConsumerKey(), Long.valueOf(consumerState.getBackoffTime()));
+                }
+                sendStatusMap.put(lisResult.getId(), SendStatus.FAILURE);
+            }
+        }
+    }
+
+    private boolean trySendLisResult(final LisResult lisResult) {
+        try {
+            return LtiOauthUtilities.sendLisResult(lisResult.getLisOutcomeServiceUrl(),
+                    lisResult.getLisResultSourcedid(), lisResult.getConsumerKey(),
+                    lisResult.getConsumerSecret(), lisResult.getNormalizedScore(), oauthClient);
+        }
+        catch (final RuntimeException e) {
+            logger.warn("Unexpected failure sending {}", lisResult, e);
+            return false;
+        }
+    }
+
+    private ConsumerState getConsumerState(final String consumerKey) {
+        ConsumerState consumerState = consumerStateMap.get(consumerKey);
+        if (consumerState==null) {
+            final ConsumerState newState = new ConsumerState(maxConcurrencyPerConsumer);
+            consumerState = consumerStateMap.putIfAbsent(consumerKey, newState);
+            if (consumerState==null) {
+                consumerState = newState;
+            }
+        }
+        return consumerState;
+    }
+}
@@ -43,24 +43,35 @@ import uk.ac.ed.ph.qtiworks.domain.entities.LtiUser;
 import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.domain.entities.UserType;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeSender.LisResult;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeSender.SendStatus;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 import uk.ac.ed.ph.qtiworks.services.dao.QueuedLtiOutcomeDao;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * This service is responsible for sending outcome data back to LTI Tool Consumers.
@@ -81,6 +92,9 @@ public class LtiOutcomeService {
 
     private static final Logger logger = LoggerFactory.getLogger(LtiOutcomeService.class);
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AuditLogger auditLogger;
 
@@ -90,6 +104,9 @@ public class LtiOutcomeService {
     @Resource
     private QueuedLtiOutcomeDao queuedLtiOutcomeDao;
 
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
     /**
      * Delays (in minutes) to wait until next retry. We try often to start with, then
      * less frequently. Then we give up.
@@ -100,6 +117,23 @@ public class LtiOutcomeService {
             1, 5, 10, 60, 60, 60, 240, 240, 240
     };
 
+    /** Number of {@link QueuedLtiOutcome}s to load and send at a time */
+    private static final int OUTCOME_PAGE_SIZE = 100;
+
+    /** Sends outcomes in parallel, created on startup */
+    private LtiOutcomeSender ltiOutcomeSender;
+
+    @PostConstruct
+    public void init() {
+        ltiOutcomeSender = new LtiOutcomeSender(qtiWorksDeploymentSettings.getLtiOutcomeThreads(),
+                qtiWorksDeploymentSettings.getLtiOutcomeConsumerConcurrency());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        ltiOutcomeSender.shutdown();
+    }
+
     //-------------------------------------------------
 
     @Async
@@ -143,6 +177,12 @@ public class LtiOutcomeService {
      * The logic here will check for duplicate {@link QueuedLtiOutcome}s for a given
      * {@link CandidateSession}, only sending the most recent outcomes back.
      * <p>
+     * Outcomes are loaded and sent a page at a time, with the outcomes in each page being
+     * sent in parallel by {@link LtiOutcomeSender}. Outcomes for Tool Consumers that are
+     * currently being backed off from are left in the queue and are not counted below.
+     * This manages its own transactions, using short ones for loading each page and for
+     * recording the results of sending it.
+     * <p>
      * Usage note: This MUST be called serially.
      * <p>
      * @param ignoreRetryTimes set to true to ignore any retry times set after previous failures.
@@ -150,53 +190,141 @@ public class LtiOutcomeService {
      *
      * @see ScheduledService#sendNextQueuedLtiOutcomes()
      */
+    @Transactional(propagation=Propagation.NOT_SUPPORTED)
     public Pair<Integer, Integer> sendQueuedLtiOutcomes(final boolean ignoreRetryTimes) {
-        /* Look up all unsent outcomes */
-        final List<QueuedLtiOutcome> pendingOutcomes = queuedLtiOutcomeDao.getAllQueuedOutcomes();
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(jpaTransactionManager);
 
         /* Eliminate any duplicate outcomes for the same CandidateSession, always taking the newest
          * outcome over any earlier ones. (Duplicate outcomes can happen when delivering items,
          * which can sometimes be re-opened by candidates.)
          */
-        final LinkedHashMap<Long, QueuedLtiOutcome> outcomesBySessionMap = new LinkedHashMap<Long, QueuedLtiOutcome>();
-        for (final QueuedLtiOutcome queuedLtiOutcome : pendingOutcomes) {
-            final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                dequeueSupersededOutcomes();
+            }
+        });
+
+        /* Now attempt to send remaining outcomes to relevant result services, a page at a time.
+         * Each page is loaded and has its results recorded in their own transactions, so that
+         * we don't hold on to a DB connection while sending, or build up entities across pages.
+         */
+        int totalSendCount = 0;
+        int failedSendCount = 0;
+        final Date timestamp = new Date();
+        long afterId = 0L;
+        OutcomePage outcomePage;
+        do {
+            final long pageAfterId = afterId;
+            outcomePage = transactionTemplate.execute(new TransactionCallback<OutcomePage>() {
+                @Override
+                public OutcomePage doInTransaction(final TransactionStatus status) {
+                    return loadOutcomePage(ignoreRetryTimes, timestamp, pageAfterId);
+                }
+            });
+            if (outcomePage.loadedCount==0) {
+                break;
+            }
+            afterId = outcomePage.lastId;
+            totalSendCount += outcomePage.unsendableCount;
+            failedSendCount += outcomePage.unsendableCount;
+
+            /* Send them, then record what happened */
+            final Map<Long, SendStatus> sendStatusMap = ltiOutcomeSender.sendLisResults(outcomePage.lisResults);
+            final Pair<Integer, Integer> pageCounts = transactionTemplate.execute(new TransactionCallback<Pair<Integer, Integer>>() {
+                @Override
+                public Pair<Integer, Integer> doInTransaction(final TransactionStatus status) {
+                    return recordSendStatuses(sendStatusMap);
+                }
+            });
+            failedSendCount += pageCounts.getFirst().intValue();
+            totalSendCount += pageCounts.getSecond().intValue();
+        } while (outcomePage.loadedCount==OUTCOME_PAGE_SIZE);
+
+        return new Pair<Integer, Integer>(Integer.valueOf(failedSendCount), Integer.valueOf(totalSendCount));
+    }
+
+    private void dequeueSupersededOutcomes() {
+        for (final QueuedLtiOutcome supersededQueuedOutcome : queuedLtiOutcomeDao.getSupersededQueuedOutcomes()) {
+            final CandidateSession candidateSession = supersededQueuedOutcome.getCandidateSession();
             final User candidate = candidateSession.getCandidate();
-            final Long candidateSessionId = candidateSession.getId();
-            final QueuedLtiOutcome earlierQueuedOutcomeForSession = outcomesBySessionMap.get(candidateSessionId);
-            if (earlierQueuedOutcomeForSession!=null) {
-                /* Earlier outcome is queued up, so remove this in preference for this later outcome */
-                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
-                candidateSessionDao.update(candidateSession);
-                queuedLtiOutcomeDao.remove(earlierQueuedOutcomeForSession);
-                auditLogger.recordEvent(candidate, "De-queued LTI outcome #" + earlierQueuedOutcomeForSession.getId()
-                        + " as a later one for the same CandidateSession is already queued up");
-                logger.info("De-queued LTI outcome #{} as a later one for the same CandidateSession is already queued up",
-                        earlierQueuedOutcomeForSession.getId());
+            candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
+            candidateSessionDao.update(candidateSession);
+            queuedLtiOutcomeDao.remove(supersededQueuedOutcome);
+            auditLogger.recordEvent(candidate, "De-queued LTI outcome #" + supersededQueuedOutcome.getId()
+                    + " as a later one for the same CandidateSession is already queued up");
+            logger.info("De-queued LTI outcome #{} as a later one for the same CandidateSession is already queued up",
+                    supersededQueuedOutcome.getId());
+        }
+    }
+
+    /**
+     * Loads the next page of {@link QueuedLtiOutcome}s and extracts the information we need to
+     * send them. Any that can't be sent are recorded as failures straight away.
+     */
+    private OutcomePage loadOutcomePage(final boolean ignoreRetryTimes, final Date timestamp, final long afterId) {
+        final List<QueuedLtiOutcome> queuedOutcomesPage = ignoreRetryTimes
+                ? queuedLtiOutcomeDao.getQueuedOutcomesPage(afterId, OUTCOME_PAGE_SIZE)
+                : queuedLtiOutcomeDao.getDueQueuedOutcomesPage(timestamp, afterId, OUTCOME_PAGE_SIZE);
+        final OutcomePage result = new OutcomePage(queuedOutcomesPage.size());
+        if (!queuedOutcomesPage.isEmpty()) {
+            result.lastId = queuedOutcomesPage.get(queuedOutcomesPage.size() - 1).getId().longValue();
+        }
+        for (final QueuedLtiOutcome queuedLtiOutcome : queuedOutcomesPage) {
+            final LisResult lisResult = createLisResult(queuedLtiOutcome);
+            if (lisResult!=null) {
+                result.lisResults.add(lisResult);
+            }
+            else {
+                handleQueuedLtiOutcome(queuedLtiOutcome, false);
+                result.unsendableCount++;
             }
-            outcomesBySessionMap.put(candidateSessionId, queuedLtiOutcome);
         }
+        return result;
+    }
 
-        /* Now attempt to send remaining outcomes to relevant result services */
-        final int totalSendCount = outcomesBySessionMap.size();
+    /**
+     * Records the results of sending a page of {@link QueuedLtiOutcome}s, keyed on their IDs.
+     *
+     * @return Pair of integers: (number of outcome send failures, total outcomes sent)
+     */
+    private Pair<Integer, Integer> recordSendStatuses(final Map<Long, SendStatus> sendStatusMap) {
+        int totalSendCount = 0;
         int failedSendCount = 0;
-        final Date timestamp = new Date();
-        for (final QueuedLtiOutcome queuedLtiOutcome : outcomesBySessionMap.values()) {
-            final Date retryTime = queuedLtiOutcome.getRetryTime();
-            if (ignoreRetryTimes || retryTime==null || retryTime.before(timestamp)) {
-                final boolean successful = handleQueuedLtiOutcome(queuedLtiOutcome);
-                if (!successful) {
+        for (final Entry<Long, SendStatus> entry : sendStatusMap.entrySet()) {
+            final QueuedLtiOutcome queuedLtiOutcome = queuedLtiOutcomeDao.findById(entry.getKey());
+            if (queuedLtiOutcome==null) {
+                /* (Removed while we were sending, e.g. by its CandidateSession being deleted) */
+                logger.debug("LTI outcome #{} was removed while being sent", entry.getKey());
+                continue;
+            }
+            switch (entry.getValue()) {
+                case SUCCESS:
+                    handleQueuedLtiOutcome(queuedLtiOutcome, true);
+                    totalSendCount++;
+                    break;
+
+                case FAILURE:
+                    handleQueuedLtiOutcome(queuedLtiOutcome, false);
+                    totalSendCount++;
                     failedSendCount++;
-                }
+                    break;
+
+                case DEFERRED:
+                    logger.debug("Deferred sending LTI outcome #{} as its Tool Consumer is being backed off from",
+                            queuedLtiOutcome.getId());
+                    break;
+
+                default:
+                    throw new QtiWorksLogicException("Unexpected switch case " + entry.getValue());
             }
         }
         return new Pair<Integer, Integer>(Integer.valueOf(failedSendCount), Integer.valueOf(totalSendCount));
     }
 
-    private boolean handleQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
+    private void handleQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome, final boolean successful) {
         final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
         final User candidate = candidateSession.getCandidate();
-        final boolean successful = trySendQueuedLtiOutcome(queuedLtiOutcome);
         if (successful) {
             /* Outcome sent successfully, so remove from queue */
             candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SUCCESS);
@@ -235,15 +363,13 @@ public class LtiOutcomeService {
                         new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl() });
             }
         }
-        return successful;
     }
 
     /**
-     * Attempts to send the given {@link QueuedLtiOutcome} back to the corresponding LIS
-     * result service. Returns true if the result was successfully returned, false otherwise.
+     * Extracts the information needed to send the given {@link QueuedLtiOutcome} back to the
+     * corresponding LIS result service. Returns null if this could not be done.
      */
-    private boolean trySendQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
-        /* Extract the information we need to send */
+    private LisResult createLisResult(final QueuedLtiOutcome queuedLtiOutcome) {
         final double normalizedScore = queuedLtiOutcome.getScore();
         final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
         final String lisResultSourcedid = candidateSession.getLisResultSourcedid();
@@ -251,7 +377,7 @@ public class LtiOutcomeService {
         final User candidate = candidateSession.getCandidate();
         if (candidate.getUserType()!=UserType.LTI) {
             logger.warn("Candidate must be an LTI user - ignoring {}", queuedLtiOutcome);
-            return false;
+            return null;
         }
         final LtiUser ltiCandidate = (LtiUser) candidate;
         final String ltiConsumerKey, ltiConsumerSecret;
@@ -271,9 +397,30 @@ public class LtiOutcomeService {
             default:
                 throw new QtiWorksLogicException("Unexpected switch case " + ltiCandidate.getLtiLaunchType());
         }
-
-        /* Now send the result */
-        return LtiOauthUtilities.sendLisResult(lisOutcomeServiceUrl, lisResultSourcedid,
+        return new LisResult(queuedLtiOutcome.getId(), lisOutcomeServiceUrl, lisResultSourcedid,
                 ltiConsumerKey, ltiConsumerSecret, normalizedScore);
     }
+
+    //-------------------------------------------------
+
+    /** Information about a page of {@link QueuedLtiOutcome}s to be sent */
+    private static final class OutcomePage {
+
+        /** Number of {@link QueuedLtiOutcome}s loaded */
+        private final int loadedCount;
+
+        /** ID of the last {@link QueuedLtiOutcome} loaded */
+        private long lastId;
+
+        /** Results to send */
+        private final List<LisResult> lisResults;
+
+        /** Number of {@link QueuedLtiOutcome}s that could not be sent */
+        private int unsendableCount;
+
+        public OutcomePage(final int loadedCount) {
+            this.loadedCount = loadedCount;
+            this.lisResults = new ArrayList<LisResult>(loadedCount);
+        }
+    }
 }
@@ -34,16 +34,20 @@
 package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.config.QtiWorksProfiles;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -52,6 +56,9 @@ import org.springframework.stereotype.Service;
 /**
  * Houses all scheduled tasks performed within the QTIWorks engine.
  * <p>
+ * This also performs any one-off background tasks that should happen once the
+ * QTIWorks engine has started up.
+ * <p>
  * This is NO authorisation at this level.
  *
  * @author David McKain
@@ -59,7 +66,7 @@ import org.springframework.stereotype.Service;
 @Service
 @EnableScheduling
 @Profile({QtiWorksProfiles.WEBAPP, QtiWorksProfiles.MANAGER})
-public class ScheduledService {
+public class ScheduledService implements ApplicationListener<ContextRefreshedEvent> {
 
     private static final Logger logger = LoggerFactory.getLogger(ScheduledService.class);
 
@@ -75,12 +82,56 @@ public class ScheduledService {
     /** How long (in milliseconds) to keep transient data */
     private static final long TRANSIENT_DATA_LIFETIME = 24 * ONE_HOUR;
 
+    /** How long (in milliseconds) to keep the results of background exports */
+    private static final long EXPORT_JOB_LIFETIME = 6 * ONE_HOUR;
+
     @Resource
     private DataDeletionService dataDeletionService;
 
     @Resource
     private LtiOutcomeService ltiOutcomeService;
 
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
+    @Resource
+    private AssessmentResultExportService assessmentResultExportService;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    /** Records whether the start-up tasks have been run */
+    private final AtomicBoolean startupTasksRun = new AtomicBoolean(false);
+
+    //-------------------------------------------------
+
+    /**
+     * Runs one-off start-up tasks in the background. (Refreshes of child contexts are also
+     * passed here, so we make sure this only happens once.)
+     */
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (!event.getApplicationContext().getEnvironment().acceptsProfiles(QtiWorksProfiles.WEBAPP)
+                || !startupTasksRun.compareAndSet(false, true)) {
+            return;
+        }
+        if (qtiWorksDeploymentSettings.isAssessmentCachePrewarm()) {
+            final Thread prewarmThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        assessmentObjectManagementService.prewarmCache();
+                    }
+                    catch (final RuntimeException e) {
+                        logger.warn("Failed to pre-warm assessment object cache", e);
+                    }
+                }
+            }, "qtiworks-cache-prewarm");
+            prewarmThread.setDaemon(true);
+            prewarmThread.start();
+        }
+    }
+
     //-------------------------------------------------
 
     /** Routine maintenance jobs */
@@ -88,6 +139,7 @@ public class ScheduledService {
     public void maintenanceJobs() {
         purgeTransientData();
         purgeOldNonces();
+        purgeOldExportJobs();
         dataDeletionService.purgeOrphanedLtiCandidateUsers();
     }
 
@@ -112,6 +164,12 @@ public class ScheduledService {
         dataDeletionService.purgeOldNonces(nonceThreshold);
     }
 
+    private void purgeOldExportJobs() {
+        final Date finishTimeThreshold = new Date(System.currentTimeMillis() - EXPORT_JOB_LIFETIME);
+        final int purgedCount = assessmentResultExportService.purgeExportJobs(finishTimeThreshold);
+        logger.debug("purgeOldExportJobs() purged {} export job(s)", Integer.valueOf(purgedCount));
+    }
+
     //-------------------------------------------------
 
     /**
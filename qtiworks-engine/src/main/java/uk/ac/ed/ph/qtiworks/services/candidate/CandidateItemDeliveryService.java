@@ -151,12 +151,16 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
         /* Record current result state */
-        final AssessmentResult assessmentResult = candidateDataService.computeAndRecordItemAssessmentResult(candidateSession, itemSessionController);
+        final AssessmentResult assessmentResult = candidateDataService.computeItemAssessmentResult(candidateSession, itemSessionController);
 
         /* Handle immediate end of session */
         if (itemSessionState.isEnded()) {
+            candidateDataService.recordItemAssessmentResult(candidateSession, assessmentResult);
             candidateSessionFinisher.finishCandidateSession(candidateSession, assessmentResult);
         }
+        else {
+            candidateDataService.recordItemOutcomeVariables(candidateSession, assessmentResult);
+        }
 
         return candidateSession;
     }
@@ -314,8 +318,8 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
         /* Link and persist CandidateResponse entities */
         for (final CandidateResponse candidateResponse : candidateResponseMap.values()) {
             candidateResponse.setCandidateEvent(candidateEvent);
-            candidateResponseDao.persist(candidateResponse);
         }
+        candidateResponseDao.persistAll(candidateResponseMap.values());
 
         /* Record current result state, or finish session */
         return updateSessionFinishedStatus(candidateSession, itemSessionController);
@@ -325,11 +329,13 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
             final ItemSessionController itemSessionController) {
         /* Record current result state and maybe close session */
         final ItemSessionState itemSessionState = itemSessionController.getItemSessionState();
-        final AssessmentResult assessmentResult = candidateDataService.computeAndRecordItemAssessmentResult(candidateSession, itemSessionController);
+        final AssessmentResult assessmentResult = candidateDataService.computeItemAssessmentResult(candidateSession, itemSessionController);
         if (itemSessionState.isEnded()) {
+            candidateDataService.recordItemAssessmentResult(candidateSession, assessmentResult);
             candidateSessionFinisher.finishCandidateSession(candidateSession, assessmentResult);
         }
         else {
+            candidateDataService.recordItemOutcomeVariables(candidateSession, assessmentResult);
             if (candidateSession.isFinished()) {
                 /* (Session is being reopened) */
                 candidateSession.setFinishTime(null);
@@ -559,10 +565,14 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state, and maybe close session */
-        final AssessmentResult assessmentResult = candidateDataService.computeAndRecordItemAssessmentResult(candidateSession, itemSessionController);
+        final AssessmentResult assessmentResult = candidateDataService.computeItemAssessmentResult(candidateSession, itemSessionController);
         if (isClosingSession) {
+            candidateDataService.recordItemAssessmentResult(candidateSession, assessmentResult);
             candidateSessionFinisher.finishCandidateSession(candidateSession, assessmentResult);
         }
+        else {
+            candidateDataService.recordItemOutcomeVariables(candidateSession, assessmentResult);
+        }
 
         /* Record and log event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateItemEvent(candidateSession, CandidateItemEventType.SOLUTION, itemSessionState);
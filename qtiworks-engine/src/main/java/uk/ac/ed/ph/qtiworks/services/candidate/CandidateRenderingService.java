@@ -34,7 +34,7 @@
 package uk.ac.ed.ph.qtiworks.services.candidate;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
-import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
@@ -51,6 +51,7 @@ import uk.ac.ed.ph.qtiworks.rendering.AuthorViewRenderingOptions;
 import uk.ac.ed.ph.qtiworks.rendering.ItemAuthorViewRenderingRequest;
 import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingOptions;
 import uk.ac.ed.ph.qtiworks.rendering.ItemRenderingRequest;
+import uk.ac.ed.ph.qtiworks.rendering.RenderingStateCache;
 import uk.ac.ed.ph.qtiworks.rendering.TerminatedRenderingRequest;
 import uk.ac.ed.ph.qtiworks.rendering.TestAuthorViewRenderingRequest;
 import uk.ac.ed.ph.qtiworks.rendering.TestRenderingMode;
@@ -60,8 +61,13 @@ import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentPackageFileService;
 import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
 import uk.ac.ed.ph.qtiworks.services.ServiceUtilities;
+import uk.ac.ed.ph.qtiworks.services.dao.AssessmentPackageDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageAsset;
 import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
+import uk.ac.ed.ph.qtiworks.utils.ByteChunkPool;
+import uk.ac.ed.ph.qtiworks.utils.SpillableOutputStream;
+import uk.ac.ed.ph.qtiworks.utils.SpillableOutputStream.SpillFileProvider;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
@@ -74,14 +80,15 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
 import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidationResult;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Resource;
 import javax.xml.transform.stream.StreamResult;
@@ -102,9 +109,24 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional(propagation=Propagation.REQUIRED)
 public class CandidateRenderingService extends CandidateServiceBase {
 
+    /** Size of each chunk of memory used to buffer rendered output */
+    private static final int RENDERING_CHUNK_SIZE = 16 * 1024;
+
+    /** Maximum number of buffer chunks kept for reuse (i.e. 4MB) */
+    private static final int RENDERING_MAX_POOLED_CHUNKS = 256;
+
+    /** Rendered output larger than this (in bytes) gets buffered in a temporary file instead of memory */
+    private static final long RENDERING_SPILL_THRESHOLD = 1024 * 1024;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
+    @Resource
+    private AssessmentPackageDao assessmentPackageDao;
+
     @Resource
     private FilespaceManager filespaceManager;
 
@@ -123,6 +145,8 @@ public class CandidateRenderingService extends CandidateServiceBase {
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    private final ByteChunkPool renderingChunkPool = new ByteChunkPool(RENDERING_CHUNK_SIZE, RENDERING_MAX_POOLED_CHUNKS);
+
     //----------------------------------------------------
     // Item rendering
 
@@ -140,30 +164,18 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Make sure this session is for an item */
         assertSessionType(candidateSession, AssessmentObjectType.ASSESSMENT_ITEM);
 
-        /* Create temporary file to hold the output before it gets streamed */
-        final File resultFile = filespaceManager.createTempFile();
+        /* Render into a buffer to hold the output before it gets streamed */
+        final SpillableOutputStream resultBuffer = createRenderingBuffer();
         try {
-            /* Render to temp file */
-            FileOutputStream resultOutputStream = null;
-            try {
-                resultOutputStream = new FileOutputStream(resultFile);
-                final StreamResult streamResult = new StreamResult(resultOutputStream);
-                renderCurrentCandidateItemSessionState(candidateSession, renderingOptions, streamResult);
-            }
-            catch (final IOException e) {
-                throw new QtiWorksRuntimeException("Unexpected IOException", e);
-            }
-            finally {
-                ServiceUtilities.ensureClose(resultOutputStream);
-            }
+            final StreamResult streamResult = new StreamResult(resultBuffer);
+            renderCurrentCandidateItemSessionState(candidateSession, renderingOptions, streamResult);
+            resultBuffer.close();
 
             /* Finally stream to caller */
-            streamRenderingResultFile(resultFile, outputStreamer, renderingOptions);
+            streamRenderingResult(resultBuffer, outputStreamer, renderingOptions);
         }
         finally {
-            if (!resultFile.delete()) {
-                throw new QtiWorksRuntimeException("Could not delete result file " + resultFile.getPath());
-            }
+            resultBuffer.release();
         }
     }
 
@@ -184,19 +196,21 @@ public class CandidateRenderingService extends CandidateServiceBase {
             final ItemSessionState itemSessionState = candidateDataService.loadItemSessionState(latestEvent);
 
             /* Touch the session's duration state if appropriate */
+            boolean stateTouched = false;
             if (itemSessionState.isEntered() && !itemSessionState.isEnded() && !itemSessionState.isSuspended()) {
                 final Date timestamp = requestTimestampContext.getCurrentRequestTimestamp();
                 final ItemSessionController itemSessionController = createItemSessionController(candidateSession, itemSessionState);
                 itemSessionController.touchDuration(timestamp);
+                stateTouched = true;
             }
 
             /* Render event */
-            renderItemEvent(candidateSession, latestEvent, itemSessionState, renderingOptions, result);
+            renderItemEvent(candidateSession, latestEvent, itemSessionState, !stateTouched, renderingOptions, result);
         }
     }
 
     private void renderItemEvent(final CandidateSession candidateSession,
-            final CandidateEvent candidateEvent, final ItemSessionState itemSessionState,
+            final CandidateEvent candidateEvent, final ItemSessionState itemSessionState, final boolean stateUnchanged,
             final ItemRenderingOptions renderingOptions, final StreamResult result) {
         final CandidateItemEventType itemEventType = candidateEvent.getItemEventType();
         final User candidate = candidateSession.getCandidate();
@@ -207,6 +221,9 @@ public class CandidateRenderingService extends CandidateServiceBase {
         final ItemRenderingRequest renderingRequest = new ItemRenderingRequest();
         initRenderingRequest(candidateSession, renderingRequest, renderingOptions);
         renderingRequest.setItemSessionState(itemSessionState);
+        if (stateUnchanged) {
+            renderingRequest.setSessionStateKey(createSessionStateKey(candidateEvent));
+        }
         renderingRequest.setPrompt(itemDeliverySettings.getPrompt());
 
         /* If session has terminated, render appropriate state and exit */
@@ -276,29 +293,17 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Load the ItemSessionState */
         final ItemSessionState itemSessionState = candidateDataService.loadItemSessionState(latestEvent);
 
-        /* Create temporary file to hold the output before it gets streamed */
-        final File resultFile = filespaceManager.createTempFile();
+        /* Render into a buffer to hold the output before it gets streamed */
+        final SpillableOutputStream resultBuffer = createRenderingBuffer();
         try {
-            /* Render to temp file */
-            FileOutputStream resultOutputStream = null;
-            try {
-                resultOutputStream = new FileOutputStream(resultFile);
-                renderItemEventAuthorView(candidateSession, latestEvent, itemSessionState, renderingOptions, new StreamResult(resultOutputStream));
-            }
-            catch (final IOException e) {
-                throw new QtiWorksRuntimeException("Unexpected IOException", e);
-            }
-            finally {
-                ServiceUtilities.ensureClose(resultOutputStream);
-            }
+            renderItemEventAuthorView(candidateSession, latestEvent, itemSessionState, renderingOptions, new StreamResult(resultBuffer));
+            resultBuffer.close();
 
             /* Finally stream to caller */
-            streamRenderingResultFile(resultFile, outputStreamer, renderingOptions);
+            streamRenderingResult(resultBuffer, outputStreamer, renderingOptions);
         }
         finally {
-            if (!resultFile.delete()) {
-                throw new QtiWorksRuntimeException("Could not delete result file " + resultFile.getPath());
-            }
+            resultBuffer.release();
         }
     }
 
@@ -308,6 +313,7 @@ public class CandidateRenderingService extends CandidateServiceBase {
         final ItemAuthorViewRenderingRequest renderingRequest = new ItemAuthorViewRenderingRequest();
         initRenderingRequest(candidateSession, renderingRequest, renderingOptions);
         renderingRequest.setItemSessionState(itemSessionState);
+        renderingRequest.setSessionStateKey(createSessionStateKey(candidateEvent));
 
         /* Make sure this session is for an item */
         assertSessionType(candidateSession, AssessmentObjectType.ASSESSMENT_ITEM);
@@ -334,30 +340,18 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Make sure this session is for an item */
         assertSessionType(candidateSession, AssessmentObjectType.ASSESSMENT_TEST);
 
-        /* Create temporary file to hold the output before it gets streamed */
-        final File resultFile = filespaceManager.createTempFile();
+        /* Render into a buffer to hold the output before it gets streamed */
+        final SpillableOutputStream resultBuffer = createRenderingBuffer();
         try {
-            /* Render to temp file */
-            FileOutputStream resultOutputStream = null;
-            try {
-                resultOutputStream = new FileOutputStream(resultFile);
-                final StreamResult streamResult = new StreamResult(resultOutputStream);
-                renderCurrentCandidateTestSessionState(candidateSession, renderingOptions, streamResult);
-            }
-            catch (final IOException e) {
-                throw new QtiWorksRuntimeException("Unexpected IOException", e);
-            }
-            finally {
-                ServiceUtilities.ensureClose(resultOutputStream);
-            }
+            final StreamResult streamResult = new StreamResult(resultBuffer);
+            renderCurrentCandidateTestSessionState(candidateSession, renderingOptions, streamResult);
+            resultBuffer.close();
 
             /* Finally stream to caller */
-            streamRenderingResultFile(resultFile, outputStreamer, renderingOptions);
+            streamRenderingResult(resultBuffer, outputStreamer, renderingOptions);
         }
         finally {
-            if (!resultFile.delete()) {
-                throw new QtiWorksRuntimeException("Could not delete result file " + resultFile.getPath());
-            }
+            resultBuffer.release();
         }
     }
 
@@ -381,24 +375,29 @@ public class CandidateRenderingService extends CandidateServiceBase {
             final TestSessionController testSessionController = createTestSessionController(candidateSession, testSessionState);
 
             /* Touch the session's duration state if appropriate */
+            boolean stateTouched = false;
             if (testSessionState.isEntered() && !testSessionState.isEnded()) {
                 final Date timestamp = requestTimestampContext.getCurrentRequestTimestamp();
                 testSessionController.touchDurations(timestamp);
+                stateTouched = true;
             }
 
             /* Render event */
-            renderTestEvent(candidateSession, latestEvent, testSessionController, renderingOptions, result);
+            renderTestEvent(candidateSession, latestEvent, testSessionController, !stateTouched, renderingOptions, result);
         }
     }
 
     private void renderTestEvent(final CandidateSession candidateSession, final CandidateEvent candidateEvent, final TestSessionController testSessionController,
-            final TestRenderingOptions renderingOptions, final StreamResult result) {
+            final boolean stateUnchanged, final TestRenderingOptions renderingOptions, final StreamResult result) {
         final CandidateTestEventType testEventType = candidateEvent.getTestEventType();
 
         /* Create and partially configure rendering request */
         final TestRenderingRequest renderingRequest = new TestRenderingRequest();
         initRenderingRequest(candidateSession, renderingRequest, renderingOptions);
         renderingRequest.setTestSessionController(testSessionController);
+        if (stateUnchanged) {
+            renderingRequest.setSessionStateKey(createSessionStateKey(candidateEvent));
+        }
 
         /* If session has terminated, render appropriate state and exit */
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
@@ -467,29 +466,17 @@ public class CandidateRenderingService extends CandidateServiceBase {
         final TestSessionState testSessionState = candidateDataService.loadTestSessionState(latestEvent);
         final TestSessionController testSessionController = createTestSessionController(candidateSession, testSessionState);
 
-        /* Create temporary file to hold the output before it gets streamed */
-        final File resultFile = filespaceManager.createTempFile();
+        /* Render into a buffer to hold the output before it gets streamed */
+        final SpillableOutputStream resultBuffer = createRenderingBuffer();
         try {
-            /* Render to temp file */
-            FileOutputStream resultOutputStream = null;
-            try {
-                resultOutputStream = new FileOutputStream(resultFile);
-                renderTestEventAuthorView(candidateSession, latestEvent, testSessionController, renderingOptions, new StreamResult(resultOutputStream));
-            }
-            catch (final IOException e) {
-                throw new QtiWorksRuntimeException("Unexpected IOException", e);
-            }
-            finally {
-                ServiceUtilities.ensureClose(resultOutputStream);
-            }
+            renderTestEventAuthorView(candidateSession, latestEvent, testSessionController, renderingOptions, new StreamResult(resultBuffer));
+            resultBuffer.close();
 
             /* Finally stream to caller */
-            streamRenderingResultFile(resultFile, outputStreamer, renderingOptions);
+            streamRenderingResult(resultBuffer, outputStreamer, renderingOptions);
         }
         finally {
-            if (!resultFile.delete()) {
-                throw new QtiWorksRuntimeException("Could not delete result file " + resultFile.getPath());
-            }
+            resultBuffer.release();
         }
     }
 
@@ -498,6 +485,7 @@ public class CandidateRenderingService extends CandidateServiceBase {
         final TestAuthorViewRenderingRequest renderingRequest = new TestAuthorViewRenderingRequest();
         initRenderingRequest(candidateSession, renderingRequest, renderingOptions);
         renderingRequest.setTestSessionController(testSessionController);
+        renderingRequest.setSessionStateKey(createSessionStateKey(candidateEvent));
 
         candidateAuditLogger.logTestAuthorViewRendering(candidateEvent);
         final List<CandidateEventNotification> notifications = candidateEvent.getNotifications();
@@ -539,6 +527,28 @@ public class CandidateRenderingService extends CandidateServiceBase {
         }
     }
 
+    /**
+     * Looks up a file within an {@link AssessmentPackage} for serving via one of the public,
+     * content-addressed URLs created during rendering when
+     * {@link QtiWorksDeploymentSettings#isPublicAssetUrls()} is enabled. No candidate session is
+     * required here.
+     * <p>
+     * Returns null if there is no such file, or if public URLs are disabled.
+     */
+    public AssessmentPackageAsset lookupPublicAssessmentPackageAsset(final long apid, final String contentHash,
+            final String fileHref) {
+        Assert.notNull(contentHash, "contentHash");
+        Assert.notNull(fileHref, "fileHref");
+        if (!qtiWorksDeploymentSettings.isPublicAssetUrls()) {
+            return null;
+        }
+        final AssessmentPackage assessmentPackage = assessmentPackageDao.findById(apid);
+        if (assessmentPackage==null) {
+            return null;
+        }
+        return assessmentPackageFileService.lookupPublicAsset(assessmentPackage, contentHash, fileHref);
+    }
+
     //----------------------------------------------------
     // Candidate Source access
 
@@ -575,15 +585,15 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Get most recent event */
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
 
-        /* Generate result Object from current state */
-        final File sessionStateFile = candidateDataService.ensureSessionStateFile(mostRecentEvent);
+        /* Get XML form of current state */
+        final byte[] sessionStateXml = candidateDataService.loadSessionStateXml(mostRecentEvent);
 
         /* Record action */
         candidateAuditLogger.logAction(candidateSession, "ACCESS_STATE");
 
-        /* Stream result file */
+        /* Stream state XML */
         final Date lastModifiedTime = mostRecentEvent.getTimestamp();
-        ServiceUtilities.streamFile(sessionStateFile, "application/xml", lastModifiedTime, outputStreamer);
+        outputStreamer.stream("application/xml", sessionStateXml.length, lastModifiedTime, new ByteArrayInputStream(sessionStateXml));
     }
 
     //----------------------------------------------------
@@ -661,6 +671,17 @@ public class CandidateRenderingService extends CandidateServiceBase {
         renderingRequest.setRenderingOptions(renderingOptions);
         renderingRequest.setAssessmentResourceLocator(assessmentPackageFileService.createResolvingResourceLocator(assessmentPackage));
         renderingRequest.setAssessmentResourceUri(assessmentPackageFileService.createAssessmentObjectUri(assessmentPackage));
+        renderingRequest.setAssessmentSourceKey(assessmentPackageFileService.createRenderingSourceKey(assessmentPackage));
+        if (qtiWorksDeploymentSettings.isPublicAssetUrls() && renderingOptions.getPublicAssetUrl()!=null) {
+            /* (These URLs get cached alongside the package's rendering sources, so are only created occasionally) */
+            final String publicAssetUrl = renderingOptions.getPublicAssetUrl();
+            renderingRequest.setAssetUrlsLoader(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() {
+                    return assessmentPackageFileService.createPublicAssetUrls(assessmentPackage, publicAssetUrl);
+                }
+            });
+        }
         renderingRequest.setAuthorMode(candidateSession.isAuthorMode());
         renderingRequest.setValidated(assessmentPackage.isValidated());
         renderingRequest.setLaunchable(assessmentPackage.isLaunchable());
@@ -669,28 +690,44 @@ public class CandidateRenderingService extends CandidateServiceBase {
         renderingRequest.setValid(assessmentPackage.isValid());
     }
 
+    /**
+     * Generates the key used to cache the XML for the state recorded by the given
+     * {@link CandidateEvent} in the {@link RenderingStateCache}. This must only be used if
+     * the state being rendered is exactly the state recorded by the event. (In particular,
+     * not after touching durations.)
+     */
+    private String createSessionStateKey(final CandidateEvent candidateEvent) {
+        return "event:" + candidateEvent.getId();
+    }
+
     //----------------------------------------------------
     // Result streaming
 
-    private void streamRenderingResultFile(final File resultFile, final OutputStreamer outputStreamer,
+    /**
+     * Creates a buffer to render into. This holds the rendered output in memory, only
+     * using a temporary file for unusually large output.
+     */
+    private SpillableOutputStream createRenderingBuffer() {
+        return new SpillableOutputStream(renderingChunkPool, RENDERING_SPILL_THRESHOLD, new SpillFileProvider() {
+            @Override
+            public File createSpillFile() {
+                return filespaceManager.createTempFile();
+            }
+        });
+    }
+
+    private void streamRenderingResult(final SpillableOutputStream resultBuffer, final OutputStreamer outputStreamer,
             final AbstractRenderingOptions renderingOptions)
             throws IOException {
         final String contentType = renderingOptions.getSerializationMethod().getContentType();
-        final long contentLength = resultFile.length();
-        FileInputStream resultInputStream = null;
+        final long contentLength = resultBuffer.getLength();
+        InputStream resultInputStream = null;
         try {
-            resultInputStream = new FileInputStream(resultFile);
+            resultInputStream = resultBuffer.openInputStream();
             outputStreamer.stream(contentType, contentLength,
                     requestTimestampContext.getCurrentRequestTimestamp(), /* Use request time, which is less accurate than it could be */
                     resultInputStream);
         }
-        catch (final FileNotFoundException e) {
-            throw new QtiWorksRuntimeException("Unexpected IOException", e);
-        }
-        catch (final IOException e) {
-            /* Streamer threw Exception */
-            throw e;
-        }
         finally {
             ServiceUtilities.ensureClose(resultInputStream);
         }
@@ -37,6 +37,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.services.CandidateAuditLogger;
 import uk.ac.ed.ph.qtiworks.services.CandidateDataService;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionStateCache;
 import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 
@@ -70,6 +71,9 @@ public abstract class CandidateServiceBase {
     @Resource
     protected CandidateDataService candidateDataService;
 
+    @Resource
+    protected CandidateSessionStateCache candidateSessionStateCache;
+
     @Resource
     protected CandidateSessionDao candidateSessionDao;
 
@@ -120,6 +124,7 @@ public abstract class CandidateServiceBase {
         candidateSession.setTerminationTime(currentTimestamp);
         candidateAuditLogger.logExplosion(candidateSession);
         candidateSessionDao.update(candidateSession);
+        candidateSessionStateCache.purge(candidateSession);
         return candidateSession;
     }
 }
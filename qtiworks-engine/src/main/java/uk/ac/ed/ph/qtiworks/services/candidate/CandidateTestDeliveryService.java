@@ -161,12 +161,16 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
         /* Record current result state */
-        final AssessmentResult assessmentResult = candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        final AssessmentResult assessmentResult = candidateDataService.computeTestAssessmentResult(candidateSession, testSessionController);
 
         /* Handle immediate end of test session */
         if (testSessionState.isEnded()) {
+            candidateDataService.recordTestAssessmentResult(candidateSession, assessmentResult);
             candidateSessionFinisher.finishCandidateSession(candidateSession, assessmentResult);
         }
+        else {
+            candidateDataService.recordTestOutcomeVariables(candidateSession, assessmentResult);
+        }
 
         return candidateSession;
     }
@@ -303,11 +307,11 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Persist CandidateResponse entities */
         for (final CandidateResponse candidateResponse : candidateResponseMap.values()) {
             candidateResponse.setCandidateEvent(candidateEvent);
-            candidateResponseDao.persist(candidateResponse);
         }
+        candidateResponseDao.persistAll(candidateResponseMap.values());
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestOutcomeVariables(candidateSession, testSessionController);
 
         /* Save any change to session state */
         candidateSessionDao.update(candidateSession);
@@ -343,7 +347,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestOutcomeVariables(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -379,7 +383,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestOutcomeVariables(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -420,8 +424,14 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         final Date requestTimestamp = requestTimestampContext.getCurrentRequestTimestamp();
         final TestPlanNode nextItemNode = testSessionController.advanceItemLinear(requestTimestamp);
 
-        /* Record current result state */
-        final AssessmentResult assessmentResult = candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (writing out the full result only if we ended the testPart) */
+        final AssessmentResult assessmentResult = candidateDataService.computeTestAssessmentResult(candidateSession, testSessionController);
+        if (nextItemNode==null) {
+            candidateDataService.recordTestAssessmentResult(candidateSession, assessmentResult);
+        }
+        else {
+            candidateDataService.recordTestOutcomeVariables(candidateSession, assessmentResult);
+        }
 
         /* If we ended the testPart and there are now no more available testParts, then finish the session now */
         if (nextItemNode==null && testSessionController.findNextEnterableTestPart()==null) {
@@ -542,7 +552,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestOutcomeVariables(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -584,7 +594,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestOutcomeVariables(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
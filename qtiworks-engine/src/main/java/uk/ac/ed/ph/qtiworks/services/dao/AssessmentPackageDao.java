@@ -77,4 +77,9 @@ public class AssessmentPackageDao extends GenericDao<AssessmentPackage> {
         final TypedQuery<AssessmentPackage> query = em.createNamedQuery("AssessmentPackage.getAll", AssessmentPackage.class);
         return query.getResultList();
     }
+
+    public List<AssessmentPackage> getSelectedForOpenDeliveries() {
+        final TypedQuery<AssessmentPackage> query = em.createNamedQuery("AssessmentPackage.getSelectedForOpenDeliveries", AssessmentPackage.class);
+        return query.getResultList();
+    }
 }
@@ -74,10 +74,36 @@ public class CandidateEventDao extends GenericDao<CandidateEvent> {
         return query.getResultList();
     }
 
+    /**
+     * Returns (at most) the newest maxResults {@link CandidateEvent}s in the given {@link CandidateSession}
+     * having IDs no greater than lastEventId, newest first.
+     */
+    public List<CandidateEvent> getForSessionReversed(final CandidateSession candidateSession,
+            final long lastEventId, final int maxResults) {
+        final TypedQuery<CandidateEvent> query = em.createNamedQuery("CandidateEvent.getForSessionReversedUpTo", CandidateEvent.class);
+        query.setParameter("candidateSession", candidateSession);
+        query.setParameter("lastEventId", Long.valueOf(lastEventId));
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     public CandidateEvent getNewestEventInSession(final CandidateSession candidateSession) {
         final TypedQuery<CandidateEvent> query = em.createNamedQuery("CandidateEvent.getForSessionReversed", CandidateEvent.class);
         query.setParameter("candidateSession", candidateSession);
         query.setMaxResults(1);
         return extractNullableFindResult(query);
     }
+
+    /**
+     * Returns the newest {@link CandidateEvent} in the given {@link CandidateSession} recorded
+     * before the given {@link CandidateEvent}, or null if there is no such event.
+     */
+    public CandidateEvent getNewestEventInSessionBefore(final CandidateSession candidateSession,
+            final CandidateEvent candidateEvent) {
+        final TypedQuery<CandidateEvent> query = em.createNamedQuery("CandidateEvent.getForSessionReversedBefore", CandidateEvent.class);
+        query.setParameter("candidateSession", candidateSession);
+        query.setParameter("eventId", candidateEvent.getId());
+        query.setMaxResults(1);
+        return extractNullableFindResult(query);
+    }
 }
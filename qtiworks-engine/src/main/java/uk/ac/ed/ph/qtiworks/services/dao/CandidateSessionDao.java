@@ -41,6 +41,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import java.util.List;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -65,6 +66,21 @@ public class CandidateSessionDao extends GenericDao<CandidateSession> {
         super(CandidateSession.class);
     }
 
+    /**
+     * Takes out a pessimistic write lock on the row for the given {@link CandidateSession},
+     * which is held until the current transaction ends. This is used to make sure that only
+     * one request at a time records events and state for a session.
+     */
+    @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
+    public void lockForUpdate(final CandidateSession candidateSession) {
+        if (em.contains(candidateSession)) {
+            em.lock(candidateSession, LockModeType.PESSIMISTIC_WRITE);
+        }
+        else {
+            em.find(CandidateSession.class, candidateSession.getId(), LockModeType.PESSIMISTIC_WRITE);
+        }
+    }
+
     public List<CandidateSession> getForCandidate(final User candidate) {
         final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getForCandidate", CandidateSession.class);
         query.setParameter("candidate", candidate);
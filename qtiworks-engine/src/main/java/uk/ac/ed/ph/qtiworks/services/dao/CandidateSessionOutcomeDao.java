@@ -36,6 +36,10 @@ package uk.ac.ed.ph.qtiworks.services.dao;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.LisOutcomeReportingStatus;
+
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
 
 import java.util.List;
 
@@ -44,6 +48,9 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -76,6 +83,41 @@ public class CandidateSessionOutcomeDao extends GenericDao<CandidateSessionOutco
         return query.getResultList();
     }
 
+    /**
+     * Returns the distinct (identifier, {@link BaseType}, {@link Cardinality}) combinations of
+     * the outcomes recorded for the given {@link Delivery}, ordered by when they first appear.
+     */
+    public List<Object[]> getOutcomeTypesForDelivery(final Delivery delivery) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSessionOutcome.getOutcomeTypesForDelivery", Object[].class);
+        query.setParameter("delivery", delivery);
+        return query.getResultList();
+    }
+
+    /**
+     * Scrolls forwards through summary data about each outcome recorded for the given {@link Delivery},
+     * ordered by session. Each row contains the following columns:
+     * <ol>
+     *   <li>Session ID (xid)</li>
+     *   <li>Session creation time</li>
+     *   <li>Candidate first name, last name and email address (3 columns)</li>
+     *   <li>Session finish time, termination time and exploded flag (3 columns)</li>
+     *   <li>Session {@link LisOutcomeReportingStatus} and LIS score (2 columns)</li>
+     *   <li>Outcome identifier, {@link BaseType}, {@link Cardinality} and string value (4 columns)</li>
+     * </ol>
+     * Only scalar values are selected and results are fetched in blocks of the given size, so this
+     * may be used on arbitrarily large deliveries without filling up the persistence context.
+     * <p>
+     * The caller MUST close the resulting {@link ScrollableResults}.
+     */
+    public ScrollableResults scrollSummaryDataForDelivery(final Delivery delivery, final int fetchSize) {
+        final Session session = em.unwrap(Session.class);
+        return session.getNamedQuery("CandidateSessionOutcome.getSummaryDataForDelivery")
+                .setParameter("delivery", delivery)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
     public int deleteForCandidateSession(final CandidateSession candidateSession) {
         final Query query = em.createNamedQuery("CandidateSessionOutcome.deleteForSession");
         query.setParameter("candidateSession", candidateSession);
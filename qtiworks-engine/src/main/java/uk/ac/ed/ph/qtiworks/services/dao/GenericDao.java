@@ -40,6 +40,7 @@ import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -149,6 +150,19 @@ public abstract class GenericDao<E extends BaseEntity> {
         return entity;
     }
 
+    /**
+     * Persists all of the given entities within a single transaction.
+     * <p>
+     * Nothing is actually written until the persistence context is flushed, at which
+     * point the resulting inserts are sent to the database as a JDBC batch.
+     */
+    @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
+    public void persistAll(final Collection<? extends E> entities) {
+        for (final E entity : entities) {
+            persist(entity);
+        }
+    }
+
     @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
     public void remove(final E entity) {
         try {
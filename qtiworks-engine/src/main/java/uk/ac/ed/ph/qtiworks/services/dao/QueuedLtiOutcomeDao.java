@@ -35,6 +35,7 @@ package uk.ac.ed.ph.qtiworks.services.dao;
 
 import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
 
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -65,4 +66,37 @@ public class QueuedLtiOutcomeDao extends GenericDao<QueuedLtiOutcome> {
         final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getAllQueuedOutcomes", QueuedLtiOutcome.class);
         return query.getResultList();
     }
+
+    /**
+     * Returns up to pageSize {@link QueuedLtiOutcome}s having IDs greater than afterId,
+     * in insertion order.
+     */
+    public List<QueuedLtiOutcome> getQueuedOutcomesPage(final long afterId, final int pageSize) {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getQueuedOutcomesPage", QueuedLtiOutcome.class);
+        query.setParameter("afterId", Long.valueOf(afterId));
+        query.setMaxResults(pageSize);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns up to pageSize {@link QueuedLtiOutcome}s having IDs greater than afterId
+     * that have either not been tried yet or have a retry time before the given timestamp,
+     * in insertion order.
+     */
+    public List<QueuedLtiOutcome> getDueQueuedOutcomesPage(final Date now, final long afterId, final int pageSize) {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getDueQueuedOutcomesPage", QueuedLtiOutcome.class);
+        query.setParameter("now", now);
+        query.setParameter("afterId", Long.valueOf(afterId));
+        query.setMaxResults(pageSize);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns all {@link QueuedLtiOutcome}s for which a later outcome for the same
+     * CandidateSession has also been queued.
+     */
+    public List<QueuedLtiOutcome> getSupersededQueuedOutcomes() {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getSupersededQueuedOutcomes", QueuedLtiOutcome.class);
+        return query.getResultList();
+    }
 }
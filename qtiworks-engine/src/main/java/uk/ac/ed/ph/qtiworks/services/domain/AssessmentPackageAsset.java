@@ -0,0 +1,151 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Describes a (safe) file within an {@link AssessmentPackage} that is being served via
+ * a public, content-addressed URL, or a bundled sample file that has been read into memory.
+ * <p>
+ * Since the URL includes the hash of the file's content, the file will never change
+ * for a given URL, so can be cached publicly for as long as a client likes.
+ * <p>
+ * The content of the asset either lives in a {@link File} (for uploaded packages) or is held
+ * in memory (for the bundled samples, which live in the ClassPath). Exactly one of
+ * {@link #getFile()} and {@link #getData()} will be non-null.
+ *
+ * @see AssessmentPackage#getFileContentHashes()
+ *
+ * @author David McKain
+ */
+public final class AssessmentPackageAsset {
+
+    private final String href;
+    private final String contentHash;
+    private final String contentType;
+    private final Date lastModifiedTime;
+    private final File file;
+    private final byte[] data;
+    private final long contentLength;
+    private final String etag;
+
+    public AssessmentPackageAsset(final String href, final String contentHash, final String contentType,
+            final Date lastModifiedTime, final File file) {
+        this(href, contentHash, contentType, lastModifiedTime, file, null);
+    }
+
+    public AssessmentPackageAsset(final String href, final String contentHash, final String contentType,
+            final Date lastModifiedTime, final byte[] data) {
+        this(href, contentHash, contentType, lastModifiedTime, null, data);
+    }
+
+    private AssessmentPackageAsset(final String href, final String contentHash, final String contentType,
+            final Date lastModifiedTime, final File file, final byte[] data) {
+        Assert.notNull(href, "href");
+        Assert.notNull(contentHash, "contentHash");
+        Assert.notNull(contentType, "contentType");
+        if ((file==null) == (data==null)) {
+            throw new IllegalArgumentException("Exactly one of file and data must be provided");
+        }
+        this.href = href;
+        this.contentHash = contentHash;
+        this.contentType = contentType;
+        this.lastModifiedTime = lastModifiedTime;
+        this.file = file;
+        this.data = data;
+        this.contentLength = file!=null ? file.length() : data.length;
+        this.etag = "\"" + contentHash + "\"";
+    }
+
+    public String getHref() {
+        return href;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Date getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    /**
+     * Returns the {@link File} containing this asset, or null if it is held in memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the content of this asset if it is held in memory, otherwise null.
+     * <p>
+     * The resulting array is shared, so must NOT be modified.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the (strong) entity tag for this asset, which is derived from its content hash.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(href=" + href
+                + ",contentHash=" + contentHash
+                + ",contentType=" + contentType
+                + ",lastModifiedTime=" + lastModifiedTime
+                + ",file=" + file
+                + ",contentLength=" + contentLength
+                + ")";
+    }
+}
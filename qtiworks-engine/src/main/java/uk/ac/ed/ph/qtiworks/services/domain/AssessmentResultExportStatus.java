@@ -0,0 +1,120 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Snapshot of the progress of a background job exporting the <code>assessmentResult</code>s
+ * for a {@link Delivery} as a ZIP file.
+ *
+ * @author David McKain
+ */
+public final class AssessmentResultExportStatus implements Serializable {
+
+    private static final long serialVersionUID = -2437390164581377436L;
+
+    /** Possible states of an export job */
+    public static enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETE,
+        FAILED,
+        ;
+    }
+
+    private final String jobId;
+    private final long did;
+    private final boolean compressed;
+    private final Date creationTime;
+    private final State state;
+    private final int entryCount;
+    private final int completedEntryCount;
+    private final String failureMessage; /* Null unless FAILED */
+
+    public AssessmentResultExportStatus(final String jobId, final long did, final boolean compressed,
+            final Date creationTime, final State state, final int entryCount, final int completedEntryCount,
+            final String failureMessage) {
+        this.jobId = jobId;
+        this.did = did;
+        this.compressed = compressed;
+        this.creationTime = ObjectUtilities.safeClone(creationTime);
+        this.state = state;
+        this.entryCount = entryCount;
+        this.completedEntryCount = completedEntryCount;
+        this.failureMessage = failureMessage;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public long getDid() {
+        return did;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public Date getCreationTime() {
+        return ObjectUtilities.safeClone(creationTime);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getCompletedEntryCount() {
+        return completedEntryCount;
+    }
+
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Simple bounded pool of fixed-size byte arrays ("chunks"), used to build up in-memory
+ * buffers without creating lots of garbage on each request.
+ * <p>
+ * If the pool is empty then fresh chunks are created. Chunks returned to a full pool are
+ * simply dropped.
+ * <p>
+ * An instance of this class is safe to use concurrently by multiple threads.
+ *
+ * @see SpillableOutputStream
+ *
+ * @author David McKain
+ */
+public final class ByteChunkPool {
+
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> pooledChunks;
+
+    public ByteChunkPool(final int chunkSize, final int maxPooledChunks) {
+        if (chunkSize<=0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        if (maxPooledChunks<=0) {
+            throw new IllegalArgumentException("maxPooledChunks must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.pooledChunks = new ArrayBlockingQueue<byte[]>(maxPooledChunks);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getPooledChunkCount() {
+        return pooledChunks.size();
+    }
+
+    /**
+     * Obtains a chunk from the pool, creating a new one if none are available.
+     * The content of the chunk is undefined.
+     */
+    public byte[] borrowChunk() {
+        final byte[] result = pooledChunks.poll();
+        return result!=null ? result : new byte[chunkSize];
+    }
+
+    /**
+     * Returns the given chunk (previously obtained via {@link #borrowChunk()}) to the pool.
+     */
+    public void returnChunk(final byte[] chunk) {
+        if (chunk.length==chunkSize) {
+            pooledChunks.offer(chunk);
+        }
+    }
+}
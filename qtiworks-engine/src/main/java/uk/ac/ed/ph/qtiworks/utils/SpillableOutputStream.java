@@ -0,0 +1,283 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.utils;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link OutputStream} that collects data in memory, using chunks taken from a
+ * {@link ByteChunkPool}. If the amount of data goes above a given threshold then everything
+ * is moved to a temporary file, and any further data is written there.
+ * <p>
+ * Usage: write the data, then call {@link #close()}. You can then call {@link #getLength()} and
+ * {@link #openInputStream()} to read the data back. You MUST call {@link #release()} once you
+ * have finished, which returns the chunks to the pool and deletes any temporary file.
+ * <p>
+ * An instance of this class must only be used by one thread.
+ *
+ * @author David McKain
+ */
+public final class SpillableOutputStream extends OutputStream {
+
+    /**
+     * Callback used to obtain a temporary {@link File} to spill data to. This is only
+     * called if required.
+     */
+    public static interface SpillFileProvider {
+
+        File createSpillFile();
+
+    }
+
+    private final ByteChunkPool chunkPool;
+    private final long spillThreshold;
+    private final SpillFileProvider spillFileProvider;
+    private final List<byte[]> chunks;
+
+    /** Number of bytes written into the last chunk */
+    private int lastChunkUsed;
+
+    /** Total number of bytes written */
+    private long length;
+
+    /** Temporary file holding the data, if we've had to spill */
+    private File spillFile;
+
+    /** Stream writing to spillFile, if we've spilled and not yet been closed */
+    private OutputStream spillStream;
+
+    private boolean closed;
+    private boolean released;
+
+    public SpillableOutputStream(final ByteChunkPool chunkPool, final long spillThreshold,
+            final SpillFileProvider spillFileProvider) {
+        this.chunkPool = chunkPool;
+        this.spillThreshold = spillThreshold;
+        this.spillFileProvider = spillFileProvider;
+        this.chunks = new ArrayList<byte[]>();
+        this.lastChunkUsed = 0;
+        this.length = 0;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isSpilled() {
+        return spillFile!=null;
+    }
+
+    //----------------------------------------------------
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureWritable();
+        if (spillStream==null && length + 1 > spillThreshold) {
+            spill();
+        }
+        if (spillStream!=null) {
+            spillStream.write(b);
+        }
+        else {
+            if (chunks.isEmpty() || lastChunkUsed==chunkPool.getChunkSize()) {
+                chunks.add(chunkPool.borrowChunk());
+                lastChunkUsed = 0;
+            }
+            chunks.get(chunks.size()-1)[lastChunkUsed++] = (byte) b;
+        }
+        length++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        ensureWritable();
+        if (spillStream==null && length + len > spillThreshold) {
+            spill();
+        }
+        if (spillStream!=null) {
+            spillStream.write(b, off, len);
+        }
+        else {
+            final int chunkSize = chunkPool.getChunkSize();
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (chunks.isEmpty() || lastChunkUsed==chunkSize) {
+                    chunks.add(chunkPool.borrowChunk());
+                    lastChunkUsed = 0;
+                }
+                final int toCopy = Math.min(remaining, chunkSize - lastChunkUsed);
+                System.arraycopy(b, offset, chunks.get(chunks.size()-1), lastChunkUsed, toCopy);
+                lastChunkUsed += toCopy;
+                offset += toCopy;
+                remaining -= toCopy;
+            }
+        }
+        length += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spillStream!=null) {
+            spillStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (spillStream!=null) {
+                spillStream.close();
+                spillStream = null;
+            }
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) {
+            throw new IOException("Stream has been closed");
+        }
+    }
+
+    /** Moves everything written so far into a temporary file, then releases the chunks */
+    private void spill() throws IOException {
+        spillFile = spillFileProvider.createSpillFile();
+        spillStream = new FileOutputStream(spillFile);
+        final int chunkCount = chunks.size();
+        for (int i=0; i<chunkCount; i++) {
+            spillStream.write(chunks.get(i), 0, i==chunkCount-1 ? lastChunkUsed : chunkPool.getChunkSize());
+        }
+        releaseChunks();
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Opens an {@link InputStream} for reading back the data. This may only be called after
+     * {@link #close()}. The caller is responsible for closing the resulting stream.
+     */
+    public InputStream openInputStream() throws IOException {
+        if (!closed || released) {
+            throw new IllegalStateException("Stream must be closed (but not released) before being read");
+        }
+        if (spillFile!=null) {
+            return new FileInputStream(spillFile);
+        }
+        return new ChunkInputStream();
+    }
+
+    /**
+     * Returns any chunks to the pool and deletes any temporary file. The data can no longer
+     * be read back afterwards.
+     *
+     * @throws QtiWorksRuntimeException if the temporary file could not be deleted
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        releaseChunks();
+        if (spillStream!=null) {
+            try {
+                spillStream.close();
+            }
+            catch (final IOException e) {
+                throw new QtiWorksRuntimeException("Unexpected failure to close stream", e);
+            }
+            spillStream = null;
+        }
+        if (spillFile!=null && !spillFile.delete()) {
+            throw new QtiWorksRuntimeException("Could not delete spill file " + spillFile.getPath());
+        }
+    }
+
+    private void releaseChunks() {
+        for (final byte[] chunk : chunks) {
+            chunkPool.returnChunk(chunk);
+        }
+        chunks.clear();
+        lastChunkUsed = 0;
+    }
+
+    //----------------------------------------------------
+
+    /** Reads back data held in memory */
+    private final class ChunkInputStream extends InputStream {
+
+        private long position = 0;
+
+        @Override
+        public int read() {
+            if (position>=length) {
+                return -1;
+            }
+            final int chunkSize = chunkPool.getChunkSize();
+            final int result = chunks.get((int) (position / chunkSize))[(int) (position % chunkSize)] & 0xff;
+            position++;
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len==0) {
+                return 0;
+            }
+            if (position>=length) {
+                return -1;
+            }
+            final int chunkSize = chunkPool.getChunkSize();
+            final int chunkOffset = (int) (position % chunkSize);
+            final int toCopy = (int) Math.min(Math.min(len, chunkSize - chunkOffset), length - position);
+            System.arraycopy(chunks.get((int) (position / chunkSize)), chunkOffset, b, off, toCopy);
+            position += toCopy;
+            return toCopy;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(length - position, Integer.MAX_VALUE);
+        }
+    }
+}
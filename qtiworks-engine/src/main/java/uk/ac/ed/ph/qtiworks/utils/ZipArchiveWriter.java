@@ -0,0 +1,346 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.utils;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Minimal streaming ZIP archive writer that accepts entries whose data has already been
+ * prepared (and possibly compressed) via {@link #prepareEntry(String, File, boolean)}.
+ * <p>
+ * This allows the expensive reading and compression of entries to be done in parallel
+ * by different threads, with the resulting entries then written out in a deterministic order
+ * by a single thread. (This can't be done with {@link java.util.zip.ZipOutputStream}, which
+ * always compresses entries itself.)
+ * <p>
+ * ZIP64 records are written automatically when the archive has too many entries or is too
+ * large for the standard ZIP format.
+ * <p>
+ * An instance of this class is NOT safe for use by multiple threads. The
+ * {@link #prepareEntry(String, File, boolean)} method may be called concurrently.
+ *
+ * @author David McKain
+ */
+public final class ZipArchiveWriter {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8_NAMES = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+
+    /**
+     * Data for a single ZIP entry, ready to be written out.
+     */
+    public static final class PreparedEntry {
+
+        private final String name;
+        private final byte[] nameBytes;
+        private final boolean deflated;
+        private final byte[] data;
+        private final long crc;
+        private final long uncompressedSize;
+        private final long lastModified;
+
+        PreparedEntry(final String name, final boolean deflated, final byte[] data,
+                final long crc, final long uncompressedSize, final long lastModified) {
+            this.name = name;
+            this.nameBytes = name.getBytes(Charsets.UTF_8);
+            this.deflated = deflated;
+            this.data = data;
+            this.crc = crc;
+            this.uncompressedSize = uncompressedSize;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDeflated() {
+            return deflated;
+        }
+
+        public long getCompressedSize() {
+            return data.length;
+        }
+
+        public long getUncompressedSize() {
+            return uncompressedSize;
+        }
+    }
+
+    /** Details of each entry written, used to build the central directory */
+    private static final class CentralDirectoryRecord {
+
+        final PreparedEntry entry;
+        final long localHeaderOffset;
+
+        CentralDirectoryRecord(final PreparedEntry entry, final long localHeaderOffset) {
+            this.entry = entry;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final OutputStream outputStream;
+    private final List<CentralDirectoryRecord> centralDirectory;
+    private final byte[] buffer;
+    private long offset;
+    private boolean finished;
+
+    public ZipArchiveWriter(final OutputStream outputStream) {
+        Assert.notNull(outputStream, "outputStream");
+        this.outputStream = outputStream;
+        this.centralDirectory = new ArrayList<CentralDirectoryRecord>();
+        this.buffer = new byte[8];
+        this.offset = 0L;
+        this.finished = false;
+    }
+
+    /**
+     * Reads the given {@link File} and prepares it for adding to an archive under the given
+     * name, compressing its data if requested.
+     * <p>
+     * This is safe to call from multiple threads.
+     */
+    public static PreparedEntry prepareEntry(final String name, final File file, final boolean compress)
+            throws IOException {
+        Assert.notNull(name, "name");
+        Assert.notNull(file, "file");
+        final byte[] uncompressed = Files.toByteArray(file);
+        return prepareEntry(name, uncompressed, compress, file.lastModified());
+    }
+
+    /**
+     * Prepares the given data for adding to an archive under the given name, compressing it
+     * if requested.
+     * <p>
+     * This is safe to call from multiple threads.
+     */
+    public static PreparedEntry prepareEntry(final String name, final byte[] uncompressed, final boolean compress,
+            final long lastModified) {
+        Assert.notNull(name, "name");
+        Assert.notNull(uncompressed, "uncompressed");
+        final CRC32 crc32 = new CRC32();
+        crc32.update(uncompressed);
+        if (!compress) {
+            return new PreparedEntry(name, false, uncompressed, crc32.getValue(), uncompressed.length, lastModified);
+        }
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(uncompressed);
+            deflater.finish();
+            final ByteArrayOutputStream compressedStream = new ByteArrayOutputStream(Math.max(64, uncompressed.length / 2));
+            final byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(chunk);
+                compressedStream.write(chunk, 0, count);
+            }
+            return new PreparedEntry(name, true, compressedStream.toByteArray(), crc32.getValue(), uncompressed.length, lastModified);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes out the given {@link PreparedEntry} as the next entry in the archive.
+     */
+    public void writeEntry(final PreparedEntry entry) throws IOException {
+        Assert.notNull(entry, "entry");
+        ensureNotFinished();
+        centralDirectory.add(new CentralDirectoryRecord(entry, offset));
+
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(VERSION_DEFAULT);
+        writeEntryDetails(entry);
+        writeShort(0); /* (Extra field length) */
+        write(entry.nameBytes);
+        write(entry.data);
+    }
+
+    /**
+     * Writes out the central directory, completing the archive. The underlying
+     * {@link OutputStream} is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        ensureNotFinished();
+        finished = true;
+
+        final long centralDirectoryOffset = offset;
+        for (final CentralDirectoryRecord record : centralDirectory) {
+            final boolean zip64 = record.localHeaderOffset >= MAX_32;
+            writeInt(CENTRAL_FILE_HEADER_SIGNATURE);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT); /* (Version made by) */
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT); /* (Version needed) */
+            writeEntryDetails(record.entry);
+            writeShort(zip64 ? 12 : 0); /* (Extra field length) */
+            writeShort(0); /* (Comment length) */
+            writeShort(0); /* (Disk number start) */
+            writeShort(0); /* (Internal attributes) */
+            writeInt(0); /* (External attributes) */
+            writeInt(zip64 ? MAX_32 : record.localHeaderOffset);
+            write(record.entry.nameBytes);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_FIELD_ID);
+                writeShort(8);
+                writeLong(record.localHeaderOffset);
+            }
+        }
+        final long centralDirectorySize = offset - centralDirectoryOffset;
+        final int entryCount = centralDirectory.size();
+
+        if (entryCount >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32) {
+            final long zip64EndOffset = offset;
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(44L); /* (Size of remainder of this record) */
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0); /* (Number of this disk) */
+            writeInt(0); /* (Disk containing central directory) */
+            writeLong(entryCount);
+            writeLong(entryCount);
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            writeInt(0); /* (Disk containing ZIP64 end record) */
+            writeLong(zip64EndOffset);
+            writeInt(1); /* (Total number of disks) */
+        }
+
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0); /* (Number of this disk) */
+        writeShort(0); /* (Disk containing central directory) */
+        writeShort(Math.min(entryCount, MAX_16));
+        writeShort(Math.min(entryCount, MAX_16));
+        writeInt(Math.min(centralDirectorySize, MAX_32));
+        writeInt(Math.min(centralDirectoryOffset, MAX_32));
+        writeShort(0); /* (Comment length) */
+        outputStream.flush();
+    }
+
+    public int getEntryCount() {
+        return centralDirectory.size();
+    }
+
+    //-------------------------------------------------
+
+    private void ensureNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("ZIP archive has already been finished");
+        }
+    }
+
+    /**
+     * Writes the fields common to both local and central headers, from the flags up to and
+     * including the file name length.
+     */
+    private void writeEntryDetails(final PreparedEntry entry) throws IOException {
+        writeShort(FLAG_UTF8_NAMES);
+        writeShort(entry.deflated ? METHOD_DEFLATED : METHOD_STORED);
+        writeInt(toDosDateTime(entry.lastModified));
+        writeInt(entry.crc);
+        writeInt(entry.data.length);
+        writeInt(entry.uncompressedSize);
+        writeShort(entry.nameBytes.length);
+    }
+
+    private static long toDosDateTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); /* (1980-01-01 00:00) */
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void writeShort(final int value) throws IOException {
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        outputStream.write(buffer, 0, 2);
+        offset += 2;
+    }
+
+    private void writeInt(final long value) throws IOException {
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        buffer[2] = (byte) (value >> 16);
+        buffer[3] = (byte) (value >> 24);
+        outputStream.write(buffer, 0, 4);
+        offset += 4;
+    }
+
+    private void writeLong(final long value) throws IOException {
+        for (int i=0; i<8; i++) {
+            buffer[i] = (byte) (value >> (8 * i));
+        }
+        outputStream.write(buffer, 0, 8);
+        offset += 8;
+    }
+
+    private void write(final byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        offset += bytes.length;
+    }
+}
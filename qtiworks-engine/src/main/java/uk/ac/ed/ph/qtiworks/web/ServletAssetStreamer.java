@@ -0,0 +1,189 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web;
+
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageAsset;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves an {@link AssessmentPackageAsset} to a {@link HttpServletResponse}.
+ * <p>
+ * Unlike {@link ServletOutputStreamer}, the resulting data is marked as being publicly
+ * cacheable for a long time, since the URLs for these assets change whenever their content
+ * does. This also supports conditional GETs (via the content hash) and single byte ranges,
+ * which media players tend to use.
+ * <p>
+ * Assets held in memory are written out directly. Assets held in files are sent using the
+ * container's "sendfile" support if available (e.g. Tomcat with the NIO or APR connectors),
+ * otherwise via {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * <p>
+ * An instance of this class is stateless and safe to use concurrently by multiple threads.
+ *
+ * @author David McKain
+ */
+public final class ServletAssetStreamer {
+
+    /** Cache-Control header sent with assets, allowing them to be cached for (up to) a year */
+    public static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /** Matches a Range header asking for a single byte range */
+    private static final Pattern SINGLE_BYTE_RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /* Request attributes used for Tomcat's sendfile support */
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    public void stream(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+            final AssessmentPackageAsset asset)
+            throws IOException {
+        Assert.notNull(httpServletRequest, "httpServletRequest");
+        Assert.notNull(httpServletResponse, "httpServletResponse");
+        Assert.notNull(asset, "asset");
+        final long contentLength = asset.getContentLength();
+        final String etag = asset.getEtag();
+
+        /* Set headers common to all responses */
+        httpServletResponse.setHeader("ETag", etag);
+        httpServletResponse.setHeader("Cache-Control", CACHE_CONTROL);
+        httpServletResponse.setHeader("Accept-Ranges", "bytes");
+        if (asset.getLastModifiedTime()!=null) {
+            httpServletResponse.setHeader("Last-Modified", WebUtilities.formatHttpDate(asset.getLastModifiedTime()));
+        }
+
+        /* Handle conditional GET */
+        if (etagMatches(httpServletRequest.getHeader("If-None-Match"), etag)) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        /* Work out which bytes to send, honouring any Range requested. (If-Range is only
+         * satisfied if it's our ETag, as our Last-Modified times are not very precise.)
+         */
+        long start = 0;
+        long end = contentLength; /* (exclusive) */
+        final String rangeHeader = httpServletRequest.getHeader("Range");
+        final String ifRangeHeader = httpServletRequest.getHeader("If-Range");
+        if (rangeHeader!=null && (ifRangeHeader==null || ifRangeHeader.equals(etag))) {
+            final Matcher rangeMatcher = SINGLE_BYTE_RANGE_PATTERN.matcher(rangeHeader.trim());
+            if (rangeMatcher.matches() && !(rangeMatcher.group(1).isEmpty() && rangeMatcher.group(2).isEmpty())) {
+                /* (Anything else, such as multiple ranges, gets the whole file, which is allowed) */
+                try {
+                    if (rangeMatcher.group(1).isEmpty()) {
+                        /* Suffix range, e.g. bytes=-500 */
+                        start = Math.max(contentLength - Long.parseLong(rangeMatcher.group(2)), 0L);
+                    }
+                    else {
+                        start = Long.parseLong(rangeMatcher.group(1));
+                        if (!rangeMatcher.group(2).isEmpty()) {
+                            end = Math.min(Long.parseLong(rangeMatcher.group(2)) + 1, contentLength);
+                        }
+                    }
+                }
+                catch (final NumberFormatException e) {
+                    /* (Too big to be satisfiable) */
+                    start = contentLength;
+                }
+                if (start >= end) {
+                    httpServletResponse.setHeader("Content-Range", "bytes */" + contentLength);
+                    httpServletResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                httpServletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                httpServletResponse.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + contentLength);
+            }
+        }
+        httpServletResponse.setContentType(asset.getContentType());
+        httpServletResponse.setHeader("Content-Length", Long.toString(end - start));
+        if ("HEAD".equals(httpServletRequest.getMethod())) {
+            return;
+        }
+
+        /* Finally send the data */
+        final File file = asset.getFile();
+        if (file==null) {
+            httpServletResponse.getOutputStream().write(asset.getData(), (int) start, (int) (end - start));
+        }
+        else if (Boolean.TRUE.equals(httpServletRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            httpServletRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+            httpServletRequest.setAttribute(SENDFILE_START_ATTRIBUTE, Long.valueOf(start));
+            httpServletRequest.setAttribute(SENDFILE_END_ATTRIBUTE, Long.valueOf(end));
+        }
+        else {
+            final FileInputStream fileInputStream = new FileInputStream(file);
+            try {
+                final FileChannel fileChannel = fileInputStream.getChannel();
+                final WritableByteChannel outputChannel = Channels.newChannel(httpServletResponse.getOutputStream());
+                long position = start;
+                while (position < end) {
+                    final long transferred = fileChannel.transferTo(position, end - position, outputChannel);
+                    if (transferred <= 0) {
+                        throw new IOException("File " + file + " ended unexpectedly at position " + position);
+                    }
+                    position += transferred;
+                }
+            }
+            finally {
+                fileInputStream.close();
+            }
+        }
+    }
+
+    private static boolean etagMatches(final String ifNoneMatchHeader, final String etag) {
+        if (ifNoneMatchHeader==null) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatchHeader.split(",")) {
+            final String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
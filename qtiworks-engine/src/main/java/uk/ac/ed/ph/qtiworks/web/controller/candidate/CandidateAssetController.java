@@ -0,0 +1,91 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web.controller.candidate;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateRenderingService;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageAsset;
+import uk.ac.ed.ph.qtiworks.web.ServletAssetStreamer;
+
+import java.io.IOException;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Controller serving files within {@link AssessmentPackage}s via public, content-addressed
+ * URLs. These don't belong to any candidate session, so can be cached and shared by browsers
+ * and proxies.
+ * <p>
+ * This is only active when {@link QtiWorksDeploymentSettings#isPublicAssetUrls()} is enabled.
+ * Otherwise files are served via the candidate session controllers.
+ *
+ * @author David McKain
+ */
+@Controller
+public class CandidateAssetController {
+
+    /** Base URL for public assets, as passed to the rendering process */
+    public static final String PUBLIC_ASSET_URL = "/candidate/asset";
+
+    private final ServletAssetStreamer servletAssetStreamer = new ServletAssetStreamer();
+
+    @Resource
+    private CandidateRenderingService candidateRenderingService;
+
+    /**
+     * Serves the given file in the {@link AssessmentPackage} with the given ID, provided
+     * it has the given content hash.
+     */
+    @RequestMapping(value="/asset/{apid}/{contentHash}", method={ RequestMethod.GET, RequestMethod.HEAD })
+    public void streamPublicAsset(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+            @PathVariable final long apid, @PathVariable final String contentHash,
+            @RequestParam("href") final String fileHref)
+            throws IOException {
+        final AssessmentPackageAsset asset = candidateRenderingService.lookupPublicAssessmentPackageAsset(apid, contentHash, fileHref);
+        if (asset==null) {
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        servletAssetStreamer.stream(httpServletRequest, httpServletResponse, asset);
+    }
+}
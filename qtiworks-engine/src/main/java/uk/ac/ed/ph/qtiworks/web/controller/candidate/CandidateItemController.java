@@ -153,6 +153,7 @@ public class CandidateItemController extends CandidateControllerBase {
         renderingOptions.setResultUrl(sessionBaseUrl + "/result");
         renderingOptions.setValidationUrl(sessionBaseUrl + "/validation");
         renderingOptions.setServeFileUrl(sessionBaseUrl + "/file");
+        renderingOptions.setPublicAssetUrl(CandidateAssetController.PUBLIC_ASSET_URL);
         renderingOptions.setAuthorViewUrl(sessionBaseUrl + "/author-view");
         renderingOptions.setResponseUrl(sessionBaseUrl + "/response");
     }
@@ -38,6 +38,8 @@ import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.services.AssessmentProctoringService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentReportingService;
+import uk.ac.ed.ph.qtiworks.services.AssessmentResultExportService;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentResultExportStatus;
 import uk.ac.ed.ph.qtiworks.services.domain.DeliveryCandidateSummaryReport;
 import uk.ac.ed.ph.qtiworks.services.domain.PrivilegeException;
 import uk.ac.ed.ph.qtiworks.web.GlobalRouter;
@@ -53,6 +55,8 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 /**
@@ -75,6 +79,9 @@ public class InstructorAssessmentReportingController {
     @Resource
     private AssessmentReportingService assessmentReportingService;
 
+    @Resource
+    private AssessmentResultExportService assessmentResultExportService;
+
     //------------------------------------------------------
 
     @ModelAttribute
@@ -120,10 +127,41 @@ public class InstructorAssessmentReportingController {
     }
 
     @RequestMapping(value="/delivery/candidate-results-{did}.zip", method=RequestMethod.GET)
-    public void streamDeliveryCandidateResults(@PathVariable final long did, final HttpServletResponse httpServletResponse)
+    public void streamDeliveryCandidateResults(@PathVariable final long did, @RequestParam(value="stored", required=false, defaultValue="false") final boolean stored,
+            final HttpServletResponse httpServletResponse)
+            throws PrivilegeException, DomainEntityNotFoundException, IOException {
+        httpServletResponse.setContentType("application/zip");
+        assessmentResultExportService.streamAssessmentResults(did, httpServletResponse.getOutputStream(), !stored);
+    }
+
+    @RequestMapping(value="/delivery/{did}/candidate-results-export", method=RequestMethod.POST)
+    @ResponseBody
+    public AssessmentResultExportStatus startDeliveryCandidateResultsExport(@PathVariable final long did, @RequestParam(value="stored", required=false, defaultValue="false") final boolean stored)
+            throws PrivilegeException, DomainEntityNotFoundException {
+        return assessmentResultExportService.startExportJob(did, !stored);
+    }
+
+    @RequestMapping(value="/delivery/{did}/candidate-results-export/{jobId}", method=RequestMethod.GET)
+    @ResponseBody
+    public AssessmentResultExportStatus getDeliveryCandidateResultsExportStatus(@PathVariable final long did, @PathVariable final String jobId,
+            final HttpServletResponse httpServletResponse)
+            throws PrivilegeException, DomainEntityNotFoundException, IOException {
+        final AssessmentResultExportStatus status = assessmentResultExportService.getExportStatus(did, jobId);
+        if (status==null) {
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return status;
+    }
+
+    @RequestMapping(value="/delivery/{did}/candidate-results-export/{jobId}/results.zip", method=RequestMethod.GET)
+    public void streamDeliveryCandidateResultsExport(@PathVariable final long did, @PathVariable final String jobId,
+            final HttpServletResponse httpServletResponse)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         httpServletResponse.setContentType("application/zip");
-        assessmentReportingService.streamAssessmentReports(did, httpServletResponse.getOutputStream());
+        if (!assessmentResultExportService.streamExportArchive(did, jobId, httpServletResponse.getOutputStream())) {
+            httpServletResponse.reset();
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
     }
 
     //------------------------------------------------------
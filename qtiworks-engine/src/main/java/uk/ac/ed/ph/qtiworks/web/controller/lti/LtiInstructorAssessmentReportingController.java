@@ -37,7 +37,9 @@ import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.services.AssessmentProctoringService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentReportingService;
+import uk.ac.ed.ph.qtiworks.services.AssessmentResultExportService;
 import uk.ac.ed.ph.qtiworks.services.IdentityService;
+import uk.ac.ed.ph.qtiworks.services.domain.AssessmentResultExportStatus;
 import uk.ac.ed.ph.qtiworks.services.domain.DeliveryCandidateSummaryReport;
 import uk.ac.ed.ph.qtiworks.services.domain.PrivilegeException;
 import uk.ac.ed.ph.qtiworks.web.GlobalRouter;
@@ -53,6 +55,8 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 /**
@@ -76,6 +80,9 @@ public class LtiInstructorAssessmentReportingController {
     @Resource
     private AssessmentReportingService assessmentReportingService;
 
+    @Resource
+    private AssessmentResultExportService assessmentResultExportService;
+
     @Resource
     private IdentityService identityService;
 
@@ -129,11 +136,45 @@ public class LtiInstructorAssessmentReportingController {
     }
 
     @RequestMapping(value="/candidate-results-{lrid}.zip", method=RequestMethod.GET)
-    public void streamDeliveryCandidateResults(final HttpServletResponse httpServletResponse)
+    public void streamDeliveryCandidateResults(@RequestParam(value="stored", required=false, defaultValue="false") final boolean stored,
+            final HttpServletResponse httpServletResponse)
+            throws PrivilegeException, DomainEntityNotFoundException, IOException {
+        final Delivery thisDelivery = identityService.assertCurrentThreadLtiIdentityContext().getLtiResource().getDelivery();
+        httpServletResponse.setContentType("application/zip");
+        assessmentResultExportService.streamAssessmentResults(thisDelivery.getId(), httpServletResponse.getOutputStream(), !stored);
+    }
+
+    @RequestMapping(value="/candidate-results-export", method=RequestMethod.POST)
+    @ResponseBody
+    public AssessmentResultExportStatus startDeliveryCandidateResultsExport(@RequestParam(value="stored", required=false, defaultValue="false") final boolean stored)
+            throws PrivilegeException, DomainEntityNotFoundException {
+        final Delivery thisDelivery = identityService.assertCurrentThreadLtiIdentityContext().getLtiResource().getDelivery();
+        return assessmentResultExportService.startExportJob(thisDelivery.getId(), !stored);
+    }
+
+    @RequestMapping(value="/candidate-results-export/{jobId}", method=RequestMethod.GET)
+    @ResponseBody
+    public AssessmentResultExportStatus getDeliveryCandidateResultsExportStatus(@PathVariable final String jobId,
+            final HttpServletResponse httpServletResponse)
+            throws PrivilegeException, DomainEntityNotFoundException, IOException {
+        final Delivery thisDelivery = identityService.assertCurrentThreadLtiIdentityContext().getLtiResource().getDelivery();
+        final AssessmentResultExportStatus status = assessmentResultExportService.getExportStatus(thisDelivery.getId(), jobId);
+        if (status==null) {
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return status;
+    }
+
+    @RequestMapping(value="/candidate-results-export/{jobId}/results.zip", method=RequestMethod.GET)
+    public void streamDeliveryCandidateResultsExport(@PathVariable final String jobId,
+            final HttpServletResponse httpServletResponse)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         final Delivery thisDelivery = identityService.assertCurrentThreadLtiIdentityContext().getLtiResource().getDelivery();
         httpServletResponse.setContentType("application/zip");
-        assessmentReportingService.streamAssessmentReports(thisDelivery.getId(), httpServletResponse.getOutputStream());
+        if (!assessmentResultExportService.streamExportArchive(thisDelivery.getId(), jobId, httpServletResponse.getOutputStream())) {
+            httpServletResponse.reset();
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
     }
 
     //------------------------------------------------------
@@ -46,6 +46,10 @@ rendering.
   <!-- Notifications produced during the event being rendered -->
   <xsl:param name="notifications" as="element(qw:notification)*"/>
 
+  <!-- Optional URLs to use for particular assessment files, instead of the serveFileUrl -->
+  <xsl:param name="assetUrls" as="document-node()?"/>
+  <xsl:key name="assetUrl" match="qw:assetUrl" use="@systemId"/>
+
   <!-- Validation information -->
   <xsl:param name="validated" as="xs:boolean"/>
   <xsl:param name="launchable" as="xs:boolean"/>
@@ -86,7 +90,12 @@ rendering.
       </xsl:when>
       <xsl:otherwise>
         <xsl:variable name="resolved" as="xs:string" select="string(resolve-uri($uri, $systemId))"/>
-        <xsl:sequence select="concat($webappContextPath, $serveFileUrl, '?href=', encode-for-uri($resolved))"/>
+        <xsl:variable name="assetUrl" as="xs:string?" select="if (exists($assetUrls))
+          then key('assetUrl', $resolved, $assetUrls)[1]/@url
+          else ()"/>
+        <xsl:sequence select="if (exists($assetUrl))
+          then concat($webappContextPath, $assetUrl)
+          else concat($webappContextPath, $serveFileUrl, '?href=', encode-for-uri($resolved))"/>
       </xsl:otherwise>
     </xsl:choose>
   </xsl:function>
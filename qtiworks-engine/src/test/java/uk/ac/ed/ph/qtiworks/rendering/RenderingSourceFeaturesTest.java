@@ -0,0 +1,160 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.om.DocumentInfo;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderingSourceFeatures} helper.
+ * <p>
+ * As well as checking the features found in each MathML fragment, this checks that the
+ * MathML C-to-P stage (ctop.xsl) really does leave alone the fragments for which
+ * {@link AssessmentRenderer} would leave that stage out, so that rendering is the same
+ * either way.
+ *
+ * @author David McKain
+ */
+public class RenderingSourceFeaturesTest {
+
+    private static final String MATHML_OPEN = "<math xmlns='http://www.w3.org/1998/Math/MathML'>";
+    private static final String MATHML_CLOSE = "</math>";
+
+    private TransformerFactoryImpl transformerFactory;
+    private Templates ctopTemplates;
+
+    @Before
+    public void setup() throws Exception {
+        transformerFactory = new TransformerFactoryImpl();
+        ctopTemplates = transformerFactory.newTemplates(new StreamSource(getClass().getResource("/rendering-xslt/ctop.xsl").toString()));
+    }
+
+    @Test
+    public void testPresentationMathml() throws Exception {
+        final String xml = MATHML_OPEN
+                + "<mrow><mi>x</mi><mo>+</mo><mfrac><mn>1</mn><msqrt><mn>2</mn></msqrt></mfrac></mrow>"
+                + MATHML_CLOSE;
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertFalse(features.isMathmlConversionRequired());
+        Assert.assertEquals(serialize(xml), convertContentMathml(xml));
+    }
+
+    @Test
+    public void testQtiWithPresentationMathml() throws Exception {
+        final String xml = "<itemBody xmlns='http://www.imsglobal.org/xsd/imsqti_v2p1'><p>Value: "
+                + MATHML_OPEN + "<msup><mi>x</mi><mn>2</mn></msup>" + MATHML_CLOSE
+                + "</p></itemBody>";
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertFalse(features.isMathmlConversionRequired());
+        Assert.assertEquals(serialize(xml), convertContentMathml(xml));
+    }
+
+    @Test
+    public void testContentMathml() throws Exception {
+        final String xml = MATHML_OPEN
+                + "<apply><plus/><ci>x</ci><cn>1</cn></apply>"
+                + MATHML_CLOSE;
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertTrue(features.isContainsContentMathml());
+        Assert.assertTrue(features.isMathmlConversionRequired());
+    }
+
+    @Test
+    public void testSemanticsWithPresentationAnnotation() throws Exception {
+        final String xml = MATHML_OPEN
+                + "<semantics><mrow><mi>x</mi></mrow>"
+                + "<annotation-xml encoding='MathML-Presentation'><mi>y</mi></annotation-xml>"
+                + "</semantics>"
+                + MATHML_CLOSE;
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertTrue(features.isMathmlConversionRequired());
+        Assert.assertFalse(serialize(xml).equals(convertContentMathml(xml)));
+    }
+
+    @Test
+    public void testSemanticsWithAnnotation() throws Exception {
+        final String xml = MATHML_OPEN
+                + "<semantics><mi>x</mi><annotation encoding='application/x-tex'>x</annotation></semantics>"
+                + MATHML_CLOSE;
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertTrue(features.isMathmlConversionRequired());
+        Assert.assertFalse(serialize(xml).equals(convertContentMathml(xml)));
+    }
+
+    @Test
+    public void testForeignElements() throws Exception {
+        final String xml = "<itemBody xmlns='http://www.imsglobal.org/xsd/imsqti_v2p1'>"
+                + "<p xmlns='http://example.com/foreign'/>"
+                + "</itemBody>";
+        final RenderingSourceFeatures features = scan(xml);
+        Assert.assertTrue(features.isContainsForeignElements());
+        Assert.assertFalse(features.isContainsContentMathml());
+        Assert.assertTrue(features.isMathmlConversionRequired());
+    }
+
+    //----------------------------------------------------------
+
+    private RenderingSourceFeatures scan(final String xml) throws Exception {
+        final Configuration configuration = transformerFactory.getConfiguration();
+        final DocumentInfo document = configuration.buildDocument(new StreamSource(new StringReader(xml)));
+        return RenderingSourceFeatures.scan(document);
+    }
+
+    private String serialize(final String xml) throws Exception {
+        return transform(transformerFactory.newTransformer(), xml);
+    }
+
+    private String convertContentMathml(final String xml) throws Exception {
+        return transform(ctopTemplates.newTransformer(), xml);
+    }
+
+    private static String transform(final Transformer transformer, final String xml) throws Exception {
+        final StringWriter result = new StringWriter();
+        transformer.transform(new StreamSource(new StringReader(xml)), new StreamResult(result));
+        return result.toString();
+    }
+}
@@ -0,0 +1,281 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeSender.LisResult;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeSender.SendStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link LtiOutcomeSender} against a local stub LIS outcome service.
+ *
+ * @author David McKain
+ */
+public class LtiOutcomeSenderTest {
+
+    private static final String SUCCESS_RESPONSE = "<?xml version='1.0' encoding='UTF-8'?>"
+            + "<imsx_POXEnvelopeResponse xmlns='http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0'>"
+            + "<imsx_POXHeader><imsx_POXResponseHeaderInfo><imsx_version>V1.0</imsx_version>"
+            + "<imsx_messageIdentifier>1</imsx_messageIdentifier>"
+            + "<imsx_statusInfo><imsx_codeMajor>success</imsx_codeMajor><imsx_severity>status</imsx_severity></imsx_statusInfo>"
+            + "</imsx_POXResponseHeaderInfo></imsx_POXHeader>"
+            + "<imsx_POXBody><replaceResultResponse/></imsx_POXBody>"
+            + "</imsx_POXEnvelopeResponse>";
+
+    private HttpServer httpServer;
+    private ExecutorService httpServerExecutor;
+    private LtiOutcomeSender ltiOutcomeSender;
+    private long nextResultId;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServerExecutor = Executors.newCachedThreadPool();
+        httpServer.setExecutor(httpServerExecutor);
+        httpServer.start();
+        nextResultId = 1L;
+    }
+
+    @After
+    public void tearDown() {
+        if (ltiOutcomeSender!=null) {
+            ltiOutcomeSender.shutdown();
+        }
+        httpServer.stop(0);
+        httpServerExecutor.shutdownNow();
+    }
+
+    //----------------------------------------------------------
+
+    @Test
+    public void sendSuccess() {
+        final StubOutcomeService outcomeService = createStubOutcomeService("/success", 200, SUCCESS_RESPONSE, 0L);
+        ltiOutcomeSender = new LtiOutcomeSender(4, 2);
+
+        final List<LisResult> lisResults = createLisResults(3, "localhost", "/success", "consumer");
+        final Map<Long, SendStatus> result = ltiOutcomeSender.sendLisResults(lisResults);
+
+        assertSendStatuses(lisResults, result, SendStatus.SUCCESS, SendStatus.SUCCESS, SendStatus.SUCCESS);
+        Assert.assertEquals(3, outcomeService.requestCount.get());
+        Assert.assertEquals(3, outcomeService.signedRequestCount.get());
+    }
+
+    @Test
+    public void sendFailureThenBackoff() {
+        final StubOutcomeService outcomeService = createStubOutcomeService("/failure", 500, "Oops", 0L);
+        ltiOutcomeSender = new LtiOutcomeSender(4, 1);
+
+        /* First few failures should be attempted, after which we should back off */
+        final List<LisResult> lisResults = createLisResults(5, "localhost", "/failure", "consumer");
+        final Map<Long, SendStatus> result = ltiOutcomeSender.sendLisResults(lisResults);
+        assertSendStatuses(lisResults, result, SendStatus.FAILURE, SendStatus.FAILURE, SendStatus.FAILURE,
+                SendStatus.DEFERRED, SendStatus.DEFERRED);
+        Assert.assertEquals(3, outcomeService.requestCount.get());
+
+        /* Further results for this consumer should be deferred without being sent */
+        final List<LisResult> moreLisResults = createLisResults(2, "localhost", "/failure", "consumer");
+        final Map<Long, SendStatus> moreResult = ltiOutcomeSender.sendLisResults(moreLisResults);
+        assertSendStatuses(moreLisResults, moreResult, SendStatus.DEFERRED, SendStatus.DEFERRED);
+        Assert.assertEquals(3, outcomeService.requestCount.get());
+    }
+
+    @Test
+    public void sendBadResponseBody() {
+        createStubOutcomeService("/bad", 200, "<notPox/>", 0L);
+        ltiOutcomeSender = new LtiOutcomeSender(4, 1);
+
+        final List<LisResult> lisResults = createLisResults(1, "localhost", "/bad", "consumer");
+        assertSendStatuses(lisResults, ltiOutcomeSender.sendLisResults(lisResults), SendStatus.FAILURE);
+    }
+
+    @Test
+    public void backoffOnlyAffectsFailingConsumer() {
+        createStubOutcomeService("/failure", 500, "Oops", 0L);
+        final StubOutcomeService successService = createStubOutcomeService("/success", 200, SUCCESS_RESPONSE, 0L);
+        ltiOutcomeSender = new LtiOutcomeSender(4, 1);
+
+        ltiOutcomeSender.sendLisResults(createLisResults(3, "localhost", "/failure", "bad"));
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        lisResults.addAll(createLisResults(1, "localhost", "/failure", "bad"));
+        lisResults.addAll(createLisResults(1, "localhost", "/success", "good"));
+        assertSendStatuses(lisResults, ltiOutcomeSender.sendLisResults(lisResults), SendStatus.DEFERRED, SendStatus.SUCCESS);
+        Assert.assertEquals(1, successService.requestCount.get());
+    }
+
+    @Test
+    public void perConsumerConcurrencyLimit() {
+        final StubOutcomeService serviceA = createStubOutcomeService("/a", 200, SUCCESS_RESPONSE, 100L);
+        final StubOutcomeService serviceB = createStubOutcomeService("/b", 200, SUCCESS_RESPONSE, 100L);
+        ltiOutcomeSender = new LtiOutcomeSender(8, 2);
+
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        lisResults.addAll(createLisResults(8, "localhost", "/a", "consumerA"));
+        lisResults.addAll(createLisResults(8, "localhost", "/b", "consumerB"));
+        final Map<Long, SendStatus> result = ltiOutcomeSender.sendLisResults(lisResults);
+
+        for (final LisResult lisResult : lisResults) {
+            Assert.assertEquals(SendStatus.SUCCESS, result.get(lisResult.getId()));
+        }
+        Assert.assertEquals(8, serviceA.requestCount.get());
+        Assert.assertEquals(8, serviceB.requestCount.get());
+
+        /* Each consumer should have been sent results in parallel, but never more than the limit */
+        Assert.assertEquals(2, serviceA.maxConcurrentRequestCount.get());
+        Assert.assertEquals(2, serviceB.maxConcurrentRequestCount.get());
+    }
+
+    @Test
+    public void concurrencyLimitIsPerConsumerNotPerHost() {
+        /* (Consumers sharing the same host should not limit each other) */
+        final StubOutcomeService service = createStubOutcomeService("/shared", 200, SUCCESS_RESPONSE, 100L);
+        ltiOutcomeSender = new LtiOutcomeSender(8, 2);
+
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        lisResults.addAll(createLisResults(8, "localhost", "/shared", "consumerA"));
+        lisResults.addAll(createLisResults(8, "localhost", "/shared", "consumerB"));
+        final Map<Long, SendStatus> result = ltiOutcomeSender.sendLisResults(lisResults);
+
+        for (final LisResult lisResult : lisResults) {
+            Assert.assertEquals(SendStatus.SUCCESS, result.get(lisResult.getId()));
+        }
+        Assert.assertEquals(16, service.requestCount.get());
+        Assert.assertEquals(4, service.maxConcurrentRequestCount.get());
+    }
+
+    //----------------------------------------------------------
+
+    private List<LisResult> createLisResults(final int count, final String host, final String path,
+            final String consumerKey) {
+        final String url = "http://" + host + ":" + httpServer.getAddress().getPort() + path;
+        final List<LisResult> result = new ArrayList<LisResult>();
+        for (int i=0; i<count; i++) {
+            result.add(new LisResult(Long.valueOf(nextResultId++), url, "sourcedid" + i, consumerKey, "secret", 0.5));
+        }
+        return result;
+    }
+
+    private static void assertSendStatuses(final List<LisResult> lisResults, final Map<Long, SendStatus> result,
+            final SendStatus... expectedStatuses) {
+        final List<SendStatus> actualStatuses = new ArrayList<SendStatus>();
+        for (final LisResult lisResult : lisResults) {
+            actualStatuses.add(result.get(lisResult.getId()));
+        }
+        Assert.assertEquals(Arrays.asList(expectedStatuses), actualStatuses);
+    }
+
+    private StubOutcomeService createStubOutcomeService(final String path, final int statusCode,
+            final String responseBody, final long delay) {
+        final StubOutcomeService result = new StubOutcomeService(statusCode, responseBody, delay);
+        httpServer.createContext(path, result);
+        return result;
+    }
+
+    /**
+     * Stub LIS outcome service, which records the requests it receives.
+     */
+    private static final class StubOutcomeService implements HttpHandler {
+
+        private final int statusCode;
+        private final byte[] responseBody;
+        private final long delay;
+
+        final AtomicInteger requestCount = new AtomicInteger();
+        final AtomicInteger signedRequestCount = new AtomicInteger();
+        final AtomicInteger concurrentRequestCount = new AtomicInteger();
+        final AtomicInteger maxConcurrentRequestCount = new AtomicInteger();
+
+        StubOutcomeService(final int statusCode, final String responseBody, final long delay) {
+            this.statusCode = statusCode;
+            this.responseBody = responseBody.getBytes(Charsets.UTF_8);
+            this.delay = delay;
+        }
+
+        @Override
+        public void handle(final HttpExchange httpExchange) throws IOException {
+            final int concurrentCount = concurrentRequestCount.incrementAndGet();
+            try {
+                int maxCount;
+                while ((maxCount = maxConcurrentRequestCount.get()) < concurrentCount
+                        && !maxConcurrentRequestCount.compareAndSet(maxCount, concurrentCount)) {
+                    /* Retry */
+                }
+                requestCount.incrementAndGet();
+                final String authorization = httpExchange.getRequestHeaders().getFirst("Authorization");
+                if (authorization!=null && authorization.startsWith("OAuth ")) {
+                    signedRequestCount.incrementAndGet();
+                }
+                final InputStream requestStream = httpExchange.getRequestBody();
+                ByteStreams.toByteArray(requestStream);
+                requestStream.close();
+                if (delay > 0L) {
+                    Thread.sleep(delay);
+                }
+                httpExchange.getResponseHeaders().set("Content-Type", "application/xml");
+                httpExchange.sendResponseHeaders(statusCode, responseBody.length);
+                final OutputStream responseStream = httpExchange.getResponseBody();
+                responseStream.write(responseBody);
+                responseStream.close();
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                concurrentRequestCount.decrementAndGet();
+                httpExchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+-- Schema migration script for upgrading from 1.0-beta6 to 1.0-beta7
+--
+-- NB: This has been written to work with PostgreSQL and will probably need
+-- tweaked slightly to work with other databases.
+--
+-- QTIWorks must be stopped while this is being run.
+BEGIN WORK;
+
+-- The sequences used for the entities written during candidate sessions now
+-- hand out ids in blocks of 50. Each sequence is advanced once first so that
+-- the next block allocated does not overlap with ids that have already been used.
+SELECT nextval('candidate_session_sequence');
+ALTER SEQUENCE candidate_session_sequence INCREMENT BY 50;
+SELECT nextval('candidate_event_sequence');
+ALTER SEQUENCE candidate_event_sequence INCREMENT BY 50;
+SELECT nextval('candidate_event_notification_sequence');
+ALTER SEQUENCE candidate_event_notification_sequence INCREMENT BY 50;
+SELECT nextval('candidate_response_sequence');
+ALTER SEQUENCE candidate_response_sequence INCREMENT BY 50;
+SELECT nextval('candidate_session_outcome_sequence');
+ALTER SEQUENCE candidate_session_outcome_sequence INCREMENT BY 50;
+SELECT nextval('candidate_file_submission_sequence');
+ALTER SEQUENCE candidate_file_submission_sequence INCREMENT BY 50;
+SELECT nextval('queued_lti_outcome_sequence');
+ALTER SEQUENCE queued_lti_outcome_sequence INCREMENT BY 50;
+SELECT nextval('lti_nonce_sequence');
+ALTER SEQUENCE lti_nonce_sequence INCREMENT BY 50;
+
+-- Content hashes of the safe files within each assessment package, used for
+-- public asset URLs. (These are computed when packages are imported, so will be
+-- missing for existing packages, which will continue to use session-scoped URLs.)
+CREATE TABLE assessment_package_file_hashes (
+  apid BIGINT NOT NULL REFERENCES assessment_packages(apid),
+  href TEXT NOT NULL,
+  content_hash VARCHAR(40),
+  PRIMARY KEY (apid, href)
+);
+
+COMMIT WORK;
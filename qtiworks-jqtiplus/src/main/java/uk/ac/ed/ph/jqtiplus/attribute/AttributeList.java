@@ -82,6 +82,7 @@ import javax.xml.XMLConstants;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
 
 /**
  * Container for all attributes of one node.
@@ -175,17 +176,7 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      */
     public void load(final Element element, final LoadingContext context) {
         /* First clear existing attributes */
-        for (int i = 0; i < attributes.size(); i++) {
-            final Attribute<?> attribute = attributes.get(i);
-            if (attribute instanceof ForeignAttribute) {
-                /* Foreign attribute, so remove to add in again */
-                attributes.remove(i);
-            }
-            else {
-                /* Supported attribute, so clear for setting later */
-                attribute.setValue(null);
-            }
-        }
+        clearForLoading();
 
         /* Set set values from element */
         for (int i = 0; i < element.getAttributes().getLength(); i++) {
@@ -200,12 +191,8 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
                 /* (xsi attributes get ignored in our model) */
             }
             else {
-                Attribute<?> attribute = get(localName, namespaceUri, true);
-                if (attribute==null) {
-                    /* Foreign attribute, so create new */
-                    attribute = new ForeignAttribute(owner, localName, namespaceUri);
-                    attributes.add(attribute);
-                }
+                final Attribute<?> attribute = getForLoading(localName, namespaceUri);
+
                 /* Load value into attribute */
                 final String attributeValue = attributeNode.getNodeValue();
                 loadAttribute(attribute, element, attributeValue, context);
@@ -213,16 +200,82 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
         }
     }
 
+    /**
+     * Loads attribute's values from the given SAX {@link Attributes}, as an alternative to
+     * {@link #load(Element, LoadingContext)} when building the model directly from SAX events.
+     * <p>
+     * Any errors are reported against the owner's element, using its QTI class name and source
+     * location, so the owner's source location should be set before calling this.
+     *
+     * @param saxAttributes SAX {@link Attributes} to load attributes from
+     * @param elementNamespaceUri namespace URI of the owner's element
+     */
+    public void load(final Attributes saxAttributes, final String elementNamespaceUri, final LoadingContext context) {
+        /* First clear existing attributes */
+        clearForLoading();
+
+        /* Set values from SAX attributes */
+        for (int i = 0, length = saxAttributes.getLength(); i < length; i++) {
+            final String namespaceUri = saxAttributes.getURI(i);
+            if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceUri)) {
+                /* (xsi attributes get ignored in our model) */
+            }
+            else {
+                final Attribute<?> attribute = getForLoading(saxAttributes.getLocalName(i), namespaceUri);
+
+                /* Load value into attribute */
+                try {
+                    loadAttributeValue(attribute, saxAttributes.getValue(i));
+                }
+                catch (final QtiParseException ex) {
+                    context.modelBuildingError(ex, owner.getQtiClassName(), elementNamespaceUri, owner.getSourceLocation());
+                }
+            }
+        }
+    }
+
+    private void clearForLoading() {
+        for (int i = 0; i < attributes.size(); i++) {
+            final Attribute<?> attribute = attributes.get(i);
+            if (attribute instanceof ForeignAttribute) {
+                /* Foreign attribute, so remove to add in again */
+                attributes.remove(i);
+            }
+            else {
+                /* Supported attribute, so clear for setting later */
+                attribute.setValue(null);
+            }
+        }
+    }
+
+    private Attribute<?> getForLoading(final String localName, final String namespaceUri) {
+        Attribute<?> attribute = get(localName, namespaceUri, true);
+        if (attribute==null) {
+            /* Foreign attribute, so create new */
+            attribute = new ForeignAttribute(owner, localName, namespaceUri);
+            attributes.add(attribute);
+        }
+        return attribute;
+    }
+
     private static final <V> void loadAttribute(final Attribute<V> attribute, final Element element, final String stringValue, final LoadingContext context) {
+        try {
+            loadAttributeValue(attribute, stringValue);
+        }
+        catch (final QtiParseException ex) {
+            context.modelBuildingError(ex, element);
+        }
+    }
+
+    private static final <V> void loadAttributeValue(final Attribute<V> attribute, final String stringValue) {
         Assert.notNull(stringValue, "stringValue");
         V value = null;
         try {
             value = attribute.parseDomAttributeValue(stringValue);
         }
-        catch (final QtiParseException ex) {
-            context.modelBuildingError(ex, element);
+        finally {
+            attribute.setValue(value);
         }
-        attribute.setValue(value);
     }
 
     /**
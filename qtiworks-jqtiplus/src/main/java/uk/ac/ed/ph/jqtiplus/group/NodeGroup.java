@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.group;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiIllegalChildException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
 import uk.ac.ed.ph.jqtiplus.group.expression.ExpressionGroup;
 import uk.ac.ed.ph.jqtiplus.group.test.TestPartGroup;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
@@ -44,6 +45,7 @@ import java.io.Serializable;
 import java.util.List;
 
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
 
 /**
  * Container a particular class of {@link QtiNode}s.
@@ -141,6 +143,30 @@ public interface NodeGroup<P extends QtiNode, C extends QtiNode> extends Seriali
      */
     boolean loadChildIfSupported(final Node childNode, final LoadingContext context);
 
+    /**
+     * Counterpart of {@link #loadChildIfSupported(Node, LoadingContext)} for a child element,
+     * used when building the model directly from SAX events. If this {@link NodeGroup} supports
+     * the element, a new child is created for it and added to this group. The caller is then
+     * responsible for loading the child's attributes and content.
+     *
+     * @param localName local name of the child element
+     * @param attributes SAX {@link Attributes} of the child element
+     * @param context
+     * @return the newly created child, or null if this {@link NodeGroup} does not support the element
+     * @throws QtiModelException if the child could not be created
+     */
+    C createChildIfSupported(final String localName, final Attributes attributes, final LoadingContext context);
+
+    /**
+     * Counterpart of {@link #loadChildIfSupported(Node, LoadingContext)} for text content,
+     * used when building the model directly from SAX events. Returns true if this
+     * {@link NodeGroup} supports text, false otherwise.
+     *
+     * @param textContent
+     * @return true if the text content was loaded into this {@link NodeGroup}, false otherwise.
+     */
+    boolean loadTextIfSupported(final String textContent);
+
     /**
      * Creates child with given QTI class name.
      * <p>
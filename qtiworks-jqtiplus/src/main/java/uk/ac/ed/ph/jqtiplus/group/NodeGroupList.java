@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.group;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiIllegalChildException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiNodeGroupException;
 import uk.ac.ed.ph.jqtiplus.group.block.InteractionGroup;
 import uk.ac.ed.ph.jqtiplus.group.content.BlockGroup;
@@ -205,6 +206,7 @@ import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeElseIf;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeIf;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeRule;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -214,6 +216,7 @@ import java.util.List;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 
 /**
  * Container for all node groups contained (owned) by a particular {@link QtiNode}.
@@ -342,6 +345,66 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
         }
     }
 
+    /**
+     * Counterpart of {@link #load(Element, LoadingContext)} for a single child element, used when
+     * building the model directly from SAX events. A new child is created for the element and added
+     * to the first {@link NodeGroup} that supports it. The caller is then responsible for loading the
+     * child's attributes and content.
+     * <p>
+     * Returns null (having registered a model building error) if no {@link NodeGroup} supports the
+     * element or if the child could not be created, in which case the caller should skip the element.
+     *
+     * @param namespaceUri namespace URI of the child element
+     * @param localName local name of the child element
+     * @param attributes SAX {@link Attributes} of the child element
+     * @param sourceLocation location of the child element in the source XML, which may be null
+     * @param context current {@link LoadingContext} callback
+     */
+    public QtiNode createChild(final String namespaceUri, final String localName, final Attributes attributes,
+            final XmlSourceLocationInformation sourceLocation, final LoadingContext context) {
+        try {
+            for (final NodeGroup<?,?> group : groups) {
+                final QtiNode child = group.createChildIfSupported(localName, attributes, context);
+                if (child!=null) {
+                    return child;
+                }
+            }
+        }
+        catch (final QtiModelException e) {
+            context.modelBuildingError(e, localName, namespaceUri, sourceLocation);
+            return null;
+        }
+
+        /* No NodeGroup supports this child, so register error */
+        context.modelBuildingError(new QtiIllegalChildException(parent, localName), localName, namespaceUri, sourceLocation);
+        return null;
+    }
+
+    /**
+     * Counterpart of {@link #load(Element, LoadingContext)} for a single run of text content,
+     * used when building the model directly from SAX events.
+     *
+     * @param textContent text content to load
+     * @param sourceLocation location of the text in the source XML, which may be null
+     * @param context current {@link LoadingContext} callback
+     */
+    public void loadText(final String textContent, final XmlSourceLocationInformation sourceLocation,
+            final LoadingContext context) {
+        for (final NodeGroup<?,?> group : groups) {
+            if (group.loadTextIfSupported(textContent)) {
+                return;
+            }
+        }
+        /* No NodeGroup supports this child */
+        if (textContent.trim().isEmpty()) {
+            /* Whitespace node, so we'll ignore this */
+        }
+        else {
+            /* Register error */
+            context.modelBuildingError(new QtiIllegalChildException(parent, "(text)"), null, null, sourceLocation);
+        }
+    }
+
     /**
      * Removed all groups (children) from this container.
      */
@@ -0,0 +1,104 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.internal.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trivial bounded, thread-safe table of canonical instances of immutable Objects,
+ * used to avoid keeping lots of equal copies of commonly used values.
+ * <p>
+ * Once the table is full, no further instances are added and {@link #intern(Object, Object)}
+ * simply returns the Object it was given. Nothing is ever removed from the table.
+ *
+ * @param <K> type of key identifying each canonical instance
+ * @param <V> type of canonical instance
+ *
+ * @author David McKain
+ */
+public final class InternTable<K, V> {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<K, V> instanceMap;
+    private final AtomicInteger size;
+
+    public InternTable(final int maxSize) {
+        this.maxSize = maxSize;
+        this.instanceMap = new ConcurrentHashMap<K, V>();
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Returns the canonical instance for the given key, or null if there is none.
+     */
+    public V get(final K key) {
+        return instanceMap.get(key);
+    }
+
+    /**
+     * Returns the canonical instance for the given key. If there is no such instance, then
+     * the given instance is recorded as the canonical one (if there is room) and returned.
+     */
+    public V intern(final K key, final V instance) {
+        final V existing = instanceMap.get(key);
+        if (existing!=null) {
+            return existing;
+        }
+        if (size.get() >= maxSize) {
+            return instance;
+        }
+        final V raced = instanceMap.putIfAbsent(key, instance);
+        if (raced!=null) {
+            return raced;
+        }
+        size.incrementAndGet();
+        return instance;
+    }
+
+    /**
+     * Returns the number of canonical instances currently held.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(maxSize=" + maxSize
+                + ",size=" + size
+                + ")";
+    }
+}
@@ -50,6 +50,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 /**
@@ -208,6 +209,81 @@ public abstract class AbstractNode implements QtiNode {
         nodeGroups.load(element, context);
     }
 
+    //------------------------------------------------------------------------
+    // Loading directly from SAX events (see QtiModelBuildingHandler)
+
+    /**
+     * Counterpart of {@link #loadAttributes(Element, LoadingContext)} used when building the
+     * model directly from SAX events. The source location of this Node will have been set
+     * before this is called.
+     *
+     * @param saxAttributes SAX {@link Attributes} of the source element
+     * @param namespaceUri namespace URI of the source element
+     */
+    protected void loadAttributes(final Attributes saxAttributes, final String namespaceUri, final LoadingContext context) {
+        attributes.load(saxAttributes, namespaceUri, context);
+    }
+
+    /**
+     * Used when building the model directly from SAX events to decide how the content of the
+     * source element should be loaded. Returns true if this Node only has text content, which
+     * will be passed to {@link #loadSimpleContent(String, String, LoadingContext)} once the
+     * end of the element has been reached. Returns false if this Node has child Nodes, which
+     * will be loaded via {@link #createChild(String, String, Attributes, XmlSourceLocationInformation, LoadingContext)}
+     * and {@link #loadText(String, XmlSourceLocationInformation, LoadingContext)}.
+     * <p>
+     * Subclasses which override {@link #loadChildren(Element, LoadingContext)} to read in text
+     * content should override this accordingly.
+     */
+    protected boolean hasSimpleContent() {
+        return false;
+    }
+
+    /**
+     * Counterpart of {@link #loadChildren(Element, LoadingContext)} used when building the model
+     * directly from SAX events, for Nodes which return true from {@link #hasSimpleContent()}.
+     *
+     * @param textContent text content of the source element (including that of any descendants)
+     * @param namespaceUri namespace URI of the source element, for use when reporting errors
+     */
+    @SuppressWarnings("unused")
+    protected void loadSimpleContent(final String textContent, final String namespaceUri, final LoadingContext context) {
+        /* Subclasses should override as required */
+    }
+
+    /**
+     * Counterpart of {@link #loadChildren(Element, LoadingContext)} used when building the model
+     * directly from SAX events, which is called for each child element. This should create and add
+     * a new child Node for the given element. The caller will then load the child's attributes and
+     * content.
+     * <p>
+     * Returns null (having registered a model building error) if the element is not supported here,
+     * in which case its content will be skipped.
+     *
+     * @param namespaceUri namespace URI of the child element
+     * @param localName local name of the child element
+     * @param saxAttributes SAX {@link Attributes} of the child element
+     * @param sourceLocation location of the child element in the source XML, which may be null
+     */
+    protected QtiNode createChild(final String namespaceUri, final String localName, final Attributes saxAttributes,
+            final XmlSourceLocationInformation sourceLocation, final LoadingContext context) {
+        return nodeGroups.createChild(namespaceUri, localName, saxAttributes, sourceLocation, context);
+    }
+
+    /**
+     * Counterpart of {@link #loadChildren(Element, LoadingContext)} used when building the model
+     * directly from SAX events, which is called for each (coalesced) run of text content.
+     *
+     * @param textContent text content to load
+     * @param sourceLocation location of the text in the source XML, which may be null
+     */
+    protected void loadText(final String textContent, final XmlSourceLocationInformation sourceLocation,
+            final LoadingContext context) {
+        nodeGroups.loadText(textContent, sourceLocation, context);
+    }
+
+    //------------------------------------------------------------------------
+
     @Override
     public void fireSaxEvents(final QtiSaxDocumentFirer qtiSaxDocumentFirer) throws SAXException {
         qtiSaxDocumentFirer.fireStartQtiElement(this);
@@ -36,6 +36,7 @@ package uk.ac.ed.ph.jqtiplus.node;
 import uk.ac.ed.ph.jqtiplus.node.content.basic.TextRun;
 import uk.ac.ed.ph.jqtiplus.serialization.QtiSaxDocumentFirer;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +44,7 @@ import java.util.List;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 /**
@@ -106,6 +108,24 @@ public final class ForeignElement extends AbstractNode {
         }
     }
 
+    @Override
+    protected QtiNode createChild(final String childNamespaceUri, final String localName, final Attributes saxAttributes,
+            final XmlSourceLocationInformation sourceLocation, final LoadingContext context) {
+        final ForeignElement foreignElement = new ForeignElement(this, localName, childNamespaceUri);
+        children.add(foreignElement);
+        return foreignElement;
+    }
+
+    @Override
+    protected void loadText(final String textContent, final XmlSourceLocationInformation sourceLocation,
+            final LoadingContext context) {
+        final String trimmedContent = textContent.trim();
+        if (trimmedContent.length() > 0) {
+            final TextRun textRun = new TextRun(this, trimmedContent);
+            children.add(textRun);
+        }
+    }
+
     @Override
     protected void fireBodySaxEvents(final QtiSaxDocumentFirer qtiSaxDocumentFirer) throws SAXException {
         for (final QtiNode childNode : children) {
@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.node;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -52,4 +53,20 @@ public interface LoadingContext {
 
     void modelBuildingError(QtiModelException exception, Node badNode);
 
+    /**
+     * Variant of {@link #modelBuildingError(QtiModelException, Node)} used when building the
+     * model directly from SAX events (via {@link QtiModelBuildingHandler}), where there is no
+     * DOM {@link Node} to hand.
+     *
+     * @param exception
+     * @param badNodeLocalName local name of the offending element, or null if the error relates
+     *   to text content
+     * @param badNodeNamespaceUri namespace URI of the offending element, or null if the error relates
+     *   to text content
+     * @param badNodeLocation location of the offending element or text in the source XML, which may
+     *   be null
+     */
+    void modelBuildingError(QtiModelException exception, String badNodeLocalName, String badNodeNamespaceUri,
+            XmlSourceLocationInformation badNodeLocation);
+
 }
@@ -0,0 +1,247 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.node;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX {@link DefaultHandler} that builds a JQTI+ Object model directly from the SAX events
+ * for a QTI XML document, without building a DOM first.
+ * <p>
+ * This produces the same model as {@link RootNodeTypes#load(Element, URI, LoadingContext)} would
+ * from the DOM built by a {@link SimpleDomBuilderHandler}, including source locations and
+ * model building errors, but avoids holding the whole DOM in memory while doing so.
+ * The work of loading each element is delegated to the {@link AbstractNode} being loaded
+ * (via its SAX loading methods) in the same way as when loading from a DOM.
+ * <p>
+ * After parsing, {@link #getRootNode()} returns the resulting {@link RootNode}, or null if
+ * the document element did not correspond to a supported QTI {@link RootNode}. Any model
+ * building errors will have been passed to the {@link LoadingContext}. (The resulting model
+ * should be discarded if parsing failed.)
+ * <p>
+ * Usage: not thread safe, not reusable.
+ *
+ * @author David McKain
+ */
+public final class QtiModelBuildingHandler extends DefaultHandler {
+
+    /** System ID of the document being read, which will be set on the resulting {@link RootNode} */
+    private final URI systemId;
+
+    /** {@link LoadingContext} passed to each {@link AbstractNode} as it is loaded */
+    private final LoadingContext context;
+
+    /** Stack of {@link AbstractNode}s currently being loaded, corresponding to open elements */
+    private final List<OpenNode> openNodes;
+
+    /** Coalesces SAX character events */
+    private final StringBuilder textBuilder;
+
+    /** SAX Locator details */
+    private Locator locator;
+
+    /** Depth within an element whose content is being skipped */
+    private int skippedDepth;
+
+    /** Depth within the descendants of a Node with simple content */
+    private int simpleContentDepth;
+
+    private String rootElementLocalName;
+    private String rootElementNamespaceUri;
+    private RootNode rootNode;
+
+    public QtiModelBuildingHandler(final URI systemId, final LoadingContext context) {
+        Assert.notNull(context, "context");
+        this.systemId = systemId;
+        this.context = context;
+        this.openNodes = new ArrayList<OpenNode>();
+        this.textBuilder = new StringBuilder();
+        this.locator = null;
+        this.skippedDepth = 0;
+        this.simpleContentDepth = 0;
+    }
+
+    public String getRootElementLocalName() {
+        return rootElementLocalName;
+    }
+
+    public String getRootElementNamespaceUri() {
+        return rootElementNamespaceUri;
+    }
+
+    /**
+     * Returns the resulting {@link RootNode}, or null if the document element did not
+     * correspond to a supported QTI {@link RootNode}.
+     */
+    public RootNode getRootNode() {
+        return rootNode;
+    }
+
+    //--------------------------------------------------
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+        if (skippedDepth > 0) {
+            skippedDepth++;
+            return;
+        }
+        if (simpleContentDepth > 0 || (!openNodes.isEmpty() && getCurrentOpenNode().simpleContent)) {
+            /* Element within simple content, so we only care about its text */
+            simpleContentDepth++;
+            return;
+        }
+
+        /* (DOM uses null for the "no namespace", so we do too for consistency) */
+        final String namespaceUri = uri!=null && uri.length() > 0 ? uri : null;
+        addAnyCoalescedText();
+        final XmlSourceLocationInformation sourceLocation = createLocationInformation();
+        final AbstractNode node;
+        if (openNodes.isEmpty()) {
+            /* Document element, which must correspond to a RootNode */
+            rootElementLocalName = localName;
+            rootElementNamespaceUri = namespaceUri;
+            try {
+                rootNode = RootNodeTypes.getInstance(localName, namespaceUri, systemId);
+            }
+            catch (final IllegalArgumentException e) {
+                /* Unsupported root Node, so ignore everything */
+                skippedDepth = 1;
+                return;
+            }
+            node = (AbstractNode) rootNode;
+        }
+        else {
+            /* Child element, which the current Node will create a child for if supported */
+            node = (AbstractNode) getCurrentOpenNode().node.createChild(namespaceUri, localName, attributes, sourceLocation, context);
+            if (node==null) {
+                /* Not supported (and error will have been registered), so skip this element */
+                skippedDepth = 1;
+                return;
+            }
+        }
+        node.setSourceLocation(sourceLocation);
+        node.loadAttributes(attributes, namespaceUri, context);
+        openNodes.add(new OpenNode(node, namespaceUri, node.hasSimpleContent()));
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+        /* (Coalesce adjacent runs of characters together. This often happens when using NCRs or entities) */
+        if (skippedDepth==0) {
+            textBuilder.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+        if (skippedDepth > 0) {
+            skippedDepth--;
+            return;
+        }
+        if (simpleContentDepth > 0) {
+            simpleContentDepth--;
+            return;
+        }
+        if (openNodes.isEmpty()) {
+            throw new IllegalStateException("Inconsistent state at endElement: no open Nodes");
+        }
+        final OpenNode openNode = getCurrentOpenNode();
+        if (openNode.simpleContent) {
+            openNode.node.loadSimpleContent(textBuilder.toString(), openNode.namespaceUri, context);
+            textBuilder.setLength(0);
+        }
+        else {
+            addAnyCoalescedText();
+        }
+        openNodes.remove(openNodes.size() - 1);
+    }
+
+    @Override
+    public void endDocument() {
+        if (!openNodes.isEmpty()) {
+            throw new IllegalStateException("Inconsistent state at endDocument: " + openNodes.size() + " Node(s) still open");
+        }
+    }
+
+    private OpenNode getCurrentOpenNode() {
+        return openNodes.get(openNodes.size() - 1);
+    }
+
+    private void addAnyCoalescedText() {
+        if (textBuilder.length() > 0) {
+            getCurrentOpenNode().node.loadText(textBuilder.toString(), createLocationInformation(), context);
+            textBuilder.setLength(0);
+        }
+    }
+
+    private XmlSourceLocationInformation createLocationInformation() {
+        if (locator==null) {
+            return null;
+        }
+        return new XmlSourceLocationInformation(locator.getPublicId(), locator.getSystemId(), locator.getColumnNumber(),
+                locator.getLineNumber());
+    }
+
+    /**
+     * Details about an {@link AbstractNode} currently being loaded.
+     */
+    private static final class OpenNode {
+
+        final AbstractNode node;
+        final String namespaceUri;
+        final boolean simpleContent;
+
+        OpenNode(final AbstractNode node, final String namespaceUri, final boolean simpleContent) {
+            this.node = node;
+            this.namespaceUri = namespaceUri;
+            this.simpleContent = simpleContent;
+        }
+    }
+}
@@ -43,6 +43,7 @@ import uk.ac.ed.ph.jqtiplus.node.content.basic.FlowStatic;
 import uk.ac.ed.ph.jqtiplus.node.content.basic.InlineStatic;
 import uk.ac.ed.ph.jqtiplus.serialization.QtiSaxDocumentFirer;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -50,6 +51,7 @@ import java.util.List;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 /**
@@ -105,6 +107,22 @@ public final class Math extends AbstractFlowBodyElement implements BlockStatic,
         }
     }
 
+    @Override
+    protected QtiNode createChild(final String namespaceUri, final String localName, final Attributes saxAttributes,
+            final XmlSourceLocationInformation sourceLocation, final LoadingContext context) {
+        final ForeignElement foreignElement = new ForeignElement(this, localName, namespaceUri);
+        children.add(foreignElement);
+        return foreignElement;
+    }
+
+    @Override
+    protected void loadText(final String textContent, final XmlSourceLocationInformation sourceLocation,
+            final LoadingContext context) {
+        if (textContent.trim().length() > 0) {
+            context.modelBuildingError(new QtiIllegalChildException(this, "<text>"), null, null, sourceLocation);
+        }
+    }
+
     @Override
     protected void fireBodySaxEvents(final QtiSaxDocumentFirer qtiSaxDocumentFirer) throws SAXException {
         for (final ForeignElement childNode : children) {
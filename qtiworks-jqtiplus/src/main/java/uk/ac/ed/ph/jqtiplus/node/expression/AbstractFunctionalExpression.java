@@ -33,6 +33,7 @@
  */
 package uk.ac.ed.ph.jqtiplus.node.expression;
 
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 
@@ -60,6 +61,22 @@ public abstract class AbstractFunctionalExpression extends AbstractExpression {
         return evaluateValidSelf(context, childValues, depth);
     }
 
+    /**
+     * Evaluates this (valid) expression using the given child values, which must have
+     * been computed by the caller. This is used by compiled processing, which evaluates
+     * the children of this expression itself, and only calls this once the subject
+     * being processed is known to be valid.
+     *
+     * @param childValues values of the child expressions, in document order
+     *
+     * @return result of evaluation, which will not be null
+     */
+    public final Value evaluateValidSelfWithChildValues(final ProcessingContext context, final Value[] childValues) {
+        final Value result = evaluateValidSelf(context, childValues, 0);
+        Assert.notNull(result, "result of evaluation");
+        return result;
+    }
+
     /**
      * Evaluates this expression, using the given calculated child values
      *
@@ -80,6 +80,16 @@ public final class CandidateComment extends AbstractNode implements ResultNode {
         textContent = element.getTextContent();
     }
 
+    @Override
+    protected boolean hasSimpleContent() {
+        return true;
+    }
+
+    @Override
+    protected void loadSimpleContent(final String textContent, final String namespaceUri, final LoadingContext context) {
+        this.textContent = textContent;
+    }
+
     @Override
     protected void fireBodySaxEvents(final QtiSaxDocumentFirer qtiSaxDocumentFirer) throws SAXException {
         qtiSaxDocumentFirer.fireText(textContent);
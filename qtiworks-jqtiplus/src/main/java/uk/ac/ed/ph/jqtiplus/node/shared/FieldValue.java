@@ -187,6 +187,24 @@ public final class FieldValue extends AbstractNode {
         }
     }
 
+    @Override
+    protected boolean hasSimpleContent() {
+        return true;
+    }
+
+    @Override
+    protected void loadSimpleContent(final String textContent, final String namespaceUri, final LoadingContext context) {
+        final BaseType baseType = getBaseType();
+        if (baseType!=null) {
+            try {
+                singleValue = baseType.parseSingleValueLax(textContent);
+            }
+            catch (final QtiParseException e) {
+                context.modelBuildingError(e, getQtiClassName(), namespaceUri, getSourceLocation());
+            }
+        }
+    }
+
     @Override
     protected void fireBodySaxEvents(final QtiSaxDocumentFirer qtiSaxDocumentFirer) throws SAXException {
         qtiSaxDocumentFirer.fireText(singleValue.toQtiString());
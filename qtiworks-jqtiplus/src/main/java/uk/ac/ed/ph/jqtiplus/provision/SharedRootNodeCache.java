@@ -0,0 +1,472 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.provision;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.AssessmentObjectResolver;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReaderException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ChainedResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of {@link RootNode}s read in by {@link QtiObjectReader}s, which allows the same
+ * QTI XML to be shared by the resolution of many different assessments. (E.g. when lots of
+ * tests are built from the same bank of items.)
+ * <p>
+ * Entries are keyed on the System ID and content of the QTI XML, so a {@link RootNode} is
+ * only reused when the XML it was built from has exactly the same content and System ID (and
+ * was read using the same schema validation setting). The content is identified by its SHA-1
+ * digest. Only successful reads are cached.
+ * <p>
+ * Users of this cache obtain a {@link Lease}, and resolve assessments using the
+ * {@link RootNodeProvider} it provides. The {@link Lease} keeps track of which entries it has
+ * used, and must be released once the resolved assessments are no longer needed. Entries
+ * that are not used by any {@link Lease} are kept around until more than the configured
+ * number of such entries exist, after which the least recently used ones are evicted.
+ * <p>
+ * This can also cache the {@link ItemValidationResult} of each shared
+ * {@link uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem}, via
+ * {@link #getItemValidationResult(ResolvedAssessmentItem)} and
+ * {@link #putItemValidationResult(ItemValidationResult)}.
+ * <p>
+ * NOTE: Shared {@link RootNode}s must be treated as read-only.
+ * <p>
+ * Usage: this is thread-safe.
+ *
+ * @see AssessmentObjectResolver
+ *
+ * @author David McKain
+ */
+public final class SharedRootNodeCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedRootNodeCache.class);
+
+    /** Maximum number of entries not used by any {@link Lease} to keep */
+    private final int maxUnreferencedEntries;
+
+    /** All current entries, keyed on {@link #createEntryKey(URI, Class, boolean, byte[])} */
+    private final Map<String, Entry> entryMap;
+
+    /** All current entries, keyed on their {@link RootNode} */
+    private final Map<RootNode, Entry> entryByRootNodeMap;
+
+    /** Entries not used by any {@link Lease}, in least recently used order */
+    private final LinkedHashMap<String, Entry> unreferencedEntryMap;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public SharedRootNodeCache(final int maxUnreferencedEntries) {
+        this.maxUnreferencedEntries = maxUnreferencedEntries;
+        this.entryMap = new HashMap<String, Entry>();
+        this.entryByRootNodeMap = new IdentityHashMap<RootNode, Entry>();
+        this.unreferencedEntryMap = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    public int getMaxUnreferencedEntries() {
+        return maxUnreferencedEntries;
+    }
+
+    /**
+     * Creates a new {@link Lease} on this cache, which must be released via
+     * {@link Lease#release()} once finished with.
+     */
+    public Lease createLease() {
+        return new Lease();
+    }
+
+    //-------------------------------------------------------------------
+    // Item validation results
+
+    /**
+     * Returns a previously cached {@link ItemValidationResult} for the shared
+     * {@link uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem} in the given
+     * {@link ResolvedAssessmentItem}, provided it was validated against the same response
+     * processing template. Returns null if no such result has been cached.
+     */
+    public synchronized ItemValidationResult getItemValidationResult(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        Assert.notNull(resolvedAssessmentItem, "resolvedAssessmentItem");
+        final Entry entry = getItemEntry(resolvedAssessmentItem);
+        if (entry!=null && entry.itemValidationResult!=null
+                && entry.validatedTemplate==extractResponseProcessingTemplate(resolvedAssessmentItem)) {
+            return entry.itemValidationResult;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the given {@link ItemValidationResult}, provided that the item it refers to is
+     * held in this cache. (Otherwise this does nothing.)
+     */
+    public synchronized void putItemValidationResult(final ItemValidationResult itemValidationResult) {
+        Assert.notNull(itemValidationResult, "itemValidationResult");
+        final ResolvedAssessmentItem resolvedAssessmentItem = itemValidationResult.getResolvedAssessmentItem();
+        final Entry entry = getItemEntry(resolvedAssessmentItem);
+        if (entry!=null) {
+            final RootNodeLookup<ResponseProcessing> templateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+            if (templateLookup!=null && !templateLookup.wasSuccessful()) {
+                /* Don't cache results involving failed template resolution, as these may be transient */
+                return;
+            }
+            entry.itemValidationResult = itemValidationResult;
+            entry.validatedTemplate = extractResponseProcessingTemplate(resolvedAssessmentItem);
+        }
+    }
+
+    private Entry getItemEntry(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final RootNode item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
+        return item!=null ? entryByRootNodeMap.get(item) : null;
+    }
+
+    private static ResponseProcessing extractResponseProcessingTemplate(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final RootNodeLookup<ResponseProcessing> templateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        return templateLookup!=null ? templateLookup.extractIfSuccessful() : null;
+    }
+
+    //-------------------------------------------------------------------
+    // Reporting
+
+    /** Returns the total number of entries in this cache */
+    public synchronized int getEntryCount() {
+        return entryMap.size();
+    }
+
+    /** Returns the number of entries currently used by at least one {@link Lease} */
+    public synchronized int getReferencedEntryCount() {
+        return entryMap.size() - unreferencedEntryMap.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    //-------------------------------------------------------------------
+    // Internals
+
+    private synchronized Entry acquireEntry(final String key, final Lease lease) {
+        final Entry entry = entryMap.get(key);
+        if (entry!=null) {
+            hitCount++;
+            referenceEntry(entry, lease);
+        }
+        return entry;
+    }
+
+    private synchronized Entry storeEntry(final String key, final RootNodeHolder<?> rootNodeHolder, final Lease lease) {
+        missCount++;
+        Entry entry = entryMap.get(key);
+        if (entry==null) {
+            entry = new Entry(key, rootNodeHolder);
+            entryMap.put(key, entry);
+            entryByRootNodeMap.put(rootNodeHolder.getRootNode(), entry);
+        }
+        /* (Otherwise another thread got there first, so we'll use its result) */
+        referenceEntry(entry, lease);
+        return entry;
+    }
+
+    private void referenceEntry(final Entry entry, final Lease lease) {
+        if (lease.entries.add(entry)) {
+            if (entry.referenceCount++ == 0) {
+                unreferencedEntryMap.remove(entry.key);
+            }
+        }
+        else if (entry.referenceCount==0) {
+            /* (Lease has been released, so simply touch entry) */
+            unreferencedEntryMap.get(entry.key);
+        }
+    }
+
+    private synchronized void releaseEntries(final Set<Entry> entries) {
+        for (final Entry entry : entries) {
+            if (--entry.referenceCount == 0) {
+                unreferencedEntryMap.put(entry.key, entry);
+            }
+        }
+        final Iterator<Entry> iterator = unreferencedEntryMap.values().iterator();
+        while (unreferencedEntryMap.size() > maxUnreferencedEntries && iterator.hasNext()) {
+            final Entry evictedEntry = iterator.next();
+            iterator.remove();
+            entryMap.remove(evictedEntry.key);
+            entryByRootNodeMap.remove(evictedEntry.rootNodeHolder.getRootNode());
+            evictionCount++;
+            logger.debug("Evicted shared entry {}", evictedEntry.key);
+        }
+    }
+
+    private static String createEntryKey(final URI systemId, final Class<?> requiredRootNodeClass,
+            final boolean schemaValidating, final byte[] content) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new QtiLogicException("Expected SHA-1 digest to be available", e);
+        }
+        final byte[] contentDigest = digest.digest(content);
+        final StringBuilder keyBuilder = new StringBuilder(systemId.toString())
+            .append('|').append(requiredRootNodeClass.getName())
+            .append('|').append(schemaValidating)
+            .append('|');
+        for (final byte b : contentDigest) {
+            keyBuilder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        }
+        return keyBuilder.toString();
+    }
+
+    private static byte[] readContent(final InputStream inputStream, final URI systemId) {
+        try {
+            try {
+                final ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    contentStream.write(buffer, 0, count);
+                }
+                return contentStream.toByteArray();
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        catch (final IOException e) {
+            throw new XmlResourceReaderException("IOException reading XML at system ID " + systemId, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(maxUnreferencedEntries=" + maxUnreferencedEntries
+                + ",entryCount=" + getEntryCount()
+                + ",referencedEntryCount=" + getReferencedEntryCount()
+                + ")";
+    }
+
+    //-------------------------------------------------------------------
+
+    /**
+     * Holds a shared {@link RootNodeHolder}, plus any {@link ItemValidationResult} for it.
+     */
+    private static final class Entry {
+
+        private final String key;
+        private final RootNodeHolder<?> rootNodeHolder;
+        private int referenceCount;
+        private ItemValidationResult itemValidationResult;
+        private ResponseProcessing validatedTemplate;
+
+        Entry(final String key, final RootNodeHolder<?> rootNodeHolder) {
+            this.key = key;
+            this.rootNodeHolder = rootNodeHolder;
+        }
+    }
+
+    /**
+     * Records the entries in this cache used by a particular user of it, e.g. a single
+     * assessment package.
+     * <p>
+     * Usage: this is thread-safe. Once released, a {@link Lease} should not be used again.
+     */
+    public final class Lease {
+
+        private final Set<Entry> entries;
+        private boolean released;
+
+        Lease() {
+            this.entries = new HashSet<Entry>();
+            this.released = false;
+        }
+
+        public SharedRootNodeCache getSharedRootNodeCache() {
+            return SharedRootNodeCache.this;
+        }
+
+        /**
+         * Creates a {@link RootNodeProvider} that uses the given {@link QtiObjectReader} to read
+         * in any {@link RootNode}s not already in the shared cache, and records each
+         * {@link RootNode} it provides against this {@link Lease}.
+         */
+        public RootNodeProvider createRootNodeProvider(final QtiObjectReader qtiObjectReader) {
+            Assert.notNull(qtiObjectReader, "qtiObjectReader");
+            return new SharedRootNodeProvider(this, qtiObjectReader);
+        }
+
+        /**
+         * Releases all of the entries used via this {@link Lease}, making them eligible for
+         * eviction if they are not used elsewhere. This may safely be called more than once.
+         */
+        public void release() {
+            synchronized (SharedRootNodeCache.this) {
+                if (!released) {
+                    released = true;
+                    releaseEntries(entries);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (SharedRootNodeCache.this) {
+                return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                        + "(entryCount=" + entries.size()
+                        + ",released=" + released
+                        + ")";
+            }
+        }
+    }
+
+    /**
+     * {@link RootNodeProvider} reading in XML once, then either returning the shared
+     * {@link RootNode} corresponding to its content or reading a new one in via a
+     * {@link QtiObjectReader} and sharing the result.
+     */
+    private final class SharedRootNodeProvider implements RootNodeProvider {
+
+        private final Lease lease;
+        private final QtiObjectReader qtiObjectReader;
+        private final ResourceLocator contentResourceLocator;
+
+        SharedRootNodeProvider(final Lease lease, final QtiObjectReader qtiObjectReader) {
+            this.lease = lease;
+            this.qtiObjectReader = qtiObjectReader;
+
+            /* (This uses the same locator chain as QtiObjectReader) */
+            this.contentResourceLocator = new ChainedResourceLocator(QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR,
+                    qtiObjectReader.getInputResourceLocator());
+        }
+
+        @Override
+        public JqtiExtensionManager getJqtiExtensionManager() {
+            return qtiObjectReader.getJqtiExtensionManager();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <E extends RootNode> RootNodeHolder<E> lookupRootNode(final URI systemId, final Class<E> requiredResultClass)
+                throws ResourceNotFoundException, BadResourceException {
+            final InputStream contentStream = contentResourceLocator.findResource(systemId);
+            if (contentStream==null) {
+                /* Let the QtiObjectReader report the failure in the usual way */
+                return qtiObjectReader.lookupRootNode(systemId, requiredResultClass);
+            }
+            final byte[] content = readContent(contentStream, systemId);
+            final String key = createEntryKey(systemId, requiredResultClass, qtiObjectReader.isSchemaValidating(), content);
+            Entry entry = acquireEntry(key, lease);
+            if (entry!=null) {
+                logger.debug("Shared cache hit for {}", key);
+            }
+            else {
+                /* Read in RootNode, using the content we already have */
+                final QtiObjectReader contentReader = qtiObjectReader.getQtiXmlReader().createQtiObjectReader(
+                        new ContentResourceLocator(systemId, content, qtiObjectReader.getInputResourceLocator()),
+                        qtiObjectReader.isSchemaValidating());
+                final RootNodeHolder<E> result = contentReader.lookupRootNode(systemId, requiredResultClass);
+                entry = storeEntry(key, result, lease);
+                logger.debug("Shared cache miss for {}", key);
+            }
+            return (RootNodeHolder<E>) entry.rootNodeHolder;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(lease=" + lease
+                    + ",qtiObjectReader=" + qtiObjectReader
+                    + ")";
+        }
+    }
+
+    /**
+     * {@link ResourceLocator} returning already-read content for a particular System ID,
+     * falling back to another {@link ResourceLocator} for everything else.
+     */
+    private static final class ContentResourceLocator implements ResourceLocator {
+
+        private final URI systemId;
+        private final byte[] content;
+        private final ResourceLocator fallbackResourceLocator;
+
+        ContentResourceLocator(final URI systemId, final byte[] content, final ResourceLocator fallbackResourceLocator) {
+            this.systemId = systemId;
+            this.content = content;
+            this.fallbackResourceLocator = fallbackResourceLocator;
+        }
+
+        @Override
+        public InputStream findResource(final URI requestedSystemId) {
+            if (systemId.equals(requestedSystemId)) {
+                return new ByteArrayInputStream(content);
+            }
+            return fallbackResourceLocator.findResource(requestedSystemId);
+        }
+    }
+}
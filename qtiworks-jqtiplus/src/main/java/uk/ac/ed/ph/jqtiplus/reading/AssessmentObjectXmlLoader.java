@@ -35,6 +35,8 @@ package uk.ac.ed.ph.jqtiplus.reading;
 
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
+import uk.ac.ed.ph.jqtiplus.provision.SharedRootNodeCache;
 import uk.ac.ed.ph.jqtiplus.resolution.AssessmentObjectResolver;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
@@ -50,6 +52,10 @@ import java.net.URI;
  * and {@link AssessmentTest}s from XML using a {@link QtiXmlReader} for the low
  * level XML parsing and a {@link ResourceLocator} for locating and finding the
  * required XML resources.
+ * <p>
+ * If a {@link SharedRootNodeCache.Lease} is provided, QTI XML is read in via the corresponding
+ * {@link SharedRootNodeCache}, so that unchanged items and tests can be shared with other
+ * assessments.
  *
  * @see QtiXmlReader
  * @see ResourceLocator
@@ -60,10 +66,17 @@ public final class AssessmentObjectXmlLoader {
 
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
+    private final SharedRootNodeCache.Lease sharedRootNodeCacheLease;
 
     public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator) {
+        this(qtiXmlReader, inputResourceLocator, null);
+    }
+
+    public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator,
+            final SharedRootNodeCache.Lease sharedRootNodeCacheLease) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
+        this.sharedRootNodeCacheLease = sharedRootNodeCacheLease;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -74,19 +87,23 @@ public final class AssessmentObjectXmlLoader {
         return inputResourceLocator;
     }
 
+    public SharedRootNodeCache.Lease getSharedRootNodeCacheLease() {
+        return sharedRootNodeCacheLease;
+    }
+
     //-------------------------------------------------------------------
     // AssessmentItem resolution & validation
 
     public ResolvedAssessmentItem loadAndResolveAssessmentItem(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
-        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
+        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(createRootNodeProvider(qtiObjectReader));
         return assessmentObjectResolver.resolveAssessmentItem(systemId);
     }
 
     public ItemValidationResult loadResolveAndValidateItem(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
-        final ResolvedAssessmentItem resolvedAssessmentItem = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentItem(systemId);
-        final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
+        final ResolvedAssessmentItem resolvedAssessmentItem = new AssessmentObjectResolver(createRootNodeProvider(qtiObjectReader)).resolveAssessmentItem(systemId);
+        final AssessmentObjectValidator assessmentObjectValidator = createValidator(qtiObjectReader);
         return assessmentObjectValidator.validateItem(resolvedAssessmentItem);
     }
 
@@ -95,24 +112,36 @@ public final class AssessmentObjectXmlLoader {
 
     public ResolvedAssessmentTest loadAndResolveAssessmentTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
-        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
+        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(createRootNodeProvider(qtiObjectReader));
         return assessmentObjectResolver.resolveAssessmentTest(systemId);
     }
 
     public TestValidationResult loadResolveAndValidateTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
-        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentTest(systemId);
-        final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
+        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(createRootNodeProvider(qtiObjectReader)).resolveAssessmentTest(systemId);
+        final AssessmentObjectValidator assessmentObjectValidator = createValidator(qtiObjectReader);
         return assessmentObjectValidator.validateTest(resolvedAssessmentTest);
     }
 
     //-------------------------------------------------------------------
 
+    private RootNodeProvider createRootNodeProvider(final QtiObjectReader qtiObjectReader) {
+        return sharedRootNodeCacheLease!=null ? sharedRootNodeCacheLease.createRootNodeProvider(qtiObjectReader) : qtiObjectReader;
+    }
+
+    private AssessmentObjectValidator createValidator(final QtiObjectReader qtiObjectReader) {
+        return new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager(),
+                sharedRootNodeCacheLease!=null ? sharedRootNodeCacheLease.getSharedRootNodeCache() : null);
+    }
+
+    //-------------------------------------------------------------------
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",sharedRootNodeCacheLease=" + sharedRootNodeCacheLease
                 + ")";
     }
 }
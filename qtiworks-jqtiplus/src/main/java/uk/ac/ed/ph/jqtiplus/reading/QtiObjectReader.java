@@ -40,19 +40,17 @@ import static uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException.Interpr
 import static uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException.InterpretationFailureReason.XML_SCHEMA_VALIDATION_FAILED;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
-import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
-import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
+import uk.ac.ed.ph.jqtiplus.node.QtiModelBuildingHandler;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
-import uk.ac.ed.ph.jqtiplus.node.RootNodeTypes;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
-import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReaderException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ChainedResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
@@ -62,8 +60,6 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
@@ -155,11 +151,12 @@ public final class QtiObjectReader implements RootNodeProvider {
          */
         final ChainedResourceLocator resourceLocator = new ChainedResourceLocator(QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
 
-        /* Parse XML */
-        final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating);
-        final XmlParseResult xmlParseResult = xmlReadResult.getXmlParseResult();
-        final Document document = xmlReadResult.getDocument();
-        if (document==null) {
+        /* Parse XML, building the QTI Object Model directly from the resulting SAX events */
+        final List<QtiModelBuildingError> qtiModelBuildingErrors = new ArrayList<QtiModelBuildingError>();
+        final LoadingContext loadingContext = new LoadingContextImpl(qtiModelBuildingErrors);
+        final QtiModelBuildingHandler qtiModelBuildingHandler = new QtiModelBuildingHandler(systemId, loadingContext);
+        final XmlParseResult xmlParseResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating, qtiModelBuildingHandler);
+        if (!xmlParseResult.isParsed()) {
             /* Parsing failed */
             throw new QtiXmlInterpretationException(XML_PARSE_FAILED, "XML parsing failed",
                     requiredRootNodeClass, xmlParseResult);
@@ -171,26 +168,17 @@ public final class QtiObjectReader implements RootNodeProvider {
                    requiredRootNodeClass, xmlParseResult);
         }
 
-        /* Build QTI Object Model */
-        final List<QtiModelBuildingError> qtiModelBuildingErrors = new ArrayList<QtiModelBuildingError>();
-        final LoadingContext loadingContext = new LoadingContextImpl(qtiModelBuildingErrors);
-        logger.trace("Instantiating JQTI Object hierarchy from root Element {}");
-        final RootNode rootNode;
-        final Element rootElement = document.getDocumentElement();
-        final String rootNamespaceUri = rootElement.getNamespaceURI();
-        try {
-            rootNode = RootNodeTypes.load(rootElement, systemId, loadingContext);
-        }
-        catch (final IllegalArgumentException e) {
+        /* Check QTI Object Model */
+        final RootNode rootNode = qtiModelBuildingHandler.getRootNode();
+        final String rootNamespaceUri = qtiModelBuildingHandler.getRootElementNamespaceUri();
+        if (rootNode==null) {
             /* Unsupported root Node type */
-            logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootElement.getLocalName());
+            final String rootLocalName = qtiModelBuildingHandler.getRootElementLocalName();
+            logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootLocalName);
             throw new QtiXmlInterpretationException(UNSUPPORTED_ROOT_NODE, "XML parse succeeded but had an unsupported root Node {"
-                    + rootNamespaceUri + "}:" + rootElement.getLocalName(),
+                    + rootNamespaceUri + "}:" + rootLocalName,
                     requiredRootNodeClass, xmlParseResult, null, qtiModelBuildingErrors);
         }
-        catch (final QtiParseException e) {
-            throw new QtiLogicException("All QtiParseExceptions should have been caught before this point!", e);
-        }
 
         /* Make sure we got the right type of Object */
         if (!requiredRootNodeClass.isInstance(rootNode)) {
@@ -236,8 +224,15 @@ public final class QtiObjectReader implements RootNodeProvider {
 
         @Override
         public void modelBuildingError(final QtiModelException exception, final Node errorNode) {
-            qtiModelBuildingErrors.add(new QtiModelBuildingError(exception, errorNode.getLocalName(),
-                    errorNode.getNamespaceURI(), XmlResourceReader.extractLocationInformation(errorNode)));
+            modelBuildingError(exception, errorNode.getLocalName(), errorNode.getNamespaceURI(),
+                    XmlResourceReader.extractLocationInformation(errorNode));
+        }
+
+        @Override
+        public void modelBuildingError(final QtiModelException exception, final String errorNodeLocalName,
+                final String errorNodeNamespaceUri, final XmlSourceLocationInformation errorNodeLocation) {
+            qtiModelBuildingErrors.add(new QtiModelBuildingError(exception, errorNodeLocalName,
+                    errorNodeNamespaceUri, errorNodeLocation));
         }
     }
 
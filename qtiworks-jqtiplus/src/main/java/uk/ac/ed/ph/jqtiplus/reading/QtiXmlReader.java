@@ -38,6 +38,7 @@ import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
@@ -51,6 +52,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.xml.sax.ContentHandler;
+
 /**
  * Wraps around {@link XmlResourceReader} to provide unified reader for QTI (and
  * some related IMS) XML resources.
@@ -145,6 +148,32 @@ public final class QtiXmlReader {
         return xmlResourceReader.read(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation);
     }
 
+    /**
+     * Reads the XML resource having the given System ID using the specified {@link ResourceLocator}
+     * to locate the XML, optionally performing schema validation, passing the resulting SAX events
+     * to the given {@link ContentHandler} instead of building a DOM.
+     *
+     * @param inputResourceLocator {@link ResourceLocator} used to read in the QTI XML
+     * @param systemId System ID (URI) of the QTI XML resource to be read
+     * @param performSchemaValidation whether to perform schema validation
+     * @param contentHandler {@link ContentHandler} to receive the SAX events
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     *
+     * @see XmlResourceReader#read(URI, ResourceLocator, ResourceLocator, boolean, ContentHandler)
+     */
+    public XmlParseResult read(final ResourceLocator inputResourceLocator, final URI systemId,
+            final boolean performSchemaValidation, final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
+        Assert.notNull(inputResourceLocator, "inputResourceLocator");
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(contentHandler, "contentHandler");
+        final ResourceLocator entityResourceLocator = new ChainedResourceLocator(JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
+        return xmlResourceReader.read(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation, contentHandler);
+    }
+
     /**
      * Creates a new {@link QtiObjectReader} from this reader and the given
      * input {@link ResourceLocator}.
@@ -89,6 +89,9 @@ public class ItemProcessingController extends ItemValidationController implement
         this.itemSessionState = itemSessionState;
         this.randomSeed = null;
         this.randomGenerator = null;
+
+        /* Store variable values by slot from now on */
+        itemSessionState.bindVariableSlots(itemProcessingMap.getVariableSlots());
     }
 
     @Override
@@ -37,11 +37,16 @@ import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.Interaction;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
+import uk.ac.ed.ph.jqtiplus.running.compiled.ProcessingCompiler;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemVariableSlots;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
 
@@ -51,6 +56,9 @@ import java.util.List;
 /**
  * This helper class analyses a {@link ResolvedAssessmentItem} and generates an
  * {@link ItemProcessingMap} that can be reused by {@link ItemProcessingController}s.
+ * <p>
+ * If requested, the item's responseProcessing will also be compiled using the
+ * {@link ProcessingCompiler}, provided the item is valid.
  *
  * @see ItemProcessingMap
  * @see ItemProcessingController
@@ -61,17 +69,32 @@ public final class ItemProcessingInitializer {
 
     private final ResolvedAssessmentItem resolvedAssessmentItem;
     private final boolean isValid;
+    private final boolean compileProcessing;
     private final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder;
     private final LinkedHashMap<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder;
     private final LinkedHashMap<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder;
 
     public ItemProcessingInitializer(final ItemValidationResult itemValidationResult) {
-        this(itemValidationResult.getResolvedAssessmentItem(), itemValidationResult.isValid());
+        this(itemValidationResult, false);
+    }
+
+    public ItemProcessingInitializer(final ItemValidationResult itemValidationResult, final boolean compileProcessing) {
+        this(itemValidationResult.getResolvedAssessmentItem(), itemValidationResult.isValid(), compileProcessing);
     }
 
     public ItemProcessingInitializer(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid) {
+        this(resolvedAssessmentItem, isValid, false);
+    }
+
+    /**
+     * @param compileProcessing set to true to compile the item's responseProcessing,
+     *   which will be done only if the item is valid.
+     */
+    public ItemProcessingInitializer(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
+            final boolean compileProcessing) {
         this.resolvedAssessmentItem = resolvedAssessmentItem;
         this.isValid = isValid;
+        this.compileProcessing = compileProcessing;
         this.validTemplateDeclarationMapBuilder = new LinkedHashMap<Identifier, TemplateDeclaration>();
         this.validResponseDeclarationMapBuilder = new LinkedHashMap<Identifier, ResponseDeclaration>();
         this.validOutcomeDeclarationMapBuilder = new LinkedHashMap<Identifier, OutcomeDeclaration>();
@@ -108,9 +131,37 @@ public final class ItemProcessingInitializer {
         /* Record all interactions */
         final List<Interaction> interactions = item.getItemBody().findInteractions();
 
+        /* Assign slots to variables */
+        final ItemVariableSlots variableSlots = new ItemVariableSlots(validTemplateDeclarationMapBuilder.keySet(),
+                validResponseDeclarationMapBuilder.keySet(), validOutcomeDeclarationMapBuilder.keySet());
+
+        /* Maybe compile responseProcessing */
+        final CompiledProcessing compiledResponseProcessing = (compileProcessing && isValid) ? compileResponseProcessing(item, variableSlots) : null;
+
         /* That's it! */
         return new ItemProcessingMap(resolvedAssessmentItem, isValid, interactions,
-                validTemplateDeclarationMapBuilder, validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder);
+                validTemplateDeclarationMapBuilder, validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder,
+                variableSlots, compiledResponseProcessing);
+    }
+
+    /**
+     * Compiles the responseProcessing that the {@link ItemSessionController} would use, returning
+     * null if there isn't any. (The {@link ItemSessionController} will then report this as normal.)
+     */
+    private CompiledProcessing compileResponseProcessing(final AssessmentItem item, final ItemVariableSlots variableSlots) {
+        ResponseProcessing responseProcessing;
+        final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        if (resolvedResponseProcessingTemplateLookup!=null) {
+            responseProcessing = resolvedResponseProcessingTemplateLookup.extractIfSuccessful();
+        }
+        else {
+            responseProcessing = item.getResponseProcessing();
+        }
+        if (responseProcessing==null) {
+            return null;
+        }
+        return ProcessingCompiler.compileResponseProcessing(responseProcessing, validTemplateDeclarationMapBuilder,
+                validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder, variableSlots);
     }
 
     private void doTemplateVariable(final TemplateDeclaration declaration) {
@@ -68,6 +68,7 @@ import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
 import uk.ac.ed.ph.jqtiplus.node.shared.declaration.DefaultValue;
 import uk.ac.ed.ph.jqtiplus.node.test.TemplateDefault;
 import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
@@ -833,7 +834,8 @@ public final class ItemSessionController extends ItemProcessingController implem
                 initOutcomeVariables();
             }
 
-            /* Work out which RP logic to perform */
+            /* Work out which RP logic to perform, using the compiled form if available */
+            final CompiledProcessing compiledResponseProcessing = itemProcessingMap.getCompiledResponseProcessing();
             ResponseProcessing responseProcessing = null;
             final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
             if (resolvedResponseProcessingTemplateLookup!=null) {
@@ -849,7 +851,10 @@ public final class ItemSessionController extends ItemProcessingController implem
             }
 
             /* Invoke response processing */
-            if (responseProcessing!=null) {
+            if (compiledResponseProcessing!=null) {
+                compiledResponseProcessing.evaluate(this);
+            }
+            else if (responseProcessing!=null) {
                 responseProcessing.evaluate(this);
             }
             else {
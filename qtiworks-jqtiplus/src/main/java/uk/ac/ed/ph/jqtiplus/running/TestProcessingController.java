@@ -43,11 +43,11 @@ import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentItemRef;
-import uk.ac.ed.ph.jqtiplus.node.test.AssessmentSection;
 import uk.ac.ed.ph.jqtiplus.notification.ListenerNotificationForwarder;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedTestVariableReference;
 import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSubsetKey;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
 import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
@@ -57,8 +57,6 @@ import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
 import uk.ac.ed.ph.jqtiplus.types.ComplexReferenceIdentifier;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
-import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
-import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
 import uk.ac.ed.ph.jqtiplus.validation.TestValidationController;
 import uk.ac.ed.ph.jqtiplus.value.NullValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
@@ -68,6 +66,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * Implementation of {@link TestProcessingContext}, filling in the low level
@@ -476,90 +475,40 @@ public class TestProcessingController extends TestValidationController implement
 
     //-------------------------------------------------------------------
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@link AssessmentItemRef}s selected by each combination of arguments are looked up
+     * from the {@link TestProcessingMap}, so only need to be matched against the {@link TestPlan}
+     * here.
+     */
     @Override
     public final List<TestPlanNode> computeItemSubset(final Identifier sectionIdentifier, final List<String> includeCategories, final List<String> excludeCategories) {
         final TestPlan testPlan = testSessionState.getTestPlan();
-
+        final Set<AssessmentItemRef> assessmentItemRefs = testProcessingMap.getAssessmentItemRefsInSubset(new ItemSubsetKey(sectionIdentifier,
+                includeCategories, excludeCategories));
         final List<TestPlanNode> itemRefNodes = new ArrayList<TestPlanNode>();
         if (sectionIdentifier!=null) {
-            /* Search all AssessmentItemRef instances in the TestPlan that are descendants
-             * of the AssessmentSection(s) having the given identifier in the ORIGINAL test
-             * structure.
-             */
-            final List<AssessmentItemRef> assessmentItemRefs = findAssessmentItemRefsInSections(sectionIdentifier);
+            /* Find the selected instances of each AssessmentItemRef below the required section(s) */
             for (final AssessmentItemRef assessmentItemRef : assessmentItemRefs) {
                 final List<TestPlanNode> selectedItemRefNodes = testPlan.getNodes(assessmentItemRef.getIdentifier());
                 if (selectedItemRefNodes!=null) { /* (May be null if assessmentItemRef wasn't selected */
-                    itemRefNodes.addAll(selectedItemRefNodes);
+                    for (final TestPlanNode selectedItemRefNode : selectedItemRefNodes) {
+                        if (testProcessingMap.resolveAbstractPart(selectedItemRefNode)==assessmentItemRef) {
+                            itemRefNodes.add(selectedItemRefNode);
+                        }
+                    }
                 }
             }
         }
         else {
-            /* Take all AssessmentItemRef instances */
-            itemRefNodes.addAll(testPlan.searchNodes(TestNodeType.ASSESSMENT_ITEM_REF));
-        }
-
-        /* Now apply includes/excludes */
-        for (int i=itemRefNodes.size()-1; i>=0; i--) { /* Easiest to move backwards, removing elements as required */
-            final TestPlanNode itemRefNode = itemRefNodes.get(i);
-            final AssessmentItemRef assessmentItemRef = (AssessmentItemRef) testProcessingMap.resolveAbstractPart(itemRefNode);
-            final List<String> categories = assessmentItemRef.getCategories();
-            boolean keep;
-            if (includeCategories!=null) {
-                keep = false;
-                for (final String includeCategory : includeCategories) {
-                    if (categories.contains(includeCategory)) {
-                        keep = true;
-                        break;
-                    }
-                }
-            }
-            else {
-                keep = true;
-            }
-
-            if (keep && excludeCategories!=null) {
-                for (final String excludeCategory : excludeCategories) {
-                    if (categories.contains(excludeCategory)) {
-                        keep = false;
-                        break;
-                    }
+            /* Take all matching AssessmentItemRef instances, in TestPlan order */
+            for (final TestPlanNode itemRefNode : testPlan.searchNodes(TestNodeType.ASSESSMENT_ITEM_REF)) {
+                if (assessmentItemRefs.contains(testProcessingMap.resolveAbstractPart(itemRefNode))) {
+                    itemRefNodes.add(itemRefNode);
                 }
             }
-            if (!keep) {
-                itemRefNodes.remove(i);
-            }
         }
         return itemRefNodes;
     }
-
-    /**
-     * Helper method to find all {@link AssessmentItemRef}s living below the {@link AssessmentSection}(s)
-     * with given identifier.
-     * <p>
-     * IMPORTANT: This must search the *original* test structure. We need to do this as invisible
-     * sections may have been removed by the time the {@link TestPlan} gets computed.
-     *
-     * @param sectionIdentifier
-     * @return
-     */
-    private final List<AssessmentItemRef> findAssessmentItemRefsInSections(final Identifier sectionIdentifier) {
-        Assert.notNull(sectionIdentifier);
-        final List<AssessmentItemRef> result = new ArrayList<AssessmentItemRef>();
-        QueryUtils.walkTree(new TreeWalkNodeHandler() {
-            @Override
-            public boolean handleNode(final QtiNode node) {
-                if (node instanceof AssessmentSection) {
-                    final AssessmentSection assessmentSection = (AssessmentSection) node;
-                    if (assessmentSection.getIdentifier().equals(sectionIdentifier)) {
-                        /* Found matching section, so search for all assessmentItemRefs below this */
-                        result.addAll(QueryUtils.search(AssessmentItemRef.class, assessmentSection));
-                    }
-                }
-                /* Keep searching */
-                return true;
-            }
-        }, getSubjectTest());
-        return result;
-    }
 }
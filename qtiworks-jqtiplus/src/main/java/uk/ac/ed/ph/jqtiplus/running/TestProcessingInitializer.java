@@ -43,9 +43,12 @@ import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
 import uk.ac.ed.ph.jqtiplus.node.test.ItemSessionControl;
 import uk.ac.ed.ph.jqtiplus.node.test.SectionPart;
 import uk.ac.ed.ph.jqtiplus.node.test.TestPart;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
 import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
+import uk.ac.ed.ph.jqtiplus.running.compiled.ProcessingCompiler;
 import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
@@ -63,6 +66,9 @@ import java.util.Map;
 /**
  * This helper class analyses a {@link ResolvedAssessmentTest} and generates an
  * {@link TestProcessingMap} that can be reused by {@link TestSessionController}s.
+ * <p>
+ * If requested, the test's outcomeProcessing and the responseProcessing of each item
+ * will also be compiled using the {@link ProcessingCompiler}, provided they are valid.
  *
  * @see TestProcessingMap
  * @see ItemProcessingInitializer
@@ -75,6 +81,7 @@ public final class TestProcessingInitializer {
     private final ResolvedAssessmentTest resolvedAssessmentTest;
     private final TestValidationResult testValidationResult;
     private final boolean isTestValid;
+    private final boolean compileProcessing;
     private final LinkedHashMap<Identifier, OutcomeDeclaration> outcomeDeclarationMapBuilder;
 
     /**
@@ -82,9 +89,17 @@ public final class TestProcessingInitializer {
      * good validity information about each item within.
      */
     public TestProcessingInitializer(final TestValidationResult testValidationResult) {
+        this(testValidationResult, false);
+    }
+
+    /**
+     * Preferred constructor, also allowing processing to be compiled.
+     */
+    public TestProcessingInitializer(final TestValidationResult testValidationResult, final boolean compileProcessing) {
         this.testValidationResult = testValidationResult;
         this.resolvedAssessmentTest = testValidationResult.getResolvedAssessmentTest();
         this.isTestValid = testValidationResult.isValid();
+        this.compileProcessing = compileProcessing;
         this.outcomeDeclarationMapBuilder = new LinkedHashMap<Identifier, OutcomeDeclaration>();
     }
 
@@ -93,9 +108,18 @@ public final class TestProcessingInitializer {
      * of whether the test is valid as a whole.
      */
     public TestProcessingInitializer(final ResolvedAssessmentTest resolvedAssessmentTest, final boolean isTestValid) {
+        this(resolvedAssessmentTest, isTestValid, false);
+    }
+
+    /**
+     * Alternative constructor, also allowing processing to be compiled.
+     */
+    public TestProcessingInitializer(final ResolvedAssessmentTest resolvedAssessmentTest, final boolean isTestValid,
+            final boolean compileProcessing) {
         this.testValidationResult = null;
         this.resolvedAssessmentTest = resolvedAssessmentTest;
         this.isTestValid = isTestValid;
+        this.compileProcessing = compileProcessing;
         this.outcomeDeclarationMapBuilder = new LinkedHashMap<Identifier, OutcomeDeclaration>();
     }
 
@@ -132,7 +156,7 @@ public final class TestProcessingInitializer {
             for (final ItemValidationResult itemValidationResult : testValidationResult.getItemValidationResults()) {
                 final RootNodeLookup<AssessmentItem> itemLookup = itemValidationResult.getResolvedAssessmentItem().getItemLookup();
                 if (itemLookup.wasSuccessful()) {
-                    final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(itemValidationResult).initialize();
+                    final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(itemValidationResult, compileProcessing).initialize();
                     itemProcessingMapBuilder.put(itemLookup.getSystemId(), itemProcessingMap);
                 }
             }
@@ -145,17 +169,25 @@ public final class TestProcessingInitializer {
             for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
                 final RootNodeLookup<AssessmentItem> itemLookup = resolvedAssessmentItem.getItemLookup();
                 if (itemLookup.wasSuccessful()) {
-                    final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, isTestValid).initialize();
+                    final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, isTestValid, compileProcessing).initialize();
                     itemProcessingMapBuilder.put(itemLookup.getSystemId(), itemProcessingMap);
                 }
             }
 
         }
 
+        /* Maybe compile outcomeProcessing */
+        CompiledProcessing compiledOutcomeProcessing = null;
+        final OutcomeProcessing outcomeProcessing = test.getOutcomeProcessing();
+        if (compileProcessing && isTestValid && outcomeProcessing!=null) {
+            compiledOutcomeProcessing = ProcessingCompiler.compileOutcomeProcessing(outcomeProcessing,
+                    resolvedAssessmentTest, outcomeDeclarationMapBuilder);
+        }
+
         /* That's it! */
         return new TestProcessingMap(resolvedAssessmentTest, isTestValid,
                 abstractParts, effectiveItemSessionControlMap, outcomeDeclarationMapBuilder,
-                durationResponseDeclaration, itemProcessingMapBuilder);
+                durationResponseDeclaration, itemProcessingMapBuilder, compiledOutcomeProcessing);
     }
 
     private void doOutcomeVariable(final OutcomeDeclaration declaration) {
@@ -60,6 +60,7 @@ import uk.ac.ed.ph.jqtiplus.node.test.SubmissionMode;
 import uk.ac.ed.ph.jqtiplus.node.test.TemplateDefault;
 import uk.ac.ed.ph.jqtiplus.node.test.TestPart;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
 import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
 import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
 import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
@@ -1550,8 +1551,13 @@ public final class TestSessionController extends TestProcessingController {
         try {
             resetOutcomeVariables();
 
+            /* (Use compiled form of outcomeProcessing if available) */
+            final CompiledProcessing compiledOutcomeProcessing = testProcessingMap.getCompiledOutcomeProcessing();
             final OutcomeProcessing outcomeProcessing = getSubjectTest().getOutcomeProcessing();
-            if (outcomeProcessing != null) {
+            if (compiledOutcomeProcessing != null) {
+                compiledOutcomeProcessing.evaluate(this);
+            }
+            else if (outcomeProcessing != null) {
                 outcomeProcessing.evaluate(this);
             }
         }
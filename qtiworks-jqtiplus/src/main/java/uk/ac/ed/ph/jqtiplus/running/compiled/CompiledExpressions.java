@@ -0,0 +1,251 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running.compiled;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.expression.AbstractFunctionalExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingContext;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemVariableSlots;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+/**
+ * The various kinds of {@link CompiledExpression} generated by the {@link ProcessingCompiler}.
+ *
+ * @author David McKain
+ */
+final class CompiledExpressions {
+
+    /**
+     * Expression that has been evaluated at compile time, such as a <code>baseValue</code>
+     * or an operator whose inputs are all constant.
+     */
+    static final class ConstantExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = 6934786470617316839L;
+
+        private final Value value;
+
+        ConstantExpression(final Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            return value;
+        }
+    }
+
+    /**
+     * Where a variable within an item gets its value from, as decided at compile time.
+     * (The built-in variables are handled specially, as in the {@link ItemProcessingContext}.)
+     */
+    static enum ItemVariableSource {
+        TEMPLATE,
+        RESPONSE,
+        OUTCOME,
+        DURATION,
+        NUM_ATTEMPTS,
+        COMPLETION_STATUS
+    }
+
+    /**
+     * Read of a <code>variable</code> within an item that has been resolved to the part of
+     * the {@link ItemSessionState} holding its value.
+     */
+    static final class ItemVariableExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = -4117604431006624063L;
+
+        private final Identifier identifier;
+        private final ItemVariableSource source;
+
+        /**
+         * Slots used to fetch the variable's value when bound to the {@link ItemSessionState},
+         * avoiding a lookup by {@link Identifier}
+         */
+        private final ItemVariableSlots variableSlots;
+        private final int slot;
+
+        ItemVariableExpression(final Identifier identifier, final ItemVariableSource source,
+                final ItemVariableSlots variableSlots, final int slot) {
+            this.identifier = identifier;
+            this.source = source;
+            this.variableSlots = variableSlots;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return false;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            final ItemSessionState itemSessionState = ((ItemProcessingContext) context).getItemSessionState();
+            final boolean useSlot = slot>=0 && itemSessionState.getVariableSlots()==variableSlots;
+            Value result;
+            switch (source) {
+                case TEMPLATE:
+                    result = useSlot ? itemSessionState.getTemplateValueAtSlot(slot) : itemSessionState.getTemplateValue(identifier);
+                    break;
+
+                case RESPONSE:
+                    result = useSlot ? itemSessionState.getResponseValueAtSlot(slot) : itemSessionState.getResponseValue(identifier);
+                    break;
+
+                case OUTCOME:
+                    result = useSlot ? itemSessionState.getOutcomeValueAtSlot(slot) : itemSessionState.getOutcomeValue(identifier);
+                    break;
+
+                case DURATION:
+                    result = itemSessionState.computeDurationValue();
+                    break;
+
+                case NUM_ATTEMPTS:
+                    result = itemSessionState.getNumAttemptsValue();
+                    break;
+
+                case COMPLETION_STATUS:
+                    result = itemSessionState.getCompletionStatusValue();
+                    break;
+
+                default:
+                    throw new QtiLogicException("Unexpected switch case: " + source);
+            }
+            if (result==null) {
+                throw new QtiCandidateStateException("ItemSessionState lookup of variable " + identifier + " returned NULL, indicating state is not in sync");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Read of a <code>variable</code> within a test that has been resolved to one of the
+     * test's own variables.
+     */
+    static final class TestVariableExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = 2071468187398063213L;
+
+        private final Identifier identifier;
+        private final boolean isDuration;
+
+        TestVariableExpression(final Identifier identifier, final boolean isDuration) {
+            this.identifier = identifier;
+            this.isDuration = isDuration;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return false;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            final TestSessionState testSessionState = ((TestProcessingContext) context).getTestSessionState();
+            final Value result = isDuration ? testSessionState.computeDurationValue() : testSessionState.getOutcomeValue(identifier);
+            if (result==null) {
+                throw new QtiCandidateStateException("TestSessionState lookup of variable " + identifier + " returned NULL, indicating state is not in sync");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Any other {@link AbstractFunctionalExpression}. The children are evaluated using their
+     * compiled forms, then passed to the original expression to work out the result.
+     */
+    static final class FunctionalExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = 8052398307815425047L;
+
+        private final AbstractFunctionalExpression expression;
+        private final CompiledExpression[] children;
+
+        FunctionalExpression(final AbstractFunctionalExpression expression, final CompiledExpression[] children) {
+            this.expression = expression;
+            this.children = children;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return false;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            final Value[] childValues = new Value[children.length];
+            for (int i=0; i<children.length; i++) {
+                childValues[i] = children[i].evaluate(context);
+            }
+            return expression.evaluateValidSelfWithChildValues(context, childValues);
+        }
+    }
+
+    /**
+     * Fallback for {@link Expression}s that are not compiled, which are evaluated as normal.
+     */
+    static final class InterpretedExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = -1453963286519071396L;
+
+        private final Expression expression;
+
+        InterpretedExpression(final Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return false;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            return expression.evaluate(context);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running.compiled;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiProcessingInterrupt;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseRule;
+import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeRule;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingContext;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+/**
+ * The various kinds of {@link CompiledRule} generated by the {@link ProcessingCompiler}.
+ *
+ * @author David McKain
+ */
+final class CompiledRules {
+
+    static void evaluateAll(final CompiledRule[] rules, final ProcessingContext context)
+            throws QtiProcessingInterrupt {
+        for (int i=0; i<rules.length; i++) {
+            rules[i].evaluate(context);
+        }
+    }
+
+    /**
+     * Compiled <code>responseCondition</code> or <code>outcomeCondition</code>. Each branch
+     * has a condition, except for a trailing <code>else</code>, which has a null condition.
+     */
+    static final class ConditionRule implements CompiledRule {
+
+        private static final long serialVersionUID = -2911387563201937386L;
+
+        private final CompiledExpression[] conditions;
+        private final CompiledRule[][] branchRules;
+
+        ConditionRule(final CompiledExpression[] conditions, final CompiledRule[][] branchRules) {
+            this.conditions = conditions;
+            this.branchRules = branchRules;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) throws QtiProcessingInterrupt {
+            for (int i=0; i<conditions.length; i++) {
+                final CompiledExpression condition = conditions[i];
+                if (condition!=null) {
+                    final Value value = condition.evaluate(context);
+                    if (value.isNull() || !((BooleanValue) value).booleanValue()) {
+                        continue;
+                    }
+                }
+                evaluateAll(branchRules[i], context);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compiled <code>responseProcessingFragment</code> or <code>outcomeProcessingFragment</code>
+     */
+    static final class BlockRule implements CompiledRule {
+
+        private static final long serialVersionUID = 2338650224934532893L;
+
+        private final CompiledRule[] rules;
+
+        BlockRule(final CompiledRule[] rules) {
+            this.rules = rules;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) throws QtiProcessingInterrupt {
+            evaluateAll(rules, context);
+        }
+    }
+
+    /**
+     * Compiled <code>setOutcomeValue</code> within an item
+     */
+    static final class SetItemOutcomeValueRule implements CompiledRule {
+
+        private static final long serialVersionUID = 5384467329001953434L;
+
+        private final OutcomeDeclaration outcomeDeclaration;
+        private final CompiledExpression expression;
+
+        SetItemOutcomeValueRule(final OutcomeDeclaration outcomeDeclaration, final CompiledExpression expression) {
+            this.outcomeDeclaration = outcomeDeclaration;
+            this.expression = expression;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) {
+            context.setVariableValue(outcomeDeclaration, expression.evaluate(context));
+        }
+    }
+
+    /**
+     * Compiled <code>setOutcomeValue</code> within a test
+     */
+    static final class SetTestOutcomeValueRule implements CompiledRule {
+
+        private static final long serialVersionUID = -7095423553140917725L;
+
+        private final OutcomeDeclaration outcomeDeclaration;
+        private final CompiledExpression expression;
+
+        SetTestOutcomeValueRule(final OutcomeDeclaration outcomeDeclaration, final CompiledExpression expression) {
+            this.outcomeDeclaration = outcomeDeclaration;
+            this.expression = expression;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) {
+            final Value value = expression.evaluate(context);
+            ((TestProcessingContext) context).getTestSessionState().setOutcomeValue(outcomeDeclaration, value);
+        }
+    }
+
+    /**
+     * Compiled <code>exitResponse</code> or <code>exitTest</code>
+     */
+    static final class ExitRule implements CompiledRule {
+
+        private static final long serialVersionUID = 7620316148436006474L;
+
+        @Override
+        public void evaluate(final ProcessingContext context) throws QtiProcessingInterrupt {
+            throw new QtiProcessingInterrupt();
+        }
+    }
+
+    /**
+     * Fallback for {@link ResponseRule}s that are not compiled, which are evaluated as normal.
+     */
+    static final class InterpretedResponseRule implements CompiledRule {
+
+        private static final long serialVersionUID = -3300197926519446395L;
+
+        private final ResponseRule responseRule;
+
+        InterpretedResponseRule(final ResponseRule responseRule) {
+            this.responseRule = responseRule;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) throws QtiProcessingInterrupt {
+            responseRule.evaluate((ItemProcessingContext) context);
+        }
+    }
+
+    /**
+     * Fallback for {@link OutcomeRule}s that are not compiled, which are evaluated as normal.
+     */
+    static final class InterpretedOutcomeRule implements CompiledRule {
+
+        private static final long serialVersionUID = 1811735395536853853L;
+
+        private final OutcomeRule outcomeRule;
+
+        InterpretedOutcomeRule(final OutcomeRule outcomeRule) {
+            this.outcomeRule = outcomeRule;
+        }
+
+        @Override
+        public void evaluate(final ProcessingContext context) throws QtiProcessingInterrupt {
+            outcomeRule.evaluate((TestProcessingContext) context);
+        }
+    }
+}
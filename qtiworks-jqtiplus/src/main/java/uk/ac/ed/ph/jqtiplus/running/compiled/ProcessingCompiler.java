@@ -0,0 +1,413 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running.compiled;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.expression.AbstractFunctionalExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.AbstractSimpleFunctionalExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.Variable;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ExitResponse;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseCondition;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseConditionExpressionChild;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseElse;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessingFragment;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseRule;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.SetOutcomeValue;
+import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.ExitTest;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeCondition;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeConditionExpressionChild;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeElse;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessingFragment;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeRule;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedTestVariableReference;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.ConstantExpression;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.FunctionalExpression;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.InterpretedExpression;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.ItemVariableExpression;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.ItemVariableSource;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledExpressions.TestVariableExpression;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.BlockRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.ConditionRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.ExitRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.InterpretedOutcomeRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.InterpretedResponseRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.SetItemOutcomeValueRule;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledRules.SetTestOutcomeValueRule;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemVariableSlots;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the rules within {@link ResponseProcessing} and {@link OutcomeProcessing} into a
+ * {@link CompiledProcessing}, which can be evaluated repeatedly with less overhead than
+ * walking the original {@link QtiNode} tree each time.
+ * <p>
+ * Compilation does the following:
+ * <ul>
+ *   <li>
+ *     <code>variable</code> lookups are resolved up front to the part of the
+ *     {@link ItemSessionState} or {@link TestSessionState} holding the required value;
+ *   </li>
+ *   <li>
+ *     operators that depend only on constant inputs (e.g. <code>baseValue</code>) are
+ *     evaluated once at compile time;
+ *   </li>
+ *   <li>
+ *     the target declarations of <code>setOutcomeValue</code> rules are resolved up front;
+ *   </li>
+ *   <li>
+ *     the per-node runtime validity checks and debug logging are skipped.
+ *   </li>
+ * </ul>
+ * All other expressions and rules are evaluated exactly as normal, so the normal interpreted
+ * evaluation remains the reference behaviour. Compilation only makes sense for subjects that are
+ * valid, as evaluating invalid subjects relies on the runtime checks skipped here.
+ * Expressions are evaluated in the same order as normal, so things like random number
+ * generation are not affected.
+ * <p>
+ * This is invoked by the {@link ItemProcessingInitializer} and {@link TestProcessingInitializer}
+ * when requested.
+ * <p>
+ * Usage: create a fresh instance of this class (via one of the static methods) for each
+ * compilation.
+ *
+ * @author David McKain
+ */
+public final class ProcessingCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingCompiler.class);
+
+    /** (Set when compiling an item) */
+    private final Map<Identifier, TemplateDeclaration> templateDeclarationMap;
+
+    /** (Set when compiling an item) */
+    private final Map<Identifier, ResponseDeclaration> responseDeclarationMap;
+
+    private final Map<Identifier, OutcomeDeclaration> outcomeDeclarationMap;
+
+    /** (Set when compiling an item) */
+    private final ItemVariableSlots itemVariableSlots;
+
+    /** (Set when compiling a test) */
+    private final ResolvedAssessmentTest resolvedAssessmentTest;
+
+    private int compiledExpressionCount;
+    private int interpretedExpressionCount;
+
+    private ProcessingCompiler(final Map<Identifier, TemplateDeclaration> templateDeclarationMap,
+            final Map<Identifier, ResponseDeclaration> responseDeclarationMap,
+            final Map<Identifier, OutcomeDeclaration> outcomeDeclarationMap,
+            final ItemVariableSlots itemVariableSlots,
+            final ResolvedAssessmentTest resolvedAssessmentTest) {
+        this.templateDeclarationMap = templateDeclarationMap;
+        this.responseDeclarationMap = responseDeclarationMap;
+        this.outcomeDeclarationMap = outcomeDeclarationMap;
+        this.itemVariableSlots = itemVariableSlots;
+        this.resolvedAssessmentTest = resolvedAssessmentTest;
+    }
+
+    /**
+     * Compiles the given {@link ResponseProcessing} for an item having the given (valid)
+     * variable declarations. Variable lookups will use the given {@link ItemVariableSlots}
+     * whenever these are bound to the {@link ItemSessionState} being processed.
+     */
+    public static CompiledProcessing compileResponseProcessing(final ResponseProcessing responseProcessing,
+            final Map<Identifier, TemplateDeclaration> validTemplateDeclarationMap,
+            final Map<Identifier, ResponseDeclaration> validResponseDeclarationMap,
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap,
+            final ItemVariableSlots itemVariableSlots) {
+        Assert.notNull(itemVariableSlots, "itemVariableSlots");
+        final ProcessingCompiler compiler = new ProcessingCompiler(validTemplateDeclarationMap,
+                validResponseDeclarationMap, validOutcomeDeclarationMap, itemVariableSlots, null);
+        final CompiledProcessing result = new CompiledProcessing(compiler.compileResponseRules(responseProcessing.getResponseRules()));
+        compiler.logResult(responseProcessing.getSystemId());
+        return result;
+    }
+
+    /**
+     * Compiles the given {@link OutcomeProcessing} for a test having the given (valid)
+     * outcome declarations.
+     */
+    public static CompiledProcessing compileOutcomeProcessing(final OutcomeProcessing outcomeProcessing,
+            final ResolvedAssessmentTest resolvedAssessmentTest,
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap) {
+        final ProcessingCompiler compiler = new ProcessingCompiler(null, null,
+                validOutcomeDeclarationMap, null, resolvedAssessmentTest);
+        final CompiledProcessing result = new CompiledProcessing(compiler.compileOutcomeRules(outcomeProcessing.getOutcomeRules()));
+        compiler.logResult(resolvedAssessmentTest.getTestLookup().getSystemId());
+        return result;
+    }
+
+    private void logResult(final Object subject) {
+        logger.debug("Compiled processing for {}: {} expression(s) compiled, {} left to be interpreted",
+                new Object[] { subject, Integer.valueOf(compiledExpressionCount), Integer.valueOf(interpretedExpressionCount) });
+    }
+
+    //-------------------------------------------------------------------
+    // Response rules
+
+    private List<CompiledRule> compileResponseRules(final List<ResponseRule> responseRules) {
+        final List<CompiledRule> result = new ArrayList<CompiledRule>(responseRules.size());
+        for (final ResponseRule responseRule : responseRules) {
+            result.add(compileResponseRule(responseRule));
+        }
+        return result;
+    }
+
+    private CompiledRule[] compileResponseRuleArray(final List<ResponseRule> responseRules) {
+        final List<CompiledRule> result = compileResponseRules(responseRules);
+        return result.toArray(new CompiledRule[result.size()]);
+    }
+
+    private CompiledRule compileResponseRule(final ResponseRule responseRule) {
+        if (responseRule instanceof ResponseCondition) {
+            final ResponseCondition responseCondition = (ResponseCondition) responseRule;
+            if (responseCondition.getResponseIf()!=null) {
+                final List<ResponseConditionExpressionChild> expressionChildren = new ArrayList<ResponseConditionExpressionChild>();
+                expressionChildren.add(responseCondition.getResponseIf());
+                expressionChildren.addAll(responseCondition.getResponseElseIfs());
+                final ResponseElse responseElse = responseCondition.getResponseElse();
+                final int branchCount = expressionChildren.size() + (responseElse!=null ? 1 : 0);
+                final CompiledExpression[] conditions = new CompiledExpression[branchCount];
+                final CompiledRule[][] branchRules = new CompiledRule[branchCount][];
+                for (int i=0; i<expressionChildren.size(); i++) {
+                    final ResponseConditionExpressionChild child = expressionChildren.get(i);
+                    conditions[i] = compileExpression(child.getExpression());
+                    branchRules[i] = compileResponseRuleArray(child.getResponseRules());
+                }
+                if (responseElse!=null) {
+                    branchRules[branchCount-1] = compileResponseRuleArray(responseElse.getResponseRules());
+                }
+                return new ConditionRule(conditions, branchRules);
+            }
+        }
+        else if (responseRule instanceof SetOutcomeValue) {
+            final SetOutcomeValue setOutcomeValue = (SetOutcomeValue) responseRule;
+            final OutcomeDeclaration outcomeDeclaration = lookupOutcomeDeclaration(setOutcomeValue.getIdentifier());
+            if (outcomeDeclaration!=null) {
+                return new SetItemOutcomeValueRule(outcomeDeclaration, compileExpression(setOutcomeValue.getExpression()));
+            }
+        }
+        else if (responseRule instanceof ExitResponse) {
+            return new ExitRule();
+        }
+        else if (responseRule instanceof ResponseProcessingFragment) {
+            return new BlockRule(compileResponseRuleArray(((ResponseProcessingFragment) responseRule).getResponseRules()));
+        }
+        /* Otherwise, evaluate as normal */
+        return new InterpretedResponseRule(responseRule);
+    }
+
+    //-------------------------------------------------------------------
+    // Outcome rules
+
+    private List<CompiledRule> compileOutcomeRules(final List<OutcomeRule> outcomeRules) {
+        final List<CompiledRule> result = new ArrayList<CompiledRule>(outcomeRules.size());
+        for (final OutcomeRule outcomeRule : outcomeRules) {
+            result.add(compileOutcomeRule(outcomeRule));
+        }
+        return result;
+    }
+
+    private CompiledRule[] compileOutcomeRuleArray(final List<OutcomeRule> outcomeRules) {
+        final List<CompiledRule> result = compileOutcomeRules(outcomeRules);
+        return result.toArray(new CompiledRule[result.size()]);
+    }
+
+    private CompiledRule compileOutcomeRule(final OutcomeRule outcomeRule) {
+        if (outcomeRule instanceof OutcomeCondition) {
+            final OutcomeCondition outcomeCondition = (OutcomeCondition) outcomeRule;
+            if (outcomeCondition.getOutcomeIf()!=null) {
+                final List<OutcomeConditionExpressionChild> expressionChildren = new ArrayList<OutcomeConditionExpressionChild>();
+                expressionChildren.add(outcomeCondition.getOutcomeIf());
+                expressionChildren.addAll(outcomeCondition.getOutcomeElseIfs());
+                final OutcomeElse outcomeElse = outcomeCondition.getOutcomeElse();
+                final int branchCount = expressionChildren.size() + (outcomeElse!=null ? 1 : 0);
+                final CompiledExpression[] conditions = new CompiledExpression[branchCount];
+                final CompiledRule[][] branchRules = new CompiledRule[branchCount][];
+                for (int i=0; i<expressionChildren.size(); i++) {
+                    final OutcomeConditionExpressionChild child = expressionChildren.get(i);
+                    conditions[i] = compileExpression(child.getExpression());
+                    branchRules[i] = compileOutcomeRuleArray(child.getOutcomeRules());
+                }
+                if (outcomeElse!=null) {
+                    branchRules[branchCount-1] = compileOutcomeRuleArray(outcomeElse.getOutcomeRules());
+                }
+                return new ConditionRule(conditions, branchRules);
+            }
+        }
+        else if (outcomeRule instanceof uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.SetOutcomeValue) {
+            final uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.SetOutcomeValue setOutcomeValue = (uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.SetOutcomeValue) outcomeRule;
+            final OutcomeDeclaration outcomeDeclaration = lookupOutcomeDeclaration(setOutcomeValue.getIdentifier());
+            if (outcomeDeclaration!=null) {
+                return new SetTestOutcomeValueRule(outcomeDeclaration, compileExpression(setOutcomeValue.getExpression()));
+            }
+        }
+        else if (outcomeRule instanceof ExitTest) {
+            return new ExitRule();
+        }
+        else if (outcomeRule instanceof OutcomeProcessingFragment) {
+            return new BlockRule(compileOutcomeRuleArray(((OutcomeProcessingFragment) outcomeRule).getOutcomeRules()));
+        }
+        /* Otherwise, evaluate as normal */
+        return new InterpretedOutcomeRule(outcomeRule);
+    }
+
+    private OutcomeDeclaration lookupOutcomeDeclaration(final Identifier identifier) {
+        return identifier!=null ? outcomeDeclarationMap.get(identifier) : null;
+    }
+
+    //-------------------------------------------------------------------
+    // Expressions
+
+    private CompiledExpression compileExpression(final Expression expression) {
+        if (expression instanceof Variable) {
+            final CompiledExpression result = resolvedAssessmentTest!=null
+                    ? compileTestVariable((Variable) expression)
+                    : compileItemVariable((Variable) expression);
+            if (result!=null) {
+                compiledExpressionCount++;
+                return result;
+            }
+        }
+        else if (expression instanceof AbstractFunctionalExpression) {
+            final List<Expression> children = expression.getExpressions();
+            final CompiledExpression[] compiledChildren = new CompiledExpression[children.size()];
+            boolean allChildrenConstant = true;
+            for (int i=0; i<compiledChildren.length; i++) {
+                compiledChildren[i] = compileExpression(children.get(i));
+                allChildrenConstant &= compiledChildren[i].isConstant();
+            }
+            compiledExpressionCount++;
+            final FunctionalExpression result = new FunctionalExpression((AbstractFunctionalExpression) expression, compiledChildren);
+            if (allChildrenConstant && expression instanceof AbstractSimpleFunctionalExpression) {
+                /* Result depends only on constant inputs, so evaluate now */
+                try {
+                    return new ConstantExpression(result.evaluate(null));
+                }
+                catch (final RuntimeException e) {
+                    /* Leave this to fail at runtime, as it would do normally */
+                    logger.debug("Constant expression {} failed to evaluate at compile time: {}", expression, e.getMessage());
+                }
+            }
+            return result;
+        }
+        /* Otherwise, evaluate as normal */
+        interpretedExpressionCount++;
+        return new InterpretedExpression(expression);
+    }
+
+    /**
+     * Resolves a <code>variable</code> within an item, following the same logic as the
+     * {@link ItemProcessingContext}. Returns null if the reference can't be resolved here,
+     * in which case it will be evaluated as normal.
+     */
+    private CompiledExpression compileItemVariable(final Variable variable) {
+        if (variable.getIdentifier()==null) {
+            return null;
+        }
+        final Identifier identifier = Identifier.assumedLegal(variable.getIdentifier().toString());
+        ItemVariableSource source = null;
+        int slot = -1;
+        if (templateDeclarationMap.containsKey(identifier)) {
+            source = ItemVariableSource.TEMPLATE;
+            slot = itemVariableSlots.getTemplateSlotIndex().getSlot(identifier);
+        }
+        else if (outcomeDeclarationMap.containsKey(identifier)) {
+            if (QtiConstants.VARIABLE_COMPLETION_STATUS_IDENTIFIER.equals(identifier)) {
+                source = ItemVariableSource.COMPLETION_STATUS;
+            }
+            else {
+                source = ItemVariableSource.OUTCOME;
+                slot = itemVariableSlots.getOutcomeSlotIndex().getSlot(identifier);
+            }
+        }
+        else if (responseDeclarationMap.containsKey(identifier)) {
+            if (QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(identifier)) {
+                source = ItemVariableSource.DURATION;
+            }
+            else if (QtiConstants.VARIABLE_NUMBER_OF_ATTEMPTS_IDENTIFIER.equals(identifier)) {
+                source = ItemVariableSource.NUM_ATTEMPTS;
+            }
+            else {
+                source = ItemVariableSource.RESPONSE;
+                slot = itemVariableSlots.getResponseSlotIndex().getSlot(identifier);
+            }
+        }
+        return source!=null ? new ItemVariableExpression(identifier, source, itemVariableSlots, slot) : null;
+    }
+
+    /**
+     * Resolves a <code>variable</code> within a test, provided it unambiguously refers to
+     * one of the test's own variables. Returns null otherwise, in which case it will be
+     * evaluated as normal.
+     */
+    private CompiledExpression compileTestVariable(final Variable variable) {
+        if (variable.getIdentifier()==null) {
+            return null;
+        }
+        final List<ResolvedTestVariableReference> resolvedReferences = resolvedAssessmentTest.resolveVariableReference(variable.getIdentifier());
+        if (resolvedReferences==null || resolvedReferences.size()!=1 || !resolvedReferences.get(0).isTestVariableReference()) {
+            return null;
+        }
+        final Identifier identifier = resolvedReferences.get(0).getVariableDeclaration().getIdentifier();
+        if (QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(identifier)) {
+            return new TestVariableExpression(identifier, true);
+        }
+        else if (outcomeDeclarationMap.containsKey(identifier)) {
+            return new TestVariableExpression(identifier, false);
+        }
+        return null;
+    }
+}
@@ -41,6 +41,7 @@ import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 
 import java.io.Serializable;
@@ -75,13 +76,42 @@ public final class ItemProcessingMap implements Serializable {
     private final Map<Identifier, ResponseDeclaration> validResponseDeclarationMap;
     private final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap;
 
+    /**
+     * Slot indices assigned to the (valid) variables, used to store their values
+     * within {@link ItemSessionState}.
+     */
+    private final ItemVariableSlots variableSlots;
+
+    /**
+     * Compiled form of the item's responseProcessing, or null if this was not requested
+     * (or not possible).
+     */
+    private final CompiledProcessing compiledResponseProcessing;
+
     public ItemProcessingMap(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
             final List<Interaction> interactionsBuilder,
             final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder,
             final Map<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder,
             final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder) {
+        this(resolvedAssessmentItem, isValid, interactionsBuilder, validTemplateDeclarationMapBuilder,
+                validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder,
+                new ItemVariableSlots(validTemplateDeclarationMapBuilder.keySet(),
+                        validResponseDeclarationMapBuilder.keySet(),
+                        validOutcomeDeclarationMapBuilder.keySet()),
+                null);
+    }
+
+    public ItemProcessingMap(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
+            final List<Interaction> interactionsBuilder,
+            final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder,
+            final Map<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder,
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder,
+            final ItemVariableSlots variableSlots,
+            final CompiledProcessing compiledResponseProcessing) {
         this.resolvedAssessmentItem = resolvedAssessmentItem;
         this.isValid = isValid;
+        this.variableSlots = variableSlots;
+        this.compiledResponseProcessing = compiledResponseProcessing;
 
         /* Record interactions and build helper map */
         this.interactions = Collections.unmodifiableList(new ArrayList<Interaction>(interactionsBuilder));
@@ -140,6 +170,14 @@ public final class ItemProcessingMap implements Serializable {
         return interactionByResponseIdentifierMap;
     }
 
+    public ItemVariableSlots getVariableSlots() {
+        return variableSlots;
+    }
+
+    public CompiledProcessing getCompiledResponseProcessing() {
+        return compiledResponseProcessing;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
@@ -88,10 +88,17 @@ public final class ItemSessionState extends AbstractPartSessionState implements
      */
     private final Map<Identifier, List<Identifier>> shuffledInteractionChoiceOrders;
 
+    /**
+     * Slot indices for the item's variables, if bound.
+     *
+     * @see #bindVariableSlots(ItemVariableSlots)
+     */
+    private ItemVariableSlots variableSlots;
+
     /**
      * Map of template values, keyed on Identifier.
      */
-    private final Map<Identifier, Value> templateValues;
+    private final SlotValueMap templateValues;
 
     /**
      * Map of (committed) response values, keyed on Identifier.
@@ -99,7 +106,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
      * This does not include the implicit <code>duration</code>
      * and <code>numAttempts</code> variables.
      */
-    private final Map<Identifier, Value> responseValues;
+    private final SlotValueMap responseValues;
 
     /**
      * Map of outcome values, keyed on Identifier.
@@ -107,7 +114,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
      * This does not include the implicit <code>completionStatus</code>
      * variable.
      */
-    private final Map<Identifier, Value> outcomeValues;
+    private final SlotValueMap outcomeValues;
 
     private final Map<Identifier, ResponseData> rawResponseDataMap;
     private final Set<Identifier> unboundResponseIdentifiers;
@@ -116,12 +123,12 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     /**
      * Bound but not yet committed response variables.
      */
-    private final Map<Identifier, Value> uncommittedResponseValues;
+    private final SlotValueMap uncommittedResponseValues;
 
-    private final Map<Identifier, Value> overriddenTemplateDefaultValues;
-    private final Map<Identifier, Value> overriddenResponseDefaultValues;
-    private final Map<Identifier, Value> overriddenOutcomeDefaultValues;
-    private final Map<Identifier, Value> overriddenCorrectResponseValues;
+    private final SlotValueMap overriddenTemplateDefaultValues;
+    private final SlotValueMap overriddenResponseDefaultValues;
+    private final SlotValueMap overriddenOutcomeDefaultValues;
+    private final SlotValueMap overriddenCorrectResponseValues;
 
     private int numAttempts;
     private String completionStatus;
@@ -135,17 +142,18 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     public ItemSessionState() {
         super();
         this.shuffledInteractionChoiceOrders = new HashMap<Identifier, List<Identifier>>();
-        this.templateValues = new HashMap<Identifier, Value>();
-        this.responseValues = new HashMap<Identifier, Value>();
-        this.outcomeValues = new HashMap<Identifier, Value>();
+        this.variableSlots = null;
+        this.templateValues = new SlotValueMap();
+        this.responseValues = new SlotValueMap();
+        this.outcomeValues = new SlotValueMap();
         this.rawResponseDataMap = new HashMap<Identifier, ResponseData>();
         this.unboundResponseIdentifiers = new HashSet<Identifier>();
         this.invalidResponseIdentifiers = new HashSet<Identifier>();
-        this.uncommittedResponseValues = new HashMap<Identifier, Value>();
-        this.overriddenTemplateDefaultValues = new HashMap<Identifier, Value>();
-        this.overriddenResponseDefaultValues = new HashMap<Identifier, Value>();
-        this.overriddenOutcomeDefaultValues = new HashMap<Identifier, Value>();
-        this.overriddenCorrectResponseValues = new HashMap<Identifier, Value>();
+        this.uncommittedResponseValues = new SlotValueMap();
+        this.overriddenTemplateDefaultValues = new SlotValueMap();
+        this.overriddenResponseDefaultValues = new SlotValueMap();
+        this.overriddenOutcomeDefaultValues = new SlotValueMap();
+        this.overriddenCorrectResponseValues = new SlotValueMap();
         this.sessionStatus = null;
         this.initialized = false;
         this.responded = false;
@@ -185,6 +193,72 @@ public final class ItemSessionState extends AbstractPartSessionState implements
         setCompletionStatus(QtiConstants.COMPLETION_STATUS_NOT_ATTEMPTED);
     }
 
+    //----------------------------------------------------------------
+    // Variable slots
+
+    /**
+     * Binds the given {@link ItemVariableSlots} to this state, so that the values of the
+     * variables they describe are subsequently stored in arrays indexed by slot. Any values
+     * already recorded are moved into their new slots, and values of any other variables
+     * continue to be stored by {@link Identifier}. Binding the same {@link ItemVariableSlots}
+     * again does nothing.
+     * <p>
+     * This is called automatically when an item session controller is created, so you
+     * won't normally need to call it yourself. It has no effect on the observable state,
+     * so is not taken into account by {@link #equals(Object)}.
+     */
+    public void bindVariableSlots(final ItemVariableSlots variableSlots) {
+        Assert.notNull(variableSlots, "variableSlots");
+        if (variableSlots==this.variableSlots) {
+            return;
+        }
+        final VariableSlotIndex templateSlotIndex = variableSlots.getTemplateSlotIndex();
+        final VariableSlotIndex responseSlotIndex = variableSlots.getResponseSlotIndex();
+        final VariableSlotIndex outcomeSlotIndex = variableSlots.getOutcomeSlotIndex();
+        templateValues.bindSlotIndex(templateSlotIndex);
+        overriddenTemplateDefaultValues.bindSlotIndex(templateSlotIndex);
+        responseValues.bindSlotIndex(responseSlotIndex);
+        uncommittedResponseValues.bindSlotIndex(responseSlotIndex);
+        overriddenResponseDefaultValues.bindSlotIndex(responseSlotIndex);
+        overriddenCorrectResponseValues.bindSlotIndex(responseSlotIndex);
+        outcomeValues.bindSlotIndex(outcomeSlotIndex);
+        overriddenOutcomeDefaultValues.bindSlotIndex(outcomeSlotIndex);
+        this.variableSlots = variableSlots;
+    }
+
+    /**
+     * Returns the {@link ItemVariableSlots} currently bound to this state, or null if
+     * none have been bound.
+     */
+    @ObjectDumperOptions(DumpMode.IGNORE)
+    public ItemVariableSlots getVariableSlots() {
+        return variableSlots;
+    }
+
+    /**
+     * Returns the value of the template variable at the given slot of the currently bound
+     * {@link ItemVariableSlots}, or null if this has not been set.
+     */
+    public Value getTemplateValueAtSlot(final int slot) {
+        return templateValues.getAtSlot(slot);
+    }
+
+    /**
+     * Returns the (committed) value of the response variable at the given slot of the
+     * currently bound {@link ItemVariableSlots}, or null if this has not been set.
+     */
+    public Value getResponseValueAtSlot(final int slot) {
+        return responseValues.getAtSlot(slot);
+    }
+
+    /**
+     * Returns the value of the outcome variable at the given slot of the currently bound
+     * {@link ItemVariableSlots}, or null if this has not been set.
+     */
+    public Value getOutcomeValueAtSlot(final int slot) {
+        return outcomeValues.getAtSlot(slot);
+    }
+
     //----------------------------------------------------------------
     // Interaction init helpers
 
@@ -0,0 +1,115 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.expression.outcome.ItemSubset;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key identifying the subset of items selected by an {@link ItemSubset} expression, i.e.
+ * the combination of its <code>sectionIdentifier</code>, <code>includeCategory</code>
+ * and <code>excludeCategory</code> attributes.
+ * <p>
+ * This is used to record the results of such selections within a {@link TestProcessingMap}.
+ *
+ * @see TestProcessingMap#getAssessmentItemRefsInSubset(ItemSubsetKey)
+ *
+ * @author David McKain
+ */
+public final class ItemSubsetKey implements Serializable {
+
+    private static final long serialVersionUID = 4526130785340112417L;
+
+    private final Identifier sectionIdentifier;
+    private final List<String> includeCategories;
+    private final List<String> excludeCategories;
+    private final int hashCode;
+
+    /**
+     * @param sectionIdentifier identifier of the section(s) to select items from, null to select from all items
+     * @param includeCategories categories to include, null to include all
+     * @param excludeCategories categories to exclude, null to exclude none
+     */
+    public ItemSubsetKey(final Identifier sectionIdentifier, final List<String> includeCategories,
+            final List<String> excludeCategories) {
+        this.sectionIdentifier = sectionIdentifier;
+        this.includeCategories = includeCategories!=null ? Collections.unmodifiableList(new ArrayList<String>(includeCategories)) : null;
+        this.excludeCategories = excludeCategories!=null ? Collections.unmodifiableList(new ArrayList<String>(excludeCategories)) : null;
+        this.hashCode = Arrays.hashCode(new Object[] { sectionIdentifier, this.includeCategories, this.excludeCategories });
+    }
+
+    public Identifier getSectionIdentifier() {
+        return sectionIdentifier;
+    }
+
+    public List<String> getIncludeCategories() {
+        return includeCategories;
+    }
+
+    public List<String> getExcludeCategories() {
+        return excludeCategories;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof ItemSubsetKey)) {
+            return false;
+        }
+        final ItemSubsetKey other = (ItemSubsetKey) obj;
+        return ObjectUtilities.nullSafeEquals(sectionIdentifier, other.sectionIdentifier)
+                && ObjectUtilities.nullSafeEquals(includeCategories, other.includeCategories)
+                && ObjectUtilities.nullSafeEquals(excludeCategories, other.excludeCategories);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(sectionIdentifier=" + sectionIdentifier
+                + ",includeCategories=" + includeCategories
+                + ",excludeCategories=" + excludeCategories
+                + ")";
+    }
+}
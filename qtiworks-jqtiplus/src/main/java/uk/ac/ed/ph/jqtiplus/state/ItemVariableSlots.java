@@ -0,0 +1,108 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state;
+
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Assigns dense slot indices to the template, response and outcome variables declared
+ * in an {@link AssessmentItem}, allowing an {@link ItemSessionState} to store the values
+ * of these variables in arrays rather than hash tables.
+ * <p>
+ * The built-in <code>duration</code>, <code>numAttempts</code> and <code>completionStatus</code>
+ * variables are stored separately by {@link ItemSessionState} so never get assigned slots.
+ * <p>
+ * An instance of this class is created by each {@link ItemProcessingMap}, and is bound to an
+ * {@link ItemSessionState} whenever an item session controller is created for it.
+ * <p>
+ * Usage: an instance of this class is immutable and can be safely used by multiple Threads
+ *
+ * @see ItemSessionState#bindVariableSlots(ItemVariableSlots)
+ *
+ * @author David McKain
+ */
+public final class ItemVariableSlots implements Serializable {
+
+    private static final long serialVersionUID = -3012779470946391337L;
+
+    private final VariableSlotIndex templateSlotIndex;
+    private final VariableSlotIndex responseSlotIndex;
+    private final VariableSlotIndex outcomeSlotIndex;
+
+    public ItemVariableSlots(final Collection<Identifier> templateIdentifiers,
+            final Collection<Identifier> responseIdentifiers,
+            final Collection<Identifier> outcomeIdentifiers) {
+        this.templateSlotIndex = new VariableSlotIndex(filterReservedIdentifiers(templateIdentifiers));
+        this.responseSlotIndex = new VariableSlotIndex(filterReservedIdentifiers(responseIdentifiers));
+        this.outcomeSlotIndex = new VariableSlotIndex(filterReservedIdentifiers(outcomeIdentifiers));
+    }
+
+    private static List<Identifier> filterReservedIdentifiers(final Collection<Identifier> identifiers) {
+        final List<Identifier> result = new ArrayList<Identifier>(identifiers.size());
+        for (final Identifier identifier : identifiers) {
+            if (!VariableDeclaration.isReservedIdentifier(identifier)) {
+                result.add(identifier);
+            }
+        }
+        return result;
+    }
+
+    public VariableSlotIndex getTemplateSlotIndex() {
+        return templateSlotIndex;
+    }
+
+    public VariableSlotIndex getResponseSlotIndex() {
+        return responseSlotIndex;
+    }
+
+    public VariableSlotIndex getOutcomeSlotIndex() {
+        return outcomeSlotIndex;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(templateSlotIndex=" + templateSlotIndex
+                + ",responseSlotIndex=" + responseSlotIndex
+                + ",outcomeSlotIndex=" + outcomeSlotIndex
+                + ")";
+    }
+}
@@ -0,0 +1,290 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map of variable {@link Value}s keyed on {@link Identifier}, used internally by
+ * {@link ItemSessionState}.
+ * <p>
+ * Once a {@link VariableSlotIndex} has been bound, values of the variables it knows
+ * about are stored in an array indexed by slot, with any other variables held in an
+ * overflow {@link HashMap}. Before then, everything is held in the overflow map. Storage
+ * is allocated lazily, so empty instances are very cheap.
+ * <p>
+ * This follows the usual {@link Map} contract (so equality and hashing are compatible
+ * with other {@link Map}s), except that null keys and values are not permitted.
+ * Iteration visits slotted values in slot order, followed by any overflow values.
+ * <p>
+ * An instance of this class is NOT safe for use by multiple threads.
+ *
+ * @author David McKain
+ */
+final class SlotValueMap extends AbstractMap<Identifier, Value> implements Serializable {
+
+    private static final long serialVersionUID = 2380457434263113545L;
+
+    private VariableSlotIndex slotIndex;
+    private Value[] slotValues;
+    private int slotValueCount;
+    private HashMap<Identifier, Value> overflowValues;
+
+    SlotValueMap() {
+        this.slotIndex = null;
+        this.slotValues = null;
+        this.slotValueCount = 0;
+        this.overflowValues = null;
+    }
+
+    VariableSlotIndex getSlotIndex() {
+        return slotIndex;
+    }
+
+    /**
+     * Binds the given {@link VariableSlotIndex} to this map, moving any existing values
+     * into their new slots. This does nothing if the index is already bound.
+     */
+    void bindSlotIndex(final VariableSlotIndex newSlotIndex) {
+        if (newSlotIndex==slotIndex) {
+            return;
+        }
+        final List<Map.Entry<Identifier, Value>> existingEntries = new ArrayList<Map.Entry<Identifier, Value>>(size());
+        for (final Map.Entry<Identifier, Value> entry : entrySet()) {
+            existingEntries.add(new SimpleImmutableEntry<Identifier, Value>(entry));
+        }
+        clear();
+        this.slotIndex = newSlotIndex;
+        for (final Map.Entry<Identifier, Value> entry : existingEntries) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the value stored at the given slot of the bound {@link VariableSlotIndex},
+     * or null if no value has been set there.
+     */
+    Value getAtSlot(final int slot) {
+        return slotValues!=null ? slotValues[slot] : null;
+    }
+
+    private int slotFor(final Object key) {
+        return slotIndex!=null && key instanceof Identifier ? slotIndex.getSlot((Identifier) key) : -1;
+    }
+
+    @Override
+    public int size() {
+        return slotValueCount + (overflowValues!=null ? overflowValues.size() : 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size()==0;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key)!=null;
+    }
+
+    @Override
+    public Value get(final Object key) {
+        final int slot = slotFor(key);
+        if (slot>=0) {
+            return getAtSlot(slot);
+        }
+        return overflowValues!=null ? overflowValues.get(key) : null;
+    }
+
+    @Override
+    public Value put(final Identifier key, final Value value) {
+        Assert.notNull(key, "key");
+        Assert.notNull(value, "value");
+        final int slot = slotFor(key);
+        if (slot>=0) {
+            if (slotValues==null) {
+                slotValues = new Value[slotIndex.size()];
+            }
+            final Value previous = slotValues[slot];
+            slotValues[slot] = value;
+            if (previous==null) {
+                slotValueCount++;
+            }
+            return previous;
+        }
+        if (overflowValues==null) {
+            overflowValues = new HashMap<Identifier, Value>();
+        }
+        return overflowValues.put(key, value);
+    }
+
+    @Override
+    public Value remove(final Object key) {
+        final int slot = slotFor(key);
+        if (slot>=0) {
+            final Value previous = getAtSlot(slot);
+            if (previous!=null) {
+                slotValues[slot] = null;
+                slotValueCount--;
+            }
+            return previous;
+        }
+        return overflowValues!=null ? overflowValues.remove(key) : null;
+    }
+
+    @Override
+    public void clear() {
+        slotValues = null;
+        slotValueCount = 0;
+        overflowValues = null;
+    }
+
+    @Override
+    public Set<Map.Entry<Identifier, Value>> entrySet() {
+        return new EntrySet();
+    }
+
+    //----------------------------------------------------------------
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Identifier, Value>> {
+
+        @Override
+        public int size() {
+            return SlotValueMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            SlotValueMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Identifier, Value>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Identifier, Value>> {
+
+        private int nextSlot;
+        private Iterator<Map.Entry<Identifier, Value>> overflowIterator;
+        private Identifier lastSlottedKey;
+        private boolean lastFromOverflow;
+
+        EntryIterator() {
+            this.nextSlot = advanceSlot(0);
+            this.overflowIterator = null;
+            this.lastSlottedKey = null;
+            this.lastFromOverflow = false;
+        }
+
+        private int advanceSlot(final int startSlot) {
+            int slot = startSlot;
+            if (slotValues!=null) {
+                while (slot<slotValues.length && slotValues[slot]==null) {
+                    slot++;
+                }
+                return slot;
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        private boolean hasNextSlot() {
+            return slotValues!=null && nextSlot<slotValues.length;
+        }
+
+        private Iterator<Map.Entry<Identifier, Value>> getOverflowIterator() {
+            if (overflowIterator==null && overflowValues!=null) {
+                overflowIterator = overflowValues.entrySet().iterator();
+            }
+            return overflowIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNextSlot()) {
+                return true;
+            }
+            final Iterator<Map.Entry<Identifier, Value>> iterator = getOverflowIterator();
+            return iterator!=null && iterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<Identifier, Value> next() {
+            if (hasNextSlot()) {
+                final int slot = nextSlot;
+                nextSlot = advanceSlot(slot + 1);
+                lastSlottedKey = slotIndex.getIdentifier(slot);
+                lastFromOverflow = false;
+                return new SimpleImmutableEntry<Identifier, Value>(lastSlottedKey, slotValues[slot]);
+            }
+            final Iterator<Map.Entry<Identifier, Value>> iterator = getOverflowIterator();
+            if (iterator==null) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<Identifier, Value> result = iterator.next();
+            lastSlottedKey = null;
+            lastFromOverflow = true;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            if (lastFromOverflow) {
+                overflowIterator.remove();
+                lastFromOverflow = false;
+            }
+            else if (lastSlottedKey!=null) {
+                SlotValueMap.this.remove(lastSlottedKey);
+                lastSlottedKey = null;
+            }
+            else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
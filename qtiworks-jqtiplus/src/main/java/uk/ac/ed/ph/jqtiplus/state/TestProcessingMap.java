@@ -35,24 +35,32 @@ package uk.ac.ed.ph.jqtiplus.state;
 
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.expression.outcome.ItemSubset;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.test.AbstractPart;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentItemRef;
+import uk.ac.ed.ph.jqtiplus.node.test.AssessmentSection;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
 import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.compiled.CompiledProcessing;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
 
 import java.io.Serializable;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Encapsulates the key information about an {@link AssessmentTest} used during processing.
@@ -74,6 +82,18 @@ public final class TestProcessingMap implements Serializable {
     private final List<AbstractPart> abstractPartList;
     private final Map<AbstractPart, Integer> abstractPartToGlobalIndexMap;
 
+    /**
+     * {@link AssessmentItemRef}s descending from the {@link AssessmentSection}(s) having each
+     * {@link Identifier}, taken from the original test structure.
+     */
+    private final Map<Identifier, List<AssessmentItemRef>> assessmentItemRefsBySectionIdentifierMap;
+
+    /**
+     * {@link AssessmentItemRef}s selected by each {@link ItemSubsetKey} used by the
+     * {@link ItemSubset} expressions in the test, taken from the original test structure.
+     */
+    private final Map<ItemSubsetKey, Set<AssessmentItemRef>> assessmentItemRefsByItemSubsetKeyMap;
+
     private final Map<AbstractPart, EffectiveItemSessionControl> effectiveItemSessionControlMap;
 
     private final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap;
@@ -86,13 +106,31 @@ public final class TestProcessingMap implements Serializable {
      */
     private final Map<URI, ItemProcessingMap> itemProcessingMapMap;
 
+    /**
+     * Compiled form of the test's outcomeProcessing, or null if this was not requested
+     * (or not possible).
+     */
+    private final CompiledProcessing compiledOutcomeProcessing;
+
     public TestProcessingMap(final ResolvedAssessmentTest resolvedAssessmentTest, final boolean isValid,
             final List<AbstractPart> abstractPartListBuilder,
             final Map<AbstractPart, EffectiveItemSessionControl> effectiveItemSessionControlMap,
             final Map<Identifier, OutcomeDeclaration> outcomeDeclarationMapBuilder,
             final ResponseDeclaration durationResponseDeclaration,
             final Map<URI, ItemProcessingMap> itemProcessingMapMapBuilder) {
+        this(resolvedAssessmentTest, isValid, abstractPartListBuilder, effectiveItemSessionControlMap,
+                outcomeDeclarationMapBuilder, durationResponseDeclaration, itemProcessingMapMapBuilder, null);
+    }
+
+    public TestProcessingMap(final ResolvedAssessmentTest resolvedAssessmentTest, final boolean isValid,
+            final List<AbstractPart> abstractPartListBuilder,
+            final Map<AbstractPart, EffectiveItemSessionControl> effectiveItemSessionControlMap,
+            final Map<Identifier, OutcomeDeclaration> outcomeDeclarationMapBuilder,
+            final ResponseDeclaration durationResponseDeclaration,
+            final Map<URI, ItemProcessingMap> itemProcessingMapMapBuilder,
+            final CompiledProcessing compiledOutcomeProcessing) {
         this.resolvedAssessmentTest = resolvedAssessmentTest;
+        this.compiledOutcomeProcessing = compiledOutcomeProcessing;
         this.durationResponseDeclaration = durationResponseDeclaration;
         this.isValid = isValid;
 
@@ -103,6 +141,35 @@ public final class TestProcessingMap implements Serializable {
             abstractPartToGlobalIndexMap.put(abstractPartListBuilder.get(i), Integer.valueOf(i));
         }
 
+        /* Record the AssessmentItemRefs within each AssessmentSection */
+        final Map<Identifier, List<AssessmentItemRef>> assessmentItemRefsBySectionIdentifierMapBuilder = new HashMap<Identifier, List<AssessmentItemRef>>();
+        for (final AbstractPart abstractPart : abstractPartListBuilder) {
+            if (abstractPart instanceof AssessmentSection) {
+                final Identifier sectionIdentifier = abstractPart.getIdentifier();
+                List<AssessmentItemRef> assessmentItemRefs = assessmentItemRefsBySectionIdentifierMapBuilder.get(sectionIdentifier);
+                if (assessmentItemRefs==null) {
+                    assessmentItemRefs = new ArrayList<AssessmentItemRef>();
+                    assessmentItemRefsBySectionIdentifierMapBuilder.put(sectionIdentifier, assessmentItemRefs);
+                }
+                assessmentItemRefs.addAll(QueryUtils.search(AssessmentItemRef.class, abstractPart));
+            }
+        }
+        this.assessmentItemRefsBySectionIdentifierMap = Collections.unmodifiableMap(assessmentItemRefsBySectionIdentifierMapBuilder);
+
+        /* Record the AssessmentItemRefs selected by each ItemSubset expression in the test */
+        final Map<ItemSubsetKey, Set<AssessmentItemRef>> assessmentItemRefsByItemSubsetKeyMapBuilder = new HashMap<ItemSubsetKey, Set<AssessmentItemRef>>();
+        final AssessmentTest test = resolvedAssessmentTest.getTestLookup().extractIfSuccessful();
+        if (test!=null) {
+            for (final ItemSubset itemSubset : QueryUtils.search(ItemSubset.class, Collections.singletonList(test))) {
+                final ItemSubsetKey itemSubsetKey = new ItemSubsetKey(itemSubset.getSectionIdentifier(),
+                        itemSubset.getIncludeCategories(), itemSubset.getExcludeCategories());
+                if (!assessmentItemRefsByItemSubsetKeyMapBuilder.containsKey(itemSubsetKey)) {
+                    assessmentItemRefsByItemSubsetKeyMapBuilder.put(itemSubsetKey, computeAssessmentItemRefsInSubset(itemSubsetKey));
+                }
+            }
+        }
+        this.assessmentItemRefsByItemSubsetKeyMap = Collections.unmodifiableMap(assessmentItemRefsByItemSubsetKeyMapBuilder);
+
         /* Record the EffectiveItemSessionControl for each Node */
         this.effectiveItemSessionControlMap = Collections.unmodifiableMap(effectiveItemSessionControlMap);
 
@@ -131,6 +198,84 @@ public final class TestProcessingMap implements Serializable {
     }
 
 
+    /**
+     * Returns all {@link AssessmentItemRef}s living below the {@link AssessmentSection}(s) with
+     * the given identifier in the original test structure (i.e. before any selection has been
+     * performed), in document order. Returns an empty List if there are no such sections.
+     */
+    public List<AssessmentItemRef> getAssessmentItemRefsInSections(final Identifier sectionIdentifier) {
+        final List<AssessmentItemRef> result = assessmentItemRefsBySectionIdentifierMap.get(sectionIdentifier);
+        return result!=null ? Collections.unmodifiableList(result) : Collections.<AssessmentItemRef>emptyList();
+    }
+
+    /**
+     * Returns the {@link AssessmentItemRef}s selected by the given {@link ItemSubsetKey} in the
+     * original test structure (i.e. before any selection has been performed), in document order.
+     * <p>
+     * The results for the {@link ItemSubset} expressions in the test are computed when this
+     * map is created. Results for any other {@link ItemSubsetKey} are computed on demand.
+     */
+    public Set<AssessmentItemRef> getAssessmentItemRefsInSubset(final ItemSubsetKey itemSubsetKey) {
+        final Set<AssessmentItemRef> result = assessmentItemRefsByItemSubsetKeyMap.get(itemSubsetKey);
+        return result!=null ? result : computeAssessmentItemRefsInSubset(itemSubsetKey);
+    }
+
+    private Set<AssessmentItemRef> computeAssessmentItemRefsInSubset(final ItemSubsetKey itemSubsetKey) {
+        final Set<AssessmentItemRef> result = new LinkedHashSet<AssessmentItemRef>();
+        if (itemSubsetKey.getSectionIdentifier()!=null) {
+            /* (We need to use the original structure as invisible sections may have been removed
+             * by the time the TestPlan gets computed.) */
+            result.addAll(getAssessmentItemRefsInSections(itemSubsetKey.getSectionIdentifier()));
+        }
+        else {
+            for (final AbstractPart abstractPart : abstractPartList) {
+                if (abstractPart instanceof AssessmentItemRef) {
+                    result.add((AssessmentItemRef) abstractPart);
+                }
+            }
+        }
+
+        /* Now apply includes/excludes */
+        final List<String> includeCategories = itemSubsetKey.getIncludeCategories();
+        final List<String> excludeCategories = itemSubsetKey.getExcludeCategories();
+        for (final Iterator<AssessmentItemRef> iter = result.iterator(); iter.hasNext(); ) {
+            final List<String> categories = iter.next().getCategories();
+            if (categories==null) {
+                /* (No categories, so this is only kept if there are no includes) */
+                if (includeCategories!=null) {
+                    iter.remove();
+                }
+                continue;
+            }
+            boolean keep;
+            if (includeCategories!=null) {
+                keep = false;
+                for (final String includeCategory : includeCategories) {
+                    if (categories.contains(includeCategory)) {
+                        keep = true;
+                        break;
+                    }
+                }
+            }
+            else {
+                keep = true;
+            }
+
+            if (keep && excludeCategories!=null) {
+                for (final String excludeCategory : excludeCategories) {
+                    if (categories.contains(excludeCategory)) {
+                        keep = false;
+                        break;
+                    }
+                }
+            }
+            if (!keep) {
+                iter.remove();
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
     public Map<AbstractPart, EffectiveItemSessionControl> getEffectiveItemSessionControlMap() {
         return effectiveItemSessionControlMap;
     }
@@ -152,6 +297,10 @@ public final class TestProcessingMap implements Serializable {
         return itemProcessingMapMap;
     }
 
+    public CompiledProcessing getCompiledOutcomeProcessing() {
+        return compiledOutcomeProcessing;
+    }
+
     public AbstractPart resolveAbstractPart(final TestPlanNode testPlanNode) {
         if (testPlanNode.getTestNodeType()==TestNodeType.ROOT) {
             throw new IllegalArgumentException("This method should not be called for " + testPlanNode.getTestNodeType());
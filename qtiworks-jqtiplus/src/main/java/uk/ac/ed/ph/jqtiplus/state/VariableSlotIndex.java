@@ -0,0 +1,102 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a dense (zero-based) slot index to each of a fixed collection of variable
+ * {@link Identifier}s, in the iteration order of that collection.
+ * <p>
+ * Usage: an instance of this class is immutable and can be safely used by multiple Threads
+ *
+ * @see ItemVariableSlots
+ *
+ * @author David McKain
+ */
+public final class VariableSlotIndex implements Serializable {
+
+    private static final long serialVersionUID = 4675103617218385420L;
+
+    private final Identifier[] identifiers;
+    private final Map<Identifier, Integer> slotMap;
+
+    public VariableSlotIndex(final Collection<Identifier> identifiers) {
+        Assert.notNull(identifiers, "identifiers");
+        this.slotMap = new HashMap<Identifier, Integer>(identifiers.size() * 2);
+        for (final Identifier identifier : identifiers) {
+            Assert.notNull(identifier, "identifier");
+            if (!slotMap.containsKey(identifier)) {
+                slotMap.put(identifier, Integer.valueOf(slotMap.size()));
+            }
+        }
+        this.identifiers = new Identifier[slotMap.size()];
+        for (final Map.Entry<Identifier, Integer> entry : slotMap.entrySet()) {
+            this.identifiers[entry.getValue().intValue()] = entry.getKey();
+        }
+    }
+
+    /** Returns the number of slots in this index */
+    public int size() {
+        return identifiers.length;
+    }
+
+    /**
+     * Returns the slot assigned to the variable having the given {@link Identifier},
+     * or -1 if it has not been assigned one.
+     */
+    public int getSlot(final Identifier identifier) {
+        final Integer slot = slotMap.get(identifier);
+        return slot!=null ? slot.intValue() : -1;
+    }
+
+    /** Returns the {@link Identifier} of the variable assigned to the given slot */
+    public Identifier getIdentifier(final int slot) {
+        return identifiers[slot];
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(identifiers=" + Arrays.toString(identifiers)
+                + ")";
+    }
+}
@@ -41,8 +41,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link AssessmentSectionSessionState} to/from XML
@@ -52,15 +53,22 @@ import org.xml.sax.InputSource;
 public final class AssessmentSectionSessionStateXmlMarshaller {
 
     public static Document marshal(final AssessmentSectionSessionState assessmentSectionSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendAssessmentSectionSessionState(document, assessmentSectionSessionState);
-        return document;
+        return XmlMarshallerCore.marshalToDocument(new XmlMarshallerCore.StateMarshallingCallback() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                final StateXmlWriter writer = new StateXmlWriter(contentHandler);
+                writer.startDocument();
+                appendAssessmentSectionSessionState(writer, assessmentSectionSessionState);
+                writer.endDocument();
+            }
+        });
     }
 
-    static void appendAssessmentSectionSessionState(final Node documentOrElement, final AssessmentSectionSessionState testPartSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "assessmentSectionSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, testPartSessionState);
+    static void appendAssessmentSectionSessionState(final StateXmlWriter writer, final AssessmentSectionSessionState testPartSessionState)
+            throws SAXException {
+        writer.startElement("assessmentSectionSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(writer, testPartSessionState);
+        writer.endElement();
     }
 
     //----------------------------------------------
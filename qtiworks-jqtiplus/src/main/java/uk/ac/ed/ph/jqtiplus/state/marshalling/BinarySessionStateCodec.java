@@ -0,0 +1,703 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * {@link SessionStateCodec} using a compact, versioned binary encoding.
+ * <p>
+ * This is much cheaper to produce and consume than the XML form, which makes it
+ * a better choice for storing state that only needs to be read back by JQTI+.
+ * The layout is:
+ * <ol>
+ *   <li>the 4 byte {@link #MAGIC} header, followed by the {@link #FORMAT_VERSION} byte;</li>
+ *   <li>a byte indicating whether the payload is an item or test state;</li>
+ *   <li>a table of all Strings (including identifiers) used in the state;</li>
+ *   <li>the state itself, with Strings written as references into the table and
+ *     {@link Value}s written using small cardinality and baseType tags.</li>
+ * </ol>
+ * Any change to the layout MUST bump {@link #FORMAT_VERSION}.
+ * <p>
+ * This also supports encoding a {@link TestSessionState} as a delta against an earlier
+ * state, which is useful for storing histories of states efficiently.
+ * See {@link #encodeTestSessionStateDelta(TestSessionState, TestSessionState, OutputStream)}.
+ * <p>
+ * This class is stateless and may be shared by multiple threads.
+ *
+ * @see XmlSessionStateCodec
+ *
+ * @author David McKain
+ */
+public final class BinarySessionStateCodec implements SessionStateCodec {
+
+    public static final String FILE_EXTENSION = "bin";
+
+    /** Header bytes for binary-encoded state */
+    static final byte[] MAGIC = { 'Q', 'W', 'S', 'S' };
+
+    /** Current version of the binary layout */
+    static final byte FORMAT_VERSION = 1;
+
+    static final Charset STRING_CHARSET = Charset.forName("UTF-8");
+
+    static final byte STATE_TYPE_ITEM = 'I';
+    static final byte STATE_TYPE_TEST = 'T';
+    static final byte STATE_TYPE_TEST_DELTA = 'D';
+
+    static final int CARDINALITY_NULL = 0;
+    static final int CARDINALITY_SINGLE = 1;
+    static final int CARDINALITY_MULTIPLE = 2;
+    static final int CARDINALITY_ORDERED = 3;
+    static final int CARDINALITY_RECORD = 4;
+
+    /**
+     * Stable tags used for each {@link BaseType}. (We don't use the enum ordinals as these
+     * are not guaranteed to stay fixed.)
+     */
+    private static final BaseType[] BASE_TYPES_BY_TAG = {
+        BaseType.IDENTIFIER,
+        BaseType.BOOLEAN,
+        BaseType.INTEGER,
+        BaseType.FLOAT,
+        BaseType.STRING,
+        BaseType.POINT,
+        BaseType.PAIR,
+        BaseType.DIRECTED_PAIR,
+        BaseType.DURATION,
+        BaseType.FILE,
+        BaseType.URI
+    };
+
+    private static final int RESPONSE_DATA_STRING = 0;
+    private static final int RESPONSE_DATA_FILE = 1;
+
+    /**
+     * Returns true if the given data starts with the binary state header. This can be used
+     * to decide which {@link SessionStateCodec} should be used to decode stored state.
+     */
+    public static boolean isBinaryEncoded(final byte[] data) {
+        if (data==null || data.length < MAGIC.length) {
+            return false;
+        }
+        return Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length));
+    }
+
+    static int encodeBaseType(final BaseType baseType) {
+        for (int i=0; i<BASE_TYPES_BY_TAG.length; i++) {
+            if (BASE_TYPES_BY_TAG[i]==baseType) {
+                return i;
+            }
+        }
+        throw new QtiLogicException("No binary tag defined for baseType " + baseType);
+    }
+
+    static BaseType decodeBaseType(final int tag) {
+        if (tag<0 || tag>=BASE_TYPES_BY_TAG.length) {
+            throw new BinaryUnmarshallingException("Unexpected baseType tag " + tag);
+        }
+        return BASE_TYPES_BY_TAG[tag];
+    }
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    //----------------------------------------------
+    // Encoding
+
+    @Override
+    public void encodeItemSessionState(final ItemSessionState itemSessionState, final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter();
+        writeItemSessionState(writer, itemSessionState);
+        writer.finish(STATE_TYPE_ITEM, outputStream);
+    }
+
+    @Override
+    public void encodeTestSessionState(final TestSessionState testSessionState, final OutputStream outputStream)
+            throws IOException {
+        final BinaryStateWriter writer = new BinaryStateWriter();
+        writeTestSessionState(writer, testSessionState);
+        writer.finish(STATE_TYPE_TEST, outputStream);
+    }
+
+    private void writeTestSessionState(final BinaryStateWriter writer, final TestSessionState testSessionState)
+            throws IOException {
+        writeTestPlan(writer, testSessionState.getTestPlan());
+        writer.writeControlObjectSessionState(testSessionState);
+        writer.writeBoolean(testSessionState.isInitialized());
+        writer.writeTestPlanNodeKey(testSessionState.getCurrentTestPartKey());
+        writer.writeTestPlanNodeKey(testSessionState.getCurrentItemKey());
+        writer.writeValues(testSessionState.getOutcomeValues());
+
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
+        writer.writeCount(testPartSessionStates.size());
+        for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
+            writer.writeTestPlanNodeKey(entry.getKey());
+            writer.writeAbstractPartSessionState(entry.getValue());
+        }
+
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = testSessionState.getAssessmentSectionSessionStates();
+        writer.writeCount(assessmentSectionSessionStates.size());
+        for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
+            writer.writeTestPlanNodeKey(entry.getKey());
+            writer.writeAbstractPartSessionState(entry.getValue());
+        }
+
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        writer.writeCount(itemSessionStates.size());
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
+            writer.writeTestPlanNodeKey(entry.getKey());
+            writeItemSessionState(writer, entry.getValue());
+        }
+    }
+
+    /**
+     * Encodes the given {@link TestSessionState} as a delta against the given base state, which
+     * must share the same {@link TestPlan}. Only the {@link TestPartSessionState}s,
+     * {@link AssessmentSectionSessionState}s and {@link ItemSessionState}s that differ
+     * from the base state are written, along with the (small) test-level state.
+     * <p>
+     * The result can be decoded using {@link #decodeTestSessionStateDelta(TestSessionState, InputStream)},
+     * passing a state equal to the base state used here.
+     *
+     * @throws IllegalArgumentException if the two states have different {@link TestPlan}s
+     */
+    public void encodeTestSessionStateDelta(final TestSessionState baseState, final TestSessionState testSessionState,
+            final OutputStream outputStream)
+            throws IOException {
+        Assert.notNull(baseState, "baseState");
+        Assert.notNull(testSessionState, "testSessionState");
+        if (!baseState.getTestPlan().equals(testSessionState.getTestPlan())) {
+            throw new IllegalArgumentException("Base state must have the same TestPlan as the state being encoded");
+        }
+        final BinaryStateWriter writer = new BinaryStateWriter();
+        writer.writeControlObjectSessionState(testSessionState);
+        writer.writeBoolean(testSessionState.isInitialized());
+        writer.writeTestPlanNodeKey(testSessionState.getCurrentTestPartKey());
+        writer.writeTestPlanNodeKey(testSessionState.getCurrentItemKey());
+        writer.writeValues(testSessionState.getOutcomeValues());
+
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
+        final List<TestPlanNodeKey> changedTestPartKeys = computeChangedKeys(baseState.getTestPartSessionStates(), testPartSessionStates);
+        writer.writeCount(changedTestPartKeys.size());
+        for (final TestPlanNodeKey key : changedTestPartKeys) {
+            writer.writeTestPlanNodeKey(key);
+            writer.writeAbstractPartSessionState(testPartSessionStates.get(key));
+        }
+        writeRemovedKeys(writer, baseState.getTestPartSessionStates(), testPartSessionStates);
+
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = testSessionState.getAssessmentSectionSessionStates();
+        final List<TestPlanNodeKey> changedAssessmentSectionKeys = computeChangedKeys(baseState.getAssessmentSectionSessionStates(), assessmentSectionSessionStates);
+        writer.writeCount(changedAssessmentSectionKeys.size());
+        for (final TestPlanNodeKey key : changedAssessmentSectionKeys) {
+            writer.writeTestPlanNodeKey(key);
+            writer.writeAbstractPartSessionState(assessmentSectionSessionStates.get(key));
+        }
+        writeRemovedKeys(writer, baseState.getAssessmentSectionSessionStates(), assessmentSectionSessionStates);
+
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        final List<TestPlanNodeKey> changedItemKeys = computeChangedKeys(baseState.getItemSessionStates(), itemSessionStates);
+        writer.writeCount(changedItemKeys.size());
+        for (final TestPlanNodeKey key : changedItemKeys) {
+            writer.writeTestPlanNodeKey(key);
+            writeItemSessionState(writer, itemSessionStates.get(key));
+        }
+        writeRemovedKeys(writer, baseState.getItemSessionStates(), itemSessionStates);
+
+        writer.finish(STATE_TYPE_TEST_DELTA, outputStream);
+    }
+
+    private static <E> List<TestPlanNodeKey> computeChangedKeys(final Map<TestPlanNodeKey, E> baseMap,
+            final Map<TestPlanNodeKey, E> map) {
+        final List<TestPlanNodeKey> result = new ArrayList<TestPlanNodeKey>();
+        for (final Entry<TestPlanNodeKey, E> entry : map.entrySet()) {
+            if (!entry.getValue().equals(baseMap.get(entry.getKey()))) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    private static <E> void writeRemovedKeys(final BinaryStateWriter writer, final Map<TestPlanNodeKey, E> baseMap,
+            final Map<TestPlanNodeKey, E> map)
+            throws IOException {
+        final List<TestPlanNodeKey> removedKeys = new ArrayList<TestPlanNodeKey>();
+        for (final TestPlanNodeKey key : baseMap.keySet()) {
+            if (!map.containsKey(key)) {
+                removedKeys.add(key);
+            }
+        }
+        writer.writeCount(removedKeys.size());
+        for (final TestPlanNodeKey key : removedKeys) {
+            writer.writeTestPlanNodeKey(key);
+        }
+    }
+
+    private void writeTestPlan(final BinaryStateWriter writer, final TestPlan testPlan)
+            throws IOException {
+        final List<TestPlanNode> topLevelNodes = testPlan.getTestPlanRootNode().getChildren();
+        writer.writeCount(topLevelNodes.size());
+        for (final TestPlanNode testPlanNode : topLevelNodes) {
+            writeTestPlanNode(writer, testPlanNode);
+        }
+    }
+
+    private void writeTestPlanNode(final BinaryStateWriter writer, final TestPlanNode testPlanNode)
+            throws IOException {
+        writer.writeString(testPlanNode.getTestNodeType().name());
+        writer.writeTestPlanNodeKey(testPlanNode.getKey());
+        final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
+        if (effectiveItemSessionControl!=null) {
+            writer.writeBoolean(true);
+            writer.writeInt(effectiveItemSessionControl.getMaxAttempts());
+            writer.writeBoolean(effectiveItemSessionControl.isShowFeedback());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowReview());
+            writer.writeBoolean(effectiveItemSessionControl.isShowSolution());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowComment());
+            writer.writeBoolean(effectiveItemSessionControl.isAllowSkipping());
+            writer.writeBoolean(effectiveItemSessionControl.isValidateResponses());
+        }
+        else {
+            writer.writeBoolean(false);
+        }
+        writer.writeString(testPlanNode.getSectionPartTitle());
+        final URI itemSystemId = testPlanNode.getItemSystemId();
+        writer.writeString(itemSystemId!=null ? itemSystemId.toString() : null);
+
+        final List<TestPlanNode> children = testPlanNode.getChildren();
+        writer.writeCount(children.size());
+        for (final TestPlanNode childNode : children) {
+            writeTestPlanNode(writer, childNode);
+        }
+    }
+
+    private void writeItemSessionState(final BinaryStateWriter writer, final ItemSessionState itemSessionState)
+            throws IOException {
+        writer.writeAbstractPartSessionState(itemSessionState);
+        writer.writeBoolean(itemSessionState.isInitialized());
+        writer.writeBoolean(itemSessionState.isResponded());
+        writer.writeDate(itemSessionState.getSuspendTime());
+        final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
+        writer.writeString(sessionStatus!=null ? sessionStatus.toQtiString() : null);
+        writer.writeString(itemSessionState.getCompletionStatus());
+        writer.writeCount(itemSessionState.getNumAttempts());
+        writer.writeIdentifiers(itemSessionState.getUnboundResponseIdentifiers());
+        writer.writeIdentifiers(itemSessionState.getInvalidResponseIdentifiers());
+
+        final Map<Identifier, List<Identifier>> shuffledInteractionChoiceOrders = itemSessionState.getShuffledInteractionChoiceOrders();
+        writer.writeCount(shuffledInteractionChoiceOrders.size());
+        for (final Entry<Identifier, List<Identifier>> entry : shuffledInteractionChoiceOrders.entrySet()) {
+            writer.writeIdentifier(entry.getKey());
+            writer.writeIdentifiers(entry.getValue());
+        }
+
+        final Map<Identifier, ResponseData> rawResponseDataMap = itemSessionState.getRawResponseDataMap();
+        writer.writeCount(rawResponseDataMap.size());
+        for (final Entry<Identifier, ResponseData> entry : rawResponseDataMap.entrySet()) {
+            writer.writeIdentifier(entry.getKey());
+            writeResponseData(writer, entry.getValue());
+        }
+
+        writer.writeString(itemSessionState.getCandidateComment());
+
+        writer.writeValues(itemSessionState.getUncommittedResponseValues());
+        writer.writeValues(itemSessionState.getTemplateValues());
+        writer.writeValues(itemSessionState.getResponseValues());
+        writer.writeValues(itemSessionState.getOutcomeValues());
+        writer.writeValues(itemSessionState.getOverriddenTemplateDefaultValues());
+        writer.writeValues(itemSessionState.getOverriddenResponseDefaultValues());
+        writer.writeValues(itemSessionState.getOverriddenOutcomeDefaultValues());
+        writer.writeValues(itemSessionState.getOverriddenCorrectResponseValues());
+    }
+
+    private void writeResponseData(final BinaryStateWriter writer, final ResponseData responseData)
+            throws IOException {
+        switch (responseData.getType()) {
+            case STRING:
+                final List<String> responseDatums = ((StringResponseData) responseData).getResponseData();
+                writer.writeByte(RESPONSE_DATA_STRING);
+                writer.writeCount(responseDatums.size());
+                for (final String responseDatum : responseDatums) {
+                    writer.writeString(responseDatum);
+                }
+                break;
+
+            case FILE:
+                final FileResponseData fileResponseData = (FileResponseData) responseData;
+                writer.writeByte(RESPONSE_DATA_FILE);
+                writer.writeString(fileResponseData.getFile().getAbsolutePath());
+                writer.writeString(fileResponseData.getContentType());
+                writer.writeString(fileResponseData.getFileName());
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseData.getType());
+        }
+    }
+
+    //----------------------------------------------
+    // Decoding
+
+    @Override
+    public ItemSessionState decodeItemSessionState(final InputStream inputStream)
+            throws IOException {
+        final BinaryStateReader reader = createReader(inputStream, STATE_TYPE_ITEM);
+        try {
+            return readItemSessionState(reader);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    @Override
+    public TestSessionState decodeTestSessionState(final InputStream inputStream)
+            throws IOException {
+        final BinaryStateReader reader = createReader(inputStream, STATE_TYPE_TEST);
+        try {
+            return readTestSessionState(reader);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    /**
+     * Decodes a delta created by {@link #encodeTestSessionStateDelta(TestSessionState, TestSessionState, OutputStream)},
+     * applying it to the given base state.
+     * <p>
+     * The resulting {@link TestSessionState} is a new Object, but will share any unchanged
+     * {@link TestPartSessionState}s, {@link AssessmentSectionSessionState}s and {@link ItemSessionState}s
+     * with the base state. The base state should therefore be discarded afterwards.
+     */
+    public TestSessionState decodeTestSessionStateDelta(final TestSessionState baseState, final InputStream inputStream)
+            throws IOException {
+        Assert.notNull(baseState, "baseState");
+        final BinaryStateReader reader = createReader(inputStream, STATE_TYPE_TEST_DELTA);
+        try {
+            final TestSessionState result = new TestSessionState(baseState.getTestPlan());
+            reader.readControlObjectSessionState(result);
+            result.setInitialized(reader.readBoolean());
+            result.setCurrentTestPartKey(reader.readTestPlanNodeKey());
+            result.setCurrentItemKey(reader.readTestPlanNodeKey());
+            for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+                result.setOutcomeValue(entry.getKey(), entry.getValue());
+            }
+
+            final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = result.getTestPartSessionStates();
+            testPartSessionStates.putAll(baseState.getTestPartSessionStates());
+            final int testPartCount = reader.readCount();
+            for (int i=0; i<testPartCount; i++) {
+                final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+                final TestPartSessionState testPartSessionState = new TestPartSessionState();
+                reader.readAbstractPartSessionState(testPartSessionState);
+                testPartSessionStates.put(key, testPartSessionState);
+            }
+            readRemovedKeys(reader, testPartSessionStates);
+
+            final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = result.getAssessmentSectionSessionStates();
+            assessmentSectionSessionStates.putAll(baseState.getAssessmentSectionSessionStates());
+            final int assessmentSectionCount = reader.readCount();
+            for (int i=0; i<assessmentSectionCount; i++) {
+                final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+                final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+                reader.readAbstractPartSessionState(assessmentSectionSessionState);
+                assessmentSectionSessionStates.put(key, assessmentSectionSessionState);
+            }
+            readRemovedKeys(reader, assessmentSectionSessionStates);
+
+            final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = result.getItemSessionStates();
+            itemSessionStates.putAll(baseState.getItemSessionStates());
+            final int itemCount = reader.readCount();
+            for (int i=0; i<itemCount; i++) {
+                final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+                itemSessionStates.put(key, readItemSessionState(reader));
+            }
+            readRemovedKeys(reader, itemSessionStates);
+            return result;
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    private void readRemovedKeys(final BinaryStateReader reader, final Map<TestPlanNodeKey, ?> map)
+            throws IOException {
+        final int removedCount = reader.readCount();
+        for (int i=0; i<removedCount; i++) {
+            map.remove(requireTestPlanNodeKey(reader));
+        }
+    }
+
+    private BinaryStateReader createReader(final InputStream inputStream, final byte expectedStateType)
+            throws IOException {
+        final BinaryStateReader reader = new BinaryStateReader(inputStream);
+        if (reader.getStateType()!=expectedStateType) {
+            throw new BinaryUnmarshallingException("Expected binary state of type " + (char) expectedStateType
+                    + " but got " + (char) reader.getStateType());
+        }
+        return reader;
+    }
+
+    private TestSessionState readTestSessionState(final BinaryStateReader reader)
+            throws IOException {
+        final TestPlan testPlan = readTestPlan(reader);
+        final TestSessionState result = new TestSessionState(testPlan);
+        reader.readControlObjectSessionState(result);
+        result.setInitialized(reader.readBoolean());
+        result.setCurrentTestPartKey(reader.readTestPlanNodeKey());
+        result.setCurrentItemKey(reader.readTestPlanNodeKey());
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+
+        final int testPartCount = reader.readCount();
+        for (int i=0; i<testPartCount; i++) {
+            final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+            final TestPartSessionState testPartSessionState = new TestPartSessionState();
+            reader.readAbstractPartSessionState(testPartSessionState);
+            result.getTestPartSessionStates().put(key, testPartSessionState);
+        }
+
+        final int assessmentSectionCount = reader.readCount();
+        for (int i=0; i<assessmentSectionCount; i++) {
+            final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+            final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+            reader.readAbstractPartSessionState(assessmentSectionSessionState);
+            result.getAssessmentSectionSessionStates().put(key, assessmentSectionSessionState);
+        }
+
+        final int itemCount = reader.readCount();
+        for (int i=0; i<itemCount; i++) {
+            final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+            result.getItemSessionStates().put(key, readItemSessionState(reader));
+        }
+        return result;
+    }
+
+    private TestPlan readTestPlan(final BinaryStateReader reader)
+            throws IOException {
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        final int topLevelNodeCount = reader.readCount();
+        for (int i=0; i<topLevelNodeCount; i++) {
+            rootNode.addChild(readTestPlanNode(reader));
+        }
+        return new TestPlan(rootNode);
+    }
+
+    private TestPlanNode readTestPlanNode(final BinaryStateReader reader)
+            throws IOException {
+        final String typeString = reader.readString();
+        final TestNodeType type;
+        try {
+            type = TestNodeType.valueOf(typeString);
+        }
+        catch (final Exception e) {
+            throw new BinaryUnmarshallingException("Bad " + TestNodeType.class.getSimpleName() + " value '" + typeString + "'");
+        }
+        final TestPlanNodeKey key = requireTestPlanNodeKey(reader);
+        EffectiveItemSessionControl effectiveItemSessionControl = null;
+        if (reader.readBoolean()) {
+            final int maxAttempts = reader.readInt();
+            final boolean showFeedback = reader.readBoolean();
+            final boolean allowReview = reader.readBoolean();
+            final boolean showSolution = reader.readBoolean();
+            final boolean allowComment = reader.readBoolean();
+            final boolean allowSkipping = reader.readBoolean();
+            final boolean validateResponses = reader.readBoolean();
+            effectiveItemSessionControl = new EffectiveItemSessionControl(maxAttempts, showFeedback, allowReview,
+                    showSolution, allowComment, allowSkipping, validateResponses);
+        }
+        final String sectionPartTitle = reader.readString();
+        final String itemSystemIdString = reader.readString();
+        URI itemSystemId = null;
+        if (itemSystemIdString!=null) {
+            try {
+                itemSystemId = new URI(itemSystemIdString);
+            }
+            catch (final URISyntaxException e) {
+                throw new BinaryUnmarshallingException("Could not parse itemSystemId", e);
+            }
+        }
+        final TestPlanNode result = new TestPlanNode(type, key, effectiveItemSessionControl, sectionPartTitle, itemSystemId);
+        final int childCount = reader.readCount();
+        for (int i=0; i<childCount; i++) {
+            result.addChild(readTestPlanNode(reader));
+        }
+        return result;
+    }
+
+    private TestPlanNodeKey requireTestPlanNodeKey(final BinaryStateReader reader)
+            throws IOException {
+        final TestPlanNodeKey result = reader.readTestPlanNodeKey();
+        if (result==null) {
+            throw new BinaryUnmarshallingException("Expected a non-null " + TestPlanNodeKey.class.getSimpleName());
+        }
+        return result;
+    }
+
+    private ItemSessionState readItemSessionState(final BinaryStateReader reader)
+            throws IOException {
+        final ItemSessionState result = new ItemSessionState();
+        reader.readAbstractPartSessionState(result);
+        result.setInitialized(reader.readBoolean());
+        result.setResponded(reader.readBoolean());
+        result.setSuspendTime(reader.readDate());
+        final String sessionStatus = reader.readString();
+        if (sessionStatus!=null) {
+            try {
+                result.setSessionStatus(SessionStatus.parseSessionStatus(sessionStatus));
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for sessionStatus: " + sessionStatus);
+            }
+        }
+        final String completionStatus = reader.readString();
+        if (completionStatus!=null) {
+            try {
+                result.setCompletionStatus(completionStatus);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for completionStatus: " + completionStatus);
+            }
+        }
+        result.setNumAttempts(reader.readCount());
+        result.setUnboundResponseIdentifiers(reader.readIdentifiers());
+        result.setInvalidResponseIdentifiers(reader.readIdentifiers());
+
+        final int shuffledInteractionCount = reader.readCount();
+        for (int i=0; i<shuffledInteractionCount; i++) {
+            final Identifier responseIdentifier = reader.requireIdentifier();
+            result.setShuffledInteractionChoiceOrder(responseIdentifier, reader.readIdentifiers());
+        }
+
+        final int rawResponseCount = reader.readCount();
+        for (int i=0; i<rawResponseCount; i++) {
+            final Identifier responseIdentifier = reader.requireIdentifier();
+            result.setRawResponseData(responseIdentifier, readResponseData(reader));
+        }
+
+        result.setCandidateComment(reader.readString());
+
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setUncommittedResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setTemplateValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOverriddenTemplateDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOverriddenResponseDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOverriddenOutcomeDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : reader.readValues().entrySet()) {
+            result.setOverriddenCorrectResponseValue(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private ResponseData readResponseData(final BinaryStateReader reader)
+            throws IOException {
+        final int responseDataType = reader.readByte();
+        switch (responseDataType) {
+            case RESPONSE_DATA_STRING:
+                final int count = reader.readCount();
+                final List<String> responseDatums = new ArrayList<String>(count);
+                for (int i=0; i<count; i++) {
+                    responseDatums.add(reader.readString());
+                }
+                return new StringResponseData(responseDatums);
+
+            case RESPONSE_DATA_FILE:
+                final File file = new File(reader.readString());
+                final String contentType = reader.readString();
+                final String fileName = reader.readString();
+                return new FileResponseData(file, contentType, fileName);
+
+            default:
+                throw new BinaryUnmarshallingException("Unexpected response data type " + responseDataType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(formatVersion=" + FORMAT_VERSION
+                + ")";
+    }
+}
@@ -0,0 +1,355 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.DirectedPairValue;
+import uk.ac.ed.ph.jqtiplus.value.DurationValue;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.PairValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.StringValue;
+import uk.ac.ed.ph.jqtiplus.value.UriValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Low-level reader for the binary state encoding used by {@link BinarySessionStateCodec}.
+ * <p>
+ * {@link Identifier}s are created at most once per string table entry, so all references
+ * to the same identifier within a decoded state share the same instance.
+ * <p>
+ * An instance of this class should be used for one decoding only.
+ *
+ * @author David McKain
+ */
+final class BinaryStateReader {
+
+    private final DataInputStream input;
+    private final byte stateType;
+    private final String[] stringTable;
+    private final Identifier[] identifierTable;
+
+    BinaryStateReader(final InputStream inputStream) throws IOException {
+        this.input = new DataInputStream(inputStream);
+        try {
+            final byte[] magic = new byte[BinarySessionStateCodec.MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, BinarySessionStateCodec.MAGIC)) {
+                throw new BinaryUnmarshallingException("Data does not start with the expected binary state header");
+            }
+            final byte formatVersion = input.readByte();
+            if (formatVersion!=BinarySessionStateCodec.FORMAT_VERSION) {
+                throw new BinaryUnmarshallingException("Unsupported binary state format version " + formatVersion);
+            }
+            this.stateType = input.readByte();
+            final int stringTableSize = readVarInt();
+            this.stringTable = new String[stringTableSize];
+            this.identifierTable = new Identifier[stringTableSize];
+            for (int i=0; i<stringTableSize; i++) {
+                final byte[] stringBytes = new byte[readVarInt()];
+                input.readFully(stringBytes);
+                stringTable[i] = new String(stringBytes, BinarySessionStateCodec.STRING_CHARSET);
+            }
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    byte getStateType() {
+        return stateType;
+    }
+
+    //----------------------------------------------
+    // Primitives
+
+    boolean readBoolean() throws IOException {
+        return input.readBoolean();
+    }
+
+    int readByte() throws IOException {
+        return input.readByte();
+    }
+
+    int readInt() throws IOException {
+        final int zigZagged = readVarInt();
+        return (zigZagged >>> 1) ^ -(zigZagged & 1);
+    }
+
+    int readCount() throws IOException {
+        return readVarInt();
+    }
+
+    long readLong() throws IOException {
+        return input.readLong();
+    }
+
+    double readDouble() throws IOException {
+        return input.readDouble();
+    }
+
+    String readString() throws IOException {
+        final int reference = readVarInt();
+        if (reference==0) {
+            return null;
+        }
+        return stringTable[checkStringReference(reference)];
+    }
+
+    Identifier readIdentifier() throws IOException {
+        final int reference = readVarInt();
+        if (reference==0) {
+            return null;
+        }
+        final int index = checkStringReference(reference);
+        Identifier result = identifierTable[index];
+        if (result==null) {
+            try {
+                result = Identifier.parseString(stringTable[index]);
+            }
+            catch (final QtiParseException e) {
+                throw new BinaryUnmarshallingException("String table entry '" + stringTable[index]
+                        + "' is not a valid QTI Identifier", e);
+            }
+            identifierTable[index] = result;
+        }
+        return result;
+    }
+
+    Identifier requireIdentifier() throws IOException {
+        final Identifier result = readIdentifier();
+        if (result==null) {
+            throw new BinaryUnmarshallingException("Expected a non-null Identifier");
+        }
+        return result;
+    }
+
+    List<Identifier> readIdentifiers() throws IOException {
+        final int count = readCount();
+        if (count==0) {
+            return Collections.emptyList();
+        }
+        final List<Identifier> result = new ArrayList<Identifier>(count);
+        for (int i=0; i<count; i++) {
+            result.add(requireIdentifier());
+        }
+        return result;
+    }
+
+    Date readDate() throws IOException {
+        return readBoolean() ? new Date(readLong()) : null;
+    }
+
+    TestPlanNodeKey readTestPlanNodeKey() throws IOException {
+        final Identifier identifier = readIdentifier();
+        if (identifier==null) {
+            return null;
+        }
+        final int abstractPartGlobalIndex = readCount();
+        final int instanceNumber = readCount();
+        return new TestPlanNodeKey(identifier, abstractPartGlobalIndex, instanceNumber);
+    }
+
+    private int checkStringReference(final int reference) {
+        if (reference<0 || reference>stringTable.length) {
+            throw new BinaryUnmarshallingException("String table reference " + reference + " is out of range");
+        }
+        return reference - 1;
+    }
+
+    private int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift=0; shift<32; shift+=7) {
+            final int b = input.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80)==0) {
+                return result;
+            }
+        }
+        throw new BinaryUnmarshallingException("Malformed variable-length integer");
+    }
+
+    //----------------------------------------------
+    // State Objects
+
+    void readControlObjectSessionState(final ControlObjectSessionState target) throws IOException {
+        target.setEntryTime(readDate());
+        target.setEndTime(readDate());
+        target.setExitTime(readDate());
+        target.setDurationIntervalStartTime(readDate());
+        target.setDurationAccumulated(readLong());
+    }
+
+    void readAbstractPartSessionState(final AbstractPartSessionState target) throws IOException {
+        readControlObjectSessionState(target);
+        target.setPreConditionFailed(readBoolean());
+        target.setJumpedByBranchRule(readBoolean());
+        target.setBranchRuleTarget(readString());
+    }
+
+    //----------------------------------------------
+    // Values
+
+    Map<Identifier, Value> readValues() throws IOException {
+        final int count = readCount();
+        final Map<Identifier, Value> result = new HashMap<Identifier, Value>(count * 2);
+        for (int i=0; i<count; i++) {
+            final Identifier identifier = requireIdentifier();
+            result.put(identifier, readValue());
+        }
+        return result;
+    }
+
+    Value readValue() throws IOException {
+        final int cardinalityTag = readByte();
+        switch (cardinalityTag) {
+            case BinarySessionStateCodec.CARDINALITY_NULL:
+                return NullValue.INSTANCE;
+
+            case BinarySessionStateCodec.CARDINALITY_SINGLE:
+                return readTaggedSingleValue();
+
+            case BinarySessionStateCodec.CARDINALITY_MULTIPLE:
+                return MultipleValue.createMultipleValue(readListValues());
+
+            case BinarySessionStateCodec.CARDINALITY_ORDERED:
+                return OrderedValue.createOrderedValue(readListValues());
+
+            case BinarySessionStateCodec.CARDINALITY_RECORD:
+                final int fieldCount = readCount();
+                final Map<Identifier, SingleValue> recordBuilder = new HashMap<Identifier, SingleValue>(fieldCount * 2);
+                for (int i=0; i<fieldCount; i++) {
+                    final Identifier fieldIdentifier = requireIdentifier();
+                    recordBuilder.put(fieldIdentifier, readTaggedSingleValue());
+                }
+                return RecordValue.createRecordValue(recordBuilder);
+
+            default:
+                throw new BinaryUnmarshallingException("Unexpected cardinality tag " + cardinalityTag);
+        }
+    }
+
+    private List<SingleValue> readListValues() throws IOException {
+        final BaseType baseType = BinarySessionStateCodec.decodeBaseType(readByte());
+        final int count = readCount();
+        final List<SingleValue> result = new ArrayList<SingleValue>(count);
+        for (int i=0; i<count; i++) {
+            result.add(readSingleValue(baseType));
+        }
+        return result;
+    }
+
+    private SingleValue readTaggedSingleValue() throws IOException {
+        return readSingleValue(BinarySessionStateCodec.decodeBaseType(readByte()));
+    }
+
+    private SingleValue readSingleValue(final BaseType baseType) throws IOException {
+        switch (baseType) {
+            case IDENTIFIER:
+                return new IdentifierValue(requireIdentifier());
+
+            case BOOLEAN:
+                return BooleanValue.valueOf(readBoolean());
+
+            case INTEGER:
+                return new IntegerValue(readInt());
+
+            case FLOAT:
+                return new FloatValue(readDouble());
+
+            case STRING:
+                return new StringValue(readString());
+
+            case POINT:
+                final int horizontalValue = readInt();
+                final int verticalValue = readInt();
+                return new PointValue(horizontalValue, verticalValue);
+
+            case PAIR:
+                final Identifier pairSource = requireIdentifier();
+                return new PairValue(pairSource, requireIdentifier());
+
+            case DIRECTED_PAIR:
+                final Identifier directedPairSource = requireIdentifier();
+                return new DirectedPairValue(directedPairSource, requireIdentifier());
+
+            case DURATION:
+                return new DurationValue(readDouble());
+
+            case FILE:
+                final File file = new File(readString());
+                final String contentType = readString();
+                final String fileName = readString();
+                return new FileValue(file, contentType, fileName);
+
+            case URI:
+                try {
+                    return new UriValue(readString());
+                }
+                catch (final QtiParseException e) {
+                    throw new BinaryUnmarshallingException("Could not parse URI value", e);
+                }
+
+            default:
+                throw new BinaryUnmarshallingException("Unexpected baseType " + baseType);
+        }
+    }
+}
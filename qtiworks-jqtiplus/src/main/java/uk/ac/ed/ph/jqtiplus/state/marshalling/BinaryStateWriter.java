@@ -0,0 +1,331 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.AbstractPairValue;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.DurationValue;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.StringValue;
+import uk.ac.ed.ph.jqtiplus.value.UriValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Low-level writer for the binary state encoding used by {@link BinarySessionStateCodec}.
+ * <p>
+ * All Strings (including {@link Identifier}s) are interned into a string table that is written
+ * out before the body, so repeated identifiers such as <code>RESPONSE</code> and <code>SCORE</code>
+ * cost only a small integer reference each time they are used.
+ * <p>
+ * An instance of this class should be used for one encoding only.
+ *
+ * @author David McKain
+ */
+final class BinaryStateWriter {
+
+    private final ByteArrayOutputStream bodyBuffer;
+    private final DataOutputStream body;
+    private final Map<String, Integer> stringTableIndexMap;
+    private final List<String> stringTable;
+
+    BinaryStateWriter() {
+        this.bodyBuffer = new ByteArrayOutputStream(1024);
+        this.body = new DataOutputStream(bodyBuffer);
+        this.stringTableIndexMap = new HashMap<String, Integer>();
+        this.stringTable = new ArrayList<String>();
+    }
+
+    /**
+     * Writes the header, string table and body out to the given {@link OutputStream}.
+     */
+    void finish(final byte stateType, final OutputStream outputStream) throws IOException {
+        body.flush();
+        final DataOutputStream result = new DataOutputStream(outputStream);
+        result.write(BinarySessionStateCodec.MAGIC);
+        result.writeByte(BinarySessionStateCodec.FORMAT_VERSION);
+        result.writeByte(stateType);
+        writeVarInt(result, stringTable.size());
+        for (final String string : stringTable) {
+            /* (NB: Not using writeUTF() here as that limits Strings to 64K) */
+            final byte[] stringBytes = string.getBytes(BinarySessionStateCodec.STRING_CHARSET);
+            writeVarInt(result, stringBytes.length);
+            result.write(stringBytes);
+        }
+        bodyBuffer.writeTo(result);
+        result.flush();
+    }
+
+    //----------------------------------------------
+    // Primitives
+
+    void writeBoolean(final boolean value) throws IOException {
+        body.writeBoolean(value);
+    }
+
+    void writeByte(final int value) throws IOException {
+        body.writeByte(value);
+    }
+
+    void writeInt(final int value) throws IOException {
+        /* Zig-zag encode so that small negative numbers stay small */
+        writeVarInt(body, (value << 1) ^ (value >> 31));
+    }
+
+    void writeCount(final int value) throws IOException {
+        writeVarInt(body, value);
+    }
+
+    void writeLong(final long value) throws IOException {
+        body.writeLong(value);
+    }
+
+    void writeDouble(final double value) throws IOException {
+        body.writeDouble(value);
+    }
+
+    /**
+     * Writes a (possibly null) String as a reference into the string table.
+     */
+    void writeString(final String string) throws IOException {
+        if (string==null) {
+            writeVarInt(body, 0);
+            return;
+        }
+        Integer index = stringTableIndexMap.get(string);
+        if (index==null) {
+            index = Integer.valueOf(stringTable.size());
+            stringTable.add(string);
+            stringTableIndexMap.put(string, index);
+        }
+        writeVarInt(body, index.intValue() + 1);
+    }
+
+    void writeIdentifier(final Identifier identifier) throws IOException {
+        writeString(identifier!=null ? identifier.toString() : null);
+    }
+
+    void writeIdentifiers(final Collection<Identifier> identifiers) throws IOException {
+        writeCount(identifiers.size());
+        for (final Identifier identifier : identifiers) {
+            writeIdentifier(identifier);
+        }
+    }
+
+    void writeDate(final Date date) throws IOException {
+        if (date!=null) {
+            writeBoolean(true);
+            writeLong(date.getTime());
+        }
+        else {
+            writeBoolean(false);
+        }
+    }
+
+    void writeTestPlanNodeKey(final TestPlanNodeKey key) throws IOException {
+        if (key!=null) {
+            writeIdentifier(key.getIdentifier());
+            writeCount(key.getAbstractPartGlobalIndex());
+            writeCount(key.getInstanceNumber());
+        }
+        else {
+            writeIdentifier(null);
+        }
+    }
+
+    private static void writeVarInt(final DataOutputStream output, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F)!=0) {
+            output.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.writeByte(remaining);
+    }
+
+    //----------------------------------------------
+    // State Objects
+
+    void writeControlObjectSessionState(final ControlObjectSessionState controlObjectState) throws IOException {
+        writeDate(controlObjectState.getEntryTime());
+        writeDate(controlObjectState.getEndTime());
+        writeDate(controlObjectState.getExitTime());
+        writeDate(controlObjectState.getDurationIntervalStartTime());
+        writeLong(controlObjectState.getDurationAccumulated());
+    }
+
+    void writeAbstractPartSessionState(final AbstractPartSessionState abstractPartSessionState) throws IOException {
+        writeControlObjectSessionState(abstractPartSessionState);
+        writeBoolean(abstractPartSessionState.isPreConditionFailed());
+        writeBoolean(abstractPartSessionState.isJumpedByBranchRule());
+        writeString(abstractPartSessionState.getBranchRuleTarget());
+    }
+
+    //----------------------------------------------
+    // Values
+
+    void writeValues(final Map<Identifier, Value> valueMap) throws IOException {
+        writeCount(valueMap.size());
+        for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+            writeIdentifier(entry.getKey());
+            writeValue(entry.getValue());
+        }
+    }
+
+    void writeValue(final Value value) throws IOException {
+        if (value.isNull()) {
+            /* (This follows the XML marshaller, which also collapses all nulls to NullValue) */
+            writeByte(BinarySessionStateCodec.CARDINALITY_NULL);
+            return;
+        }
+        final Cardinality cardinality = value.getCardinality();
+        switch (cardinality) {
+            case SINGLE:
+                writeByte(BinarySessionStateCodec.CARDINALITY_SINGLE);
+                writeTaggedSingleValue((SingleValue) value);
+                break;
+
+            case MULTIPLE:
+            case ORDERED:
+                final ListValue listValue = (ListValue) value;
+                writeByte(cardinality==Cardinality.MULTIPLE
+                        ? BinarySessionStateCodec.CARDINALITY_MULTIPLE
+                        : BinarySessionStateCodec.CARDINALITY_ORDERED);
+                writeByte(BinarySessionStateCodec.encodeBaseType(listValue.getBaseType()));
+                writeCount(listValue.size());
+                for (final SingleValue listItem : listValue) {
+                    writeSingleValue(listItem);
+                }
+                break;
+
+            case RECORD:
+                final RecordValue recordValue = (RecordValue) value;
+                writeByte(BinarySessionStateCodec.CARDINALITY_RECORD);
+                writeCount(recordValue.size());
+                for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
+                    writeIdentifier(entry.getKey());
+                    writeTaggedSingleValue(entry.getValue());
+                }
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch: " + cardinality);
+        }
+    }
+
+    private void writeTaggedSingleValue(final SingleValue value) throws IOException {
+        writeByte(BinarySessionStateCodec.encodeBaseType(value.getBaseType()));
+        writeSingleValue(value);
+    }
+
+    private void writeSingleValue(final SingleValue value) throws IOException {
+        final BaseType baseType = value.getBaseType();
+        switch (baseType) {
+            case IDENTIFIER:
+                writeIdentifier(((IdentifierValue) value).identifierValue());
+                break;
+
+            case BOOLEAN:
+                writeBoolean(((BooleanValue) value).booleanValue());
+                break;
+
+            case INTEGER:
+                writeInt(((IntegerValue) value).intValue());
+                break;
+
+            case FLOAT:
+                writeDouble(((FloatValue) value).doubleValue());
+                break;
+
+            case STRING:
+                writeString(((StringValue) value).stringValue());
+                break;
+
+            case POINT:
+                final PointValue pointValue = (PointValue) value;
+                writeInt(pointValue.horizontalValue());
+                writeInt(pointValue.verticalValue());
+                break;
+
+            case PAIR:
+            case DIRECTED_PAIR:
+                final AbstractPairValue pairValue = (AbstractPairValue) value;
+                writeIdentifier(pairValue.sourceValue());
+                writeIdentifier(pairValue.destValue());
+                break;
+
+            case DURATION:
+                writeDouble(((DurationValue) value).doubleValue());
+                break;
+
+            case FILE:
+                final FileValue fileValue = (FileValue) value;
+                writeString(fileValue.getFile().getAbsolutePath());
+                writeString(fileValue.getContentType());
+                writeString(fileValue.getFileName());
+                break;
+
+            case URI:
+                writeString(((UriValue) value).toQtiString());
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch: " + baseType);
+        }
+    }
+}
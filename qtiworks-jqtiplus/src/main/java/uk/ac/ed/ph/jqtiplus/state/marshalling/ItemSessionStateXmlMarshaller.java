@@ -55,8 +55,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link ItemSessionState} to/from XML
@@ -66,78 +67,99 @@ import org.xml.sax.InputSource;
 public final class ItemSessionStateXmlMarshaller {
 
     public static Document marshal(final ItemSessionState itemSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendItemSessionState(document, itemSessionState);
-        return document;
+        return XmlMarshallerCore.marshalToDocument(new XmlMarshallerCore.StateMarshallingCallback() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                ItemSessionStateXmlMarshaller.marshal(itemSessionState, contentHandler);
+            }
+        });
+    }
+
+    /**
+     * Marshals the given {@link ItemSessionState} as a sequence of SAX events sent to the given
+     * {@link ContentHandler}. This is more efficient than {@link #marshal(ItemSessionState)} if
+     * you don't actually need a DOM.
+     */
+    public static void marshal(final ItemSessionState itemSessionState, final ContentHandler contentHandler)
+            throws SAXException {
+        final StateXmlWriter writer = new StateXmlWriter(contentHandler);
+        writer.startDocument();
+        appendItemSessionState(writer, itemSessionState);
+        writer.endDocument();
     }
 
-    static void appendItemSessionState(final Node documentOrElement, final ItemSessionState itemSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "itemSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, itemSessionState);
-        element.setAttribute("initialized", StringUtilities.toTrueFalse(itemSessionState.isInitialized()));
-        element.setAttribute("responded", StringUtilities.toTrueFalse(itemSessionState.isResponded()));
-        XmlMarshallerCore.maybeAddDateAttribute(element, "suspendTime", itemSessionState.getSuspendTime());
+    static void appendItemSessionState(final StateXmlWriter writer, final ItemSessionState itemSessionState)
+            throws SAXException {
+        writer.startElement("itemSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(writer, itemSessionState);
+        writer.attribute("initialized", StringUtilities.toTrueFalse(itemSessionState.isInitialized()));
+        writer.attribute("responded", StringUtilities.toTrueFalse(itemSessionState.isResponded()));
+        XmlMarshallerCore.maybeAddDateAttribute(writer, "suspendTime", itemSessionState.getSuspendTime());
         final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
         if (sessionStatus!=null) {
-            element.setAttribute("sessionStatus", sessionStatus.toQtiString());
+            writer.attribute("sessionStatus", sessionStatus.toQtiString());
         }
 
         /* Append implicit variables */
-        XmlMarshallerCore.maybeAddStringAttribute(element, "completionStatus", itemSessionState.getCompletionStatus());
-        element.setAttribute("numAttempts", Integer.toString(itemSessionState.getNumAttempts()));
+        XmlMarshallerCore.maybeAddStringAttribute(writer, "completionStatus", itemSessionState.getCompletionStatus());
+        writer.attribute("numAttempts", Integer.toString(itemSessionState.getNumAttempts()));
 
         /* Show any unbound and/or invalid responses (as attribute) */
-        XmlMarshallerCore.maybeAddIdentifierListAttribute(element, "unboundResponseIdentifiers", itemSessionState.getUnboundResponseIdentifiers());
-        XmlMarshallerCore.maybeAddIdentifierListAttribute(element, "invalidResponseIdentifiers", itemSessionState.getInvalidResponseIdentifiers());
+        XmlMarshallerCore.maybeAddIdentifierListAttribute(writer, "unboundResponseIdentifiers", itemSessionState.getUnboundResponseIdentifiers());
+        XmlMarshallerCore.maybeAddIdentifierListAttribute(writer, "invalidResponseIdentifiers", itemSessionState.getInvalidResponseIdentifiers());
 
         /* Output shuffled choice orders */
         for (final Entry<Identifier, List<Identifier>> entry : itemSessionState.getShuffledInteractionChoiceOrders().entrySet()) {
             final Identifier responseIdentifier = entry.getKey();
             final List<Identifier> choiceIdentifiers = entry.getValue();
-            final Element orderElement = XmlMarshallerCore.appendElement(element, "shuffledInteractionChoiceOrder");
-            orderElement.setAttribute("responseIdentifier", responseIdentifier.toString());
-            orderElement.setAttribute("choiceSequence", StringUtilities.join(choiceIdentifiers, " "));
+            writer.startElement("shuffledInteractionChoiceOrder");
+            writer.attribute("responseIdentifier", responseIdentifier.toString());
+            writer.attribute("choiceSequence", StringUtilities.join(choiceIdentifiers, " "));
+            writer.endElement();
         }
 
         /* Output raw responses (as elements) */
         for (final Entry<Identifier, ResponseData> entry : itemSessionState.getRawResponseDataMap().entrySet()) {
             final Identifier identifier = entry.getKey();
             final ResponseData responseData = entry.getValue();
-            final Element responseInputElement = XmlMarshallerCore.appendElement(element, "responseInput");
-            responseInputElement.setAttribute("identifier", identifier.toString());
-            appendResponseData(responseInputElement, responseData);
+            writer.startElement("responseInput");
+            writer.attribute("identifier", identifier.toString());
+            appendResponseData(writer, responseData);
+            writer.endElement();
         }
 
         /* Output candidate comment */
-        XmlMarshallerCore.maybeAppendTextElement(element, "candidateComment", itemSessionState.getCandidateComment());
+        XmlMarshallerCore.maybeAppendTextElement(writer, "candidateComment", itemSessionState.getCandidateComment());
 
         /* Do various values */
-        XmlMarshallerCore.appendValues(element, "uncommittedResponseValue", itemSessionState.getUncommittedResponseValues());
-        XmlMarshallerCore.appendValues(element, "templateVariable", itemSessionState.getTemplateValues());
-        XmlMarshallerCore.appendValues(element, "responseVariable", itemSessionState.getResponseValues());
-        XmlMarshallerCore.appendValues(element, "outcomeVariable", itemSessionState.getOutcomeValues());
-        XmlMarshallerCore.appendValues(element, "overriddenTemplateDefault", itemSessionState.getOverriddenTemplateDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenResponseDefault", itemSessionState.getOverriddenResponseDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenOutcomeDefault", itemSessionState.getOverriddenOutcomeDefaultValues());
-        XmlMarshallerCore.appendValues(element, "overriddenCorrectResponse", itemSessionState.getOverriddenCorrectResponseValues());
+        XmlMarshallerCore.appendValues(writer, "uncommittedResponseValue", itemSessionState.getUncommittedResponseValues());
+        XmlMarshallerCore.appendValues(writer, "templateVariable", itemSessionState.getTemplateValues());
+        XmlMarshallerCore.appendValues(writer, "responseVariable", itemSessionState.getResponseValues());
+        XmlMarshallerCore.appendValues(writer, "outcomeVariable", itemSessionState.getOutcomeValues());
+        XmlMarshallerCore.appendValues(writer, "overriddenTemplateDefault", itemSessionState.getOverriddenTemplateDefaultValues());
+        XmlMarshallerCore.appendValues(writer, "overriddenResponseDefault", itemSessionState.getOverriddenResponseDefaultValues());
+        XmlMarshallerCore.appendValues(writer, "overriddenOutcomeDefault", itemSessionState.getOverriddenOutcomeDefaultValues());
+        XmlMarshallerCore.appendValues(writer, "overriddenCorrectResponse", itemSessionState.getOverriddenCorrectResponseValues());
+        writer.endElement();
     }
 
-    private static void appendResponseData(final Element element, final ResponseData responseData) {
+    private static void appendResponseData(final StateXmlWriter writer, final ResponseData responseData)
+            throws SAXException {
         switch (responseData.getType()) {
             case STRING:
                 final StringResponseData stringResponseData = (StringResponseData) responseData;
                 for (final String responseDatum : stringResponseData.getResponseData()) {
-                    XmlMarshallerCore.maybeAppendTextElement(element, "string", responseDatum);
+                    XmlMarshallerCore.maybeAppendTextElement(writer, "string", responseDatum);
                 }
                 break;
 
             case FILE:
                 final FileResponseData fileResponseData = (FileResponseData) responseData;
-                final Element fileElement = XmlMarshallerCore.appendElement(element, "file");
-                fileElement.setAttribute("contentType", fileResponseData.getContentType());
-                fileElement.setAttribute("fileName", fileResponseData.getFileName());
-                fileElement.setAttribute("absoluteFilePath", fileResponseData.getFile().getAbsolutePath());
+                writer.startElement("file");
+                writer.attribute("contentType", fileResponseData.getContentType());
+                writer.attribute("fileName", fileResponseData.getFileName());
+                writer.attribute("absoluteFilePath", fileResponseData.getFile().getAbsolutePath());
+                writer.endElement();
                 break;
 
             default:
@@ -0,0 +1,123 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Helper used by the state marshallers to send elements in the {@link XmlMarshallerCore#QTIWORKS_NAMESPACE}
+ * to a SAX {@link ContentHandler}. This lets the state XML be sent straight to whatever wants to
+ * consume it (e.g. an XSLT tree builder or serializer) without having to build a DOM first.
+ * <p>
+ * Attributes are added to the most recently started element, so must be added before any of its
+ * children.
+ * <p>
+ * Usage: not thread safe, not reusable.
+ *
+ * @author David McKain
+ */
+final class StateXmlWriter {
+
+    private final ContentHandler contentHandler;
+
+    /** Attributes for the element we have started but not yet sent to the {@link ContentHandler} */
+    private final AttributesImpl pendingAttributes;
+
+    /** Local name of the element we have started but not yet sent, or null if none */
+    private String pendingElementName;
+
+    /** Local names of the currently open elements */
+    private final List<String> openElementNames;
+
+    StateXmlWriter(final ContentHandler contentHandler) {
+        this.contentHandler = contentHandler;
+        this.pendingAttributes = new AttributesImpl();
+        this.pendingElementName = null;
+        this.openElementNames = new ArrayList<String>();
+    }
+
+    void startDocument() throws SAXException {
+        contentHandler.startDocument();
+        contentHandler.startPrefixMapping("", XmlMarshallerCore.QTIWORKS_NAMESPACE);
+    }
+
+    void endDocument() throws SAXException {
+        if (!openElementNames.isEmpty()) {
+            throw new QtiLogicException("Unexpected endDocument() with open elements " + openElementNames);
+        }
+        contentHandler.endPrefixMapping("");
+        contentHandler.endDocument();
+    }
+
+    void startElement(final String localName) throws SAXException {
+        flushPendingElement();
+        pendingElementName = localName;
+        openElementNames.add(localName);
+    }
+
+    void attribute(final String localName, final String value) {
+        if (pendingElementName==null) {
+            throw new QtiLogicException("Attribute " + localName + " must be added before any element content");
+        }
+        pendingAttributes.addAttribute("", localName, localName, "CDATA", value);
+    }
+
+    void text(final String content) throws SAXException {
+        flushPendingElement();
+        if (!content.isEmpty()) {
+            contentHandler.characters(content.toCharArray(), 0, content.length());
+        }
+    }
+
+    void endElement() throws SAXException {
+        flushPendingElement();
+        final String localName = openElementNames.remove(openElementNames.size() - 1);
+        contentHandler.endElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, localName, localName);
+    }
+
+    private void flushPendingElement() throws SAXException {
+        if (pendingElementName!=null) {
+            contentHandler.startElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, pendingElementName, pendingElementName, pendingAttributes);
+            pendingAttributes.clear();
+            pendingElementName = null;
+        }
+    }
+}
@@ -41,8 +41,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link TestPartSessionState} to/from XML
@@ -52,15 +53,22 @@ import org.xml.sax.InputSource;
 public final class TestPartSessionStateXmlMarshaller {
 
     public static Document marshal(final TestPartSessionState testPartSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestPartSessionState(document, testPartSessionState);
-        return document;
+        return XmlMarshallerCore.marshalToDocument(new XmlMarshallerCore.StateMarshallingCallback() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                final StateXmlWriter writer = new StateXmlWriter(contentHandler);
+                writer.startDocument();
+                appendTestPartSessionState(writer, testPartSessionState);
+                writer.endDocument();
+            }
+        });
     }
 
-    static void appendTestPartSessionState(final Node documentOrElement, final TestPartSessionState testPartSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testPartSessionState");
-        XmlMarshallerCore.addAbstractPartSessionStateAttributes(element, testPartSessionState);
+    static void appendTestPartSessionState(final StateXmlWriter writer, final TestPartSessionState testPartSessionState)
+            throws SAXException {
+        writer.startElement("testPartSessionState");
+        XmlMarshallerCore.addAbstractPartSessionStateAttributes(writer, testPartSessionState);
+        writer.endElement();
     }
 
     //----------------------------------------------
@@ -49,8 +49,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals a {@link TestPlan} to/from XML
@@ -60,48 +61,65 @@ import org.xml.sax.InputSource;
 public final class TestPlanXmlMarshaller {
 
     public static Document marshal(final TestPlan testPlan) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestPlan(document, testPlan);
-        return document;
+        return XmlMarshallerCore.marshalToDocument(new XmlMarshallerCore.StateMarshallingCallback() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                TestPlanXmlMarshaller.marshal(testPlan, contentHandler);
+            }
+        });
     }
 
-    public static void appendTestPlan(final Node documentOrElement, final TestPlan testPlan) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testPlan");
+    /**
+     * Marshals the given {@link TestPlan} as a sequence of SAX events sent to the given
+     * {@link ContentHandler}.
+     */
+    public static void marshal(final TestPlan testPlan, final ContentHandler contentHandler)
+            throws SAXException {
+        final StateXmlWriter writer = new StateXmlWriter(contentHandler);
+        writer.startDocument();
+        appendTestPlan(writer, testPlan);
+        writer.endDocument();
+    }
 
+    static void appendTestPlan(final StateXmlWriter writer, final TestPlan testPlan)
+            throws SAXException {
+        writer.startElement("testPlan");
         final TestPlanNode rootNode = testPlan.getTestPlanRootNode();
         for (final TestPlanNode testPlanNode : rootNode.getChildren()) {
-            appendTestPlanNode(element, testPlanNode);
+            appendTestPlanNode(writer, testPlanNode);
         }
+        writer.endElement();
     }
 
-    static void appendTestPlanNode(final Element parent, final TestPlanNode testPlanNode) {
-        final Element element = XmlMarshallerCore.appendElement(parent, "node");
-        element.setAttribute("type", testPlanNode.getTestNodeType().toString());
-        element.setAttribute("key", testPlanNode.getKey().toString());
+    static void appendTestPlanNode(final StateXmlWriter writer, final TestPlanNode testPlanNode)
+            throws SAXException {
+        writer.startElement("node");
+        writer.attribute("type", testPlanNode.getTestNodeType().toString());
+        writer.attribute("key", testPlanNode.getKey().toString());
         final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
         if (effectiveItemSessionControl!=null) {
-            element.setAttribute("maxAttempts", Integer.toString(effectiveItemSessionControl.getMaxAttempts()));
-            element.setAttribute("showFeedback", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowFeedback()));
-            element.setAttribute("allowReview", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowReview()));
-            element.setAttribute("showSolution", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowSolution()));
-            element.setAttribute("allowComment", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowComment()));
-            element.setAttribute("allowSkipping", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowSkipping()));
-            element.setAttribute("validateResponses", StringUtilities.toTrueFalse(effectiveItemSessionControl.isValidateResponses()));
+            writer.attribute("maxAttempts", Integer.toString(effectiveItemSessionControl.getMaxAttempts()));
+            writer.attribute("showFeedback", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowFeedback()));
+            writer.attribute("allowReview", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowReview()));
+            writer.attribute("showSolution", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowSolution()));
+            writer.attribute("allowComment", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowComment()));
+            writer.attribute("allowSkipping", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowSkipping()));
+            writer.attribute("validateResponses", StringUtilities.toTrueFalse(effectiveItemSessionControl.isValidateResponses()));
         }
         final String sectionPartTitle = testPlanNode.getSectionPartTitle();
         if (sectionPartTitle!=null) {
-            element.setAttribute("sectionPartTitle", sectionPartTitle);
+            writer.attribute("sectionPartTitle", sectionPartTitle);
         }
         final URI itemSystemId = testPlanNode.getItemSystemId();
         if (itemSystemId!=null) {
-            element.setAttribute("itemSystemId", itemSystemId.toString());
+            writer.attribute("itemSystemId", itemSystemId.toString());
         }
 
         /* Descend into children */
         for (final TestPlanNode childNode : testPlanNode.getChildren()) {
-            appendTestPlanNode(element, childNode);
+            appendTestPlanNode(writer, childNode);
         }
+        writer.endElement();
     }
 
     //----------------------------------------------
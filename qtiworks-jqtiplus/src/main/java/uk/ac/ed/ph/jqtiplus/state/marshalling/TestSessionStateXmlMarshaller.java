@@ -52,8 +52,9 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Marshals an {@link TestSessionState} to/from XML
@@ -64,39 +65,56 @@ public final class TestSessionStateXmlMarshaller {
 
 
     public static Document marshal(final TestSessionState testSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
-        appendTestSessionState(document, testSessionState);
-        return document;
+        return XmlMarshallerCore.marshalToDocument(new XmlMarshallerCore.StateMarshallingCallback() {
+            @Override
+            public void marshal(final ContentHandler contentHandler) throws SAXException {
+                TestSessionStateXmlMarshaller.marshal(testSessionState, contentHandler);
+            }
+        });
+    }
+
+    /**
+     * Marshals the given {@link TestSessionState} as a sequence of SAX events sent to the given
+     * {@link ContentHandler}. This is more efficient than {@link #marshal(TestSessionState)} if
+     * you don't actually need a DOM.
+     */
+    public static void marshal(final TestSessionState testSessionState, final ContentHandler contentHandler)
+            throws SAXException {
+        final StateXmlWriter writer = new StateXmlWriter(contentHandler);
+        writer.startDocument();
+        appendTestSessionState(writer, testSessionState);
+        writer.endDocument();
     }
 
-    static void maybeAddStringifiableAttribute(final Element element, final String attrName, final Object attrValue) {
+    static void maybeAddStringifiableAttribute(final StateXmlWriter writer, final String attrName, final Object attrValue) {
         if (attrValue!=null) {
-            element.setAttribute(attrName, attrValue.toString());
+            writer.attribute(attrName, attrValue.toString());
         }
     }
 
-    static void appendTestSessionState(final Node documentOrElement, final TestSessionState testSessionState) {
-        final Element element = XmlMarshallerCore.appendElement(documentOrElement, "testSessionState");
-        XmlMarshallerCore.addControlObjectSessionStateAttributes(element, testSessionState);
-        element.setAttribute("initialized", StringUtilities.toTrueFalse(testSessionState.isInitialized()));
-        maybeAddStringifiableAttribute(element, "currentTestPartKey", testSessionState.getCurrentTestPartKey());
-        maybeAddStringifiableAttribute(element, "currentItemKey", testSessionState.getCurrentItemKey());
+    static void appendTestSessionState(final StateXmlWriter writer, final TestSessionState testSessionState)
+            throws SAXException {
+        writer.startElement("testSessionState");
+        XmlMarshallerCore.addControlObjectSessionStateAttributes(writer, testSessionState);
+        writer.attribute("initialized", StringUtilities.toTrueFalse(testSessionState.isInitialized()));
+        maybeAddStringifiableAttribute(writer, "currentTestPartKey", testSessionState.getCurrentTestPartKey());
+        maybeAddStringifiableAttribute(writer, "currentItemKey", testSessionState.getCurrentItemKey());
 
         /* Do test plan */
-        TestPlanXmlMarshaller.appendTestPlan(element, testSessionState.getTestPlan());
+        TestPlanXmlMarshaller.appendTestPlan(writer, testSessionState.getTestPlan());
 
         /* Do outcome variables */
-        XmlMarshallerCore.appendValues(element, "outcomeVariable", testSessionState.getOutcomeValues());
+        XmlMarshallerCore.appendValues(writer, "outcomeVariable", testSessionState.getOutcomeValues());
 
         /* Do states for each TestPart */
         final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
         for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final TestPartSessionState testPartSessionState = entry.getValue();
-            final Element testPartElement = XmlMarshallerCore.appendElement(element, "testPart");
-            testPartElement.setAttribute("key", key.toString());
-            TestPartSessionStateXmlMarshaller.appendTestPartSessionState(testPartElement, testPartSessionState);
+            writer.startElement("testPart");
+            writer.attribute("key", key.toString());
+            TestPartSessionStateXmlMarshaller.appendTestPartSessionState(writer, testPartSessionState);
+            writer.endElement();
         }
 
         /* Do states for each AssessmentSection */
@@ -104,9 +122,10 @@ public final class TestSessionStateXmlMarshaller {
         for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final AssessmentSectionSessionState assessmentSectionSessionState = entry.getValue();
-            final Element testPartElement = XmlMarshallerCore.appendElement(element, "assessmentSection");
-            testPartElement.setAttribute("key", key.toString());
-            AssessmentSectionSessionStateXmlMarshaller.appendAssessmentSectionSessionState(testPartElement, assessmentSectionSessionState);
+            writer.startElement("assessmentSection");
+            writer.attribute("key", key.toString());
+            AssessmentSectionSessionStateXmlMarshaller.appendAssessmentSectionSessionState(writer, assessmentSectionSessionState);
+            writer.endElement();
         }
 
         /* Do states for each item */
@@ -114,10 +133,12 @@ public final class TestSessionStateXmlMarshaller {
         for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
             final TestPlanNodeKey key = entry.getKey();
             final ItemSessionState itemSessionState = entry.getValue();
-            final Element itemElement = XmlMarshallerCore.appendElement(element, "item");
-            itemElement.setAttribute("key", key.toString());
-            ItemSessionStateXmlMarshaller.appendItemSessionState(itemElement, itemSessionState);
+            writer.startElement("item");
+            writer.attribute("key", key.toString());
+            ItemSessionStateXmlMarshaller.appendItemSessionState(writer, itemSessionState);
+            writer.endElement();
         }
+        writer.endElement();
     }
 
     //----------------------------------------------
@@ -50,6 +50,7 @@ import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
 
 import java.io.File;
 import java.net.URI;
@@ -72,6 +73,8 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 /**
  * Core for the (horribly cheap and nasty) XML marshalling we do for serializing JQTI+ state
@@ -90,95 +93,111 @@ public final class XmlMarshallerCore {
     //----------------------------------------------
     // Marshalling to XML
 
-    static Document getOwnerDocument(final Node documentOrElement) {
-        return documentOrElement instanceof Document ? (Document) documentOrElement : documentOrElement.getOwnerDocument();
-    }
-
-    static Element createElement(final Node parent, final String localName) {
-        return getOwnerDocument(parent).createElementNS(QTIWORKS_NAMESPACE, localName);
+    /**
+     * Builds a DOM {@link Document} from the SAX events generated by the given callback.
+     */
+    static Document marshalToDocument(final StateMarshallingCallback callback) {
+        final DocumentBuilder documentBuilder = createNsAwareDocumentBuilder();
+        final Document document = documentBuilder.newDocument();
+        try {
+            callback.marshal(new SimpleDomBuilderHandler(document));
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Unexpected Exception building state DOM", e);
+        }
+        return document;
     }
 
-    static Element appendElement(final Node parent, final String localName) {
-        final Element element = getOwnerDocument(parent).createElementNS(QTIWORKS_NAMESPACE, localName);
-        parent.appendChild(element);
-        return element;
+    /**
+     * Trivial callback used by {@link #marshalToDocument(StateMarshallingCallback)}
+     */
+    interface StateMarshallingCallback {
+        void marshal(ContentHandler contentHandler) throws SAXException;
     }
 
-    static void maybeAppendTextElement(final Element parentElement, final String elementName, final String content) {
+    static void maybeAppendTextElement(final StateXmlWriter writer, final String elementName, final String content)
+            throws SAXException {
         if (content!=null) {
-            final Element element = appendElement(parentElement, elementName);
-            element.appendChild(parentElement.getOwnerDocument().createTextNode(content));
+            writer.startElement(elementName);
+            writer.text(content);
+            writer.endElement();
         }
     }
 
-    static void maybeAddStringAttribute(final Element element, final String attributeName, final String value) {
+    static void maybeAddStringAttribute(final StateXmlWriter writer, final String attributeName, final String value) {
         if (value!=null) {
-            element.setAttribute(attributeName, value);
+            writer.attribute(attributeName, value);
         }
     }
 
-    static void maybeAddIdentifierListAttribute(final Element element, final String attributeName, final Collection<Identifier> values) {
+    static void maybeAddIdentifierListAttribute(final StateXmlWriter writer, final String attributeName, final Collection<Identifier> values) {
         if (!values.isEmpty()) {
-            element.setAttribute(attributeName, StringUtilities.join(values, " "));
+            writer.attribute(attributeName, StringUtilities.join(values, " "));
         }
     }
 
-    static void maybeAddDateAttribute(final Element element, final String attributeName, final Date date) {
+    static void maybeAddDateAttribute(final StateXmlWriter writer, final String attributeName, final Date date) {
         if (date!=null) {
-            element.setAttribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
+            writer.attribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
         }
     }
 
-    static void addAbstractPartSessionStateAttributes(final Element element, final AbstractPartSessionState abstractPartSessionState) {
-        addControlObjectSessionStateAttributes(element, abstractPartSessionState);
-        element.setAttribute("preConditionFailed", StringUtilities.toTrueFalse(abstractPartSessionState.isPreConditionFailed()));
-        element.setAttribute("jumpedByBranchRule", StringUtilities.toTrueFalse(abstractPartSessionState.isJumpedByBranchRule()));
+    static void addAbstractPartSessionStateAttributes(final StateXmlWriter writer, final AbstractPartSessionState abstractPartSessionState) {
+        addControlObjectSessionStateAttributes(writer, abstractPartSessionState);
+        writer.attribute("preConditionFailed", StringUtilities.toTrueFalse(abstractPartSessionState.isPreConditionFailed()));
+        writer.attribute("jumpedByBranchRule", StringUtilities.toTrueFalse(abstractPartSessionState.isJumpedByBranchRule()));
         final String branchRuleTarget = abstractPartSessionState.getBranchRuleTarget();
         if (branchRuleTarget!=null) {
-            element.setAttribute("branchRuleTarget", branchRuleTarget.toString());
+            writer.attribute("branchRuleTarget", branchRuleTarget.toString());
         }
     }
 
-    static void addControlObjectSessionStateAttributes(final Element element, final ControlObjectSessionState controlObjectState) {
-        maybeAddDateAttribute(element, "entryTime", controlObjectState.getEntryTime());
-        maybeAddDateAttribute(element, "endTime", controlObjectState.getEndTime());
-        maybeAddDateAttribute(element, "exitTime", controlObjectState.getExitTime());
-        maybeAddDateAttribute(element, "durationIntervalStartTime", controlObjectState.getDurationIntervalStartTime());
-        element.setAttribute("durationAccumulated", Long.toString(controlObjectState.getDurationAccumulated()));
+    static void addControlObjectSessionStateAttributes(final StateXmlWriter writer, final ControlObjectSessionState controlObjectState) {
+        maybeAddDateAttribute(writer, "entryTime", controlObjectState.getEntryTime());
+        maybeAddDateAttribute(writer, "endTime", controlObjectState.getEndTime());
+        maybeAddDateAttribute(writer, "exitTime", controlObjectState.getExitTime());
+        maybeAddDateAttribute(writer, "durationIntervalStartTime", controlObjectState.getDurationIntervalStartTime());
+        writer.attribute("durationAccumulated", Long.toString(controlObjectState.getDurationAccumulated()));
     }
 
-    static void appendValues(final Element parentElement, final String elementName, final Map<Identifier, Value> valueMap) {
+    static void appendValues(final StateXmlWriter writer, final String elementName, final Map<Identifier, Value> valueMap)
+            throws SAXException {
         for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
             final Identifier identifier = entry.getKey();
             final Value value = entry.getValue();
 
-            final Element valueElement = appendElement(parentElement, elementName);
-            valueElement.setAttribute("identifier", identifier.toString());
-            appendValueToElement(valueElement, value);
+            writer.startElement(elementName);
+            writer.attribute("identifier", identifier.toString());
+            appendValueToElement(writer, value);
+            writer.endElement();
         }
     }
 
-    static void appendValueToElement(final Element element, final Value value) {
+    /**
+     * Appends the given {@link Value} to the current element, which must not yet have any content
+     */
+    static void appendValueToElement(final StateXmlWriter writer, final Value value)
+            throws SAXException {
         if (value.isNull()) {
             /* Currently we'll indicate null by outputting no value */
         }
         else {
             final Cardinality cardinality = value.getCardinality();
             final BaseType baseType = value.getBaseType(); /* (NB: may be null) */
-            element.setAttribute("cardinality", cardinality.toQtiString());
+            writer.attribute("cardinality", cardinality.toQtiString());
             if (baseType!=null) {
-                element.setAttribute("baseType", baseType.toQtiString());
+                writer.attribute("baseType", baseType.toQtiString());
             }
             switch (cardinality) {
                 case SINGLE:
-                    appendSingleValue(element, (SingleValue) value);
+                    appendSingleValue(writer, (SingleValue) value);
                     break;
 
                 case MULTIPLE:
                 case ORDERED:
                     final ListValue listValue = (ListValue) value;
                     for (final SingleValue listItem : listValue) {
-                        appendSingleValue(element, listItem);
+                        appendSingleValue(writer, listItem);
                     }
                     break;
 
@@ -187,10 +206,11 @@ public final class XmlMarshallerCore {
                     for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
                         final Identifier itemIdentifier = entry.getKey();
                         final SingleValue itemValue = entry.getValue();
-                        final Element v = appendElement(element, "value");
-                        v.setAttribute("baseType", itemValue.getBaseType().toQtiString());
-                        v.setAttribute("fieldIdentifier",itemIdentifier.toString());
-                        appendSingleValue(v, itemValue);
+                        writer.startElement("value");
+                        writer.attribute("baseType", itemValue.getBaseType().toQtiString());
+                        writer.attribute("fieldIdentifier",itemIdentifier.toString());
+                        appendSingleValue(writer, itemValue);
+                        writer.endElement();
                     }
                     break;
 
@@ -201,18 +221,20 @@ public final class XmlMarshallerCore {
         }
     }
 
-    static void appendSingleValue(final Element parent, final SingleValue value) {
-        final Element singleValueElement = appendElement(parent, "value");
+    static void appendSingleValue(final StateXmlWriter writer, final SingleValue value)
+            throws SAXException {
+        writer.startElement("value");
         if (value instanceof FileValue) {
             /* FIXME: Not sure how much we'll do with this */
             final FileValue fileValue = (FileValue) value;
-            singleValueElement.setAttribute("absolutePath", fileValue.getFile().getAbsolutePath());
-            singleValueElement.setAttribute("contentType", fileValue.getContentType());
-            singleValueElement.setAttribute("fileName", fileValue.getFileName());
+            writer.attribute("absolutePath", fileValue.getFile().getAbsolutePath());
+            writer.attribute("contentType", fileValue.getContentType());
+            writer.attribute("fileName", fileValue.getFileName());
         }
         else {
-            singleValueElement.setTextContent(value.toQtiString());
+            writer.text(value.toQtiString());
         }
+        writer.endElement();
     }
 
     //----------------------------------------------
@@ -0,0 +1,150 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * {@link SessionStateCodec} using the existing XML marshalling for state Objects.
+ *
+ * @see ItemSessionStateXmlMarshaller
+ * @see TestSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class XmlSessionStateCodec implements SessionStateCodec {
+
+    public static final String FILE_EXTENSION = "xml";
+
+    private final boolean indenting;
+
+    public XmlSessionStateCodec() {
+        this(true);
+    }
+
+    public XmlSessionStateCodec(final boolean indenting) {
+        this.indenting = indenting;
+    }
+
+    public boolean isIndenting() {
+        return indenting;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    @Override
+    public void encodeItemSessionState(final ItemSessionState itemSessionState, final OutputStream outputStream)
+            throws IOException {
+        try {
+            ItemSessionStateXmlMarshaller.marshal(itemSessionState, createSerializerHandler(outputStream));
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Unexpected Exception serializing ItemSessionState", e);
+        }
+    }
+
+    @Override
+    public ItemSessionState decodeItemSessionState(final InputStream inputStream)
+            throws IOException {
+        return ItemSessionStateXmlMarshaller.unmarshal(parseDocument(inputStream).getDocumentElement());
+    }
+
+    @Override
+    public void encodeTestSessionState(final TestSessionState testSessionState, final OutputStream outputStream)
+            throws IOException {
+        try {
+            TestSessionStateXmlMarshaller.marshal(testSessionState, createSerializerHandler(outputStream));
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Unexpected Exception serializing TestSessionState", e);
+        }
+    }
+
+    @Override
+    public TestSessionState decodeTestSessionState(final InputStream inputStream)
+            throws IOException {
+        return TestSessionStateXmlMarshaller.unmarshal(parseDocument(inputStream).getDocumentElement());
+    }
+
+    //----------------------------------------------
+
+    /**
+     * Creates a SAX serializer writing to the given {@link OutputStream}. (The state marshallers
+     * send their output straight to this, which saves building a DOM first.)
+     */
+    private TransformerHandler createSerializerHandler(final OutputStream outputStream) {
+        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
+        xsltSerializationOptions.setIndenting(indenting);
+        xsltSerializationOptions.setIncludingXMLDeclaration(false);
+        final TransformerHandler serializerHandler = XsltStylesheetManager.createSerializerHandler(xsltSerializationOptions);
+        serializerHandler.setResult(new StreamResult(outputStream));
+        return serializerHandler;
+    }
+
+    private Document parseDocument(final InputStream inputStream)
+            throws IOException {
+        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
+        try {
+            return documentBuilder.parse(inputStream);
+        }
+        catch (final SAXException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(indenting=" + indenting
+                + ")";
+    }
+}
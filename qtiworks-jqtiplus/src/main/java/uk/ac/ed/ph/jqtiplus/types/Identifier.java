@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.types;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternTable;
 
 import java.io.Serializable;
 
@@ -54,6 +55,20 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
 
     private static final long serialVersionUID = 1842878881636384148L;
 
+    /** Maximum number of canonical {@link Identifier} instances to keep */
+    private static final int MAX_INTERNED_IDENTIFIERS = 20000;
+
+    /**
+     * Canonical instances of commonly used {@link Identifier}s. The same few identifiers
+     * (e.g. RESPONSE, SCORE, choice identifiers) are used over and over again when reading
+     * assessments, so sharing instances saves memory and makes most equality tests a simple
+     * identity check.
+     * <p>
+     * This is only filled by {@link #parseInterned(String)}, which must not be used for
+     * request data or stored state, as nothing is ever removed from this table.
+     */
+    private static final InternTable<String, Identifier> internTable = new InternTable<String, Identifier>(MAX_INTERNED_IDENTIFIERS);
+
     private final String value;
 
     /**
@@ -68,6 +83,27 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
         return new Identifier(value);
     }
 
+    /**
+     * Parses the given Identifier String in the same way as {@link #parseString(String)},
+     * but returns a shared canonical instance where possible.
+     * <p>
+     * Use this factory method when reading identifier attributes from QTI XML (e.g. the
+     * identifiers of variable declarations and choices), where the same identifiers occur over
+     * and over again. Do NOT use this for identifiers coming from request data or stored state
+     * (e.g. candidate responses), as canonical instances are never discarded.
+     *
+     * @throws QtiParseException if value is not a valid identifier
+     */
+    public static Identifier parseInterned(final String value) {
+        Assert.notNull(value);
+        final Identifier existing = internTable.get(value);
+        if (existing!=null) {
+            return existing;
+        }
+        verifyIdentifier(value);
+        return internTable.intern(value, new Identifier(value));
+    }
+
     /**
      * Creates an {@link Identifier} from the given String, without checking its syntax.
      * This should ONLY be used for identifiers that are known to be valid, such as the ones
@@ -93,6 +129,9 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
 
     @Override
     public boolean equals(final Object obj) {
+        if (obj==this) {
+            return true;
+        }
         if (!(obj instanceof Identifier)) {
             return false;
         }
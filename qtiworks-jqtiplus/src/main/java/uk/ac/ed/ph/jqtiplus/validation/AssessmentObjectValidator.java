@@ -42,6 +42,7 @@ import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
 import uk.ac.ed.ph.jqtiplus.notification.Notification;
 import uk.ac.ed.ph.jqtiplus.notification.NotificationLevel;
 import uk.ac.ed.ph.jqtiplus.notification.NotificationType;
+import uk.ac.ed.ph.jqtiplus.provision.SharedRootNodeCache;
 import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
@@ -59,6 +60,9 @@ import org.slf4j.LoggerFactory;
  * <p>
  * You won't normally want to use this on its own. See {@link AssessmentObjectXmlLoader} for a more
  * end-to-end solution.
+ * <p>
+ * If a {@link SharedRootNodeCache} is provided, item validation results are reused for any
+ * items shared via that cache.
  *
  * @see AssessmentObjectXmlLoader
  *
@@ -69,13 +73,34 @@ public final class AssessmentObjectValidator {
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectValidator.class);
 
     private final JqtiExtensionManager jqtiExtensionManager;
+    private final SharedRootNodeCache sharedRootNodeCache;
 
     public AssessmentObjectValidator(final JqtiExtensionManager jqtiExtensionManager) {
+        this(jqtiExtensionManager, null);
+    }
+
+    public AssessmentObjectValidator(final JqtiExtensionManager jqtiExtensionManager, final SharedRootNodeCache sharedRootNodeCache) {
         this.jqtiExtensionManager = jqtiExtensionManager;
+        this.sharedRootNodeCache = sharedRootNodeCache;
     }
 
     public ItemValidationResult validateItem(final ResolvedAssessmentItem resolvedAssessmentItem) {
         Assert.notNull(resolvedAssessmentItem);
+        if (sharedRootNodeCache!=null) {
+            ItemValidationResult result = sharedRootNodeCache.getItemValidationResult(resolvedAssessmentItem);
+            if (result!=null) {
+                logger.debug("Reusing shared validation result for {}", resolvedAssessmentItem);
+            }
+            else {
+                result = doValidateItem(resolvedAssessmentItem);
+                sharedRootNodeCache.putItemValidationResult(result);
+            }
+            return result;
+        }
+        return doValidateItem(resolvedAssessmentItem);
+    }
+
+    private ItemValidationResult doValidateItem(final ResolvedAssessmentItem resolvedAssessmentItem) {
         logger.debug("Validating {}", resolvedAssessmentItem);
         final ItemValidationResult result = new ItemValidationResult(resolvedAssessmentItem);
         final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
@@ -164,6 +189,7 @@ public final class AssessmentObjectValidator {
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(jqtiExtensionManager=" + jqtiExtensionManager
+                + ",sharedRootNodeCache=" + sharedRootNodeCache
                 + ")";
     }
 }
@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.jqtiplus.value;
 
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternTable;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 
 /**
@@ -45,8 +47,31 @@ public final class IdentifierValue extends SingleValue {
 
     private static final long serialVersionUID = -7679966688625082326L;
 
+    /** Maximum number of canonical {@link IdentifierValue} instances to keep */
+    private static final int MAX_INTERNED_VALUES = 20000;
+
+    /** Canonical instances, keyed on (canonical) {@link Identifier} */
+    private static final InternTable<Identifier, IdentifierValue> internTable = new InternTable<Identifier, IdentifierValue>(MAX_INTERNED_VALUES);
+
     private final Identifier identifierValue;
 
+    /**
+     * Returns an {@link IdentifierValue} for the given {@link Identifier}, sharing a canonical
+     * instance where possible. This may be used for values built from QTI XML, but must not be
+     * used for values coming from request data or stored state, as canonical instances are
+     * never discarded.
+     *
+     * @see Identifier#parseInterned(String)
+     */
+    public static IdentifierValue valueOf(final Identifier value) {
+        Assert.notNull(value);
+        final IdentifierValue existing = internTable.get(value);
+        if (existing!=null) {
+            return existing;
+        }
+        return internTable.intern(value, new IdentifierValue(value));
+    }
+
     public IdentifierValue(final Identifier value) {
         this.identifierValue = value;
     }
@@ -66,6 +91,9 @@ public final class IdentifierValue extends SingleValue {
 
     @Override
     public boolean equals(final Object object) {
+        if (object==this) {
+            return true;
+        }
         if (!(object instanceof IdentifierValue)) {
             return false;
         }
@@ -38,8 +38,9 @@ import javax.xml.validation.Schema;
 /**
  * Interface for a simple schema cache.
  * <p>
- * All use of this cache within this application is done in a thread-safe manner, so
- * implementations need not be thread-safe.
+ * The cache is read without any external locking (so that concurrent reads of already-cached
+ * schemas do not contend), so implementations must be thread-safe. The {@link XmlResourceReader}
+ * makes sure that each schema is only compiled and put into the cache once.
  *
  * @author David McKain
  */
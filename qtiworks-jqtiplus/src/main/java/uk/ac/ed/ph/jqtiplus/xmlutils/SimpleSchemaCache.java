@@ -33,13 +33,12 @@
  */
 package uk.ac.ed.ph.jqtiplus.xmlutils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.validation.Schema;
 
 /**
- * Trivial implementation of {@link SchemaCache} that simply uses a {@link HashMap}.
+ * Trivial implementation of {@link SchemaCache} that simply uses a {@link ConcurrentHashMap}.
  * <p>
  * (This is probably a good fit for QTI systems, as they'll support a small and known set of
  * schemas.)
@@ -48,10 +47,10 @@ import javax.xml.validation.Schema;
  */
 public class SimpleSchemaCache implements SchemaCache {
     
-    private final Map<String, Schema> cacheData;
+    private final ConcurrentHashMap<String, Schema> cacheData;
     
     public SimpleSchemaCache() {
-        this.cacheData = new HashMap<String, Schema>();
+        this.cacheData = new ConcurrentHashMap<String, Schema>();
     }
     
     @Override
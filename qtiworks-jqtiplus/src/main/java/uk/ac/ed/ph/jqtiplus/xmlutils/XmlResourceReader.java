@@ -46,6 +46,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -56,19 +57,23 @@ import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.Attributes2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Helper class that makes it easy to parse XML into a DOM and optionally schema validate
@@ -87,7 +92,10 @@ import org.xml.sax.XMLReader;
  *
  * The XML parsing process performs a SAX parse followed by a DOM tree build,
  * filling the resulting tree with SAX {@link Locator} information, which makes
- * later error reporting richer.
+ * later error reporting richer. Schema validation (when requested) is performed during
+ * the same SAX parse using a {@link ValidatorHandler}, so the input is only read once.
+ * Callers that don't need a DOM can instead have the SAX events passed to their own
+ * {@link ContentHandler}.
  *
  * @see XmlReadResult
  * @author David McKain
@@ -99,6 +107,12 @@ public final class XmlResourceReader {
     /** Name of the DOM "user object" where SAX {@link Locator} information will be stowed while parsing */
     public static final String LOCATION_INFORMATION_NAME = "locationInformation";
 
+    /** Xerces feature controlling whether schema element default values are exposed */
+    private static final String XERCES_SCHEMA_ELEMENT_DEFAULT_FEATURE = "http://apache.org/xml/features/validation/schema/element-default";
+
+    /** Xerces feature controlling whether schema normalized values are exposed */
+    private static final String XERCES_SCHEMA_NORMALIZED_VALUE_FEATURE = "http://apache.org/xml/features/validation/schema/normalized-value";
+
     //--------------------------------------------------
 
     /**
@@ -131,6 +145,12 @@ public final class XmlResourceReader {
      */
     private final LoadSaveResourceResolver schemaResourceResolver;
 
+    /**
+     * Locks used to make sure each required schema is only compiled once, keyed on
+     * {@link SchemaCache} key.
+     */
+    private final ConcurrentHashMap<String, Object> schemaCompilationLockMap;
+
 
     public XmlResourceReader(final ResourceLocator schemaResourceLocator) {
         this(schemaResourceLocator, null, null);
@@ -145,6 +165,7 @@ public final class XmlResourceReader {
 
         /* Set up special resource resolver based on schemaResourceLocator */
         this.schemaResourceResolver = new LoadSaveResourceResolver(schemaResourceLocator);
+        this.schemaCompilationLockMap = new ConcurrentHashMap<String, Object>();
     }
 
     public ResourceLocator getParserResourceLocator() {
@@ -162,9 +183,9 @@ public final class XmlResourceReader {
     //--------------------------------------------------
 
     /**
-     * FIXME: This currently calls the {@link ResourceLocator} to read the input *twice*. We may
-     * want to save the initial input to a temp file if the stream is not something that can be
-     * quickly re-read (e.g. HTTP!)
+     * Reads the XML resource with the given system ID into a DOM, optionally schema validating
+     * it at the same time. The input is only read once, with schema validation performed in
+     * the same SAX pass that builds the DOM.
      *
      * @param systemId system ID of the XML resource to read
      * @param inputResourceLocator resource locator that will find the XML to be read
@@ -186,7 +207,7 @@ public final class XmlResourceReader {
 
         try {
             logger.debug("read({}, {}, {}, {}) starting", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating });
-            final XmlReadResult result = doRead(systemId, inputResourceLocator, entityResourceLocator, schemaValidating);
+            final XmlReadResult result = doReadDocument(systemId, inputResourceLocator, entityResourceLocator, schemaValidating);
             logger.debug("read({}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, result });
             return result;
         }
@@ -203,15 +224,61 @@ public final class XmlResourceReader {
         }
     }
 
-    private XmlReadResult doRead(final URI systemId, final ResourceLocator inputResourceLocator,
+    /**
+     * Reads the XML resource with the given system ID, passing the resulting SAX events to the
+     * given {@link ContentHandler} instead of building a DOM, and optionally schema validating
+     * it at the same time. This is useful for callers that want to build their own representation
+     * of the XML directly.
+     * <p>
+     * The {@link ContentHandler} only receives the events for the document element and its
+     * content. (If schema validation is being performed, any attributes added from schema
+     * defaults will be removed.) If the resulting {@link XmlParseResult} says that parsing
+     * failed, then anything built by the {@link ContentHandler} should be discarded.
+     *
+     * @param systemId system ID of the XML resource to read
+     * @param inputResourceLocator resource locator that will find the XML to be read
+     * @param entityResourceLocator resource locator that will load in any entities/DTD stuff
+     *   encountered
+     * @param schemaValidating whether to perform schema validation or not.
+     * @param contentHandler {@link ContentHandler} to receive the SAX events
+     *
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     */
+    public XmlParseResult read(final URI systemId, final ResourceLocator inputResourceLocator,
+            final ResourceLocator entityResourceLocator, final boolean schemaValidating,
+            final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(inputResourceLocator, "inputResourceLocator");
+        Assert.notNull(entityResourceLocator, "entityResourceLocator");
+        Assert.notNull(contentHandler, "contentHandler");
+
+        try {
+            logger.debug("read({}, {}, {}, {}, {}) starting", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler });
+            final XmlParseResult result = doRead(systemId, inputResourceLocator, entityResourceLocator, schemaValidating,
+                    new InputErrorHandler(), contentHandler);
+            logger.debug("read({}, {}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler, result });
+            return result;
+        }
+        catch (final XmlResourceNotFoundException e) {
+            logger.debug("read({}, {}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler, e });
+            throw e;
+        }
+        catch (final Exception e) {
+            logger.debug("read({}, {}, {}, {}, {}) => UNEXPECTED EXCEPTION {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler, e });
+            if (e instanceof XmlResourceReaderException) {
+                throw (XmlResourceReaderException) e;
+            }
+            throw new XmlResourceReaderException("Unexpected Exception parsing or validating XML at system ID " + systemId, e);
+        }
+    }
+
+    private XmlReadResult doReadDocument(final URI systemId, final ResourceLocator inputResourceLocator,
             final ResourceLocator entityResourceLocator, final boolean schemaValidating)
             throws XmlResourceNotFoundException, ParserConfigurationException, SAXException, IOException {
-        final String systemIdString = systemId.toString();
-        boolean parsed = false;
-        boolean validated = false;
-        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
-        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
-
         final InputErrorHandler inputErrorHandler = new InputErrorHandler();
 
         /* Create the DOM Document that will be built up here */
@@ -221,6 +288,23 @@ public final class XmlResourceReader {
         documentBuilder.setErrorHandler(inputErrorHandler);
         final Document document = documentBuilder.newDocument();
 
+        /* Parse input and convert to a DOM containing SAX Locator information */
+        final SimpleDomBuilderHandler domBuilderHandler = new SimpleDomBuilderHandler(document);
+        final XmlParseResult xmlParseResult = doRead(systemId, inputResourceLocator, entityResourceLocator,
+                schemaValidating, inputErrorHandler, domBuilderHandler);
+        return new XmlReadResult(xmlParseResult.isParsed() ? document : null, xmlParseResult);
+    }
+
+    private XmlParseResult doRead(final URI systemId, final ResourceLocator inputResourceLocator,
+            final ResourceLocator entityResourceLocator, final boolean schemaValidating,
+            final InputErrorHandler inputErrorHandler, final ContentHandler targetHandler)
+            throws XmlResourceNotFoundException, ParserConfigurationException, SAXException, IOException {
+        final String systemIdString = systemId.toString();
+        boolean parsed = false;
+        boolean validated = false;
+        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
+        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
+
         /* Set up SAX EntityResolver, which will record locator failures appropriately */
         final FailureEntityResolver failureEntityResolver = new FailureEntityResolver(entityResourceLocator);
 
@@ -237,104 +321,82 @@ public final class XmlResourceReader {
         xmlReader.setErrorHandler(inputErrorHandler);
         xmlReader.setEntityResolver(failureEntityResolver);
 
-        /* Parse input and convert to a DOM containing SAX Locator information */
+        /* Parse input, passing SAX events (with Locator information) to the target handler and
+         * schema validating in the same pass if requested. (The schema(s) to use are decided when
+         * the document element is encountered.)
+         */
         logger.trace("XML parse of {} starting", systemIdString);
         final InputSource inputSource = new InputSource();
         inputSource.setByteStream(ensureLocateInput(systemId, inputResourceLocator));
         inputSource.setSystemId(systemIdString);
 
-        final SimpleDomBuilderHandler handler = new SimpleDomBuilderHandler(document);
-        xmlReader.setContentHandler(handler);
+        final InputErrorHandler validationErrorHandler = new InputErrorHandler();
+        final SchemaSelectingHandler schemaSelectingHandler = new SchemaSelectingHandler(systemIdString,
+                schemaValidating, targetHandler, validationErrorHandler,
+                supportedSchemaNamespaces, unsupportedSchemaNamespaces);
+        xmlReader.setContentHandler(schemaSelectingHandler);
+        boolean parseAborted = false;
         try {
             xmlReader.parse(inputSource); /* Fatal errors will cause SAXParseException */
         }
         catch (final SAXParseException e) {
-            /* Fatal parsing error */
+            /* Fatal parsing or validation error. The input will only have been partly read, so
+             * make sure this gets recorded even if it didn't come via one of our ErrorHandlers */
+            parseAborted = true;
+            if (!inputErrorHandler.fatalErrors.contains(e) && !validationErrorHandler.fatalErrors.contains(e)) {
+                inputErrorHandler.fatalErrors.add(e);
+            }
         }
 
-        /* We'll consider successful parsing to be no errors or fatal errors, and no unresolved
-         * entities */
+        /* We'll consider successful parsing to be reading the whole input with no errors or
+         * fatal errors, and no unresolved entities */
         final List<String> unresolvedEntitySystemIds = failureEntityResolver.getUnresolvedEntitySystemIds();
-        parsed = inputErrorHandler.fatalErrors.isEmpty() && inputErrorHandler.errors.isEmpty()
+        parsed = !parseAborted && inputErrorHandler.fatalErrors.isEmpty() && inputErrorHandler.errors.isEmpty()
                 && unresolvedEntitySystemIds.isEmpty();
         logger.debug("XML parse of {} success? {}", systemIdString, parsed);
 
-        if (parsed && schemaValidating) {
-            /* Work out which schema(s) to use */
-            logger.trace("Deciding which schemas to use to validate {}", systemIdString);
-            final Element rootElement = document.getDocumentElement();
-            final String schemaLocation = rootElement.getAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
-            final List<String> schemaUris = new ArrayList<String>();
-            if (schemaLocation.length() != 0) {
-                /* Document declares schema(s) to use. Make sure we support each one */
-                final String[] schemaData = schemaLocation.trim().split("\\s+");
-                for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
-                    final String schemaNamespaceUri = schemaData[i];
-                    final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
-                    if (schemaUri != null) {
-                        supportedSchemaNamespaces.add(schemaNamespaceUri);
-                        schemaUris.add(schemaUri);
-                    }
-                    else {
-                        logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
-                        unsupportedSchemaNamespaces.add(schemaNamespaceUri);
-                    }
-                }
-            }
-            else {
-                /* No schema declared in the document, so use namespace of root element */
-                final String schemaNamespaceUri = rootElement.getNamespaceURI();
-                final String schemaUri = getRegisteredSchemaLocation(rootElement.getNamespaceURI());
-                if (schemaUri != null) {
-                    supportedSchemaNamespaces.add(schemaNamespaceUri);
-                    schemaUris.add(schemaUri);
-                }
-                else {
-                    logger.trace("Schema with namespace " + schemaNamespaceUri + " inferred from that of document element is not registered with this reader");
-                    unsupportedSchemaNamespaces.add(schemaNamespaceUri);
-                }
-            }
-
-            /* Validate (if at least supported schemas was used and no unsupported schemas) */
-            if (!schemaUris.isEmpty() && unsupportedSchemaNamespaces.isEmpty()) {
-                logger.trace("Will validate {} against schemas {}", systemIdString, schemaUris);
-                final Schema schema = getSchema(schemaUris);
-
-                /* Now validate. Note that we read in the input again, as this will let the parser provide source
-                 * information to the schema validator. (I couldn't work out a way of passing source information
-                 * when validating from a DOM.)
-                 */
-                logger.trace("Schema validaton of {} starting", systemIdString);
-                final StreamSource input = new StreamSource(ensureLocateInput(systemId, inputResourceLocator), systemIdString);
-                final Validator validator = schema.newValidator();
-                validator.setResourceResolver(schemaResourceResolver);
-                validator.setErrorHandler(inputErrorHandler);
-                validator.validate(input);
-                validated = true;
-                logger.debug("Schema validation of {} finished", systemIdString);
-            }
-            else {
-                logger.debug("No schema validation was performed as {} supported and {} unsupported schemas were detected",
-                        schemaUris.size(), unsupportedSchemaNamespaces.size());
-            }
+        /* Validation only counts if the document was successfully parsed. (Otherwise any
+         * validation warnings and errors are likely to be spurious, so we discard them.)
+         */
+        if (parsed && schemaSelectingHandler.isValidating()) {
+            inputErrorHandler.warnings.addAll(validationErrorHandler.warnings);
+            inputErrorHandler.errors.addAll(validationErrorHandler.errors);
+            inputErrorHandler.fatalErrors.addAll(validationErrorHandler.fatalErrors);
+            validated = true;
+            logger.debug("Schema validation of {} finished", systemIdString);
+        }
+        else if (!parsed) {
+            /* (Keep any fatal validation errors though, as these will have stopped the parse) */
+            inputErrorHandler.fatalErrors.addAll(validationErrorHandler.fatalErrors);
+            supportedSchemaNamespaces.clear();
+            unsupportedSchemaNamespaces.clear();
         }
 
         /* Build up result */
-        final XmlParseResult xmlParseResult = new XmlParseResult(systemId, parsed, validated,
+        return new XmlParseResult(systemId, parsed, validated,
                 inputErrorHandler.warnings, inputErrorHandler.errors, inputErrorHandler.fatalErrors,
                 unresolvedEntitySystemIds, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
-        return new XmlReadResult(parsed ? document : null, xmlParseResult);
     }
 
     /**
      * Obtains the schema compiled from the given list of URIs, using a cached version if
      * possible.
+     * <p>
+     * The {@link SchemaCache} is consulted without locking, so concurrent reads of
+     * already-compiled schemas do not contend with each other. On a cache miss, the schema
+     * is compiled while holding a lock specific to the required URIs so that the same schema
+     * is only compiled once.
      */
     private Schema getSchema(final List<String> schemaUris) {
         Schema result = null;
         final String key = schemaUris.toString();
         if (schemaCache!=null) {
-            synchronized (schemaCache) {
+            result = schemaCache.getSchema(key);
+            if (result!=null) {
+                logger.debug("Schema cache hit for URIs {} yielded {}", key, result);
+                return result;
+            }
+            synchronized (getSchemaCompilationLock(key)) {
                 result = schemaCache.getSchema(key);
                 if (result!=null) {
                     logger.debug("Schema cache hit for URIs {} yielded {}", key, result);
@@ -353,6 +415,12 @@ public final class XmlResourceReader {
         return result;
     }
 
+    private Object getSchemaCompilationLock(final String key) {
+        final Object newLock = new Object();
+        final Object existingLock = schemaCompilationLockMap.putIfAbsent(key, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
     /**
      * Compiles a schema from the given list of URIs.
      */
@@ -380,6 +448,240 @@ public final class XmlResourceReader {
         }
     }
 
+    /**
+     * SAX {@link ContentHandler} that sits in front of the target handler (e.g. the
+     * {@link SimpleDomBuilderHandler}).
+     * When the document element is encountered, this decides which schema(s) the document
+     * should be validated against. If validation is possible, all events are subsequently
+     * passed through a {@link ValidatorHandler} before being passed to the target handler;
+     * otherwise they are passed straight to the target handler.
+     * <p>
+     * Events occurring before the document element are held back until this decision has
+     * been made.
+     */
+    final class SchemaSelectingHandler implements ContentHandler {
+
+        private final String systemIdString;
+        private final boolean schemaValidating;
+        private final ContentHandler targetHandler;
+        private final ErrorHandler validationErrorHandler;
+        private final List<String> supportedSchemaNamespaces;
+        private final List<String> unsupportedSchemaNamespaces;
+
+        /** Prefix mappings declared before the document element, as (prefix, uri) pairs */
+        private final List<String[]> pendingPrefixMappings;
+
+        private Locator locator;
+        private ContentHandler target;
+        private boolean validating;
+
+        SchemaSelectingHandler(final String systemIdString, final boolean schemaValidating,
+                final ContentHandler targetHandler, final ErrorHandler validationErrorHandler,
+                final List<String> supportedSchemaNamespaces, final List<String> unsupportedSchemaNamespaces) {
+            this.systemIdString = systemIdString;
+            this.schemaValidating = schemaValidating;
+            this.targetHandler = targetHandler;
+            this.validationErrorHandler = validationErrorHandler;
+            this.supportedSchemaNamespaces = supportedSchemaNamespaces;
+            this.unsupportedSchemaNamespaces = unsupportedSchemaNamespaces;
+            this.pendingPrefixMappings = new ArrayList<String[]>();
+        }
+
+        /**
+         * Returns whether schema validation was performed.
+         */
+        public boolean isValidating() {
+            return validating;
+        }
+
+        @Override
+        public void setDocumentLocator(final Locator newLocator) {
+            this.locator = newLocator;
+        }
+
+        @Override
+        public void startDocument() {
+            /* (Held back until document element) */
+        }
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+            if (target==null) {
+                pendingPrefixMappings.add(new String[] { prefix, uri });
+            }
+            else {
+                target.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+            if (target==null) {
+                selectTarget(uri, atts);
+                if (locator!=null) {
+                    target.setDocumentLocator(locator);
+                }
+                target.startDocument();
+                for (final String[] prefixMapping : pendingPrefixMappings) {
+                    target.startPrefixMapping(prefixMapping[0], prefixMapping[1]);
+                }
+                pendingPrefixMappings.clear();
+            }
+            target.startElement(uri, localName, qName, atts);
+        }
+
+        private void selectTarget(final String rootElementNamespaceUri, final Attributes rootAttributes) {
+            target = targetHandler;
+            if (!schemaValidating) {
+                return;
+            }
+
+            /* Work out which schema(s) to use */
+            logger.trace("Deciding which schemas to use to validate {}", systemIdString);
+            final String schemaLocation = rootAttributes.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+            final List<String> schemaUris = new ArrayList<String>();
+            if (schemaLocation!=null && schemaLocation.length() != 0) {
+                /* Document declares schema(s) to use. Make sure we support each one */
+                final String[] schemaData = schemaLocation.trim().split("\\s+");
+                for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
+                    final String schemaNamespaceUri = schemaData[i];
+                    final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
+                    if (schemaUri != null) {
+                        supportedSchemaNamespaces.add(schemaNamespaceUri);
+                        schemaUris.add(schemaUri);
+                    }
+                    else {
+                        logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
+                        unsupportedSchemaNamespaces.add(schemaNamespaceUri);
+                    }
+                }
+            }
+            else {
+                /* No schema declared in the document, so use namespace of root element */
+                final String schemaNamespaceUri = rootElementNamespaceUri;
+                final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
+                if (schemaUri != null) {
+                    supportedSchemaNamespaces.add(schemaNamespaceUri);
+                    schemaUris.add(schemaUri);
+                }
+                else {
+                    logger.trace("Schema with namespace " + schemaNamespaceUri + " inferred from that of document element is not registered with this reader");
+                    unsupportedSchemaNamespaces.add(schemaNamespaceUri);
+                }
+            }
+
+            /* Validate (if at least supported schemas was used and no unsupported schemas) */
+            if (!schemaUris.isEmpty() && unsupportedSchemaNamespaces.isEmpty()) {
+                logger.trace("Will validate {} against schemas {}", systemIdString, schemaUris);
+                final Schema schema = getSchema(schemaUris);
+                final ValidatorHandler validatorHandler = schema.newValidatorHandler();
+                validatorHandler.setResourceResolver(schemaResourceResolver);
+                validatorHandler.setErrorHandler(validationErrorHandler);
+                validatorHandler.setContentHandler(new SpecifiedAttributesFilter(targetHandler));
+                try {
+                    /* Ask for schema element defaults and normalized values not to be exposed, so
+                     * that we end up with the same DOM as we'd get without validation */
+                    validatorHandler.setFeature(XERCES_SCHEMA_ELEMENT_DEFAULT_FEATURE, false);
+                    validatorHandler.setFeature(XERCES_SCHEMA_NORMALIZED_VALUE_FEATURE, false);
+                }
+                catch (final SAXException e) {
+                    logger.debug("ValidatorHandler {} does not support disabling of schema normalization", validatorHandler);
+                }
+                target = validatorHandler;
+                validating = true;
+            }
+            else {
+                logger.debug("No schema validation was performed as {} supported and {} unsupported schemas were detected",
+                        schemaUris.size(), unsupportedSchemaNamespaces.size());
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) throws SAXException {
+            if (target!=null) {
+                target.endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            target.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            if (target!=null) {
+                target.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+            if (target!=null) {
+                target.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(final String piTarget, final String data) throws SAXException {
+            if (target!=null) {
+                target.processingInstruction(piTarget, data);
+            }
+        }
+
+        @Override
+        public void skippedEntity(final String name) throws SAXException {
+            if (target!=null) {
+                target.skippedEntity(name);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            if (target!=null) {
+                target.endDocument();
+            }
+        }
+    }
+
+    /**
+     * Filter passing SAX events from a {@link ValidatorHandler} to the target handler, which
+     * removes any attributes that were not specified in the original document. (I.e. ones
+     * added from schema defaults.)
+     */
+    static final class SpecifiedAttributesFilter extends XMLFilterImpl {
+
+        SpecifiedAttributesFilter(final ContentHandler contentHandler) {
+            setContentHandler(contentHandler);
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) throws SAXException {
+            Attributes resultAtts = atts;
+            if (atts instanceof Attributes2) {
+                final Attributes2 atts2 = (Attributes2) atts;
+                AttributesImpl specifiedAtts = null;
+                for (int i = 0, length = atts2.getLength(); i < length; i++) {
+                    if (!atts2.isSpecified(i)) {
+                        if (specifiedAtts==null) {
+                            specifiedAtts = new AttributesImpl();
+                            for (int j = 0; j < i; j++) {
+                                specifiedAtts.addAttribute(atts2.getURI(j), atts2.getLocalName(j), atts2.getQName(j), atts2.getType(j), atts2.getValue(j));
+                            }
+                        }
+                    }
+                    else if (specifiedAtts!=null) {
+                        specifiedAtts.addAttribute(atts2.getURI(i), atts2.getLocalName(i), atts2.getQName(i), atts2.getType(i), atts2.getValue(i));
+                    }
+                }
+                if (specifiedAtts!=null) {
+                    resultAtts = specifiedAtts;
+                }
+            }
+            super.startElement(uri, localName, qName, resultAtts);
+        }
+    }
+
     /**
      * Trivial extension of {@link EntityResourceResolver} that handles failed
      * resolutions by recording the offending systemId then simply returning an
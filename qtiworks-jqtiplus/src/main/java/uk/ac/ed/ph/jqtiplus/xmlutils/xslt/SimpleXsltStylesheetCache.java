@@ -33,13 +33,12 @@
  */
 package uk.ac.ed.ph.jqtiplus.xmlutils.xslt;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.Templates;
 
 /**
- * Trivial implementation of {@link XsltStylesheetCache} that simply uses a {@link HashMap}.
+ * Trivial implementation of {@link XsltStylesheetCache} that simply uses a {@link ConcurrentHashMap}.
  * <p>
  * (This is probably a good fit for QTI systems, as they'll support a small and known set of
  * schemas.)
@@ -48,10 +47,10 @@ import javax.xml.transform.Templates;
  */
 public class SimpleXsltStylesheetCache implements XsltStylesheetCache {
 
-    private final Map<String, Templates> cacheData;
+    private final ConcurrentHashMap<String, Templates> cacheData;
 
     public SimpleXsltStylesheetCache() {
-        this.cacheData = new HashMap<String, Templates>();
+        this.cacheData = new ConcurrentHashMap<String, Templates>();
     }
 
     @Override
@@ -38,8 +38,10 @@ import javax.xml.transform.Templates;
 /**
  * Interface for a simple XSLT stylesheet cache.
  * <p>
- * All use of this cache within this application is done in a thread-safe manner, so
- * implementations need not be thread-safe.
+ * The cache is read without any external locking (so that concurrent lookups of cached
+ * stylesheets do not contend), so implementations must be thread-safe. The
+ * {@link XsltStylesheetManager} makes sure that each stylesheet is only compiled and put into
+ * the cache once.
  *
  * @author  David McKain
  */
@@ -44,6 +44,9 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -55,11 +58,21 @@ import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamSource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Convenient facade for managing the caching and compilation
  * of XSLT stylesheets. Mainly intended for internal use, but
  * is handy enough to be useful in other places. (E.g. the MathAssess
  * extensions use it for managing its XSLT stylesheets.)
+ * <p>
+ * Cached stylesheets are looked up without any locking. When a stylesheet is not in the
+ * cache, it is compiled while holding a lock specific to that stylesheet, so each one is only
+ * compiled once and other stylesheets remain available while this happens. Stylesheets that
+ * are known to be needed can be compiled up front using {@link #precompileStylesheets(URI...)}.
+ * <p>
+ * Simple lookup and compilation statistics are recorded for reporting purposes.
  *
  * @see XsltStylesheetCache
  * @see XsltResourceResolver
@@ -71,10 +84,19 @@ import javax.xml.transform.stream.StreamSource;
  */
 public final class XsltStylesheetManager {
 
+    private static final Logger logger = LoggerFactory.getLogger(XsltStylesheetManager.class);
+
     private final XsltStylesheetCache xsltStylesheetCache;
     private final ResourceLocator xsltResourceLocator;
     private final XsltResourceResolver xsltResourceResolver;
 
+    /** Locks used to make sure each stylesheet is only compiled once, keyed on cache key */
+    private final ConcurrentHashMap<String, Object> compilationLockMap;
+
+    private final AtomicLong lookupCount;
+    private final AtomicLong compileCount;
+    private final AtomicLong totalCompileTime;
+
     /**
      * Creates a new {@link XsltStylesheetManager} using the given {@link ResourceLocator}
      * to load XSLT resources and with no {@link XsltStylesheetCache}
@@ -99,6 +121,10 @@ public final class XsltStylesheetManager {
         this.xsltResourceLocator = xsltResourceLocator;
         this.xsltStylesheetCache = xsltStylesheetCache;
         this.xsltResourceResolver = new XsltResourceResolver(xsltResourceLocator);
+        this.compilationLockMap = new ConcurrentHashMap<String, Object>();
+        this.lookupCount = new AtomicLong();
+        this.compileCount = new AtomicLong();
+        this.totalCompileTime = new AtomicLong();
     }
 
     /**
@@ -164,22 +190,51 @@ public final class XsltStylesheetManager {
      */
     public Templates getCompiledStylesheet(final URI xsltUri) {
         Assert.notNull(xsltUri, "xsltUri");
+        lookupCount.incrementAndGet();
         Templates result;
         if (xsltStylesheetCache==null) {
             result = compileStylesheet(xsltUri);
         }
         else {
-            synchronized(xsltStylesheetCache) {
-                result = xsltStylesheetCache.getStylesheet(xsltUri.toString());
-                if (result==null) {
-                    result = compileStylesheet(xsltUri);
-                    xsltStylesheetCache.putStylesheet(xsltUri.toString(), result);
+            final String cacheKey = xsltUri.toString();
+            result = xsltStylesheetCache.getStylesheet(cacheKey);
+            if (result==null) {
+                synchronized (getCompilationLock(cacheKey)) {
+                    result = xsltStylesheetCache.getStylesheet(cacheKey);
+                    if (result==null) {
+                        result = compileStylesheet(xsltUri);
+                        xsltStylesheetCache.putStylesheet(cacheKey, result);
+                    }
                 }
             }
         }
         return result;
     }
 
+    /**
+     * Compiles and caches the XSLT stylesheets at the given URIs, if they have not already
+     * been cached. This is useful for avoiding compilation delays when stylesheets are first
+     * used.
+     *
+     * @param xsltUris locations of the XSLT stylesheets, located using the
+     *   {@link #getXsltResourceLocator()}
+     */
+    public void precompileStylesheets(final URI... xsltUris) {
+        Assert.notNull(xsltUris, "xsltUris");
+        final long startTime = System.currentTimeMillis();
+        for (final URI xsltUri : xsltUris) {
+            getCompiledStylesheet(xsltUri);
+        }
+        logger.info("Precompiled {} XSLT stylesheet(s) in {}ms",
+                Integer.valueOf(xsltUris.length), Long.valueOf(System.currentTimeMillis() - startTime));
+    }
+
+    private Object getCompilationLock(final String cacheKey) {
+        final Object newLock = new Object();
+        final Object existingLock = compilationLockMap.putIfAbsent(cacheKey, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
     public TransformerHandler getCompiledStylesheetHandler(final URI xsltUri, final ResourceLocator runtimeResourceLocator) {
         Assert.notNull(xsltUri, "xsltUri");
         TransformerHandler transformerHandler;
@@ -196,33 +251,48 @@ public final class XsltStylesheetManager {
     }
 
     private Templates compileStylesheet(final URI xsltUri) {
+        final long startTime = System.nanoTime();
         final TransformerFactory transformerFactory = getTransformerFactory();
         Source resolved;
+        final Templates result;
         try {
             final InputStream resolvedStream = xsltResourceLocator.findResource(xsltUri);
             if (resolvedStream==null) {
                 throw new QtiSerializationException("Could not locate XSLT resource at system ID " + xsltUri);
             }
             resolved = new StreamSource(resolvedStream, xsltUri.toString());
-            return transformerFactory.newTemplates(resolved);
+            result = transformerFactory.newTemplates(resolved);
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Could not compile stylesheet at " + xsltUri, e);
         }
+        recordCompilation(xsltUri, startTime);
+        return result;
+    }
+
+    private void recordCompilation(final Object compiled, final long startTime) {
+        final long compileTime = System.nanoTime() - startTime;
+        compileCount.incrementAndGet();
+        totalCompileTime.addAndGet(compileTime);
+        logger.debug("Compiled XSLT {} in {}ms", compiled, Long.valueOf(TimeUnit.NANOSECONDS.toMillis(compileTime)));
     }
 
     public Templates getCompiledStylesheetDriver(final List<URI> xsltUris) {
+        lookupCount.incrementAndGet();
         Templates result;
         if (xsltStylesheetCache==null) {
             result = compileStylesheetDriver(xsltUris);
         }
         else {
             final String cacheKey = "xslt-driver(" + StringUtilities.join(xsltUris, ",") + ")";
-            synchronized(xsltStylesheetCache) {
-                result = xsltStylesheetCache.getStylesheet(cacheKey);
-                if (result==null) {
-                    result = compileStylesheetDriver(xsltUris);
-                    xsltStylesheetCache.putStylesheet(cacheKey, result);
+            result = xsltStylesheetCache.getStylesheet(cacheKey);
+            if (result==null) {
+                synchronized (getCompilationLock(cacheKey)) {
+                    result = xsltStylesheetCache.getStylesheet(cacheKey);
+                    if (result==null) {
+                        result = compileStylesheetDriver(xsltUris);
+                        xsltStylesheetCache.putStylesheet(cacheKey, result);
+                    }
                 }
             }
         }
@@ -240,12 +310,16 @@ public final class XsltStylesheetManager {
         final String xslt = xsltBuilder.toString();
 
         /* Now compile and return result */
+        final long startTime = System.nanoTime();
+        final Templates result;
         try {
-            return transformerFactory.newTemplates(new StreamSource(new StringReader(xslt)));
+            result = transformerFactory.newTemplates(new StreamSource(new StringReader(xslt)));
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Could not compile stylesheet driver " + xslt, e);
         }
+        recordCompilation(xsltUris, startTime);
+        return result;
     }
 
     //----------------------------------------------------------
@@ -370,6 +444,24 @@ public final class XsltStylesheetManager {
         return serializer;
     }
 
+    //----------------------------------------------------------
+    // Reporting
+
+    /** Returns the number of compiled stylesheets requested from this manager */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /** Returns the number of stylesheets compiled by this manager */
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /** Returns the total time spent compiling stylesheets, in milliseconds */
+    public long getTotalCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalCompileTime.get());
+    }
+
     //----------------------------------------------------------
 
     private TransformerFactory getTransformerFactory() {
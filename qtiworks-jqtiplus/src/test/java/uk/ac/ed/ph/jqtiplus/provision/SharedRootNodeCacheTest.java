@@ -0,0 +1,154 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.provision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+
+import java.net.URI;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SharedRootNodeCache}
+ *
+ * @author David McKain
+ */
+public final class SharedRootNodeCacheTest {
+
+    private QtiXmlReader qtiXmlReader;
+    private URI testUri;
+    private URI choiceUri;
+
+    @Before
+    public void before() {
+        qtiXmlReader = UnitTestHelper.createUnitTestQtiXmlReader();
+        testUri = UnitTestHelper.createTestResourceUri("running/test-nonlinear.xml");
+        choiceUri = UnitTestHelper.createTestResourceUri("running/choice.xml");
+    }
+
+    @Test
+    public void testSharing() {
+        final SharedRootNodeCache cache = new SharedRootNodeCache(10);
+        final ResolvedAssessmentTest first = loadAndResolveTest(cache.createLease());
+        final ResolvedAssessmentTest second = loadAndResolveTest(cache.createLease());
+
+        final AssessmentTest firstTest = first.getRootNodeLookup().extractAssumingSuccessful();
+        assertSame(firstTest, second.getRootNodeLookup().extractAssumingSuccessful());
+        assertSame(extractItem(first), extractItem(second));
+
+        /* (The test and item are each read in once) */
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2, cache.getReferencedEntryCount());
+        assertEquals(2L, cache.getMissCount());
+        assertEquals(2L, cache.getHitCount());
+    }
+
+    @Test
+    public void testNoSharingWithoutCache() {
+        final ResolvedAssessmentTest first = loadAndResolveTest(null);
+        final ResolvedAssessmentTest second = loadAndResolveTest(null);
+        assertNotSame(extractItem(first), extractItem(second));
+    }
+
+    @Test
+    public void testRelease() {
+        final SharedRootNodeCache cache = new SharedRootNodeCache(0);
+        final SharedRootNodeCache.Lease firstLease = cache.createLease();
+        final SharedRootNodeCache.Lease secondLease = cache.createLease();
+        loadAndResolveTest(firstLease);
+        loadAndResolveTest(secondLease);
+
+        firstLease.release();
+        firstLease.release(); /* (Should have no effect) */
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2, cache.getReferencedEntryCount());
+
+        secondLease.release();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(2L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testUnreferencedEntriesRetained() {
+        final SharedRootNodeCache cache = new SharedRootNodeCache(10);
+        final SharedRootNodeCache.Lease firstLease = cache.createLease();
+        final AssessmentItem firstItem = extractItem(loadAndResolveTest(firstLease));
+        firstLease.release();
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(0, cache.getReferencedEntryCount());
+
+        final SharedRootNodeCache.Lease secondLease = cache.createLease();
+        assertSame(firstItem, extractItem(loadAndResolveTest(secondLease)));
+        assertEquals(2, cache.getReferencedEntryCount());
+        secondLease.release();
+    }
+
+    @Test
+    public void testItemValidationResultSharing() {
+        final SharedRootNodeCache cache = new SharedRootNodeCache(10);
+        final SharedRootNodeCache.Lease firstLease = cache.createLease();
+        final SharedRootNodeCache.Lease secondLease = cache.createLease();
+        final ItemValidationResult first = new AssessmentObjectXmlLoader(qtiXmlReader,
+                UnitTestHelper.createTestFileResourceLocator(), firstLease).loadResolveAndValidateItem(choiceUri);
+        final ItemValidationResult second = new AssessmentObjectXmlLoader(qtiXmlReader,
+                UnitTestHelper.createTestFileResourceLocator(), secondLease).loadResolveAndValidateItem(choiceUri);
+        assertNotNull(first);
+        assertSame(first, second);
+    }
+
+    private ResolvedAssessmentTest loadAndResolveTest(final SharedRootNodeCache.Lease lease) {
+        final AssessmentObjectXmlLoader loader = new AssessmentObjectXmlLoader(qtiXmlReader,
+                UnitTestHelper.createTestFileResourceLocator(), lease);
+        return loader.loadAndResolveAssessmentTest(testUri);
+    }
+
+    private AssessmentItem extractItem(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        final ResolvedAssessmentItem resolvedAssessmentItem = resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().get(choiceUri);
+        assertNotNull(resolvedAssessmentItem);
+        return resolvedAssessmentItem.getRootNodeLookup().extractAssumingSuccessful();
+    }
+}
@@ -35,15 +35,18 @@ package uk.ac.ed.ph.jqtiplus.reading;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException.InterpretationFailureReason;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 
 import java.net.URI;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -104,4 +107,47 @@ public final class QtiObjectReaderTest {
     public void testLookupChoiceItemWrongRoot() throws Exception {
         qtiObjectReader.lookupRootNode(choiceUri, AssessmentTest.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLookupIllFormed() throws Exception {
+        final QtiXmlInterpretationException e = expectInterpretationFailure("reading/illformed.xml");
+        assertEquals(InterpretationFailureReason.XML_PARSE_FAILED, e.getInterpretationFailureReason());
+    }
+
+    @Test
+    public void testLookupUnsupportedRoot() throws Exception {
+        final QtiXmlInterpretationException e = expectInterpretationFailure("reading/invalid.xml");
+        assertEquals(InterpretationFailureReason.UNSUPPORTED_ROOT_NODE, e.getInterpretationFailureReason());
+    }
+
+    @Test
+    public void testLookupModelBuildFailure() throws Exception {
+        final QtiXmlInterpretationException e = expectInterpretationFailure("reading/modelBuildFailure.xml");
+        assertEquals(InterpretationFailureReason.JQTI_MODEL_BUILD_FAILED, e.getInterpretationFailureReason());
+
+        final List<QtiModelBuildingError> errors = e.getQtiModelBuildingErrors();
+        assertEquals(3, errors.size());
+        assertModelBuildingError(errors.get(0), "assessmentItem", 2);
+        assertModelBuildingError(errors.get(1), "value", 5);
+        assertModelBuildingError(errors.get(2), "bad", 10);
+    }
+
+    private QtiXmlInterpretationException expectInterpretationFailure(final String testFilePath) throws Exception {
+        try {
+            qtiObjectReader.lookupRootNode(UnitTestHelper.createTestResourceUri(testFilePath));
+            fail("Expected QtiXmlInterpretationException");
+            return null;
+        }
+        catch (final QtiXmlInterpretationException e) {
+            return e;
+        }
+    }
+
+    private static void assertModelBuildingError(final QtiModelBuildingError error, final String expectedLocalName,
+            final int expectedLineNumber) {
+        assertEquals(expectedLocalName, error.getElementLocalName());
+        assertEquals(QtiConstants.QTI_21_NAMESPACE_URI, error.getElementNamespace());
+        assertNotNull(error.getElementLocation());
+        assertEquals(expectedLineNumber, error.getElementLocation().getLineNumber());
+    }
+}
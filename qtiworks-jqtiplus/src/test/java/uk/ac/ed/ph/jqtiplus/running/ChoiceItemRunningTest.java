@@ -43,6 +43,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumper;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
@@ -52,7 +53,10 @@ import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
 import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -114,7 +118,7 @@ public final class ChoiceItemRunningTest {
     }
 
     @After
-    public void after() {
+    public void after() throws IOException {
         /* This is strictly outside what we're testing here, but let's just check that the
          * state -> XML -> state process is idempotent in this instance
          */
@@ -125,6 +129,17 @@ public final class ChoiceItemRunningTest {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(itemSessionState, refried);
         }
+
+        /* Same for the binary encoding */
+        final BinarySessionStateCodec binaryCodec = new BinarySessionStateCodec();
+        final ByteArrayOutputStream binaryStream = new ByteArrayOutputStream();
+        binaryCodec.encodeItemSessionState(itemSessionState, binaryStream);
+        final ItemSessionState binaryRefried = binaryCodec.decodeItemSessionState(new ByteArrayInputStream(binaryStream.toByteArray()));
+        if (!binaryRefried.equals(itemSessionState)) {
+            System.err.println("State before binary encoding: " + ObjectDumper.dumpObject(itemSessionState));
+            System.err.println("State after binary encoding: " + ObjectDumper.dumpObject(binaryRefried));
+            Assert.assertEquals(itemSessionState, binaryRefried);
+        }
     }
 
     @Test
@@ -34,6 +34,14 @@
 package uk.ac.ed.ph.jqtiplus.running;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -45,6 +53,8 @@ import org.junit.Test;
  */
 public final class TestNonlinearIndividualTest extends SimpleProcessingTestBase {
 
+    private final BinarySessionStateCodec binaryCodec = new BinarySessionStateCodec();
+
     @Override
     protected String getTestFilePath() {
         return "running/simple-nonlinear-individual.xml";
@@ -167,4 +177,45 @@ public final class TestNonlinearIndividualTest extends SimpleProcessingTestBase
         assertItemResponseProcessingNotRun();
         assertOutcomeProcessingNotRun();
     }
+
+    @Test
+    public void testStateDeltaHistory() throws IOException {
+        /* Record copies of the state after each operation */
+        final List<TestSessionState> history = new ArrayList<TestSessionState>();
+        history.add(copyState());
+        testSessionController.enterTest(testEntryTimestamp);
+        history.add(copyState());
+        testSessionController.enterNextAvailableTestPart(testPartEntryTimestamp);
+        history.add(copyState());
+        testSessionController.selectItemNonlinear(operationTimestamp, getTestNodeKey("i1"));
+        history.add(copyState());
+        handleChoiceResponse("ChoiceA");
+        history.add(copyState());
+        testSessionController.selectItemNonlinear(operationTimestamp, getTestNodeKey("i2"));
+        history.add(copyState());
+        handleChoiceResponse("ChoiceB");
+        history.add(copyState());
+
+        /* Rebuild each state from the initial one plus deltas */
+        TestSessionState rebuilt = history.get(0);
+        for (int i=1; i<history.size(); i++) {
+            final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+            binaryCodec.encodeTestSessionStateDelta(history.get(i-1), history.get(i), deltaStream);
+            rebuilt = binaryCodec.decodeTestSessionStateDelta(rebuilt, new ByteArrayInputStream(deltaStream.toByteArray()));
+            Assert.assertEquals(history.get(i), rebuilt);
+        }
+
+        /* Selecting item 2 should not have needed item 1's state to be rewritten */
+        final ByteArrayOutputStream fullStream = new ByteArrayOutputStream();
+        binaryCodec.encodeTestSessionState(history.get(5), fullStream);
+        final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        binaryCodec.encodeTestSessionStateDelta(history.get(4), history.get(5), deltaStream);
+        Assert.assertTrue(deltaStream.size() < fullStream.size());
+    }
+
+    private TestSessionState copyState() throws IOException {
+        final ByteArrayOutputStream stateStream = new ByteArrayOutputStream();
+        binaryCodec.encodeTestSessionState(testSessionState, stateStream);
+        return binaryCodec.decodeTestSessionState(new ByteArrayInputStream(stateStream.toByteArray()));
+    }
 }
@@ -33,11 +33,15 @@
  */
 package uk.ac.ed.ph.jqtiplus.running;
 
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -75,4 +79,24 @@ public final class TestProcessorControllerTest {
         final Value lookup = testProcessingController.evaluateVariableValue(durationIdentifier);
         Assert.assertEquals(testSessionState.computeDurationValue(), lookup);
     }
+
+    @Test
+    public void testComputeItemSubset() {
+        final Identifier sectionIdentifier = Identifier.assumedLegal("s");
+        final List<TestPlanNode> allItemRefNodes = testProcessingController.computeItemSubset(null, null, null);
+        Assert.assertEquals(2, allItemRefNodes.size());
+
+        final List<TestPlanNode> sectionItemRefNodes = testProcessingController.computeItemSubset(sectionIdentifier, null, null);
+        Assert.assertEquals(allItemRefNodes, sectionItemRefNodes);
+
+        final List<TestPlanNode> missingSectionItemRefNodes = testProcessingController.computeItemSubset(Identifier.assumedLegal("x"), null, null);
+        Assert.assertTrue(missingSectionItemRefNodes.isEmpty());
+
+        final List<TestPlanNode> includedItemRefNodes = testProcessingController.computeItemSubset(sectionIdentifier, Arrays.asList("none"), null);
+        Assert.assertTrue(includedItemRefNodes.isEmpty());
+
+        /* Repeated evaluations should give the same results */
+        Assert.assertEquals(sectionItemRefNodes, testProcessingController.computeItemSubset(sectionIdentifier, null, null));
+        Assert.assertEquals(includedItemRefNodes, testProcessingController.computeItemSubset(sectionIdentifier, Arrays.asList("none"), null));
+    }
 }
@@ -41,6 +41,7 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinarySessionStateCodec;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
@@ -48,6 +49,9 @@ import uk.ac.ed.ph.jqtiplus.types.ResponseData;
 import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
 import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -110,7 +114,7 @@ public abstract class TestTestBase {
     }
 
     @After
-    public void checkMarshalling() {
+    public void checkMarshalling() throws IOException {
         /* This is strictly outside what we're testing here, but let's just check that the
          * state -> XML -> state process is idempotent in this instance
          */
@@ -121,6 +125,17 @@ public abstract class TestTestBase {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(testSessionState, refried);
         }
+
+        /* Same for the binary encoding */
+        final BinarySessionStateCodec binaryCodec = new BinarySessionStateCodec();
+        final ByteArrayOutputStream binaryStream = new ByteArrayOutputStream();
+        binaryCodec.encodeTestSessionState(testSessionState, binaryStream);
+        final TestSessionState binaryRefried = binaryCodec.decodeTestSessionState(new ByteArrayInputStream(binaryStream.toByteArray()));
+        if (!binaryRefried.equals(testSessionState)) {
+            System.err.println("State before binary encoding: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after binary encoding: " + ObjectDumper.dumpObject(binaryRefried));
+            Assert.assertEquals(testSessionState, binaryRefried);
+        }
     }
 
     //-------------------------------------------------------
@@ -0,0 +1,154 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the slot-based storage of variable values within {@link ItemSessionState},
+ * checking that the {@link Map}-based view of this state is unaffected by it.
+ *
+ * @author David McKain
+ */
+public class ItemSessionStateSlotTest {
+
+    private static final Identifier T1 = Identifier.assumedLegal("T1");
+    private static final Identifier R1 = Identifier.assumedLegal("R1");
+    private static final Identifier SCORE = Identifier.assumedLegal("SCORE");
+    private static final Identifier MAXSCORE = Identifier.assumedLegal("MAXSCORE");
+    private static final Identifier OTHER = Identifier.assumedLegal("OTHER");
+
+    private static ItemVariableSlots createSlots() {
+        return new ItemVariableSlots(Arrays.asList(T1),
+                Arrays.asList(QtiConstants.VARIABLE_DURATION_IDENTIFIER, R1),
+                Arrays.asList(SCORE, MAXSCORE, QtiConstants.VARIABLE_COMPLETION_STATUS_IDENTIFIER));
+    }
+
+    private static ItemSessionState createState() {
+        final ItemSessionState state = new ItemSessionState();
+        state.setTemplateValue(T1, new IntegerValue(1));
+        state.setResponseValue(R1, new IntegerValue(2));
+        state.setOutcomeValue(SCORE, new FloatValue(3.0));
+        state.setOutcomeValue(OTHER, new FloatValue(4.0));
+        state.setOverriddenOutcomeDefaultValue(MAXSCORE, new FloatValue(5.0));
+        return state;
+    }
+
+    @Test
+    public void testSlotAssignment() {
+        final ItemVariableSlots slots = createSlots();
+        assertEquals(1, slots.getTemplateSlotIndex().size());
+        assertEquals(1, slots.getResponseSlotIndex().size());
+        assertEquals(2, slots.getOutcomeSlotIndex().size());
+        assertEquals(0, slots.getOutcomeSlotIndex().getSlot(SCORE));
+        assertEquals(1, slots.getOutcomeSlotIndex().getSlot(MAXSCORE));
+        assertEquals(MAXSCORE, slots.getOutcomeSlotIndex().getIdentifier(1));
+        assertEquals(-1, slots.getResponseSlotIndex().getSlot(QtiConstants.VARIABLE_DURATION_IDENTIFIER));
+        assertEquals(-1, slots.getOutcomeSlotIndex().getSlot(OTHER));
+    }
+
+    @Test
+    public void testBindingPreservesValues() {
+        final ItemSessionState unbound = createState();
+        final ItemSessionState bound = createState();
+        final ItemVariableSlots slots = createSlots();
+        bound.bindVariableSlots(slots);
+
+        assertSame(slots, bound.getVariableSlots());
+        assertEquals(unbound, bound);
+        assertEquals(unbound.hashCode(), bound.hashCode());
+        assertEquals(unbound.getOutcomeValues(), bound.getOutcomeValues());
+        assertEquals(new FloatValue(4.0), bound.getOutcomeValue(OTHER));
+        assertEquals(new FloatValue(5.0), bound.getOverriddenOutcomeDefaultValue(MAXSCORE));
+
+        assertEquals(new IntegerValue(1), bound.getTemplateValueAtSlot(0));
+        assertEquals(new IntegerValue(2), bound.getResponseValueAtSlot(0));
+        assertEquals(new FloatValue(3.0), bound.getOutcomeValueAtSlot(0));
+        assertNull(bound.getOutcomeValueAtSlot(1));
+    }
+
+    @Test
+    public void testMapView() {
+        final ItemSessionState state = createState();
+        state.bindVariableSlots(createSlots());
+        state.setOutcomeValue(MAXSCORE, new FloatValue(6.0));
+
+        final Map<Identifier, Value> expected = new HashMap<Identifier, Value>();
+        expected.put(SCORE, new FloatValue(3.0));
+        expected.put(MAXSCORE, new FloatValue(6.0));
+        expected.put(OTHER, new FloatValue(4.0));
+        final Map<Identifier, Value> outcomeValues = state.getOutcomeValues();
+        assertEquals(expected, outcomeValues);
+        assertEquals(expected.hashCode(), outcomeValues.hashCode());
+        assertEquals(3, outcomeValues.size());
+        assertEquals(expected.keySet(), outcomeValues.keySet());
+        assertTrue(outcomeValues.containsKey(MAXSCORE));
+        assertFalse(outcomeValues.containsKey(T1));
+        assertEquals(Collections.singletonMap(T1, new IntegerValue(1)), state.getTemplateValues());
+    }
+
+    @Test
+    public void testRebindAndReset() {
+        final ItemSessionState state = createState();
+        state.bindVariableSlots(createSlots());
+        final ItemVariableSlots otherSlots = new ItemVariableSlots(Arrays.asList(T1),
+                Arrays.asList(R1), Arrays.asList(OTHER, SCORE));
+        state.bindVariableSlots(otherSlots);
+        assertEquals(createState(), state);
+        assertEquals(new FloatValue(4.0), state.getOutcomeValueAtSlot(0));
+        assertEquals(new FloatValue(3.0), state.getOutcomeValueAtSlot(1));
+
+        state.reset();
+        assertSame(otherSlots, state.getVariableSlots());
+        assertTrue(state.getOutcomeValues().isEmpty());
+        assertNull(state.getOutcomeValueAtSlot(0));
+    }
+}
@@ -34,6 +34,8 @@
 package uk.ac.ed.ph.jqtiplus.types;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -85,4 +87,17 @@ public class IdentifierAcceptTest {
     public void testParseIdentifier() {
         assertEquals(string, Identifier.parseString(string).toString());
     }
+
+    /**
+     * Tests that {@link Identifier#parseInterned(String)} shares canonical instances,
+     * while {@link Identifier#parseString(String)} (used for request data) does not.
+     */
+    @Test
+    public void testInterning() {
+        final Identifier identifier = Identifier.parseInterned(string);
+        assertEquals(string, identifier.toString());
+        assertSame(identifier, Identifier.parseInterned(new String(string)));
+        assertNotSame(identifier, Identifier.parseString(string));
+        assertEquals(identifier, Identifier.parseString(string));
+    }
 }
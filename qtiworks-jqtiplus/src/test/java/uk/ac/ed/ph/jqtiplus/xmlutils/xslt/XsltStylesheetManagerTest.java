@@ -0,0 +1,122 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Templates;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link XsltStylesheetManager}
+ *
+ * @author David McKain
+ */
+public final class XsltStylesheetManagerTest {
+
+    private static final URI IDENTITY_XSLT_URI = URI.create("classpath:/xmlutils/identity.xsl");
+
+    private XsltStylesheetManager stylesheetManager;
+
+    @Before
+    public void before() {
+        stylesheetManager = new XsltStylesheetManager(new ClassPathResourceLocator(), new SimpleXsltStylesheetCache());
+    }
+
+    @Test
+    public void testCaching() {
+        final Templates first = stylesheetManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+        final Templates second = stylesheetManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(2L, stylesheetManager.getLookupCount());
+        assertEquals(1L, stylesheetManager.getCompileCount());
+    }
+
+    @Test
+    public void testPrecompile() {
+        stylesheetManager.precompileStylesheets(IDENTITY_XSLT_URI);
+        assertEquals(1L, stylesheetManager.getCompileCount());
+        stylesheetManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+        assertEquals(1L, stylesheetManager.getCompileCount());
+    }
+
+    @Test
+    public void testNoCache() {
+        final XsltStylesheetManager uncachedManager = new XsltStylesheetManager(new ClassPathResourceLocator());
+        uncachedManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+        uncachedManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+        assertEquals(2L, uncachedManager.getCompileCount());
+    }
+
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+        final int threadCount = 8;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Templates>> futures = new ArrayList<Future<Templates>>();
+            for (int i=0; i<threadCount; i++) {
+                futures.add(executorService.submit(new Callable<Templates>() {
+                    @Override
+                    public Templates call() {
+                        return stylesheetManager.getCompiledStylesheet(IDENTITY_XSLT_URI);
+                    }
+                }));
+            }
+            final Templates expected = futures.get(0).get();
+            for (final Future<Templates> future : futures) {
+                assertSame(expected, future.get());
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+        assertEquals(1L, stylesheetManager.getCompileCount());
+        assertEquals(threadCount, stylesheetManager.getLookupCount());
+    }
+}
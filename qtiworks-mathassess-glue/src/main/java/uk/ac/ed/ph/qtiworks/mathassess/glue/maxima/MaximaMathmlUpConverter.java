@@ -65,6 +65,15 @@ public final class MaximaMathmlUpConverter {
         this.mathMLUpConverter = new MathMLUpConverter(stylesheetCache);
     }
 
+    /**
+     * Performs a trivial up-conversion, which has the effect of compiling (and caching) all
+     * of the XSLT stylesheets used here. Call this at startup to avoid the first real
+     * up-conversion having to wait for this to happen.
+     */
+    public void precompileStylesheets() {
+        upconvertRawMaximaMathML("<math xmlns='http://www.w3.org/1998/Math/MathML'><mi>x</mi></math>");
+    }
+
     /**
      * Takes raw MathML returned from Maxima via the <tt>mathml.lisp</tt> module and attempts to
      * up-convert it into annotated MathML, returning a DOM {@link Document} Object.
@@ -38,6 +38,7 @@ import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_NAM
 import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_SCHEMA_LOCATION;
 
 import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.MaximaLaunchHelper;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.MaximaMathmlUpConverter;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.QtiMaximaProcess;
 import uk.ac.ed.ph.qtiworks.mathassess.pooling.QtiMaximaProcessPoolManager;
 
@@ -175,6 +176,7 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
         switch (eventType) {
             case MANAGER_INITIALISED:
                 startMaximaPool();
+                precompileStylesheets();
                 break;
 
             case MANAGER_DESTROYED:
@@ -221,6 +223,26 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
         }
     }
 
+    /**
+     * Compiles the XSLT stylesheets used when processing Maxima output, storing them in
+     * the configured cache so that the first candidates don't have to wait for this.
+     */
+    private void precompileStylesheets() {
+        if (qtiMaximaProcessPoolManager==null) {
+            /* (Stylesheets won't be used, so don't bother) */
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        try {
+            new MaximaMathmlUpConverter(snuggleStylesheetCache).precompileStylesheets();
+            logger.info("Precompiled MathAssess XSLT stylesheets in {}ms", Long.valueOf(System.currentTimeMillis() - startTime));
+        }
+        catch (final RuntimeException e) {
+            /* (Stylesheets will be compiled on first use instead, so let things continue) */
+            logger.warn("Failed to precompile MathAssess XSLT stylesheets", e);
+        }
+    }
+
     private void closeMaximaPool() {
         if (qtiMaximaProcessPoolManager != null) {
             logger.info("Closing {}", qtiMaximaProcessPoolManager);
@@ -0,0 +1,169 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.test.integration;
+
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.MathAssessSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+import uk.ac.ed.ph.qtiworks.test.utils.TestUtils;
+
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.compiled.ProcessingCompiler;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Integration test that checks that responseProcessing compiled by the {@link ProcessingCompiler}
+ * gives exactly the same results as the normal interpreted responseProcessing on the sample items.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class CompiledProcessingSampleTests extends AbstractIntegrationTest {
+
+    private static final long RANDOM_SEED = 1234L;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return TestUtils.makeTestParameters(
+                StandardQtiSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                MathAssessSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                UpmcSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                StompSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                LanguageSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                QtiworksRegressionSampleSet.instance().withoutFeatures(Feature.NOT_SCHEMA_VALID)
+        );
+    }
+
+    public CompiledProcessingSampleTests(final QtiSampleAssessment qtiSampleAssessment) {
+        super(qtiSampleAssessment);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final ItemValidationResult itemValidationResult = createSampleAssessmentXmlLoader().loadResolveAndValidateItem(sampleResourceUri);
+        final ItemProcessingMap interpretedProcessingMap = new ItemProcessingInitializer(itemValidationResult, false).initialize();
+        final ItemProcessingMap compiledProcessingMap = new ItemProcessingInitializer(itemValidationResult, true).initialize();
+        Assert.assertNull(interpretedProcessingMap.getCompiledResponseProcessing());
+        if (!itemValidationResult.isValid()) {
+            /* Invalid items should never be compiled */
+            Assert.assertNull(compiledProcessingMap.getCompiledResponseProcessing());
+            return;
+        }
+
+        /* Valid items having responseProcessing (whether via a template or not) must have been compiled,
+         * otherwise we'd end up just comparing interpreted processing with itself below.
+         */
+        final AssessmentItem item = itemValidationResult.getResolvedAssessmentItem().getRootNodeLookup().extractAssumingSuccessful();
+        if (item.getResponseProcessing()!=null) {
+            Assert.assertNotNull(compiledProcessingMap.getCompiledResponseProcessing());
+        }
+
+        /* Run responseProcessing without any responses, then with the correct responses */
+        runResponseProcessing(interpretedProcessingMap, compiledProcessingMap, false);
+        runResponseProcessing(interpretedProcessingMap, compiledProcessingMap, true);
+    }
+
+    private void runResponseProcessing(final ItemProcessingMap interpretedProcessingMap,
+            final ItemProcessingMap compiledProcessingMap, final boolean useCorrectResponses) {
+        final ItemSessionController interpretedController = createItemSessionController(interpretedProcessingMap);
+        final ItemSessionController compiledController = createItemSessionController(compiledProcessingMap);
+        final ItemSessionState interpretedState = interpretedController.getItemSessionState();
+        final ItemSessionState compiledState = compiledController.getItemSessionState();
+
+        /* Start both sessions in the same way */
+        final Date timestamp = new Date();
+        for (final ItemSessionController itemSessionController : new ItemSessionController[] { interpretedController, compiledController }) {
+            itemSessionController.initialize(timestamp);
+            itemSessionController.performTemplateProcessing(timestamp);
+            itemSessionController.enterItem(timestamp);
+        }
+
+        /* (Interactions are shuffled independently of the random seed, so copy these across) */
+        for (final Entry<Identifier, List<Identifier>> entry : interpretedState.getShuffledInteractionChoiceOrders().entrySet()) {
+            compiledState.setShuffledInteractionChoiceOrder(entry.getKey(), entry.getValue());
+        }
+        Assert.assertEquals(interpretedState, compiledState);
+
+        /* Maybe set the correct responses (where known) */
+        if (useCorrectResponses) {
+            for (final ResponseDeclaration responseDeclaration : interpretedProcessingMap.getValidResponseDeclarationMap().values()) {
+                if (VariableDeclaration.isReservedIdentifier(responseDeclaration.getIdentifier())) {
+                    continue;
+                }
+                final Value correctResponse = interpretedController.computeCorrectResponse(responseDeclaration);
+                if (correctResponse!=null && !correctResponse.isNull()) {
+                    interpretedState.setResponseValue(responseDeclaration, correctResponse);
+                    compiledState.setResponseValue(responseDeclaration, correctResponse);
+                }
+            }
+        }
+
+        /* Run responseProcessing and compare the resulting states */
+        interpretedController.performResponseProcessing(timestamp);
+        compiledController.performResponseProcessing(timestamp);
+        Assert.assertEquals(interpretedState, compiledState);
+    }
+
+    private ItemSessionController createItemSessionController(final ItemProcessingMap itemProcessingMap) {
+        final ItemSessionController result = new ItemSessionController(jqtiExtensionManager,
+                new ItemSessionControllerSettings(), itemProcessingMap, new ItemSessionState());
+        result.setRandomSeed(Long.valueOf(RANDOM_SEED));
+        return result;
+    }
+}
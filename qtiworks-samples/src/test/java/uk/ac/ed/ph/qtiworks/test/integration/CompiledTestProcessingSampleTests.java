@@ -0,0 +1,243 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.test.integration;
+
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.TestImplementationSampleSet;
+import uk.ac.ed.ph.qtiworks.test.utils.TestUtils;
+
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.node.test.NavigationMode;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.TestPlanner;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.compiled.ProcessingCompiler;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.validation.TestValidationResult;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Integration test that checks that outcomeProcessing compiled by the {@link ProcessingCompiler}
+ * gives exactly the same results as the normal interpreted outcomeProcessing on the sample tests.
+ * <p>
+ * This runs an interpreted and a compiled session on each test in lockstep, submitting the
+ * correct responses (where known) to each item, and checks that the resulting states agree
+ * after each step.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class CompiledTestProcessingSampleTests extends AbstractIntegrationTest {
+
+    private static final long RANDOM_SEED = 1234L;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return TestUtils.makeTestParameters(TestImplementationSampleSet.instance());
+    }
+
+    public CompiledTestProcessingSampleTests(final QtiSampleAssessment qtiSampleAssessment) {
+        super(qtiSampleAssessment);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final TestValidationResult testValidationResult = createSampleAssessmentXmlLoader().loadResolveAndValidateTest(sampleResourceUri);
+        final TestProcessingMap interpretedProcessingMap = new TestProcessingInitializer(testValidationResult, false).initialize();
+        final TestProcessingMap compiledProcessingMap = new TestProcessingInitializer(testValidationResult, true).initialize();
+        Assert.assertNull(interpretedProcessingMap.getCompiledOutcomeProcessing());
+        if (!testValidationResult.isValid()) {
+            /* Invalid tests should never be compiled */
+            Assert.assertNull(compiledProcessingMap.getCompiledOutcomeProcessing());
+            return;
+        }
+
+        /* Valid tests having outcomeProcessing must have been compiled */
+        final AssessmentTest test = testValidationResult.getResolvedAssessmentTest().getRootNodeLookup().extractAssumingSuccessful();
+        if (test.getOutcomeProcessing()!=null) {
+            Assert.assertNotNull(compiledProcessingMap.getCompiledOutcomeProcessing());
+        }
+
+        /* Run both sessions on the same TestPlan */
+        final TestPlan testPlan = new TestPlanner(interpretedProcessingMap).generateTestPlan();
+        final TestSessionController interpretedController = createTestSessionController(interpretedProcessingMap, testPlan);
+        final TestSessionController compiledController = createTestSessionController(compiledProcessingMap, testPlan);
+        final TestSessionState interpretedState = interpretedController.getTestSessionState();
+        final TestSessionState compiledState = compiledController.getTestSessionState();
+
+        /* Start both sessions in the same way */
+        final Date timestamp = new Date();
+        interpretedController.initialize(timestamp);
+        compiledController.initialize(timestamp);
+
+        /* (Interactions are shuffled independently of the random seed, so copy these across) */
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : interpretedState.getItemSessionStates().entrySet()) {
+            final ItemSessionState compiledItemSessionState = compiledState.getItemSessionStates().get(entry.getKey());
+            for (final Entry<Identifier, List<Identifier>> orderEntry : entry.getValue().getShuffledInteractionChoiceOrders().entrySet()) {
+                compiledItemSessionState.setShuffledInteractionChoiceOrder(orderEntry.getKey(), orderEntry.getValue());
+            }
+        }
+        Assert.assertEquals(interpretedState, compiledState);
+
+        interpretedController.enterTest(timestamp);
+        compiledController.enterTest(timestamp);
+        Assert.assertEquals(interpretedState, compiledState);
+
+        /* Go through each testPart in turn, responding to each item */
+        while (true) {
+            final TestPlanNode testPartNode = interpretedController.enterNextAvailableTestPart(timestamp);
+            compiledController.enterNextAvailableTestPart(timestamp);
+            Assert.assertEquals(interpretedState, compiledState);
+            if (testPartNode==null) {
+                /* Test has ended */
+                break;
+            }
+            if (interpretedController.getCurrentTestPart().getNavigationMode()==NavigationMode.LINEAR) {
+                /* (Advancing past the last item ends the testPart) */
+                while (interpretedState.getCurrentItemKey()!=null) {
+                    respondToCurrentItem(interpretedController, compiledController, interpretedProcessingMap, timestamp);
+                    if (!interpretedController.mayAdvanceItemLinear()) {
+                        return;
+                    }
+                    interpretedController.advanceItemLinear(timestamp);
+                    compiledController.advanceItemLinear(timestamp);
+                    Assert.assertEquals(interpretedState, compiledState);
+                }
+                continue;
+            }
+            else {
+                for (final TestPlanNode itemRefNode : testPartNode.searchDescendants(TestNodeType.ASSESSMENT_ITEM_REF)) {
+                    if (interpretedController.maySelectItemNonlinear(itemRefNode.getKey())) {
+                        interpretedController.selectItemNonlinear(timestamp, itemRefNode.getKey());
+                        compiledController.selectItemNonlinear(timestamp, itemRefNode.getKey());
+                        respondToCurrentItem(interpretedController, compiledController, interpretedProcessingMap, timestamp);
+                    }
+                }
+            }
+            if (!interpretedController.mayEndCurrentTestPart()) {
+                return;
+            }
+            interpretedController.endCurrentTestPart(timestamp);
+            compiledController.endCurrentTestPart(timestamp);
+            Assert.assertEquals(interpretedState, compiledState);
+        }
+        interpretedController.exitTest(timestamp);
+        compiledController.exitTest(timestamp);
+        Assert.assertEquals(interpretedState, compiledState);
+    }
+
+    private void respondToCurrentItem(final TestSessionController interpretedController,
+            final TestSessionController compiledController, final TestProcessingMap testProcessingMap,
+            final Date timestamp) {
+        final TestSessionState interpretedState = interpretedController.getTestSessionState();
+        if (!interpretedController.maySubmitResponsesToCurrentItem()) {
+            return;
+        }
+        final TestPlanNode itemRefNode = interpretedState.getTestPlan().getNode(interpretedState.getCurrentItemKey());
+        final Map<Identifier, ResponseData> responseMap = createCorrectResponseMap(testProcessingMap.resolveItemProcessingMap(itemRefNode),
+                interpretedState.getItemSessionStates().get(itemRefNode.getKey()));
+        interpretedController.handleResponsesToCurrentItem(timestamp, responseMap);
+        compiledController.handleResponsesToCurrentItem(timestamp, responseMap);
+        Assert.assertEquals(interpretedState, compiledController.getTestSessionState());
+    }
+
+    /**
+     * Creates {@link ResponseData} for the correct responses of the given item (where known
+     * and easily expressed).
+     */
+    private Map<Identifier, ResponseData> createCorrectResponseMap(final ItemProcessingMap itemProcessingMap,
+            final ItemSessionState itemSessionState) {
+        final Map<Identifier, ResponseData> result = new HashMap<Identifier, ResponseData>();
+        if (itemProcessingMap==null) {
+            return result;
+        }
+        final ItemSessionController itemSessionController = new ItemSessionController(jqtiExtensionManager,
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        for (final ResponseDeclaration responseDeclaration : itemProcessingMap.getValidResponseDeclarationMap().values()) {
+            if (VariableDeclaration.isReservedIdentifier(responseDeclaration.getIdentifier())) {
+                continue;
+            }
+            final Value correctResponse = itemSessionController.computeCorrectResponse(responseDeclaration);
+            if (correctResponse instanceof SingleValue) {
+                result.put(responseDeclaration.getIdentifier(), new StringResponseData(correctResponse.toQtiString()));
+            }
+            else if (correctResponse instanceof ListValue) {
+                final List<String> responseStrings = new ArrayList<String>();
+                for (final SingleValue value : (ListValue) correctResponse) {
+                    responseStrings.add(value.toQtiString());
+                }
+                result.put(responseDeclaration.getIdentifier(), new StringResponseData(responseStrings));
+            }
+        }
+        return result;
+    }
+
+    private TestSessionController createTestSessionController(final TestProcessingMap testProcessingMap, final TestPlan testPlan) {
+        final TestSessionController result = new TestSessionController(jqtiExtensionManager,
+                new TestSessionControllerSettings(), testProcessingMap, new TestSessionState(testPlan));
+        result.setRandomSeed(Long.valueOf(RANDOM_SEED));
+        return result;
+    }
+}